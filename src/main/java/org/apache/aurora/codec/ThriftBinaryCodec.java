@@ -15,19 +15,35 @@
  */
 package org.apache.aurora.codec;
 
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+
 import javax.annotation.Nullable;
 
 import com.google.common.base.Preconditions;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 
 import org.apache.thrift.TBase;
-import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TByteArrayOutputStream;
 import org.apache.thrift.TException;
-import org.apache.thrift.TSerializer;
 import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TProtocol;
 import org.apache.thrift.protocol.TProtocolFactory;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
 
 /**
  * Codec that works for thrift objects.
+ * <p>
+ * Each thread reuses its own protocol and transport instances, and its own encoding buffer, across
+ * calls.  Target types are instantiated through cached constructors.
  */
 public final class ThriftBinaryCodec {
 
@@ -36,10 +52,128 @@ public final class ThriftBinaryCodec {
    */
   public static final TProtocolFactory PROTOCOL_FACTORY = new TBinaryProtocol.Factory();
 
+  private static final int INITIAL_BUFFER_BYTES = 1024;
+
+  // Larger encoding buffers are released after use rather than retained by their thread.
+  private static final int MAX_RETAINED_BUFFER_BYTES = 1024 * 1024;
+
+  private static final LoadingCache<Class<?>, Constructor<?>> CONSTRUCTORS =
+      CacheBuilder.newBuilder().build(new CacheLoader<Class<?>, Constructor<?>>() {
+        @Override
+        public Constructor<?> load(Class<?> clazz) throws NoSuchMethodException {
+          Constructor<?> constructor = clazz.getConstructor();
+          // Skips the access check on each instantiation.
+          constructor.setAccessible(true);
+          return constructor;
+        }
+      });
+
+  private static final ThreadLocal<CodecState> STATE = new ThreadLocal<CodecState>() {
+    @Override
+    protected CodecState initialValue() {
+      return new CodecState();
+    }
+  };
+
   private ThriftBinaryCodec() {
     // Utility class.
   }
 
+  /**
+   * A transport that reads from or writes to a byte buffer.
+   */
+  private static final class ByteBufferTransport extends TTransport {
+    private ByteBuffer buffer;
+
+    @Override
+    public boolean isOpen() {
+      return true;
+    }
+
+    @Override
+    public void open() {
+      // No-op.
+    }
+
+    @Override
+    public void close() {
+      // No-op.
+    }
+
+    @Override
+    public int read(byte[] buf, int off, int len) throws TTransportException {
+      int count = Math.min(len, buffer.remaining());
+      if (count == 0) {
+        throw new TTransportException(TTransportException.END_OF_FILE, "Buffer exhausted.");
+      }
+      buffer.get(buf, off, count);
+      return count;
+    }
+
+    @Override
+    public void write(byte[] buf, int off, int len) throws TTransportException {
+      if (len > buffer.remaining()) {
+        throw new TTransportException("Insufficient space remaining in buffer.");
+      }
+      buffer.put(buf, off, len);
+    }
+  }
+
+  /**
+   * Protocol and transport instances reused by a thread.
+   */
+  private static final class CodecState {
+    private final TMemoryInputTransport input = new TMemoryInputTransport();
+    private final TProtocol inputProtocol = PROTOCOL_FACTORY.getProtocol(input);
+    private final ByteBufferTransport bufferTransport = new ByteBufferTransport();
+    private final TProtocol bufferProtocol = PROTOCOL_FACTORY.getProtocol(bufferTransport);
+    private TByteArrayOutputStream output;
+    private TProtocol outputProtocol;
+    private boolean inUse;
+
+    CodecState() {
+      resetOutput();
+    }
+
+    private void resetOutput() {
+      output = new TByteArrayOutputStream(INITIAL_BUFFER_BYTES);
+      outputProtocol = PROTOCOL_FACTORY.getProtocol(new TIOStreamTransport(output));
+    }
+
+    void release() {
+      input.clear();
+      bufferTransport.buffer = null;
+      if (output.get().length > MAX_RETAINED_BUFFER_BYTES) {
+        resetOutput();
+      } else {
+        output.reset();
+      }
+      inUse = false;
+    }
+  }
+
+  private static CodecState acquireState() {
+    CodecState state = STATE.get();
+    if (state.inUse) {
+      // Only expected if a thrift object encodes or decodes another while it is being coded.
+      return new CodecState();
+    }
+    state.inUse = true;
+    return state;
+  }
+
+  private static <T extends TBase<T, ?>> T newInstance(Class<T> clazz) throws CodingException {
+    try {
+      return clazz.cast(CONSTRUCTORS.get(clazz).newInstance());
+    } catch (ExecutionException e) {
+      throw new CodingException("Failed to find constructor for target type.", e.getCause());
+    } catch (IllegalAccessException e) {
+      throw new CodingException("Failed to access constructor for target type.", e);
+    } catch (InstantiationException | InvocationTargetException e) {
+      throw new CodingException("Failed to instantiate target type.", e);
+    }
+  }
+
   /**
    * Identical to {@link #decodeNonNull(Class, byte[])}, but allows for a null buffer.
    *
@@ -74,16 +208,66 @@ public final class ThriftBinaryCodec {
     Preconditions.checkNotNull(clazz);
     Preconditions.checkNotNull(buffer);
 
+    return decodeArray(clazz, buffer, 0, buffer.length);
+  }
+
+  /**
+   * Decodes the remaining contents of a byte buffer into a target type.  The position of the buffer
+   * is not changed, and the contents are not copied unless the buffer is not backed by an
+   * accessible array.
+   * <p>
+   * As with decoding a byte array, binary fields of the decoded message may share the contents of
+   * the buffer, which should not be modified afterwards.
+   *
+   * @param clazz Class to instantiate and deserialize to.
+   * @param buffer Buffer to decode.
+   * @param <T> Target type.
+   * @return A populated message.
+   * @throws CodingException If the message could not be decoded.
+   */
+  public static <T extends TBase<T, ?>> T decodeNonNull(Class<T> clazz, ByteBuffer buffer)
+      throws CodingException {
+
+    Preconditions.checkNotNull(clazz);
+    Preconditions.checkNotNull(buffer);
+
+    if (buffer.hasArray()) {
+      return decodeArray(
+          clazz,
+          buffer.array(),
+          buffer.arrayOffset() + buffer.position(),
+          buffer.remaining());
+    }
+
+    T t = newInstance(clazz);
+    CodecState state = acquireState();
     try {
-      T t = clazz.newInstance();
-      new TDeserializer(PROTOCOL_FACTORY).deserialize(t, buffer);
+      state.bufferTransport.buffer = buffer.duplicate();
+      t.read(state.bufferProtocol);
+      return t;
+    } catch (TException e) {
+      throw new CodingException("Failed to deserialize thrift object.", e);
+    } finally {
+      state.release();
+    }
+  }
+
+  private static <T extends TBase<T, ?>> T decodeArray(
+      Class<T> clazz,
+      byte[] buffer,
+      int offset,
+      int length) throws CodingException {
+
+    T t = newInstance(clazz);
+    CodecState state = acquireState();
+    try {
+      state.input.reset(buffer, offset, length);
+      t.read(state.inputProtocol);
       return t;
-    } catch (IllegalAccessException e) {
-      throw new CodingException("Failed to access constructor for target type.", e);
-    } catch (InstantiationException e) {
-      throw new CodingException("Failed to instantiate target type.", e);
     } catch (TException e) {
       throw new CodingException("Failed to deserialize thrift object.", e);
+    } finally {
+      state.release();
     }
   }
 
@@ -112,10 +296,42 @@ public final class ThriftBinaryCodec {
   public static byte[] encodeNonNull(TBase<?, ?> tBase) throws CodingException {
     Preconditions.checkNotNull(tBase);
 
+    CodecState state = acquireState();
+    try {
+      tBase.write(state.outputProtocol);
+      return Arrays.copyOf(state.output.get(), state.output.len());
+    } catch (TException e) {
+      throw new CodingException("Failed to serialize: " + tBase, e);
+    } finally {
+      state.release();
+    }
+  }
+
+  /**
+   * Encodes a thrift object into a byte buffer, starting at its position, without an intermediate
+   * copy.  The position of the buffer is advanced past the encoded object.
+   *
+   * @param tBase Object to encode.
+   * @param buffer Buffer to encode into.
+   * @return The number of bytes written.
+   * @throws CodingException If the object could not be encoded, or did not fit in the remaining
+   *     space of the buffer, in which case the position of the buffer is not changed.
+   */
+  public static int encodeNonNull(TBase<?, ?> tBase, ByteBuffer buffer) throws CodingException {
+    Preconditions.checkNotNull(tBase);
+    Preconditions.checkNotNull(buffer);
+
+    int start = buffer.position();
+    CodecState state = acquireState();
     try {
-      return new TSerializer(PROTOCOL_FACTORY).serialize(tBase);
+      state.bufferTransport.buffer = buffer;
+      tBase.write(state.bufferProtocol);
+      return buffer.position() - start;
     } catch (TException e) {
+      buffer.position(start);
       throw new CodingException("Failed to serialize: " + tBase, e);
+    } finally {
+      state.release();
     }
   }
 
@@ -25,12 +25,14 @@ import javax.inject.Inject;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
 import com.twitter.common.application.Lifecycle;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.stats.Stats;
 
 import org.apache.aurora.GuiceUtils.AllowUnchecked;
 import org.apache.aurora.codec.ThriftBinaryCodec;
+import org.apache.aurora.gen.HostAttributes;
 import org.apache.aurora.gen.comm.SchedulerMessage;
 import org.apache.aurora.scheduler.base.Conversions;
 import org.apache.aurora.scheduler.base.SchedulerException;
@@ -38,6 +40,7 @@ import org.apache.aurora.scheduler.configuration.Resources;
 import org.apache.aurora.scheduler.events.EventSink;
 import org.apache.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
 import org.apache.aurora.scheduler.events.PubsubEvent.DriverRegistered;
+import org.apache.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
 import org.apache.aurora.scheduler.state.SchedulerCore;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
@@ -152,14 +155,27 @@ class MesosSchedulerImpl implements Scheduler {
     // TODO(wfarner): Reconsider the requirements here, we might be able to save host offers
     //                asynchronously and augment the task scheduler to skip over offers when the
     //                host attributes cannot be found. (AURORA-116)
+    final List<HostAttributes> changedAttributes = Lists.newArrayList();
     storage.write(new MutateWork.NoResult.Quiet() {
       @Override
       protected void execute(MutableStoreProvider storeProvider) {
         for (final Offer offer : offers) {
-          storeProvider.getAttributeStore().saveHostAttributes(Conversions.getAttributes(offer));
+          HostAttributes attributes = Conversions.getAttributes(offer);
+          // The stored attributes may be updated in place by the save, so they are compared first.
+          Optional<HostAttributes> saved =
+              storeProvider.getAttributeStore().getHostAttributes(attributes.getHost());
+          if (!saved.isPresent()
+              || !saved.get().getAttributes().equals(attributes.getAttributes())) {
+
+            changedAttributes.add(attributes.deepCopy());
+          }
+          storeProvider.getAttributeStore().saveHostAttributes(attributes);
         }
       }
     });
+    for (HostAttributes attributes : changedAttributes) {
+      eventSink.post(new HostAttributesChanged(attributes));
+    }
 
     for (Offer offer : offers) {
       log(Level.FINE, "Received offer: %s", offer);
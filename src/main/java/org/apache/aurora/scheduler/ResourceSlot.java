@@ -92,6 +92,20 @@ public final class ResourceSlot {
     return new ResourceSlot(new Resources(totalCPU, totalRAM, disk, ports));
   }
 
+  /**
+   * Checks whether this slot has at least as much of every resource as another, using the same
+   * comparisons as the scheduling filter.
+   *
+   * @param required Resources to compare against.
+   * @return {@code true} if {@code required} could be satisfied from this slot.
+   */
+  public boolean hasAtLeast(ResourceSlot required) {
+    return getNumCpus() >= required.getNumCpus()
+        && getRam().as(Data.MB) >= required.getRam().as(Data.MB)
+        && getDisk().as(Data.MB) >= required.getDisk().as(Data.MB)
+        && getNumPorts() >= required.getNumPorts();
+  }
+
   @Override
   public boolean equals(Object o) {
     if (!(o instanceof ResourceSlot)) {
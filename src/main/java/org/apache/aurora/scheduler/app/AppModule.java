@@ -49,6 +49,7 @@ import org.apache.aurora.GuiceUtils;
 import org.apache.aurora.scheduler.SchedulerModule;
 import org.apache.aurora.scheduler.async.AsyncModule;
 import org.apache.aurora.scheduler.events.PubsubEventModule;
+import org.apache.aurora.scheduler.filter.AttributeAggregator;
 import org.apache.aurora.scheduler.filter.SchedulingFilterImpl;
 import org.apache.aurora.scheduler.http.ClusterName;
 import org.apache.aurora.scheduler.http.ServletModule;
@@ -92,6 +93,9 @@ class AppModule extends AbstractModule {
     // Filter layering: notifier filter -> base impl
     PubsubEventModule.bind(binder(), SchedulingFilterImpl.class);
     bind(SchedulingFilterImpl.class).in(Singleton.class);
+    PubsubEventModule.bindSubscriber(binder(), SchedulingFilterImpl.class);
+    bind(AttributeAggregator.class).in(Singleton.class);
+    PubsubEventModule.bindSubscriber(binder(), AttributeAggregator.class);
 
     LifecycleModule.bindStartupAction(binder(), RegisterShutdownStackPrinter.class);
 
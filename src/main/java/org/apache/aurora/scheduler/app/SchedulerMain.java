@@ -64,6 +64,7 @@ import org.apache.aurora.scheduler.cron.CronScheduler;
 import org.apache.aurora.scheduler.cron.noop.NoopCronModule;
 import org.apache.aurora.scheduler.local.IsolatedSchedulerModule;
 import org.apache.aurora.scheduler.log.mesos.MesosLogStreamModule;
+import org.apache.aurora.scheduler.log.segmented.SegmentedLogStreamModule;
 import org.apache.aurora.scheduler.storage.backup.BackupModule;
 import org.apache.aurora.scheduler.storage.log.LogStorage;
 import org.apache.aurora.scheduler.storage.log.LogStorageModule;
@@ -84,6 +85,11 @@ public class SchedulerMain extends AbstractApplication {
       help = "If true, run in a testing mode with the scheduler isolated from other components.")
   private static final Arg<Boolean> ISOLATED_SCHEDULER = Arg.create(false);
 
+  @CmdLine(name = "use_segmented_log",
+      help = "If true, store the log in local segment files rather than the replicated mesos log. "
+          + "Only suitable for clusters with a single scheduler.")
+  private static final Arg<Boolean> USE_SEGMENTED_LOG = Arg.create(false);
+
   @NotNull
   @CmdLine(name = "cluster_name", help = "Name to identify the cluster being served.")
   private static final Arg<String> CLUSTER_NAME = Arg.create();
@@ -186,7 +192,11 @@ public class SchedulerMain extends AbstractApplication {
         protected void configure() {
           bind(DriverFactory.class).to(DriverFactoryImpl.class);
           bind(DriverFactoryImpl.class).in(Singleton.class);
-          install(new MesosLogStreamModule(zkClientConfig));
+          if (USE_SEGMENTED_LOG.get()) {
+            install(new SegmentedLogStreamModule());
+          } else {
+            install(new MesosLogStreamModule(zkClientConfig));
+          }
         }
       };
     }
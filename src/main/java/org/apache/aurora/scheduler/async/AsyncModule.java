@@ -17,6 +17,8 @@ package org.apache.aurora.scheduler.async;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.logging.Logger;
@@ -25,6 +27,7 @@ import javax.inject.Singleton;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.AbstractModule;
@@ -40,10 +43,13 @@ import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.stats.StatsProvider;
+import com.twitter.common.util.Clock;
 import com.twitter.common.util.Random;
 import com.twitter.common.util.TruncatedBinaryBackoff;
 
+import org.apache.aurora.scheduler.async.BatchedHistoryPruner.PruneBatchSettings;
 import org.apache.aurora.scheduler.async.OfferQueue.OfferQueueImpl;
+import org.apache.aurora.scheduler.async.OfferQueue.OfferQueueImpl.LaunchWindow;
 import org.apache.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
 import org.apache.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculatorImpl;
 import org.apache.aurora.scheduler.async.TaskGroups.TaskGroupsSettings;
@@ -92,15 +98,40 @@ public class AsyncModule extends AbstractModule {
   private static final Arg<Amount<Integer, Time>> MIN_OFFER_HOLD_TIME =
       Arg.create(Amount.of(5, Time.MINUTES));
 
+  @CmdLine(name = "offer_launch_window",
+      help = "Time to keep an offer that has been assigned tasks open for further tasks to use its "
+          + "remaining resources, after which all of its tasks are launched together. A value of "
+          + "zero launches tasks immediately, consuming the whole offer.")
+  private static final Arg<Amount<Long, Time>> OFFER_LAUNCH_WINDOW =
+      Arg.create(Amount.of(0L, Time.MILLISECONDS));
+
   @CmdLine(name = "history_prune_threshold",
       help = "Time after which the scheduler will prune terminated task history.")
   private static final Arg<Amount<Long, Time>> HISTORY_PRUNE_THRESHOLD =
       Arg.create(Amount.of(2L, Time.DAYS));
 
+  @CmdLine(name = "enable_batched_history_pruning",
+      help = "Delete pruned task history in periodic batches rather than one task at a time.")
+  private static final Arg<Boolean> ENABLE_BATCHED_HISTORY_PRUNING = Arg.create(false);
+
+  @CmdLine(name = "history_prune_batch_size",
+      help = "Maximum number of tasks to delete in a single batch when pruning history in batches.")
+  private static final Arg<Integer> HISTORY_PRUNE_BATCH_SIZE = Arg.create(1000);
+
+  @CmdLine(name = "history_prune_batch_interval",
+      help = "Interval between batches when pruning history in batches.")
+  private static final Arg<Amount<Long, Time>> HISTORY_PRUNE_BATCH_INTERVAL =
+      Arg.create(Amount.of(1L, Time.MINUTES));
+
   @CmdLine(name = "max_schedule_attempts_per_sec",
       help = "Maximum number of scheduling attempts to make per second.")
   private static final Arg<Double> MAX_SCHEDULE_ATTEMPTS_PER_SEC = Arg.create(10D);
 
+  @CmdLine(name = "max_schedule_batch_size",
+      help = "Maximum number of identical pending tasks to match against offers in a single "
+          + "scheduling attempt. A value of 1 schedules tasks individually.")
+  private static final Arg<Integer> MAX_SCHEDULE_BATCH_SIZE = Arg.create(1);
+
   @CmdLine(name = "flapping_task_threshold",
       help = "A task that repeatedly runs for less than this time is considered to be flapping.")
   private static final Arg<Amount<Long, Time>> FLAPPING_THRESHOLD =
@@ -130,6 +161,14 @@ public class AsyncModule extends AbstractModule {
       help = "Enable the preemptor and preemption")
   private static final Arg<Boolean> ENABLE_PREEMPTOR = Arg.create(true);
 
+  @CmdLine(name = "preemption_victim_selector",
+      help = "Strategy used to choose the tasks to preempt on a slave.  RESOURCE_VECTOR preempts "
+          + "the largest tasks first, DOMINANT_RESOURCE preempts the tasks holding the most of "
+          + "the resources in shortest supply first, and MIN_VICTIMS preempts as few tasks as "
+          + "possible.")
+  private static final Arg<VictimSelector.Strategy> PREEMPTION_VICTIM_SELECTOR =
+      Arg.create(VictimSelector.Strategy.RESOURCE_VECTOR);
+
   private static final Preemptor NULL_PREEMPTOR = new Preemptor() {
     @Override
     public Optional<String> findPreemptionSlotFor(
@@ -138,6 +177,14 @@ public class AsyncModule extends AbstractModule {
 
       return Optional.absent();
     }
+
+    @Override
+    public Map<String, String> findPreemptionSlotsFor(
+        Set<String> taskIds,
+        CachedJobState cachedJobState) {
+
+      return ImmutableMap.of();
+    }
   };
 
   @CmdLine(name = "offer_reservation_duration", help = "Time to reserve a slave's offers while "
@@ -145,6 +192,19 @@ public class AsyncModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> RESERVATION_DURATION =
       Arg.create(Amount.of(3L, Time.MINUTES));
 
+  @CmdLine(name = "enable_timing_wheel",
+      help = "Track task state timeouts and history pruning with a timing wheel rather than the "
+          + "async worker executor, making each timer cheaper to schedule and cancel.")
+  private static final Arg<Boolean> ENABLE_TIMING_WHEEL = Arg.create(false);
+
+  @CmdLine(name = "timing_wheel_tick",
+      help = "Resolution of the timing wheel, timers expire up to this long after their deadline.")
+  private static final Arg<Amount<Long, Time>> TIMING_WHEEL_TICK =
+      Arg.create(Amount.of(1L, Time.SECONDS));
+
+  // With the default tick, one revolution of the wheel covers a little over an hour.
+  private static final int TIMING_WHEEL_BUCKETS = 4096;
+
   @BindingAnnotation
   @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
   private @interface PreemptionBinding { }
@@ -165,6 +225,7 @@ public class AsyncModule extends AbstractModule {
         return executor.getCompletedTaskCount();
       }
     });
+    final ScheduledExecutorService timerExecutor = timerExecutor(executor);
 
     // AsyncModule itself is not a subclass of PrivateModule because TaskEventModule internally uses
     // a MultiBinder, which cannot span multiple injectors.
@@ -173,7 +234,7 @@ public class AsyncModule extends AbstractModule {
       protected void configure() {
         bind(new TypeLiteral<Amount<Long, Time>>() { })
             .toInstance(TRANSIENT_TASK_STATE_TIMEOUT.get());
-        bind(ScheduledExecutorService.class).toInstance(executor);
+        bind(ScheduledExecutorService.class).toInstance(timerExecutor);
 
         bind(TaskTimeout.class).in(Singleton.class);
         requireBinding(StatsProvider.class);
@@ -187,7 +248,8 @@ public class AsyncModule extends AbstractModule {
       protected void configure() {
         bind(TaskGroupsSettings.class).toInstance(new TaskGroupsSettings(
             new TruncatedBinaryBackoff(INITIAL_SCHEDULE_DELAY.get(), MAX_SCHEDULE_DELAY.get()),
-            RateLimiter.create(MAX_SCHEDULE_ATTEMPTS_PER_SEC.get())));
+            RateLimiter.create(MAX_SCHEDULE_ATTEMPTS_PER_SEC.get()),
+            MAX_SCHEDULE_BATCH_SIZE.get()));
 
         bind(RescheduleCalculatorImpl.RescheduleCalculatorSettings.class)
             .toInstance(new RescheduleCalculatorImpl.RescheduleCalculatorSettings(
@@ -200,6 +262,9 @@ public class AsyncModule extends AbstractModule {
         if (ENABLE_PREEMPTOR.get()) {
           bind(PREEMPTOR_KEY).to(PreemptorImpl.class);
           bind(PreemptorImpl.class).in(Singleton.class);
+          bind(PreemptionIndex.class).in(Singleton.class);
+          expose(PreemptionIndex.class);
+          bind(VictimSelector.class).toInstance(PREEMPTION_VICTIM_SELECTOR.get());
           LOG.info("Preemptor Enabled.");
         } else {
           bind(PREEMPTOR_KEY).toInstance(NULL_PREEMPTOR);
@@ -214,12 +279,17 @@ public class AsyncModule extends AbstractModule {
     });
     bindTaskScheduler(binder(), PREEMPTOR_KEY, RESERVATION_DURATION.get());
     PubsubEventModule.bindSubscriber(binder(), TaskGroups.class);
+    if (ENABLE_PREEMPTOR.get()) {
+      PubsubEventModule.bindSubscriber(binder(), PreemptionIndex.class);
+    }
 
     install(new PrivateModule() {
       @Override
       protected void configure() {
         bind(OfferReturnDelay.class).to(RandomJitterReturnDelay.class);
         bind(ScheduledExecutorService.class).toInstance(executor);
+        bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(LaunchWindow.class)
+            .toInstance(OFFER_LAUNCH_WINDOW.get());
         bind(OfferQueue.class).to(OfferQueueImpl.class);
         bind(OfferQueueImpl.class).in(Singleton.class);
         expose(OfferQueue.class);
@@ -235,13 +305,25 @@ public class AsyncModule extends AbstractModule {
         bind(Integer.class).annotatedWith(PruneThreshold.class).toInstance(100);
         bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(PruneThreshold.class)
             .toInstance(HISTORY_PRUNE_THRESHOLD.get());
-        bind(ScheduledExecutorService.class).toInstance(executor);
-
-        bind(HistoryPruner.class).in(Singleton.class);
-        expose(HistoryPruner.class);
+        if (ENABLE_BATCHED_HISTORY_PRUNING.get()) {
+          bind(ScheduledExecutorService.class).toInstance(executor);
+          bind(PruneBatchSettings.class).toInstance(new PruneBatchSettings(
+              HISTORY_PRUNE_BATCH_SIZE.get(),
+              HISTORY_PRUNE_BATCH_INTERVAL.get()));
+          bind(BatchedHistoryPruner.class).in(Singleton.class);
+          expose(BatchedHistoryPruner.class);
+        } else {
+          bind(ScheduledExecutorService.class).toInstance(timerExecutor);
+          bind(HistoryPruner.class).in(Singleton.class);
+          expose(HistoryPruner.class);
+        }
       }
     });
-    PubsubEventModule.bindSubscriber(binder(), HistoryPruner.class);
+    if (ENABLE_BATCHED_HISTORY_PRUNING.get()) {
+      PubsubEventModule.bindSubscriber(binder(), BatchedHistoryPruner.class);
+    } else {
+      PubsubEventModule.bindSubscriber(binder(), HistoryPruner.class);
+    }
 
     install(new PrivateModule() {
       @Override
@@ -254,6 +336,28 @@ public class AsyncModule extends AbstractModule {
     PubsubEventModule.bindSubscriber(binder(), TaskThrottler.class);
   }
 
+  private static ScheduledExecutorService timerExecutor(ScheduledExecutorService executor) {
+    if (!ENABLE_TIMING_WHEEL.get()) {
+      return executor;
+    }
+
+    final TimingWheelExecutor timingWheel = new TimingWheelExecutor(
+        executor,
+        Clock.SYSTEM_CLOCK,
+        TIMING_WHEEL_TICK.get(),
+        TIMING_WHEEL_BUCKETS);
+    timingWheel.start(
+        new ThreadFactoryBuilder().setNameFormat("TimingWheel-%d").setDaemon(true).build());
+    Stats.export(new StatImpl<Integer>("timing_wheel_timers") {
+      @Override
+      public Integer read() {
+        return timingWheel.getTimerCount();
+      }
+    });
+    LOG.info("Timing wheel enabled: " + timingWheel);
+    return timingWheel;
+  }
+
   /**
    * This method exists because we want to test the wiring up of TaskSchedulerImpl class to the
    * PubSub system in the TaskSchedulerImplTest class. The method has a complex signature because
@@ -0,0 +1,326 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ComparisonChain;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.util.Clock;
+
+import org.apache.aurora.scheduler.async.HistoryPruner.PruneThreshold;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.SchedulerActive;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChanges;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.state.StateManager;
+import org.apache.aurora.scheduler.storage.entities.IJobKey;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Prunes inactive tasks like {@link HistoryPruner}, but deletes tasks in batches rather than one
+ * at a time, so that pruning the history of a large job takes few storage transactions.
+ * <p>
+ * Tasks become eligible for pruning once they expire, or once they exceed their job's history
+ * goal.  Eligible tasks are deleted periodically, and as soon as enough accumulate to fill a batch.
+ * Expirations are tracked in a single ordered set rather than with a future per task.
+ */
+class BatchedHistoryPruner implements EventSubscriber {
+  private static final Logger LOG = Logger.getLogger(BatchedHistoryPruner.class.getName());
+
+  /**
+   * Settings for the size and frequency of batches.
+   */
+  static class PruneBatchSettings {
+    private final int maxBatchSize;
+    private final Amount<Long, Time> batchInterval;
+
+    PruneBatchSettings(int maxBatchSize, Amount<Long, Time> batchInterval) {
+      checkArgument(maxBatchSize > 0);
+      this.maxBatchSize = maxBatchSize;
+      this.batchInterval = checkNotNull(batchInterval);
+    }
+  }
+
+  private static final class Expiration implements Comparable<Expiration> {
+    private final long expirationMillis;
+    private final IJobKey jobKey;
+    private final String taskId;
+
+    Expiration(long expirationMillis, IJobKey jobKey, String taskId) {
+      this.expirationMillis = expirationMillis;
+      this.jobKey = jobKey;
+      this.taskId = taskId;
+    }
+
+    @Override
+    public int compareTo(Expiration other) {
+      return ComparisonChain.start()
+          .compare(expirationMillis, other.expirationMillis)
+          .compare(taskId, other.taskId)
+          .result();
+    }
+  }
+
+  private final ScheduledExecutorService executor;
+  private final StateManager stateManager;
+  private final Clock clock;
+  private final long pruneThresholdMillis;
+  private final int perJobHistoryGoal;
+  private final PruneBatchSettings settings;
+  private final SlidingStats batchSizes = new SlidingStats("history_prune_batch", "tasks");
+  private final SlidingStats pruneLag = new SlidingStats("history_prune_lag", "ms");
+
+  // Inactive tasks of each job in the order they became inactive, mapped to their expirations.
+  // Guarded by this, as are the fields below.
+  private final Map<IJobKey, LinkedHashMap<String, Long>> tasksByJob = Maps.newHashMap();
+  // Expirations of the tasks in tasksByJob, soonest first.
+  private final SortedSet<Expiration> expirations = Sets.newTreeSet();
+  // Tasks eligible for pruning, mapped to the time they became eligible.
+  private final Map<String, Long> eligible = Maps.newLinkedHashMap();
+  private boolean batchPending;
+
+  private final Runnable pruneBatches = new Runnable() {
+    @Override
+    public void run() {
+      try {
+        pruneEligibleTasks();
+      } catch (RuntimeException e) {
+        LOG.log(Level.SEVERE, "Failed to prune inactive tasks: " + e, e);
+      }
+    }
+  };
+
+  @Inject
+  BatchedHistoryPruner(
+      ScheduledExecutorService executor,
+      StateManager stateManager,
+      Clock clock,
+      @PruneThreshold Amount<Long, Time> inactivePruneThreshold,
+      @PruneThreshold int perJobHistoryGoal,
+      PruneBatchSettings settings) {
+
+    this.executor = checkNotNull(executor);
+    this.stateManager = checkNotNull(stateManager);
+    this.clock = checkNotNull(clock);
+    this.pruneThresholdMillis = inactivePruneThreshold.as(Time.MILLISECONDS);
+    this.perJobHistoryGoal = perJobHistoryGoal;
+    this.settings = checkNotNull(settings);
+  }
+
+  @VisibleForTesting
+  synchronized Map<IJobKey, LinkedHashMap<String, Long>> getTasksByJob() {
+    return tasksByJob;
+  }
+
+  /**
+   * Starts pruning periodically once the scheduler is active.
+   *
+   * @param event Scheduler active event.
+   */
+  @Subscribe
+  public void schedulerActive(SchedulerActive event) {
+    long intervalMillis = settings.batchInterval.as(Time.MILLISECONDS);
+    executor.scheduleWithFixedDelay(
+        pruneBatches,
+        intervalMillis,
+        intervalMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * When triggered, records an inactive task state change.
+   *
+   * @param change Event when a task changes state.
+   */
+  @Subscribe
+  public synchronized void recordStateChange(TaskStateChange change) {
+    recordInactiveTask(change, clock.nowMillis());
+    maybePruneBatch();
+  }
+
+  /**
+   * When triggered, records the inactive task state changes among many changes.
+   *
+   * @param changes Event when many tasks change state.
+   */
+  @Subscribe
+  public synchronized void recordStateChanges(TaskStateChanges changes) {
+    long nowMillis = clock.nowMillis();
+    for (TaskStateChange change : changes.getChanges()) {
+      recordInactiveTask(change, nowMillis);
+    }
+    maybePruneBatch();
+  }
+
+  private void maybePruneBatch() {
+    if (eligible.size() >= settings.maxBatchSize && !batchPending) {
+      batchPending = true;
+      executor.execute(pruneBatches);
+    }
+  }
+
+  private void recordInactiveTask(TaskStateChange change, long nowMillis) {
+    if (!Tasks.isTerminated(change.getNewState())) {
+      return;
+    }
+
+    long inactiveSinceMillis = change.isTransition()
+        ? nowMillis
+        : Math.min(nowMillis, Iterables.getLast(change.getTask().getTaskEvents()).getTimestamp());
+    IJobKey jobKey = Tasks.SCHEDULED_TO_JOB_KEY.apply(change.getTask());
+    String taskId = change.getTaskId();
+    long expirationMillis = inactiveSinceMillis + pruneThresholdMillis;
+
+    LinkedHashMap<String, Long> jobTasks = tasksByJob.get(jobKey);
+    if (jobTasks == null) {
+      jobTasks = Maps.newLinkedHashMap();
+      tasksByJob.put(jobKey, jobTasks);
+    }
+    if (jobTasks.containsKey(taskId)) {
+      return;
+    }
+    jobTasks.put(taskId, expirationMillis);
+    expirations.add(new Expiration(expirationMillis, jobKey, taskId));
+
+    // The oldest tasks beyond the history goal are eligible immediately.
+    Iterator<Map.Entry<String, Long>> oldest = jobTasks.entrySet().iterator();
+    while (jobTasks.size() > perJobHistoryGoal) {
+      Map.Entry<String, Long> entry = oldest.next();
+      oldest.remove();
+      expirations.remove(new Expiration(entry.getValue(), jobKey, entry.getKey()));
+      eligible.put(entry.getKey(), nowMillis);
+    }
+    if (jobTasks.isEmpty()) {
+      tasksByJob.remove(jobKey);
+    }
+  }
+
+  private synchronized void collectExpiredTasks(long nowMillis) {
+    while (!expirations.isEmpty() && expirations.first().expirationMillis <= nowMillis) {
+      Expiration expiration = expirations.first();
+      expirations.remove(expiration);
+      LinkedHashMap<String, Long> jobTasks = tasksByJob.get(expiration.jobKey);
+      jobTasks.remove(expiration.taskId);
+      if (jobTasks.isEmpty()) {
+        tasksByJob.remove(expiration.jobKey);
+      }
+      eligible.put(expiration.taskId, expiration.expirationMillis);
+    }
+  }
+
+  private synchronized Map<String, Long> takeBatch() {
+    Map<String, Long> batch = Maps.newLinkedHashMap();
+    Iterator<Map.Entry<String, Long>> entries = eligible.entrySet().iterator();
+    while (entries.hasNext() && batch.size() < settings.maxBatchSize) {
+      Map.Entry<String, Long> entry = entries.next();
+      batch.put(entry.getKey(), entry.getValue());
+      entries.remove();
+    }
+    if (batch.isEmpty()) {
+      batchPending = false;
+    }
+    return batch;
+  }
+
+  private synchronized void restoreBatch(Map<String, Long> batch) {
+    Map<String, Long> pending = ImmutableMap.copyOf(eligible);
+    eligible.clear();
+    eligible.putAll(batch);
+    eligible.putAll(pending);
+    batchPending = false;
+  }
+
+  /**
+   * Deletes all tasks that are eligible for pruning, in batches.
+   */
+  @VisibleForTesting
+  void pruneEligibleTasks() {
+    collectExpiredTasks(clock.nowMillis());
+
+    // Tasks are deleted without holding the lock, since deletion synchronously posts events that
+    // may need it from another thread.
+    Map<String, Long> batch = takeBatch();
+    while (!batch.isEmpty()) {
+      LOG.info("Pruning " + batch.size() + " inactive tasks");
+      try {
+        stateManager.deleteTasks(ImmutableSet.copyOf(batch.keySet()));
+      } catch (RuntimeException e) {
+        // Retry the batch the next time tasks are pruned.
+        restoreBatch(batch);
+        throw e;
+      }
+
+      long nowMillis = clock.nowMillis();
+      batchSizes.accumulate(batch.size());
+      for (long eligibleMillis : batch.values()) {
+        pruneLag.accumulate(Math.max(0, nowMillis - eligibleMillis));
+      }
+      batch = takeBatch();
+    }
+  }
+
+  /**
+   * When triggered, forgets deleted tasks.
+   *
+   * @param event A new TasksDeleted event.
+   */
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted event) {
+    for (IScheduledTask task : event.getTasks()) {
+      String id = Tasks.id(task);
+      eligible.remove(id);
+      IJobKey jobKey = Tasks.SCHEDULED_TO_JOB_KEY.apply(task);
+      LinkedHashMap<String, Long> jobTasks = tasksByJob.get(jobKey);
+      Long expirationMillis = (jobTasks == null) ? null : jobTasks.remove(id);
+      if (expirationMillis != null) {
+        expirations.remove(new Expiration(expirationMillis, jobKey, id));
+        if (jobTasks.isEmpty()) {
+          tasksByJob.remove(jobKey);
+        }
+      }
+    }
+  }
+
+  @VisibleForTesting
+  synchronized Set<String> getEligibleTasks() {
+    return ImmutableSet.copyOf(eligible.keySet());
+  }
+}
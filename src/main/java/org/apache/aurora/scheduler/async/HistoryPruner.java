@@ -55,6 +55,7 @@ import static com.google.common.base.Preconditions.checkNotNull;
 
 import static org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
 import static org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import static org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChanges;
 import static org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
 
 /**
@@ -109,20 +110,43 @@ public class HistoryPruner implements EventSubscriber {
    */
   @Subscribe
   public void recordStateChange(TaskStateChange change) {
-    if (Tasks.isTerminated(change.getNewState())) {
-      long timeoutBasis = change.isTransition()
-          ? clock.nowMillis()
-          : Iterables.getLast(change.getTask().getTaskEvents()).getTimestamp();
-      registerInactiveTask(
-          Tasks.SCHEDULED_TO_JOB_KEY.apply(change.getTask()),
-          change.getTaskId(),
-          calculateTimeout(timeoutBasis));
+    deleteTasks(recordInactiveTask(change));
+  }
+
+  /**
+   * When triggered, records the inactive task state changes among many changes, and prunes the
+   * tasks that exceed their jobs' history goals together.
+   *
+   * @param changes Event when many tasks change state.
+   */
+  @Subscribe
+  public void recordStateChanges(TaskStateChanges changes) {
+    ImmutableSet.Builder<String> pruneTaskIds = ImmutableSet.builder();
+    for (TaskStateChange change : changes.getChanges()) {
+      pruneTaskIds.addAll(recordInactiveTask(change));
+    }
+    deleteTasks(pruneTaskIds.build());
+  }
+
+  private Set<String> recordInactiveTask(TaskStateChange change) {
+    if (!Tasks.isTerminated(change.getNewState())) {
+      return ImmutableSet.of();
     }
+
+    long timeoutBasis = change.isTransition()
+        ? clock.nowMillis()
+        : Iterables.getLast(change.getTask().getTaskEvents()).getTimestamp();
+    return registerInactiveTask(
+        Tasks.SCHEDULED_TO_JOB_KEY.apply(change.getTask()),
+        change.getTaskId(),
+        calculateTimeout(timeoutBasis));
   }
 
   private void deleteTasks(Set<String> taskIds) {
-    LOG.info("Pruning inactive tasks " + taskIds);
-    stateManager.deleteTasks(taskIds);
+    if (!taskIds.isEmpty()) {
+      LOG.info("Pruning inactive tasks " + taskIds);
+      stateManager.deleteTasks(taskIds);
+    }
   }
 
   /**
@@ -142,7 +166,12 @@ public class HistoryPruner implements EventSubscriber {
     }
   }
 
-  private void registerInactiveTask(
+  /**
+   * Schedules an inactive task to be pruned once it expires.
+   *
+   * @return IDs of tasks to prune immediately, since they exceed the job's history goal.
+   */
+  private Set<String> registerInactiveTask(
       final IJobKey jobKey,
       final String taskId,
       long timeRemaining) {
@@ -180,9 +209,6 @@ public class HistoryPruner implements EventSubscriber {
       }
     }
 
-    Set<String> ids = pruneTaskIds.build();
-    if (!ids.isEmpty()) {
-      deleteTasks(ids);
-    }
+    return pruneTaskIds.build();
   }
 }
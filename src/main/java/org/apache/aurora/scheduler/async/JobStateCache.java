@@ -0,0 +1,146 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.scheduler.base.Query;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.filter.AttributeAggregator;
+import org.apache.aurora.scheduler.filter.CachedJobState;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.Storage.StoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.Work;
+import org.apache.aurora.scheduler.storage.entities.IJobKey;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Shares the state of a job between scheduling attempts of its tasks, until a task in the job
+ * enters or leaves an active state.  Tasks of the same job that are pending at once therefore
+ * fetch the job's active tasks at most once, rather than once per scheduling attempt.
+ * <p>
+ * Limit constraints are evaluated against the job's live attribute aggregate, so the active tasks
+ * are only fetched when they are read through the state itself.  The fetch statistics count the
+ * fetches that actually reach storage.
+ * <p>
+ * The cache is invalidated by task events, which are delivered synchronously to the scheduler, so
+ * a job is invalidated as soon as a scheduling attempt changes its tasks.
+ */
+class JobStateCache {
+
+  private final Storage storage;
+  private final AttributeAggregator attributeAggregator;
+
+  // Guarded by this.
+  private final Map<IJobKey, CachedJobState> jobStates = Maps.newHashMap();
+
+  private final AtomicLong lookups = Stats.exportLong("job_state_cache_lookups");
+  private final AtomicLong fetches = Stats.exportLong("job_state_cache_fetches");
+
+  JobStateCache(Storage storage, AttributeAggregator attributeAggregator) {
+    this.storage = checkNotNull(storage);
+    this.attributeAggregator = checkNotNull(attributeAggregator);
+    Stats.export(new StatImpl<Double>("job_state_cache_hit_rate") {
+      @Override
+      public Double read() {
+        // The fraction of lookups that were served without fetching the job's tasks.
+        long total = lookups.get();
+        return total == 0 ? 0.0 : 1.0 - (double) fetches.get() / total;
+      }
+    });
+  }
+
+  @VisibleForTesting
+  static Query.Builder activeJobStateQuery(IJobKey jobKey) {
+    return Query.jobScoped(jobKey).byStatus(Tasks.SLAVE_ASSIGNED_STATES);
+  }
+
+  @VisibleForTesting
+  long getFetches() {
+    return fetches.get();
+  }
+
+  /**
+   * Gets the state of a job.  The job's active tasks are fetched lazily, and at most once until
+   * the job is invalidated.
+   *
+   * @param jobKey Job to get the state of.
+   * @return The job's state.
+   */
+  synchronized CachedJobState get(final IJobKey jobKey) {
+    lookups.incrementAndGet();
+    CachedJobState jobState = jobStates.get(jobKey);
+    if (jobState != null) {
+      return jobState;
+    }
+
+    jobState = new CachedJobState(
+        Suppliers.memoize(new Supplier<ImmutableSet<IScheduledTask>>() {
+          @Override
+          public ImmutableSet<IScheduledTask> get() {
+            fetches.incrementAndGet();
+            return storage.consistentRead(new Work.Quiet<ImmutableSet<IScheduledTask>>() {
+              @Override
+              public ImmutableSet<IScheduledTask> apply(StoreProvider storeProvider) {
+                return storeProvider.getTaskStore().fetchTasks(activeJobStateQuery(jobKey));
+              }
+            });
+          }
+        }),
+        attributeAggregator.getAggregate(jobKey));
+    jobStates.put(jobKey, jobState);
+    return jobState;
+  }
+
+  /**
+   * Discards the cached state of a job.
+   *
+   * @param jobKey Job whose tasks have changed.
+   */
+  synchronized void invalidate(IJobKey jobKey) {
+    jobStates.remove(jobKey);
+  }
+
+  void taskChangedState(TaskStateChange stateChange) {
+    Optional<ScheduleStatus> oldState = stateChange.getOldState();
+    if (Tasks.SLAVE_ASSIGNED_STATES.contains(stateChange.getNewState())
+        || (oldState.isPresent() && Tasks.SLAVE_ASSIGNED_STATES.contains(oldState.get()))) {
+
+      invalidate(Tasks.SCHEDULED_TO_JOB_KEY.apply(stateChange.getTask()));
+    }
+  }
+
+  void tasksDeleted(TasksDeleted deleted) {
+    for (IScheduledTask task : deleted.getTasks()) {
+      invalidate(Tasks.SCHEDULED_TO_JOB_KEY.apply(task));
+    }
+  }
+}
@@ -15,13 +15,19 @@
  */
 package org.apache.aurora.scheduler.async;
 
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
 import java.util.Comparator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
 import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
@@ -30,18 +36,26 @@ import com.google.common.base.Function;
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
+import com.google.inject.BindingAnnotation;
+import com.twitter.common.base.Closure;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.Stats;
 
 import org.apache.aurora.gen.MaintenanceMode;
 import org.apache.aurora.scheduler.Driver;
+import org.apache.aurora.scheduler.ResourceSlot;
+import org.apache.aurora.scheduler.configuration.Resources;
 import org.apache.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
 import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
 import org.apache.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
@@ -51,6 +65,11 @@ import org.apache.mesos.Protos.OfferID;
 import org.apache.mesos.Protos.SlaveID;
 import org.apache.mesos.Protos.TaskInfo;
 
+import static java.lang.annotation.ElementType.FIELD;
+import static java.lang.annotation.ElementType.METHOD;
+import static java.lang.annotation.ElementType.PARAMETER;
+import static java.lang.annotation.RetentionPolicy.RUNTIME;
+
 import static org.apache.aurora.gen.MaintenanceMode.DRAINED;
 import static org.apache.aurora.gen.MaintenanceMode.DRAINING;
 import static org.apache.aurora.gen.MaintenanceMode.NONE;
@@ -87,6 +106,49 @@ public interface OfferQueue extends EventSubscriber {
    */
   boolean launchFirst(Function<Offer, Optional<TaskInfo>> acceptor) throws LaunchException;
 
+  /**
+   * Like {@link #launchFirst(Function)}, but only presents the {@code acceptor} with offers that
+   * hold at least the resources of {@code slot}, skipping offers the task cannot possibly fit.
+   *
+   * @param slot Resources the task requires.
+   * @param acceptor Function that determines if an offer is accepted.
+   * @param skipped Notified of each offer that was skipped if no offer was accepted.
+   * @return {@code true} if the task was launched, {@code false} if no offers satisfied the
+   *         {@code acceptor}.
+   * @throws LaunchException If the acceptor accepted an offer, but there was an error launching the
+   *                         task.
+   */
+  boolean launchFirst(
+      ResourceSlot slot,
+      Function<Offer, Optional<TaskInfo>> acceptor,
+      Closure<Offer> skipped) throws LaunchException;
+
+  /**
+   * Makes a single pass over the offers, launching the tasks the {@code acceptor} assigns to each.
+   * An offer that is assigned any tasks is consumed, with all of its tasks launched together.
+   *
+   * @param acceptor Function that determines the tasks, if any, to launch using an offer.
+   * @throws LaunchException If the acceptor assigned tasks to an offer, but there was an error
+   *                         launching them.  Tasks assigned to offers earlier in the pass will
+   *                         have been launched.
+   */
+  void launchAll(Function<Offer, List<TaskInfo>> acceptor) throws LaunchException;
+
+  /**
+   * Like {@link #launchAll(Function)}, but only presents the {@code acceptor} with offers that
+   * hold at least the resources of {@code slot}.
+   *
+   * @param slot Resources each of the tasks requires.
+   * @param acceptor Function that determines the tasks, if any, to launch using an offer.
+   * @param skipped Notified of each offer that was skipped, once the pass is complete.
+   * @throws LaunchException If the acceptor assigned tasks to an offer, but there was an error
+   *                         launching them.
+   */
+  void launchAll(
+      ResourceSlot slot,
+      Function<Offer, List<TaskInfo>> acceptor,
+      Closure<Offer> skipped) throws LaunchException;
+
   /**
    * Notifies the offer queue that a host has changed state.
    *
@@ -122,27 +184,60 @@ public interface OfferQueue extends EventSubscriber {
     }
   }
 
+  /**
+   * An offer queue that, when configured with a launch window, lets an offer be consumed by several
+   * tasks.  Tasks assigned to an offer are held back for the window while the offer remains in the
+   * queue with the resources that are left over, then all tasks assigned to the offer in the
+   * meantime are launched together.
+   */
   class OfferQueueImpl implements OfferQueue {
+    /**
+     * Binding annotation for the time to hold an offer open for further tasks once it has been
+     * assigned a task.
+     */
+    @BindingAnnotation
+    @Target({ FIELD, PARAMETER, METHOD }) @Retention(RUNTIME)
+    @interface LaunchWindow { }
+
     private static final Logger LOG = Logger.getLogger(OfferQueueImpl.class.getName());
 
     private final HostOffers hostOffers = new HostOffers();
     private final AtomicLong offerRaces = Stats.exportLong("offer_accept_races");
+    private final AtomicLong residualLaunches = Stats.exportLong("offer_residual_task_launches");
+    private final AtomicLong deferredLaunchFailures =
+        Stats.exportLong("offer_deferred_launch_failures");
+
+    // Tasks assigned to offers that are still held open, by offer.  Also guards the consistency of
+    // these offers between hostOffers and the pending launches.
+    private final Map<OfferID, List<TaskInfo>> pendingLaunches = Maps.newHashMap();
 
     private final Driver driver;
     private final OfferReturnDelay returnDelay;
     private final ScheduledExecutorService executor;
     private final MaintenanceController maintenance;
+    private final long launchWindowMs;
 
-    @Inject
     OfferQueueImpl(Driver driver,
         OfferReturnDelay returnDelay,
         ScheduledExecutorService executor,
         MaintenanceController maintenance) {
 
+      this(driver, returnDelay, executor, maintenance, Amount.of(0L, Time.MILLISECONDS));
+    }
+
+    @Inject
+    OfferQueueImpl(Driver driver,
+        OfferReturnDelay returnDelay,
+        ScheduledExecutorService executor,
+        MaintenanceController maintenance,
+        @LaunchWindow Amount<Long, Time> launchWindow) {
+
       this.driver = driver;
       this.returnDelay = returnDelay;
       this.executor = executor;
       this.maintenance = maintenance;
+      this.launchWindowMs = launchWindow.as(Time.MILLISECONDS);
+      Preconditions.checkArgument(launchWindowMs >= 0, "Launch window may not be negative.");
     }
 
     @Override
@@ -174,8 +269,19 @@ public interface OfferQueue extends EventSubscriber {
     }
 
     void removeAndDecline(OfferID id) {
-      if (removeFromHostOffers(id)) {
+      List<TaskInfo> pending;
+      synchronized (pendingLaunches) {
+        if (!removeFromHostOffers(id)) {
+          return;
+        }
+        pending = pendingLaunches.remove(id);
+      }
+
+      // An offer that has been assigned tasks is launched rather than returned.
+      if (pending == null) {
         decline(id);
+      } else {
+        launchDeferred(id, pending);
       }
     }
 
@@ -186,7 +292,16 @@ public interface OfferQueue extends EventSubscriber {
 
     @Override
     public void cancelOffer(final OfferID offerId) {
-      removeFromHostOffers(offerId);
+      List<TaskInfo> pending;
+      synchronized (pendingLaunches) {
+        removeFromHostOffers(offerId);
+        pending = pendingLaunches.remove(offerId);
+      }
+
+      if (pending != null) {
+        // The master will mark these tasks as LOST, after which they are rescheduled.
+        launchDeferred(offerId, pending);
+      }
     }
 
     private boolean removeFromHostOffers(final OfferID offerId) {
@@ -229,7 +344,11 @@ public interface OfferQueue extends EventSubscriber {
     @Subscribe
     public void driverDisconnected(DriverDisconnected event) {
       LOG.info("Clearing stale offers since the driver is disconnected.");
-      hostOffers.clear();
+      synchronized (pendingLaunches) {
+        // Any tasks pending launch will time out in the ASSIGNED state and be rescheduled.
+        hostOffers.clear();
+        pendingLaunches.clear();
+      }
     }
 
     /**
@@ -238,12 +357,15 @@ public interface OfferQueue extends EventSubscriber {
     private static class HostOffer {
       private final Offer offer;
       private final MaintenanceMode mode;
+      private final ResourceSlot slot;
 
       HostOffer(Offer offer, MaintenanceMode mode) {
         this.offer = offer;
         this.mode = mode;
+        this.slot = ResourceSlot.from(offer);
       }
 
+
       @Override
       public boolean equals(Object o) {
         if (!(o instanceof HostOffer)) {
@@ -264,9 +386,12 @@ public interface OfferQueue extends EventSubscriber {
      * the different indices used and their consistency.
      */
     private static class HostOffers {
+      private static final List<MaintenanceMode> PREFERENCE_ORDER =
+          ImmutableList.of(NONE, SCHEDULED, DRAINING, DRAINED);
+
       private static final Comparator<HostOffer> PREFERENCE_COMPARATOR =
           // Currently, the only preference is based on host maintenance status.
-          Ordering.explicit(NONE, SCHEDULED, DRAINING, DRAINED)
+          Ordering.explicit(PREFERENCE_ORDER)
               .onResultOf(new Function<HostOffer, MaintenanceMode>() {
                 @Override
                 public MaintenanceMode apply(HostOffer offer) {
@@ -279,11 +404,20 @@ public interface OfferQueue extends EventSubscriber {
       private final Map<OfferID, HostOffer> offersById = Maps.newHashMap();
       private final Map<SlaveID, HostOffer> offersBySlave = Maps.newHashMap();
       private final Map<String, HostOffer> offersByHost = Maps.newHashMap();
+      // Offers indexed by preference and then by the CPUs they hold, so that offers with too few
+      // CPUs for a task are never visited.  As with hostOffers, the indices are iterated without
+      // holding the lock, and offers may be removed during iteration.
+      private final Map<MaintenanceMode, ConcurrentNavigableMap<Double, Set<HostOffer>>>
+          offersByCpus = Maps.newEnumMap(MaintenanceMode.class);
+      private final AtomicLong offersSkipped = Stats.exportLong("offer_filter_evaluations_skipped");
 
       HostOffers() {
         // Potential gotcha - since this is a ConcurrentSkipListSet, size() is more expensive.
         // Could track this separately if it turns out to pose problems.
         Stats.exportSize("outstanding_offers", hostOffers);
+        for (MaintenanceMode mode : PREFERENCE_ORDER) {
+          offersByCpus.put(mode, new ConcurrentSkipListMap<Double, Set<HostOffer>>());
+        }
       }
 
       synchronized Optional<HostOffer> get(SlaveID slaveId) {
@@ -295,6 +429,13 @@ public interface OfferQueue extends EventSubscriber {
         offersById.put(offer.offer.getId(), offer);
         offersBySlave.put(offer.offer.getSlaveId(), offer);
         offersByHost.put(offer.offer.getHostname(), offer);
+        Map<Double, Set<HostOffer>> byCpus = offersByCpus.get(offer.mode);
+        Set<HostOffer> sameCpus = byCpus.get(offer.slot.getNumCpus());
+        if (sameCpus == null) {
+          sameCpus = Sets.newConcurrentHashSet();
+          byCpus.put(offer.slot.getNumCpus(), sameCpus);
+        }
+        sameCpus.add(offer);
       }
 
       synchronized boolean remove(OfferID id) {
@@ -303,10 +444,26 @@ public interface OfferQueue extends EventSubscriber {
           hostOffers.remove(removed);
           offersBySlave.remove(removed.offer.getSlaveId());
           offersByHost.remove(removed.offer.getHostname());
+          Map<Double, Set<HostOffer>> byCpus = offersByCpus.get(removed.mode);
+          Set<HostOffer> sameCpus = byCpus.get(removed.slot.getNumCpus());
+          sameCpus.remove(removed);
+          if (sameCpus.isEmpty()) {
+            byCpus.remove(removed.slot.getNumCpus());
+          }
         }
         return removed != null;
       }
 
+      synchronized boolean replace(Offer offer) {
+        HostOffer current = offersById.get(offer.getId());
+        if (current == null) {
+          return false;
+        }
+        remove(offer.getId());
+        add(new HostOffer(offer, current.mode));
+        return true;
+      }
+
       synchronized void updateHostMode(String hostName, MaintenanceMode mode) {
         HostOffer offer = offersByHost.remove(hostName);
         if (offer != null) {
@@ -320,11 +477,69 @@ public interface OfferQueue extends EventSubscriber {
         return Iterables.unmodifiableIterable(hostOffers);
       }
 
+      /**
+       * Gets the offers that can hold a slot, in order of preference.  Only offers with at least
+       * the CPUs of the slot are visited, and these are visited lazily as the result is iterated.
+       * Visited offers that lack any of the other resources of the slot are left out.
+       *
+       * @param slot Resources required from an offer.
+       * @return A weakly consistent view of the offers with at least the resources in
+       *         {@code slot}.
+       */
+      Iterable<HostOffer> getOffersFitting(final ResourceSlot slot) {
+        return FluentIterable.from(PREFERENCE_ORDER)
+            .transformAndConcat(new Function<MaintenanceMode, Iterable<HostOffer>>() {
+              @Override
+              public Iterable<HostOffer> apply(MaintenanceMode mode) {
+                return Iterables.concat(
+                    offersByCpus.get(mode).tailMap(slot.getNumCpus(), true).values());
+              }
+            })
+            .filter(new Predicate<HostOffer>() {
+              @Override
+              public boolean apply(HostOffer offer) {
+                if (offer.slot.hasAtLeast(slot)) {
+                  return true;
+                }
+                offersSkipped.incrementAndGet();
+                return false;
+              }
+            });
+      }
+
+      /**
+       * Gets a snapshot of the offers that cannot hold a slot.
+       *
+       * @param slot Resources required from an offer.
+       * @return Offers lacking any of the resources in {@code slot}.
+       */
+      synchronized List<Offer> getOffersNotFitting(ResourceSlot slot) {
+        List<Offer> tooSmall = Lists.newArrayList();
+        for (Map<Double, Set<HostOffer>> byCpus : offersByCpus.values()) {
+          for (Set<HostOffer> offers : byCpus.values()) {
+            for (HostOffer offer : offers) {
+              if (offer.slot.getNumCpus() < slot.getNumCpus()) {
+                // These offers are never visited by getOffersFitting, and so are only counted
+                // here, once it is known that the scheduling filter would have evaluated them.
+                offersSkipped.incrementAndGet();
+                tooSmall.add(offer.offer);
+              } else if (!offer.slot.hasAtLeast(slot)) {
+                tooSmall.add(offer.offer);
+              }
+            }
+          }
+        }
+        return tooSmall;
+      }
+
       synchronized void clear() {
         hostOffers.clear();
         offersById.clear();
         offersBySlave.clear();
         offersByHost.clear();
+        for (Map<Double, Set<HostOffer>> byCpus : offersByCpus.values()) {
+          byCpus.clear();
+        }
       }
     }
 
@@ -332,36 +547,159 @@ public interface OfferQueue extends EventSubscriber {
     public boolean launchFirst(Function<Offer, Optional<TaskInfo>> acceptor)
         throws LaunchException {
 
+      return launchFirst(hostOffers.getWeaklyConsistentOffers(), acceptor);
+    }
+
+    @Override
+    public boolean launchFirst(
+        ResourceSlot slot,
+        Function<Offer, Optional<TaskInfo>> acceptor,
+        Closure<Offer> skipped) throws LaunchException {
+
+      if (launchFirst(hostOffers.getOffersFitting(slot), acceptor)) {
+        return true;
+      }
+      reportSkipped(slot, skipped);
+      return false;
+    }
+
+    private void reportSkipped(ResourceSlot slot, Closure<Offer> skipped) {
+      // Skipped offers are reported outside of the offers lock, since they may be reported to
+      // other components.
+      for (Offer offer : hostOffers.getOffersNotFitting(slot)) {
+        skipped.execute(offer);
+      }
+    }
+
+    private boolean launchFirst(
+        Iterable<HostOffer> offers,
+        Function<Offer, Optional<TaskInfo>> acceptor) throws LaunchException {
+
       // It's important that this method is not called concurrently - doing so would open up the
       // possibility of a race between the same offers being accepted by different threads.
 
-      for (HostOffer hostOffer : hostOffers.getWeaklyConsistentOffers()) {
+      for (HostOffer hostOffer : offers) {
         Optional<TaskInfo> assignment = acceptor.apply(hostOffer.offer);
         if (assignment.isPresent()) {
-          // Guard against an offer being removed after we grabbed it from the iterator.
-          // If that happens, the offer will not exist in hostOffers, and we can immediately
-          // send it back to LOST for quick reschedule.
-          // Removing while iterating counts on the use of a weakly-consistent iterator being used,
-          // which is a feature of ConcurrentSkipListSet.
-          if (hostOffers.remove(hostOffer.offer.getId())) {
-            try {
-              driver.launchTask(hostOffer.offer.getId(), assignment.get());
-              return true;
-            } catch (IllegalStateException e) {
-              // TODO(William Farner): Catch only the checked exception produced by Driver
-              // once it changes from throwing IllegalStateException when the driver is not yet
-              // registered.
-              throw new LaunchException("Failed to launch task.", e);
-            }
+          launch(hostOffer, ImmutableList.of(assignment.get()));
+          return true;
+        }
+      }
+
+      return false;
+    }
+
+    @Override
+    public void launchAll(Function<Offer, List<TaskInfo>> acceptor) throws LaunchException {
+      launchAll(hostOffers.getWeaklyConsistentOffers(), acceptor);
+    }
+
+    @Override
+    public void launchAll(
+        ResourceSlot slot,
+        Function<Offer, List<TaskInfo>> acceptor,
+        Closure<Offer> skipped) throws LaunchException {
+
+      launchAll(hostOffers.getOffersFitting(slot), acceptor);
+      reportSkipped(slot, skipped);
+    }
+
+    private void launchAll(Iterable<HostOffer> offers, Function<Offer, List<TaskInfo>> acceptor)
+        throws LaunchException {
+
+      // As with launchFirst, this must not be called concurrently.
+
+      for (HostOffer hostOffer : offers) {
+        List<TaskInfo> assignments = acceptor.apply(hostOffer.offer);
+        if (!assignments.isEmpty()) {
+          launch(hostOffer, assignments);
+        }
+      }
+    }
+
+    private void launch(HostOffer hostOffer, List<TaskInfo> assignments) throws LaunchException {
+      if (launchWindowMs > 0) {
+        deferLaunch(hostOffer.offer, assignments);
+        return;
+      }
+
+      // Guard against an offer being removed after we grabbed it from the iterator.
+      // If that happens, the offer will not exist in hostOffers, and we can immediately
+      // send it back to LOST for quick reschedule.
+      // Removing while iterating counts on the use of a weakly-consistent iterator being used,
+      // which is a feature of ConcurrentSkipListSet.
+      if (hostOffers.remove(hostOffer.offer.getId())) {
+        try {
+          if (assignments.size() == 1) {
+            driver.launchTask(hostOffer.offer.getId(), Iterables.getOnlyElement(assignments));
           } else {
-            offerRaces.incrementAndGet();
-            throw new LaunchException(
-                "Accepted offer no longer exists in offer queue, likely data race.");
+            driver.launchTasks(hostOffer.offer.getId(), assignments);
           }
+        } catch (IllegalStateException e) {
+          // TODO(William Farner): Catch only the checked exception produced by Driver
+          // once it changes from throwing IllegalStateException when the driver is not yet
+          // registered.
+          throw new LaunchException("Failed to launch task.", e);
         }
+      } else {
+        offerRaces.incrementAndGet();
+        throw new LaunchException(
+            "Accepted offer no longer exists in offer queue, likely data race.");
       }
+    }
 
-      return false;
+    private void deferLaunch(final Offer offer, List<TaskInfo> assignments)
+        throws LaunchException {
+
+      boolean firstAssignment;
+      synchronized (pendingLaunches) {
+        // Keep what is left of the offer available for the remainder of the window.
+        if (!hostOffers.replace(Resources.residual(offer, assignments))) {
+          offerRaces.incrementAndGet();
+          throw new LaunchException(
+              "Accepted offer no longer exists in offer queue, likely data race.");
+        }
+
+        List<TaskInfo> pending = pendingLaunches.get(offer.getId());
+        firstAssignment = pending == null;
+        if (firstAssignment) {
+          pending = Lists.newArrayList();
+          pendingLaunches.put(offer.getId(), pending);
+        } else {
+          residualLaunches.addAndGet(assignments.size());
+        }
+        pending.addAll(assignments);
+      }
+
+      if (firstAssignment) {
+        executor.schedule(
+            new Runnable() {
+              @Override
+              public void run() {
+                List<TaskInfo> pending;
+                synchronized (pendingLaunches) {
+                  pending = pendingLaunches.remove(offer.getId());
+                  removeFromHostOffers(offer.getId());
+                }
+                if (pending != null) {
+                  launchDeferred(offer.getId(), pending);
+                }
+              }
+            },
+            launchWindowMs,
+            TimeUnit.MILLISECONDS);
+      }
+    }
+
+    private void launchDeferred(OfferID id, List<TaskInfo> tasks) {
+      try {
+        driver.launchTasks(id, tasks);
+      } catch (IllegalStateException e) {
+        // The tasks have already been assigned, they will time out in the ASSIGNED state and be
+        // rescheduled.
+        LOG.log(Level.WARNING, "Failed to launch tasks on offer " + id.getValue(), e);
+        deferredLaunchFailures.incrementAndGet();
+      }
     }
   }
 }
@@ -0,0 +1,260 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.scheduler.ResourceSlot;
+import org.apache.aurora.scheduler.base.Query;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.PubsubEvent.SynchronousSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import static org.apache.aurora.gen.ScheduleStatus.PREEMPTING;
+import static org.apache.aurora.scheduler.async.Preemptor.PreemptorImpl.TASK_TO_RESOURCES;
+
+/**
+ * An index of the active tasks that may be preempted, grouped by the slave they run on.
+ *
+ * <p>The index is maintained from task events rather than rebuilt for every preemption attempt,
+ * so that a search for preemption victims is a lookup of the slaves' candidates instead of a scan
+ * of all active tasks.  It is loaded from storage the first time it is used, in case it was
+ * created after the initial state of tasks was published.  Task events are received synchronously,
+ * so that a search never considers victims from before a task change that was already posted.
+ */
+class PreemptionIndex implements SynchronousSubscriber {
+
+  /**
+   * Statuses of tasks that may be preempted.  Only non-pending active tasks are candidates.
+   */
+  static final Set<ScheduleStatus> CANDIDATE_STATES =
+      EnumSet.copyOf(Sets.difference(Tasks.SLAVE_ASSIGNED_STATES, EnumSet.of(PREEMPTING)));
+
+  @VisibleForTesting
+  static final Query.Builder CANDIDATE_QUERY = Query.statusScoped(CANDIDATE_STATES);
+
+  /**
+   * The preemption candidates on a single slave, along with the cumulative resources of each prefix
+   * of the candidates.  Both are computed once each time the slave's candidates change.
+   */
+  static final class Victims {
+    private static final Victims NONE = new Victims(ImmutableList.<IAssignedTask>of());
+
+    private final List<IAssignedTask> tasks;
+    // The element at index i holds the resources of the first i candidates.
+    private final List<ResourceSlot> prefixSums;
+
+    private Victims(List<IAssignedTask> tasks) {
+      this.tasks = tasks;
+      ImmutableList.Builder<ResourceSlot> sums = ImmutableList.builder();
+      ResourceSlot sum = ResourceSlot.sum();
+      sums.add(sum);
+      for (IAssignedTask task : tasks) {
+        sum = ResourceSlot.sum(sum, TASK_TO_RESOURCES.apply(task));
+        sums.add(sum);
+      }
+      this.prefixSums = sums.build();
+    }
+
+    /**
+     * Gets the candidates, in reverse scheduling order.
+     *
+     * @return Tasks that may be preempted.
+     */
+    List<IAssignedTask> getTasks() {
+      return tasks;
+    }
+
+    /**
+     * Gets the resources reserved by the first {@code count} candidates.
+     *
+     * @param count Number of candidates, from zero to the number of candidates.
+     * @return Sum of the resources of the first {@code count} candidates.
+     */
+    ResourceSlot getResources(int count) {
+      return prefixSums.get(count);
+    }
+
+    /**
+     * Gets the resources reserved by all of the candidates, which bounds what preemption on the
+     * slave could ever free.
+     *
+     * @return Sum of the candidates' resources.
+     */
+    ResourceSlot getTotal() {
+      return getResources(tasks.size());
+    }
+  }
+
+  private static final class SlaveVictims {
+    private final SortedSet<IAssignedTask> tasks =
+        Sets.newTreeSet(Tasks.SCHEDULING_ORDER.reverse());
+
+    // Built on demand and discarded whenever the slave's candidates change.
+    private Victims victims;
+
+    Victims get() {
+      if (victims == null) {
+        victims = new Victims(ImmutableList.copyOf(tasks));
+      }
+      return victims;
+    }
+  }
+
+  private final Storage storage;
+
+  // Guarded by this.
+  private final Map<String, SlaveVictims> bySlave = Maps.newHashMap();
+  private final Map<String, IAssignedTask> byId = Maps.newHashMap();
+  private boolean loaded = false;
+  // Tasks that events have been received for before the index was loaded.
+  private final Set<String> updatedBeforeLoad = Sets.newHashSet();
+
+  @Inject
+  PreemptionIndex(Storage storage) {
+    this.storage = checkNotNull(storage);
+    Stats.exportSize("preemptor_indexed_candidates", byId);
+  }
+
+  /**
+   * Gets the slaves that have preemption candidates.
+   *
+   * @return Slave IDs.
+   */
+  Set<String> getSlaveIds() {
+    ensureLoaded();
+    synchronized (this) {
+      return ImmutableSet.copyOf(bySlave.keySet());
+    }
+  }
+
+  /**
+   * Gets the preemption candidates on a slave.
+   *
+   * @param slaveId Slave to get candidates for.
+   * @return The slave's candidates, which may be empty.
+   */
+  Victims getVictims(String slaveId) {
+    ensureLoaded();
+    synchronized (this) {
+      SlaveVictims slave = bySlave.get(slaveId);
+      return slave == null ? Victims.NONE : slave.get();
+    }
+  }
+
+  private void ensureLoaded() {
+    synchronized (this) {
+      if (loaded) {
+        return;
+      }
+    }
+
+    // Storage must not be accessed while holding the monitor, as events may be delivered by a
+    // thread that holds the storage lock.
+    Set<IScheduledTask> tasks = Storage.Util.consistentFetchTasks(storage, CANDIDATE_QUERY);
+    synchronized (this) {
+      if (!loaded) {
+        for (IScheduledTask task : tasks) {
+          // Events are at least as recent as the fetch, and take precedence.
+          if (!updatedBeforeLoad.contains(Tasks.id(task))) {
+            add(task.getAssignedTask());
+          }
+        }
+        updatedBeforeLoad.clear();
+        loaded = true;
+      }
+    }
+  }
+
+  private void add(IAssignedTask task) {
+    remove(task.getTaskId());
+    SlaveVictims slave = bySlave.get(task.getSlaveId());
+    if (slave == null) {
+      slave = new SlaveVictims();
+      bySlave.put(task.getSlaveId(), slave);
+    }
+    slave.tasks.add(task);
+    slave.victims = null;
+    byId.put(task.getTaskId(), task);
+  }
+
+  private void remove(String taskId) {
+    IAssignedTask removed = byId.remove(taskId);
+    if (removed != null) {
+      SlaveVictims slave = bySlave.get(removed.getSlaveId());
+      slave.tasks.remove(removed);
+      slave.victims = null;
+      if (slave.tasks.isEmpty()) {
+        bySlave.remove(removed.getSlaveId());
+      }
+    }
+  }
+
+  private void noteUpdated(String taskId) {
+    if (!loaded) {
+      updatedBeforeLoad.add(taskId);
+    }
+  }
+
+  /**
+   * Updates the index when a task changes state.
+   *
+   * @param stateChange State change notification.
+   */
+  @Subscribe
+  public synchronized void taskChangedState(TaskStateChange stateChange) {
+    noteUpdated(stateChange.getTaskId());
+    if (CANDIDATE_STATES.contains(stateChange.getNewState())) {
+      add(stateChange.getTask().getAssignedTask());
+    } else {
+      remove(stateChange.getTaskId());
+    }
+  }
+
+  /**
+   * Removes deleted tasks from the index.
+   *
+   * @param deleted Tasks deleted notification.
+   */
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted deleted) {
+    for (IScheduledTask task : deleted.getTasks()) {
+      noteUpdated(Tasks.id(task));
+      remove(Tasks.id(task));
+    }
+  }
+}
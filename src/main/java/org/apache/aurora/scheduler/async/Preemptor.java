@@ -17,9 +17,9 @@ package org.apache.aurora.scheduler.async;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
-import java.util.Collections;
-import java.util.EnumSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
 
@@ -31,14 +31,16 @@ import com.google.common.base.Optional;
 import com.google.common.base.Predicate;
 import com.google.common.base.Predicates;
 import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Ordering;
-import com.google.common.collect.Sets;
 import com.google.inject.BindingAnnotation;
+import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.Stats;
@@ -64,7 +66,6 @@ import static java.lang.annotation.RetentionPolicy.RUNTIME;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static org.apache.aurora.gen.ScheduleStatus.PENDING;
-import static org.apache.aurora.gen.ScheduleStatus.PREEMPTING;
 import static org.apache.aurora.scheduler.base.Tasks.SCHEDULED_TO_ASSIGNED;
 
 /**
@@ -81,6 +82,17 @@ public interface Preemptor {
    */
   Optional<String> findPreemptionSlotFor(String taskId, CachedJobState cachedJobState);
 
+  /**
+   * Preempts active tasks in favor of a group of identical tasks, such as the tasks of a
+   * {@link TaskGroup}, planning victims for all of them in a single pass over the slaves.  No
+   * slave is chosen for more than one of the tasks.
+   *
+   * @param taskIds IDs of the preempting tasks.
+   * @param cachedJobState Cached information about the job containing the tasks.
+   * @return ID of the slave where preemption occurred, for each task that a slot was found for.
+   */
+  Map<String, String> findPreemptionSlotsFor(Set<String> taskIds, CachedJobState cachedJobState);
+
   /**
    * A task preemptor that tries to find tasks that are waiting to be scheduled, which are of higher
    * priority than tasks that are currently running.
@@ -100,8 +112,7 @@ public interface Preemptor {
     @interface PreemptionDelay { }
 
     @VisibleForTesting
-    static final Query.Builder CANDIDATE_QUERY = Query.statusScoped(
-        EnumSet.copyOf(Sets.difference(Tasks.SLAVE_ASSIGNED_STATES, EnumSet.of(PREEMPTING))));
+    static final Query.Builder CANDIDATE_QUERY = PreemptionIndex.CANDIDATE_QUERY;
 
     private static final Function<IAssignedTask, Integer> GET_PRIORITY =
         new Function<IAssignedTask, Integer>() {
@@ -116,6 +127,9 @@ public interface Preemptor {
     private final AtomicLong attemptedPreemptions = Stats.exportLong("preemptor_attempts");
     // Incremented every time we fail to find tasks to preempt for a pending task.
     private final AtomicLong noSlotsFound = Stats.exportLong("preemptor_no_slots_found");
+    // Incremented for every slave ruled out without filtering, as even preempting all of its
+    // candidates could not free enough resources.
+    private final AtomicLong slavesSkipped = Stats.exportLong("preemptor_slaves_skipped");
 
     private final Predicate<IScheduledTask> isIdleTask = new Predicate<IScheduledTask>() {
       @Override
@@ -131,6 +145,8 @@ public interface Preemptor {
     private final SchedulingFilter schedulingFilter;
     private final Amount<Long, Time> preemptionCandidacyDelay;
     private final Clock clock;
+    private final PreemptionIndex index;
+    private final VictimSelector victimSelector;
 
     /**
      * Creates a new preemptor.
@@ -142,6 +158,8 @@ public interface Preemptor {
      * @param preemptionCandidacyDelay Time a task must be PENDING before it may preempt other
      *                                 tasks.
      * @param clock Clock to check current time.
+     * @param index Index of the tasks that may be preempted.
+     * @param victimSelector Strategy to choose the tasks to preempt on a slave.
      */
     @Inject
     PreemptorImpl(
@@ -150,7 +168,9 @@ public interface Preemptor {
         OfferQueue offerQueue,
         SchedulingFilter schedulingFilter,
         @PreemptionDelay Amount<Long, Time> preemptionCandidacyDelay,
-        Clock clock) {
+        Clock clock,
+        PreemptionIndex index,
+        VictimSelector victimSelector) {
 
       this.storage = checkNotNull(storage);
       this.stateManager = checkNotNull(stateManager);
@@ -158,6 +178,28 @@ public interface Preemptor {
       this.schedulingFilter = checkNotNull(schedulingFilter);
       this.preemptionCandidacyDelay = checkNotNull(preemptionCandidacyDelay);
       this.clock = checkNotNull(clock);
+      this.index = checkNotNull(index);
+      this.victimSelector = checkNotNull(victimSelector);
+    }
+
+    @VisibleForTesting
+    PreemptorImpl(
+        Storage storage,
+        StateManager stateManager,
+        OfferQueue offerQueue,
+        SchedulingFilter schedulingFilter,
+        Amount<Long, Time> preemptionCandidacyDelay,
+        Clock clock) {
+
+      this(
+          storage,
+          stateManager,
+          offerQueue,
+          schedulingFilter,
+          preemptionCandidacyDelay,
+          clock,
+          new PreemptionIndex(storage),
+          VictimSelector.Strategy.RESOURCE_VECTOR);
     }
 
     private List<IAssignedTask> fetch(Query.Builder query, Predicate<IScheduledTask> filter) {
@@ -166,18 +208,6 @@ public interface Preemptor {
           SCHEDULED_TO_ASSIGNED));
     }
 
-    private List<IAssignedTask> fetch(Query.Builder query) {
-      return fetch(query, Predicates.<IScheduledTask>alwaysTrue());
-    }
-
-    private static final Function<IAssignedTask, String> TASK_TO_SLAVE_ID =
-        new Function<IAssignedTask, String>() {
-          @Override
-          public String apply(IAssignedTask input) {
-            return input.getSlaveId();
-          }
-        };
-
     private static Predicate<IAssignedTask> canPreempt(final IAssignedTask pending) {
       return new Predicate<IAssignedTask>() {
         @Override
@@ -187,7 +217,7 @@ public interface Preemptor {
       };
     }
 
-    private static final Function<IAssignedTask, ResourceSlot> TASK_TO_RESOURCES =
+    static final Function<IAssignedTask, ResourceSlot> TASK_TO_RESOURCES =
         new Function<IAssignedTask, ResourceSlot>() {
           @Override
           public ResourceSlot apply(IAssignedTask input) {
@@ -211,22 +241,19 @@ public interface Preemptor {
           }
         };
 
-    // TODO(zmanji) Consider using Dominant Resource Fairness for ordering instead of the vector
-    // ordering
-    private static final Ordering<IAssignedTask> RESOURCE_ORDER =
-        ResourceSlot.ORDER.onResultOf(TASK_TO_RESOURCES).reverse();
-
     /**
      * Optional.absent indicates that this slave does not have enough resources to satisfy the task.
      * The empty set indicates the offers (slack) are enough.
      * A set with elements indicates those tasks and the offers are enough.
      */
     private Optional<Set<IAssignedTask>> getTasksToPreempt(
-        Iterable<IAssignedTask> possibleVictims,
+        PreemptionIndex.Victims victims,
         Iterable<Offer> offers,
         IAssignedTask pendingTask,
         CachedJobState cachedJobState) {
 
+      List<IAssignedTask> possibleVictims = victims.getTasks();
+
       // This enforces the precondition that all of the resources are from the same host. We need to
       // get the host for the schedulingFilter.
       Set<String> hosts = ImmutableSet.<String>builder()
@@ -238,6 +265,14 @@ public interface Preemptor {
       ResourceSlot slackResources =
           ResourceSlot.sum(Iterables.transform(offers, OFFER_TO_RESOURCE_SLOT));
 
+      if (!ResourceSlot.sum(slackResources, victims.getTotal())
+          .hasAtLeast(ResourceSlot.from(pendingTask.getTask()))) {
+
+        // Neither the slack nor any subset of victims could satisfy the task.
+        slavesSkipped.incrementAndGet();
+        return Optional.absent();
+      }
+
       if (!Iterables.isEmpty(offers)) {
         Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
             slackResources,
@@ -260,14 +295,17 @@ public interface Preemptor {
 
       List<IAssignedTask> toPreemptTasks = Lists.newArrayList();
 
-      Iterable<IAssignedTask> sortedVictims = RESOURCE_ORDER.immutableSortedCopy(preemptableTasks);
+      Iterable<IAssignedTask> sortedVictims = victimSelector.order(
+          preemptableTasks.toList(),
+          ResourceSlot.from(pendingTask.getTask()),
+          slackResources);
 
+      // The selector may reorder and omit candidates, so the index's prefix sums do not apply to
+      // its order, and the freed resources are accumulated as victims are added instead.
+      ResourceSlot totalResource = slackResources;
       for (IAssignedTask victim : sortedVictims) {
         toPreemptTasks.add(victim);
-
-        ResourceSlot totalResource = ResourceSlot.sum(
-            ResourceSlot.sum(Iterables.transform(toPreemptTasks, TASK_TO_RESOURCES)),
-            slackResources);
+        totalResource = ResourceSlot.sum(totalResource, TASK_TO_RESOURCES.apply(victim));
 
         Set<SchedulingFilter.Veto> vetos = schedulingFilter.filter(
             totalResource,
@@ -291,17 +329,6 @@ public interface Preemptor {
           }
         };
 
-    private Multimap<String, IAssignedTask> getSlavesToActiveTasks() {
-      // Only non-pending active tasks may be preempted.
-      List<IAssignedTask> activeTasks = fetch(CANDIDATE_QUERY);
-
-      // Walk through the preemption candidates in reverse scheduling order.
-      Collections.sort(activeTasks, Tasks.SCHEDULING_ORDER.reverse());
-
-      // Group the tasks by slave id so they can be paired with offers from the same slave.
-      return Multimaps.index(activeTasks, TASK_TO_SLAVE_ID);
-    }
-
     @Override
     public synchronized Optional<String> findPreemptionSlotFor(
         String taskId,
@@ -315,15 +342,39 @@ public interface Preemptor {
         return Optional.absent();
       }
 
-      IAssignedTask pendingTask = Iterables.getOnlyElement(pendingTasks);
+      return Optional.fromNullable(preemptFor(pendingTasks, cachedJobState).get(taskId));
+    }
 
-      Multimap<String, IAssignedTask> slavesToActiveTasks = getSlavesToActiveTasks();
+    @Timed("preemptor_batch_planning")
+    @Override
+    public synchronized Map<String, String> findPreemptionSlotsFor(
+        Set<String> taskIds,
+        CachedJobState cachedJobState) {
 
-      if (slavesToActiveTasks.isEmpty()) {
-        return Optional.absent();
+      // Tasks that are no longer PENDING need no preemption.
+      List<IAssignedTask> pendingTasks = Ordering.natural().onResultOf(Tasks.ASSIGNED_TO_ID)
+          .sortedCopy(fetch(Query.statusScoped(PENDING).byId(taskIds), isIdleTask));
+
+      if (pendingTasks.isEmpty()) {
+        return ImmutableMap.of();
       }
 
-      attemptedPreemptions.incrementAndGet();
+      return preemptFor(pendingTasks, cachedJobState);
+    }
+
+    private Map<String, String> preemptFor(
+        List<IAssignedTask> pendingTasks,
+        CachedJobState cachedJobState) {
+
+      // Preemption candidates, grouped by slave id so they can be paired with offers from the
+      // same slave.
+      Set<String> slavesWithVictims = index.getSlaveIds();
+
+      if (slavesWithVictims.isEmpty()) {
+        return ImmutableMap.of();
+      }
+
+      attemptedPreemptions.addAndGet(pendingTasks.size());
 
       // Group the offers by slave id so they can be paired with active tasks from the same slave.
       Multimap<String, Offer> slavesToOffers =
@@ -331,12 +382,17 @@ public interface Preemptor {
 
       Set<String> allSlaves = ImmutableSet.<String>builder()
           .addAll(slavesToOffers.keySet())
-          .addAll(slavesToActiveTasks.keySet())
+          .addAll(slavesWithVictims)
           .build();
 
+      // The pending tasks schedule identically, so a slave that cannot make room for one of them
+      // cannot make room for any other, and each slave need only be considered once.
+      Map<String, String> slots = Maps.newHashMap();
+      Iterator<IAssignedTask> remaining = pendingTasks.iterator();
+      IAssignedTask pendingTask = remaining.next();
       for (String slaveID : allSlaves) {
         Optional<Set<IAssignedTask>> toPreemptTasks = getTasksToPreempt(
-            slavesToActiveTasks.get(slaveID),
+            index.getVictims(slaveID),
             slavesToOffers.get(slaveID),
             pendingTask,
             cachedJobState);
@@ -350,12 +406,16 @@ public interface Preemptor {
                 Optional.of("Preempting in favor of " + pendingTask.getTaskId()));
             tasksPreempted.incrementAndGet();
           }
-          return Optional.of(slaveID);
+          slots.put(pendingTask.getTaskId(), slaveID);
+          if (!remaining.hasNext()) {
+            break;
+          }
+          pendingTask = remaining.next();
         }
       }
 
-      noSlotsFound.incrementAndGet();
-      return Optional.absent();
+      noSlotsFound.addAndGet(pendingTasks.size() - slots.size());
+      return slots;
     }
 
     private static final Predicate<IAssignedTask> IS_PRODUCTION =
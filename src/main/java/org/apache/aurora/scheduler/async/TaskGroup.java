@@ -82,6 +82,21 @@ class TaskGroup {
     return head.taskId;
   }
 
+  /**
+   * Removes up to {@code max} tasks from the head of the queue that are ready to be scheduled.
+   *
+   * @param nowMs The current time.
+   * @param max Maximum number of tasks to remove.
+   * @return The ids of the removed tasks.
+   */
+  Set<String> popReady(long nowMs, int max) {
+    ImmutableSet.Builder<String> ready = ImmutableSet.builder();
+    for (int i = 0; i < max && isReady(nowMs) == GroupState.READY; i++) {
+      ready.add(pop());
+    }
+    return ready.build();
+  }
+
   void remove(String taskId) {
     Iterables.removeIf(tasks, Predicates.compose(Predicates.equalTo(taskId), TO_TASK_ID));
   }
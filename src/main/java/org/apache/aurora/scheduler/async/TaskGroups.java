@@ -15,6 +15,7 @@
  */
 package org.apache.aurora.scheduler.async;
 
+import java.util.Set;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
@@ -29,6 +30,7 @@ import com.google.common.cache.CacheLoader;
 import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.RateLimiter;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
@@ -45,11 +47,13 @@ import org.apache.aurora.scheduler.base.JobKeys;
 import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChanges;
 import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
 import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
 import static org.apache.aurora.gen.ScheduleStatus.PENDING;
@@ -63,6 +67,10 @@ import static org.apache.aurora.scheduler.async.TaskGroup.GroupState;
  * This is used to prevent redundant work in trying to schedule tasks as well as to provide
  * nearly-equal responsiveness when scheduling across jobs.  In other words, a 1000 instance job
  * cannot starve a 1 instance job.
+ * <p>
+ * When configured with a batch size greater than one, up to that many ready tasks are taken from
+ * a group at once and handed to {@link TaskScheduler#scheduleBatch(Set)}, since tasks in a group
+ * are interchangeable as far as matching them to offers is concerned.
  */
 public class TaskGroups implements EventSubscriber {
 
@@ -71,14 +79,22 @@ public class TaskGroups implements EventSubscriber {
   private final LoadingCache<GroupKey, TaskGroup> groups;
   private final Clock clock;
   private final RescheduleCalculator rescheduleCalculator;
+  private final int batchSize;
 
   static class TaskGroupsSettings {
     private final BackoffStrategy taskGroupBackoff;
     private final RateLimiter rateLimiter;
+    private final int batchSize;
 
     TaskGroupsSettings(BackoffStrategy taskGroupBackoff, RateLimiter rateLimiter) {
+      this(taskGroupBackoff, rateLimiter, 1);
+    }
+
+    TaskGroupsSettings(BackoffStrategy taskGroupBackoff, RateLimiter rateLimiter, int batchSize) {
+      checkArgument(batchSize > 0);
       this.taskGroupBackoff = checkNotNull(taskGroupBackoff);
       this.rateLimiter = checkNotNull(rateLimiter);
+      this.batchSize = batchSize;
     }
   }
 
@@ -94,6 +110,26 @@ public class TaskGroups implements EventSubscriber {
         createThreadPool(shutdownRegistry),
         settings.taskGroupBackoff,
         settings.rateLimiter,
+        settings.batchSize,
+        taskScheduler,
+        clock,
+        rescheduleCalculator);
+  }
+
+  @VisibleForTesting
+  TaskGroups(
+      ScheduledExecutorService executor,
+      BackoffStrategy taskGroupBackoffStrategy,
+      RateLimiter rateLimiter,
+      TaskScheduler taskScheduler,
+      Clock clock,
+      RescheduleCalculator rescheduleCalculator) {
+
+    this(
+        executor,
+        taskGroupBackoffStrategy,
+        rateLimiter,
+        1,
         taskScheduler,
         clock,
         rescheduleCalculator);
@@ -104,16 +140,19 @@ public class TaskGroups implements EventSubscriber {
       final ScheduledExecutorService executor,
       final BackoffStrategy taskGroupBackoffStrategy,
       final RateLimiter rateLimiter,
+      int batchSize,
       final TaskScheduler taskScheduler,
       final Clock clock,
       final RescheduleCalculator rescheduleCalculator) {
 
+    checkArgument(batchSize > 0);
     checkNotNull(executor);
     checkNotNull(taskGroupBackoffStrategy);
     checkNotNull(rateLimiter);
     checkNotNull(taskScheduler);
     this.clock = checkNotNull(clock);
     this.rescheduleCalculator = checkNotNull(rescheduleCalculator);
+    this.batchSize = batchSize;
 
     final TaskScheduler ratelLimitedScheduler = new TaskScheduler() {
       @Override
@@ -121,6 +160,13 @@ public class TaskGroups implements EventSubscriber {
         rateLimiter.acquire();
         return taskScheduler.schedule(taskId);
       }
+
+      @Override
+      public Set<String> scheduleBatch(Set<String> taskIds) {
+        // A batch is scheduled in a single attempt.
+        rateLimiter.acquire();
+        return taskScheduler.scheduleBatch(taskIds);
+      }
     };
 
     groups = CacheBuilder.newBuilder().build(new CacheLoader<GroupKey, TaskGroup>() {
@@ -158,6 +204,11 @@ public class TaskGroups implements EventSubscriber {
             break;
 
           case READY:
+            if (batchSize > 1) {
+              scheduleBatch();
+              break;
+            }
+
             String id = group.pop();
             TaskScheduler.TaskSchedulerResult result = taskScheduler.schedule(id);
             switch (result) {
@@ -185,6 +236,22 @@ public class TaskGroups implements EventSubscriber {
             throw new IllegalStateException("Unknown GroupState " + state);
         }
       }
+
+      private void scheduleBatch() {
+        Set<String> batch = group.popReady(clock.nowMillis(), batchSize);
+        Set<String> unscheduled = Sets.difference(batch, taskScheduler.scheduleBatch(batch));
+        if (unscheduled.isEmpty()) {
+          if (!maybeInvalidate(group)) {
+            executor.schedule(this, group.resetPenaltyAndGet(), TimeUnit.MILLISECONDS);
+          }
+        } else {
+          long nowMs = clock.nowMillis();
+          for (String taskId : unscheduled) {
+            group.push(taskId, nowMs);
+          }
+          executor.schedule(this, group.penalizeAndGet(), TimeUnit.MILLISECONDS);
+        }
+      }
     };
     executor.schedule(monitor, group.getPenaltyMs(), TimeUnit.MILLISECONDS);
   }
@@ -220,6 +287,22 @@ public class TaskGroups implements EventSubscriber {
    */
   @Subscribe
   public synchronized void taskChangedState(TaskStateChange stateChange) {
+    recordStateChange(stateChange);
+  }
+
+  /**
+   * Informs the task groups of many task state changes at once, such as when a job is created.
+   *
+   * @param stateChanges State change notifications.
+   */
+  @Subscribe
+  public synchronized void tasksChangedState(TaskStateChanges stateChanges) {
+    for (TaskStateChange stateChange : stateChanges.getChanges()) {
+      recordStateChange(stateChange);
+    }
+  }
+
+  private void recordStateChange(TaskStateChange stateChange) {
     if (stateChange.getNewState() == PENDING) {
       IScheduledTask task = stateChange.getTask();
       long readyAtMs = stateChange.isTransition()
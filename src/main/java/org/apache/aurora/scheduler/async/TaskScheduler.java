@@ -17,6 +17,9 @@ package org.apache.aurora.scheduler.async;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
@@ -27,15 +30,18 @@ import javax.inject.Inject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
-import com.google.common.base.Supplier;
-import com.google.common.base.Suppliers;
 import com.google.common.base.Ticker;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.inject.BindingAnnotation;
+import com.twitter.common.base.Closure;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -43,17 +49,24 @@ import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.util.Clock;
 
+import org.apache.aurora.scheduler.ResourceSlot;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
-import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.configuration.Resources;
+import org.apache.aurora.scheduler.events.EventSink;
+import org.apache.aurora.scheduler.events.PubsubEvent.SynchronousSubscriber;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.events.PubsubEvent.Vetoed;
+import org.apache.aurora.scheduler.filter.AttributeAggregator;
 import org.apache.aurora.scheduler.filter.CachedJobState;
+import org.apache.aurora.scheduler.filter.SchedulingFilter.Veto;
+import org.apache.aurora.scheduler.filter.SchedulingFilterImpl;
 import org.apache.aurora.scheduler.state.StateManager;
 import org.apache.aurora.scheduler.state.TaskAssigner;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
 import org.apache.aurora.scheduler.storage.Storage.MutateWork;
-import org.apache.aurora.scheduler.storage.TaskStore;
 import org.apache.aurora.scheduler.storage.entities.IJobKey;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.mesos.Protos.Offer;
@@ -71,9 +84,10 @@ import static org.apache.aurora.gen.ScheduleStatus.LOST;
 import static org.apache.aurora.gen.ScheduleStatus.PENDING;
 
 /**
- * Enables scheduling and preemption of tasks.
+ * Enables scheduling and preemption of tasks.  Task events are received synchronously, since they
+ * invalidate the cached state of jobs that scheduling decisions are made against.
  */
-interface TaskScheduler extends EventSubscriber {
+interface TaskScheduler extends SynchronousSubscriber {
 
   /**
    * Attempts to schedule a task, possibly performing irreversible actions.
@@ -84,6 +98,16 @@ interface TaskScheduler extends EventSubscriber {
    */
   TaskSchedulerResult schedule(String taskId);
 
+  /**
+   * Attempts to schedule a batch of tasks that schedule identically, such as the tasks of a
+   * {@link TaskGroup}, in a single pass over the available offers.
+   *
+   * @param taskIds The tasks to attempt to schedule.
+   * @return The ids of tasks that were scheduled or otherwise need no further attempts.  The caller
+   * should attempt to schedule the remaining tasks again.
+   */
+  Set<String> scheduleBatch(Set<String> taskIds);
+
   enum TaskSchedulerResult {
     SUCCESS,
     TRY_AGAIN
@@ -110,10 +134,17 @@ interface TaskScheduler extends EventSubscriber {
     private final TaskAssigner assigner;
     private final OfferQueue offerQueue;
     private final Preemptor preemptor;
+    private final EventSink eventSink;
+    private final JobStateCache jobStates;
     private final Reservations reservations;
 
     private final AtomicLong scheduleAttemptsFired = Stats.exportLong("schedule_attempts_fired");
     private final AtomicLong scheduleAttemptsFailed = Stats.exportLong("schedule_attempts_failed");
+    private final AtomicLong scheduleBatchesFired = Stats.exportLong("schedule_batches_fired");
+    // Slaves reserved for pending tasks after preempting on their behalf.
+    private final AtomicLong preemptionsPlanned = Stats.exportLong("preemption_slots_planned");
+    // Tasks launched on a slave that was reserved for them.
+    private final AtomicLong preemptionsRealized = Stats.exportLong("preemption_slots_realized");
 
     @Inject
     TaskSchedulerImpl(
@@ -122,6 +153,8 @@ interface TaskScheduler extends EventSubscriber {
         TaskAssigner assigner,
         OfferQueue offerQueue,
         Preemptor preemptor,
+        EventSink eventSink,
+        AttributeAggregator attributeAggregator,
         @ReservationDuration Amount<Long, Time> reservationDuration,
         final Clock clock) {
 
@@ -130,6 +163,8 @@ interface TaskScheduler extends EventSubscriber {
       this.assigner = checkNotNull(assigner);
       this.offerQueue = checkNotNull(offerQueue);
       this.preemptor = checkNotNull(preemptor);
+      this.eventSink = checkNotNull(eventSink);
+      this.jobStates = new JobStateCache(storage, attributeAggregator);
       this.reservations = new Reservations(reservationDuration, clock);
     }
 
@@ -145,7 +180,11 @@ interface TaskScheduler extends EventSubscriber {
           if (reservedTaskId.isPresent()) {
             if (taskId.equals(reservedTaskId.get())) {
               // Slave is reserved to satisfy this task.
-              return assigner.maybeAssign(offer, task, cachedJobState);
+              Optional<TaskInfo> assignment = assigner.maybeAssign(offer, task, cachedJobState);
+              if (assignment.isPresent()) {
+                preemptionsRealized.incrementAndGet();
+              }
+              return assignment;
             } else {
               // Slave is reserved for another task.
               return Optional.absent();
@@ -158,24 +197,52 @@ interface TaskScheduler extends EventSubscriber {
       };
     }
 
-    @VisibleForTesting
-    static final Optional<String> LAUNCH_FAILED_MSG =
-        Optional.of("Unknown exception attempting to schedule task.");
+    /**
+     * Finds the nearest fit for a task among the offers skipped for being too small to hold it.
+     * Skipped offers never reach the scheduling filter, so the task is vetoed here for their
+     * insufficient resources to keep the reason it is pending visible.
+     */
+    private class SkippedOffers implements Closure<Offer> {
+      private final ResourceSlot required;
+      private Set<Veto> nearest = ImmutableSet.of();
 
-    @VisibleForTesting
-    static Query.Builder activeJobStateQuery(IJobKey jobKey) {
-      return Query.jobScoped(jobKey).byStatus(Tasks.SLAVE_ASSIGNED_STATES);
-    }
+      SkippedOffers(ResourceSlot required) {
+        this.required = required;
+      }
 
-    private CachedJobState getJobState(final TaskStore store, final IJobKey jobKey) {
-      return new CachedJobState(Suppliers.memoize(new Supplier<ImmutableSet<IScheduledTask>>() {
-        @Override
-        public ImmutableSet<IScheduledTask> get() {
-          return store.fetchTasks(activeJobStateQuery(jobKey));
+      private int score(Set<Veto> vetoes) {
+        int score = 0;
+        for (Veto veto : vetoes) {
+          score += veto.getScore();
+        }
+        return score;
+      }
+
+      @Override
+      public void execute(Offer offer) {
+        Set<Veto> vetoes =
+            SchedulingFilterImpl.getResourceVetoes(ResourceSlot.from(offer), required);
+        // Fewer vetoes make a nearer fit, as with the vetoes reported by the scheduling filter.
+        if (nearest.isEmpty()
+            || vetoes.size() < nearest.size()
+            || (vetoes.size() == nearest.size() && score(vetoes) < score(nearest))) {
+          nearest = vetoes;
+        }
+      }
+
+      void vetoed(Iterable<String> taskIds) {
+        if (!nearest.isEmpty()) {
+          for (String taskId : taskIds) {
+            eventSink.post(new Vetoed(taskId, nearest));
+          }
         }
-      }));
+      }
     }
 
+    @VisibleForTesting
+    static final Optional<String> LAUNCH_FAILED_MSG =
+        Optional.of("Unknown exception attempting to schedule task.");
+
     @Timed("task_schedule_attempt")
     @Override
     public TaskSchedulerResult schedule(final String taskId) {
@@ -191,11 +258,18 @@ interface TaskScheduler extends EventSubscriber {
             if (task == null) {
               LOG.warning("Failed to look up task " + taskId + ", it may have been deleted.");
             } else {
-              final CachedJobState cachedJobState =
-                  getJobState(store.getTaskStore(), Tasks.SCHEDULED_TO_JOB_KEY.apply(task));
+              IJobKey jobKey = Tasks.SCHEDULED_TO_JOB_KEY.apply(task);
+              final CachedJobState cachedJobState = jobStates.get(jobKey);
+              ResourceSlot slot = ResourceSlot.from(task.getAssignedTask().getTask());
+              SkippedOffers skipped = new SkippedOffers(slot);
               try {
-                if (!offerQueue.launchFirst(getAssignerFunction(cachedJobState, taskId, task))) {
+                boolean launched = offerQueue.launchFirst(
+                    slot,
+                    getAssignerFunction(cachedJobState, taskId, task),
+                    skipped);
+                if (!launched) {
                   // Task could not be scheduled.
+                  skipped.vetoed(ImmutableList.of(taskId));
                   maybePreemptFor(taskId, cachedJobState);
                   return TaskSchedulerResult.TRY_AGAIN;
                 }
@@ -224,21 +298,162 @@ interface TaskScheduler extends EventSubscriber {
       }
     }
 
+    /**
+     * Assigns the tasks of a batch to offers, placing as many tasks on each offer as its resources
+     * allow.  Since the tasks in a batch are identical, an offer that vetoes one task is not
+     * evaluated against the others.
+     * <p>
+     * The job's state is kept for the whole batch.  Its attribute aggregate is live, so limit
+     * constraints account for the tasks assigned earlier in the batch.
+     */
+    private class BatchAssigner implements Function<Offer, List<TaskInfo>> {
+      private final Map<String, IScheduledTask> unassigned;
+      private final CachedJobState cachedJobState;
+      private List<TaskInfo> lastAssignment = ImmutableList.of();
+
+      BatchAssigner(IJobKey jobKey, Map<String, IScheduledTask> tasks) {
+        this.unassigned = Maps.newLinkedHashMap(tasks);
+        this.cachedJobState = jobStates.get(jobKey);
+      }
+
+      @Override
+      public List<TaskInfo> apply(Offer offer) {
+        lastAssignment = Lists.newArrayList();
+        if (unassigned.isEmpty()) {
+          return lastAssignment;
+        }
+
+        Optional<String> reservedTaskId = reservations.getSlaveReservation(offer.getSlaveId());
+        if (reservedTaskId.isPresent()) {
+          // The slave is reserved for a single task, which may or may not be in this batch.
+          IScheduledTask task = unassigned.get(reservedTaskId.get());
+          if (task != null && assign(offer, task).isPresent()) {
+            preemptionsRealized.incrementAndGet();
+          }
+        } else {
+          Offer residual = offer;
+          for (IScheduledTask task : ImmutableList.copyOf(unassigned.values())) {
+            Optional<TaskInfo> taskInfo = assign(residual, task);
+            if (!taskInfo.isPresent()) {
+              break;
+            }
+            residual = Resources.residual(residual, ImmutableList.of(taskInfo.get()));
+          }
+        }
+        return lastAssignment;
+      }
+
+      private Optional<TaskInfo> assign(Offer offer, IScheduledTask task) {
+        Optional<TaskInfo> taskInfo = assigner.maybeAssign(offer, task, cachedJobState);
+        if (taskInfo.isPresent()) {
+          unassigned.remove(Tasks.id(task));
+          lastAssignment.add(taskInfo.get());
+        }
+        return taskInfo;
+      }
+    }
+
+    @Timed("task_schedule_batch_attempt")
+    @Override
+    public Set<String> scheduleBatch(final Set<String> taskIds) {
+      scheduleAttemptsFired.addAndGet(taskIds.size());
+      scheduleBatchesFired.incrementAndGet();
+      try {
+        return storage.write(new MutateWork.Quiet<Set<String>>() {
+          @Override
+          public Set<String> apply(MutableStoreProvider store) {
+            LOG.fine("Attempting to schedule tasks " + taskIds);
+            Map<String, IScheduledTask> tasks = Tasks.mapById(
+                store.getTaskStore().fetchTasks(Query.taskScoped(taskIds).byStatus(PENDING)));
+            if (tasks.size() != taskIds.size()) {
+              LOG.warning("Failed to look up tasks "
+                  + Sets.difference(taskIds, tasks.keySet()) + ", they may have been deleted.");
+            }
+            if (tasks.isEmpty()) {
+              return taskIds;
+            }
+
+            // Tasks in a batch are identical, so any one of them describes the whole batch.
+            IScheduledTask template = Iterables.get(tasks.values(), 0);
+            BatchAssigner batchAssigner =
+                new BatchAssigner(Tasks.SCHEDULED_TO_JOB_KEY.apply(template), tasks);
+            ResourceSlot slot = ResourceSlot.from(template.getAssignedTask().getTask());
+            SkippedOffers skipped = new SkippedOffers(slot);
+            try {
+              offerQueue.launchAll(slot, batchAssigner, skipped);
+            } catch (OfferQueue.LaunchException e) {
+              LOG.log(Level.WARNING, "Failed to launch tasks.", e);
+              scheduleAttemptsFailed.addAndGet(batchAssigner.lastAssignment.size());
+
+              // As when scheduling a single task, backpedal on the assignments that failed to
+              // launch.  Their replacements will be scheduled afresh.
+              for (TaskInfo taskInfo : batchAssigner.lastAssignment) {
+                stateManager.changeState(
+                    taskInfo.getTaskId().getValue(),
+                    Optional.of(PENDING),
+                    LOST,
+                    LAUNCH_FAILED_MSG);
+              }
+            }
+
+            skipped.vetoed(batchAssigner.unassigned.keySet());
+            maybePreemptFor(batchAssigner.unassigned.keySet(), batchAssigner.cachedJobState);
+            return ImmutableSet.copyOf(
+                Sets.difference(taskIds, batchAssigner.unassigned.keySet()));
+          }
+        });
+      } catch (RuntimeException e) {
+        // As with single task scheduling, leave the tasks to be retried.
+        LOG.log(Level.WARNING, "Batch scheduling unexpectedly failed, will be retried", e);
+        scheduleAttemptsFailed.addAndGet(taskIds.size());
+        return ImmutableSet.of();
+      }
+    }
+
     private void maybePreemptFor(String taskId, CachedJobState cachedJobState) {
       if (reservations.hasReservationForTask(taskId)) {
         return;
       }
       Optional<String> slaveId = preemptor.findPreemptionSlotFor(taskId, cachedJobState);
       if (slaveId.isPresent()) {
-        this.reservations.add(SlaveID.newBuilder().setValue(slaveId.get()).build(), taskId);
+        reserve(slaveId.get(), taskId);
       }
     }
 
+    private void maybePreemptFor(Set<String> taskIds, CachedJobState cachedJobState) {
+      Set<String> unreserved = Sets.newHashSet();
+      for (String taskId : taskIds) {
+        if (!reservations.hasReservationForTask(taskId)) {
+          unreserved.add(taskId);
+        }
+      }
+      if (unreserved.isEmpty()) {
+        return;
+      }
+
+      for (Map.Entry<String, String> slot
+          : preemptor.findPreemptionSlotsFor(unreserved, cachedJobState).entrySet()) {
+
+        reserve(slot.getValue(), slot.getKey());
+      }
+    }
+
+    private void reserve(String slaveId, String taskId) {
+      reservations.add(SlaveID.newBuilder().setValue(slaveId).build(), taskId);
+      preemptionsPlanned.incrementAndGet();
+    }
+
     @Subscribe
     public void taskChanged(final TaskStateChange stateChangeEvent) {
       if (Optional.of(PENDING).equals(stateChangeEvent.getOldState())) {
         reservations.invalidateTask(stateChangeEvent.getTaskId());
       }
+      jobStates.taskChangedState(stateChangeEvent);
+    }
+
+    @Subscribe
+    public void tasksDeleted(TasksDeleted deleted) {
+      jobStates.tasksDeleted(deleted);
     }
 
     private static class Reservations {
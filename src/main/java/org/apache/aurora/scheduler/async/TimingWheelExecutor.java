@@ -0,0 +1,383 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.primitives.Longs;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.util.Clock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * A hashed timing wheel, which schedules and cancels delayed tasks in constant time.  This suits
+ * large numbers of long-lived timers that are usually canceled, such as task state timeouts,
+ * where a {@link java.util.concurrent.ScheduledThreadPoolExecutor} pays a logarithmic cost to
+ * maintain its heap and retains canceled tasks until they expire.
+ * <p>
+ * Time is divided into ticks, and each timer is placed in the bucket of the tick it expires on,
+ * modulo the number of buckets.  A timer further away than one revolution of the wheel records
+ * the number of revolutions remaining.  Expiration is therefore accurate to within one tick.
+ * <p>
+ * Expired tasks are run on a separate executor, so a slow task does not delay the wheel.  Periodic
+ * scheduling is not supported.
+ */
+class TimingWheelExecutor extends AbstractExecutorService implements ScheduledExecutorService {
+
+  private static final Logger LOG = Logger.getLogger(TimingWheelExecutor.class.getName());
+
+  private final Executor worker;
+  private final Clock clock;
+  private final long tickMillis;
+  private final long startMillis;
+  private final Bucket[] buckets;
+  private final int bucketMask;
+  private final SlidingStats firingLag = new SlidingStats("timing_wheel_firing_lag", "ms");
+
+  // Guarded by this.
+  private long ticks;
+  private int timerCount;
+  private boolean shutdown;
+  private Thread ticker;
+
+  /**
+   * Creates a timing wheel.  The wheel does not advance until it is {@link #start(ThreadFactory)
+   * started}.
+   *
+   * @param worker Executor to run expired tasks on.
+   * @param clock Clock to measure time with.
+   * @param tick Resolution of the wheel.
+   * @param numBuckets Number of ticks in one revolution of the wheel, rounded up to a power of two.
+   */
+  TimingWheelExecutor(Executor worker, Clock clock, Amount<Long, Time> tick, int numBuckets) {
+    this.worker = checkNotNull(worker);
+    this.clock = checkNotNull(clock);
+    this.tickMillis = tick.as(Time.MILLISECONDS);
+    checkArgument(tickMillis > 0, "Tick must be at least one millisecond.");
+    checkArgument(numBuckets > 0 && numBuckets <= (1 << 30));
+
+    this.startMillis = clock.nowMillis();
+    int size = Integer.highestOneBit(numBuckets);
+    this.buckets = new Bucket[size < numBuckets ? size << 1 : size];
+    for (int i = 0; i < buckets.length; i++) {
+      buckets[i] = new Bucket();
+    }
+    this.bucketMask = buckets.length - 1;
+  }
+
+  /**
+   * Starts a thread that advances the wheel every tick.
+   *
+   * @param threadFactory Factory to create the ticker thread with.
+   */
+  synchronized void start(ThreadFactory threadFactory) {
+    checkState(ticker == null, "Timing wheel already started.");
+    checkState(!shutdown, "Timing wheel is shut down.");
+
+    ticker = threadFactory.newThread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          while (!isShutdown()) {
+            clock.waitFor(tickMillis);
+            advance();
+          }
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    ticker.start();
+  }
+
+  @VisibleForTesting
+  int getNumBuckets() {
+    return buckets.length;
+  }
+
+  /**
+   * Gets the number of timers that are waiting to expire.
+   *
+   * @return Number of pending timers.
+   */
+  synchronized int getTimerCount() {
+    return timerCount;
+  }
+
+  /**
+   * Expires the timers of all ticks that have elapsed, running their tasks on the worker executor.
+   */
+  @VisibleForTesting
+  void advance() {
+    long nowMillis = clock.nowMillis();
+    List<Timer<?>> expired = Lists.newArrayList();
+    synchronized (this) {
+      while (startMillis + ticks * tickMillis <= nowMillis) {
+        Bucket bucket = buckets[(int) (ticks & bucketMask)];
+        Timer<?> timer = bucket.head;
+        while (timer != null) {
+          Timer<?> next = timer.next;
+          if (timer.rounds == 0) {
+            bucket.remove(timer);
+            timerCount--;
+            expired.add(timer);
+          } else {
+            timer.rounds--;
+          }
+          timer = next;
+        }
+        ticks++;
+      }
+    }
+
+    for (Timer<?> timer : expired) {
+      firingLag.accumulate(Math.max(0, nowMillis - timer.deadlineMillis));
+      try {
+        worker.execute(timer.task);
+      } catch (RuntimeException e) {
+        LOG.severe("Failed to run expired task: " + e);
+      }
+    }
+  }
+
+  private synchronized <V> ScheduledFuture<V> add(FutureTask<V> task, long delay, TimeUnit unit) {
+    if (shutdown) {
+      throw new RejectedExecutionException("Timing wheel is shut down.");
+    }
+
+    long deadlineMillis = clock.nowMillis() + Math.max(0, unit.toMillis(delay));
+    // The first tick at which the deadline has passed, but never a tick that was already expired.
+    long tick = Math.max(
+        ticks,
+        ((deadlineMillis - startMillis) + tickMillis - 1) / tickMillis);
+    Timer<V> timer = new Timer<>(task, deadlineMillis, (tick - ticks) / buckets.length);
+    timer.bucket = buckets[(int) (tick & bucketMask)];
+    timer.bucket.add(timer);
+    timerCount++;
+    return timer;
+  }
+
+  private synchronized void remove(Timer<?> timer) {
+    if (timer.bucket != null) {
+      timer.bucket.remove(timer);
+      timerCount--;
+    }
+  }
+
+  @Override
+  public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+    return add(new FutureTask<>(callable), delay, unit);
+  }
+
+  @Override
+  public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+    return add(new FutureTask<Void>(command, null), delay, unit);
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    if (isShutdown()) {
+      throw new RejectedExecutionException("Timing wheel is shut down.");
+    }
+    worker.execute(command);
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleAtFixedRate(
+      Runnable command,
+      long initialDelay,
+      long period,
+      TimeUnit unit) {
+
+    throw new UnsupportedOperationException("Periodic tasks are not supported: " + command);
+  }
+
+  @Override
+  public ScheduledFuture<?> scheduleWithFixedDelay(
+      Runnable command,
+      long initialDelay,
+      long delay,
+      TimeUnit unit) {
+
+    throw new UnsupportedOperationException("Periodic tasks are not supported: " + command);
+  }
+
+  @Override
+  public synchronized void shutdown() {
+    shutdown = true;
+    if (ticker != null) {
+      ticker.interrupt();
+    }
+  }
+
+  @Override
+  public synchronized List<Runnable> shutdownNow() {
+    shutdown();
+    ImmutableList.Builder<Runnable> pending = ImmutableList.builder();
+    for (Bucket bucket : buckets) {
+      for (Timer<?> timer = bucket.head; timer != null; timer = bucket.head) {
+        bucket.remove(timer);
+        pending.add(timer.task);
+      }
+    }
+    timerCount = 0;
+    return pending.build();
+  }
+
+  @Override
+  public synchronized boolean isShutdown() {
+    return shutdown;
+  }
+
+  @Override
+  public boolean isTerminated() {
+    Thread thread;
+    synchronized (this) {
+      if (!shutdown) {
+        return false;
+      }
+      thread = ticker;
+    }
+    return thread == null || !thread.isAlive();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    Thread thread;
+    synchronized (this) {
+      thread = ticker;
+    }
+    if (thread != null) {
+      thread.join(Math.max(1, unit.toMillis(timeout)));
+    }
+    return isTerminated();
+  }
+
+  @Override
+  public String toString() {
+    return "TimingWheelExecutor(tick=" + tickMillis + "ms, buckets=" + buckets.length + ")";
+  }
+
+  /**
+   * Doubly-linked list of the timers in one bucket, allowing removal in constant time.
+   */
+  private static class Bucket {
+    private Timer<?> head;
+
+    void add(Timer<?> timer) {
+      timer.next = head;
+      if (head != null) {
+        head.prev = timer;
+      }
+      head = timer;
+    }
+
+    void remove(Timer<?> timer) {
+      if (timer.prev == null) {
+        head = timer.next;
+      } else {
+        timer.prev.next = timer.next;
+      }
+      if (timer.next != null) {
+        timer.next.prev = timer.prev;
+      }
+      timer.prev = null;
+      timer.next = null;
+      timer.bucket = null;
+    }
+  }
+
+  private class Timer<V> implements ScheduledFuture<V> {
+    private final FutureTask<V> task;
+    private final long deadlineMillis;
+
+    // Guarded by the enclosing TimingWheelExecutor.
+    private long rounds;
+    private Bucket bucket;
+    private Timer<?> prev;
+    private Timer<?> next;
+
+    Timer(FutureTask<V> task, long deadlineMillis, long rounds) {
+      this.task = task;
+      this.deadlineMillis = deadlineMillis;
+      this.rounds = rounds;
+    }
+
+    @Override
+    public long getDelay(TimeUnit unit) {
+      return unit.convert(deadlineMillis - clock.nowMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public int compareTo(Delayed o) {
+      return Longs.compare(getDelay(TimeUnit.MILLISECONDS), o.getDelay(TimeUnit.MILLISECONDS));
+    }
+
+    @Override
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      remove(this);
+      return task.cancel(mayInterruptIfRunning);
+    }
+
+    @Override
+    public boolean isCancelled() {
+      return task.isCancelled();
+    }
+
+    @Override
+    public boolean isDone() {
+      return task.isDone();
+    }
+
+    @Override
+    public V get() throws InterruptedException, ExecutionException {
+      return task.get();
+    }
+
+    @Override
+    public V get(long timeout, TimeUnit unit)
+        throws InterruptedException, ExecutionException, TimeoutException {
+
+      return task.get(timeout, unit);
+    }
+
+    @Override
+    public String toString() {
+      return "Timer(deadline=" + deadlineMillis + ", rounds=" + rounds + ")";
+    }
+  }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Sets;
+import com.twitter.common.quantity.Data;
+
+import org.apache.aurora.scheduler.ResourceSlot;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
+
+import static org.apache.aurora.scheduler.async.Preemptor.PreemptorImpl.TASK_TO_RESOURCES;
+
+/**
+ * Chooses the order in which the preemption candidates on a slave are considered.  The preemptor
+ * preempts the shortest prefix of the order that, along with the slave's unused resources, makes
+ * room for the pending task.
+ */
+interface VictimSelector {
+
+  /**
+   * Orders preemption candidates.
+   *
+   * @param candidates Tasks on a single slave that may be preempted for the pending task.
+   * @param required Resources required by the pending task.
+   * @param slack Unused resources already offered by the slave.
+   * @return {@code candidates}, in the order they should be preempted.
+   */
+  List<IAssignedTask> order(
+      List<IAssignedTask> candidates,
+      ResourceSlot required,
+      ResourceSlot slack);
+
+  /**
+   * The built-in selectors.
+   */
+  enum Strategy implements VictimSelector {
+    /**
+     * Preempts the largest tasks first, comparing resources in a fixed order.
+     */
+    RESOURCE_VECTOR {
+      @Override
+      public List<IAssignedTask> order(
+          List<IAssignedTask> candidates,
+          ResourceSlot required,
+          ResourceSlot slack) {
+
+        return VECTOR_ORDER.sortedCopy(candidates);
+      }
+    },
+
+    /**
+     * Preempts the tasks with the largest dominant share of the slave first, considering only the
+     * resources the pending task is short of.  Tasks that hold the most of the bottleneck
+     * resource are preempted before tasks that are merely large in another dimension.
+     */
+    DOMINANT_RESOURCE {
+      @Override
+      public List<IAssignedTask> order(
+          List<IAssignedTask> candidates,
+          ResourceSlot required,
+          ResourceSlot slack) {
+
+        double[] deficit = deficit(required, slack);
+        double[] capacity = vector(slack);
+        for (IAssignedTask candidate : candidates) {
+          add(capacity, vector(TASK_TO_RESOURCES.apply(candidate)));
+        }
+        return dominantShareOrder(deficit, capacity).sortedCopy(candidates);
+      }
+    },
+
+    /**
+     * Preempts the fewest tasks that free enough of every resource.  The smallest such set is
+     * searched for exhaustively on slaves with up to {@link #MAX_EXACT_CANDIDATES} candidates,
+     * and approximated greedily on others.
+     */
+    MIN_VICTIMS {
+      @Override
+      public List<IAssignedTask> order(
+          List<IAssignedTask> candidates,
+          ResourceSlot required,
+          ResourceSlot slack) {
+
+        double[] deficit = deficit(required, slack);
+        List<double[]> resources = Lists.newArrayListWithCapacity(candidates.size());
+        for (IAssignedTask candidate : candidates) {
+          resources.add(vector(TASK_TO_RESOURCES.apply(candidate)));
+        }
+
+        List<Integer> chosen = greedyCover(resources, deficit);
+        if (chosen.size() > 1 && candidates.size() <= MAX_EXACT_CANDIDATES) {
+          for (int size = 1; size < chosen.size(); size++) {
+            List<Integer> cover = exactCover(resources, deficit, size);
+            if (cover != null) {
+              chosen = cover;
+              break;
+            }
+          }
+        }
+
+        // The remaining candidates follow in case the chosen ones are insufficient, which is only
+        // the case when no subset of candidates is sufficient.
+        ImmutableList.Builder<IAssignedTask> ordered = ImmutableList.builder();
+        Set<IAssignedTask> rest = Sets.newLinkedHashSet(VECTOR_ORDER.sortedCopy(candidates));
+        for (int index : chosen) {
+          ordered.add(candidates.get(index));
+          rest.remove(candidates.get(index));
+        }
+        return ordered.addAll(rest).build();
+      }
+    };
+
+    /**
+     * Largest number of candidates on a slave for which all subsets may be searched.
+     */
+    @VisibleForTesting
+    static final int MAX_EXACT_CANDIDATES = 12;
+
+    private static final Ordering<IAssignedTask> VECTOR_ORDER =
+        ResourceSlot.ORDER.onResultOf(TASK_TO_RESOURCES).reverse();
+
+    private static double[] vector(ResourceSlot slot) {
+      return new double[] {
+          slot.getNumCpus(),
+          slot.getRam().as(Data.MB),
+          slot.getDisk().as(Data.MB),
+          slot.getNumPorts()
+      };
+    }
+
+    private static void add(double[] total, double[] resources) {
+      for (int i = 0; i < total.length; i++) {
+        total[i] += resources[i];
+      }
+    }
+
+    private static double[] deficit(ResourceSlot required, ResourceSlot slack) {
+      double[] deficit = vector(required);
+      double[] available = vector(slack);
+      for (int i = 0; i < deficit.length; i++) {
+        deficit[i] = Math.max(0, deficit[i] - available[i]);
+      }
+      return deficit;
+    }
+
+    private static Ordering<IAssignedTask> dominantShareOrder(
+        final double[] deficit,
+        final double[] capacity) {
+
+      return Ordering.from(new Comparator<IAssignedTask>() {
+        @Override
+        public int compare(IAssignedTask a, IAssignedTask b) {
+          return Double.compare(dominantShare(b), dominantShare(a));
+        }
+
+        private double dominantShare(IAssignedTask task) {
+          double[] resources = vector(TASK_TO_RESOURCES.apply(task));
+          boolean anyDeficit = false;
+          for (double value : deficit) {
+            anyDeficit |= value > 0;
+          }
+
+          double share = 0;
+          for (int i = 0; i < resources.length; i++) {
+            if ((deficit[i] > 0 || !anyDeficit) && capacity[i] > 0) {
+              share = Math.max(share, resources[i] / capacity[i]);
+            }
+          }
+          return share;
+        }
+      }).compound(Ordering.natural().onResultOf(Tasks.ASSIGNED_TO_ID));
+    }
+
+    /**
+     * Repeatedly picks the candidate that covers the largest fraction of what is still missing.
+     */
+    private static List<Integer> greedyCover(List<double[]> resources, double[] deficit) {
+      double[] remaining = deficit.clone();
+      List<Integer> chosen = Lists.newArrayList();
+      Set<Integer> unchosen = Sets.newLinkedHashSet();
+      for (int i = 0; i < resources.size(); i++) {
+        unchosen.add(i);
+      }
+
+      while (!covered(remaining) && !unchosen.isEmpty()) {
+        int best = Iterables.getFirst(unchosen, null);
+        double bestCoverage = -1;
+        for (int candidate : unchosen) {
+          double coverage = 0;
+          for (int i = 0; i < remaining.length; i++) {
+            if (remaining[i] > 0) {
+              coverage += Math.min(resources.get(candidate)[i], remaining[i]) / deficit[i];
+            }
+          }
+          if (coverage > bestCoverage) {
+            best = candidate;
+            bestCoverage = coverage;
+          }
+        }
+        chosen.add(best);
+        unchosen.remove(best);
+        for (int i = 0; i < remaining.length; i++) {
+          remaining[i] -= resources.get(best)[i];
+        }
+      }
+      return chosen;
+    }
+
+    /**
+     * Finds a set of {@code size} candidates that covers the deficit, or {@code null} if there is
+     * none.
+     */
+    private static List<Integer> exactCover(List<double[]> resources, double[] deficit, int size) {
+      int[] combination = new int[size];
+      for (int i = 0; i < size; i++) {
+        combination[i] = i;
+      }
+
+      while (true) {
+        double[] remaining = deficit.clone();
+        for (int index : combination) {
+          for (int i = 0; i < remaining.length; i++) {
+            remaining[i] -= resources.get(index)[i];
+          }
+        }
+        if (covered(remaining)) {
+          ImmutableList.Builder<Integer> cover = ImmutableList.builder();
+          for (int index : combination) {
+            cover.add(index);
+          }
+          return cover.build();
+        }
+
+        // Advance to the next combination in lexicographic order.
+        int position = size - 1;
+        while (position >= 0 && combination[position] == resources.size() - size + position) {
+          position--;
+        }
+        if (position < 0) {
+          return null;
+        }
+        combination[position]++;
+        for (int i = position + 1; i < size; i++) {
+          combination[i] = combination[i - 1] + 1;
+        }
+      }
+    }
+
+    private static boolean covered(double[] remaining) {
+      for (double value : remaining) {
+        if (value > 0) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+}
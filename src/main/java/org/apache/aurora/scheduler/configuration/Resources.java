@@ -17,6 +17,7 @@ package org.apache.aurora.scheduler.configuration;
 
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.base.Function;
@@ -30,6 +31,7 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.twitter.common.quantity.Amount;
@@ -40,6 +42,7 @@ import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 import org.apache.commons.lang.builder.EqualsBuilder;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.Resource;
+import org.apache.mesos.Protos.TaskInfo;
 import org.apache.mesos.Protos.Value.Range;
 import org.apache.mesos.Protos.Value.Ranges;
 import org.apache.mesos.Protos.Value.Scalar;
@@ -398,6 +401,56 @@ public class Resources {
     return ImmutableSet.copyOf(availablePorts.subList(0, numPorts));
   }
 
+  /**
+   * Computes the resources that remain in an offer once tasks have been matched against it, so
+   * that further tasks may be matched against the same offer.
+   *
+   * @param offer The offer the tasks were matched against.
+   * @param tasks Tasks to be launched from the offer.
+   * @return A copy of {@code offer} less the resources of {@code tasks} and their executors.
+   */
+  public static Offer residual(Offer offer, Iterable<TaskInfo> tasks) {
+    checkNotNull(offer);
+    checkNotNull(tasks);
+
+    Map<String, Double> usedScalars = Maps.newHashMap();
+    Set<Integer> usedPorts = Sets.newHashSet();
+    for (TaskInfo task : tasks) {
+      for (Resource resource
+          : Iterables.concat(task.getResourcesList(), task.getExecutor().getResourcesList())) {
+
+        if (resource.getType() == Type.SCALAR) {
+          Double used = usedScalars.get(resource.getName());
+          usedScalars.put(
+              resource.getName(),
+              (used == null ? 0 : used) + resource.getScalar().getValue());
+        } else if (PORTS.equals(resource.getName())) {
+          Iterables.addAll(
+              usedPorts,
+              Iterables.concat(Iterables.transform(resource.getRanges().getRangeList(),
+                  RANGE_TO_MEMBERS)));
+        }
+      }
+    }
+
+    Offer.Builder residual = offer.toBuilder().clearResources();
+    for (Resource resource : offer.getResourcesList()) {
+      if (resource.getType() == Type.SCALAR && usedScalars.containsKey(resource.getName())) {
+        residual.addResources(makeMesosResource(
+            resource.getName(),
+            resource.getScalar().getValue() - usedScalars.get(resource.getName())));
+      } else if (PORTS.equals(resource.getName()) && !usedPorts.isEmpty()) {
+        Set<Integer> offeredPorts = ImmutableSet.copyOf(Iterables.concat(
+            Iterables.transform(resource.getRanges().getRangeList(), RANGE_TO_MEMBERS)));
+        residual.addResources(
+            makeMesosRangeResource(PORTS, Sets.difference(offeredPorts, usedPorts)));
+      } else {
+        residual.addResources(resource);
+      }
+    }
+    return residual.build();
+  }
+
   /**
    * A Resources object is greater than another iff _all_ of its resource components are greater
    * or equal. A Resources object compares as equal if some but not all components are greater than
@@ -0,0 +1,103 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.events;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Delivers events to a subscriber on a dedicated thread, in the order they were posted.  Posting
+ * an event only enqueues it, so a slow subscriber does not delay the poster.
+ * <p>
+ * Events posted while the queue is at capacity are still enqueued rather than blocking the poster,
+ * since posters may hold the storage lock that a subscriber is waiting to acquire.  Such events are
+ * counted, to signal that the subscriber is not keeping up.
+ */
+class AsyncSubscriber {
+
+  private static final Logger LOG = Logger.getLogger(AsyncSubscriber.class.getName());
+
+  private final String name;
+  private final SubscriberBus subscriberBus;
+  private final BlockingQueue<Runnable> queue = new LinkedBlockingQueue<>();
+  private final ExecutorService executor;
+  private final int capacity;
+
+  private final SlidingStats handlerLatency;
+  private final AtomicLong eventsOverCapacity;
+
+  AsyncSubscriber(EventSubscriber subscriber, int capacity) {
+    checkNotNull(subscriber);
+    checkArgument(capacity > 0);
+
+    this.subscriberBus = new SubscriberBus(subscriber);
+    this.name = subscriberBus.getName();
+    this.executor = new ThreadPoolExecutor(
+        1,
+        1,
+        0,
+        TimeUnit.MILLISECONDS,
+        queue,
+        new ThreadFactoryBuilder().setNameFormat("EventDispatch-" + name).setDaemon(true).build());
+    this.capacity = capacity;
+
+    handlerLatency = new SlidingStats("event_handler_" + name, "nanos");
+    eventsOverCapacity = Stats.exportLong("event_queue_over_capacity_" + name);
+    Stats.export(new StatImpl<Integer>("event_queue_depth_" + name) {
+      @Override
+      public Integer read() {
+        return queue.size();
+      }
+    });
+  }
+
+  /**
+   * Enqueues an event for delivery to the subscriber.
+   *
+   * @param event Event to deliver.
+   */
+  @Subscribe
+  public void enqueue(final PubsubEvent event) {
+    if (queue.size() >= capacity && eventsOverCapacity.getAndIncrement() == 0) {
+      LOG.warning("Event queue for " + name + " exceeded its capacity of " + capacity);
+    }
+
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        long startNanos = System.nanoTime();
+        subscriberBus.deliver(event);
+        handlerLatency.accumulate(System.nanoTime() - startNanos);
+      }
+    });
+  }
+}
@@ -15,11 +15,14 @@
  */
 package org.apache.aurora.scheduler.events;
 
+import java.util.List;
 import java.util.Set;
 
 import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
 
+import org.apache.aurora.gen.HostAttributes;
 import org.apache.aurora.gen.HostStatus;
 import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.scheduler.base.Tasks;
@@ -39,6 +42,14 @@ public interface PubsubEvent {
   public interface EventSubscriber {
   }
 
+  /**
+   * Identifies a subscriber that must observe events before the poster proceeds, because the
+   * poster's subsequent decisions depend on the subscriber's state.  Such subscribers receive
+   * events on the posting thread, even when events are otherwise dispatched asynchronously.
+   */
+  public interface SynchronousSubscriber extends EventSubscriber {
+  }
+
   /**
    * Event sent when tasks were deleted.
    */
@@ -155,6 +166,50 @@ public interface PubsubEvent {
     }
   }
 
+  /**
+   * Event sent when many tasks changed state in a single operation, such as creating or killing a
+   * job.  Subscribers may handle this event to process the changes together.  Subscribers that do
+   * not handle it receive each change as a {@link TaskStateChange}.
+   */
+  public static final class TaskStateChanges implements PubsubEvent {
+    private final List<TaskStateChange> changes;
+
+    public TaskStateChanges(List<TaskStateChange> changes) {
+      this.changes = ImmutableList.copyOf(changes);
+    }
+
+    /**
+     * Gets the state changes, in the order they occurred.
+     *
+     * @return The state changes.
+     */
+    public List<TaskStateChange> getChanges() {
+      return changes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof TaskStateChanges)) {
+        return false;
+      }
+
+      TaskStateChanges other = (TaskStateChanges) o;
+      return Objects.equal(changes, other.changes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(changes);
+    }
+
+    @Override
+    public String toString() {
+      return Objects.toStringHelper(this)
+          .add("changes", changes.size())
+          .toString();
+    }
+  }
+
   /**
    * Event sent when a host changed maintenance state.
    */
@@ -185,6 +240,52 @@ public interface PubsubEvent {
     }
   }
 
+  /**
+   * Event sent when the attributes advertised by a host changed.
+   */
+  public static class HostAttributesChanged implements PubsubEvent {
+    private final HostAttributes attributes;
+
+    public HostAttributesChanged(HostAttributes attributes) {
+      this.attributes = checkNotNull(attributes);
+    }
+
+    public HostAttributes getAttributes() {
+      return attributes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof HostAttributesChanged)) {
+        return false;
+      }
+
+      HostAttributesChanged other = (HostAttributesChanged) o;
+      return Objects.equal(attributes, other.attributes);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(attributes);
+    }
+  }
+
+  /**
+   * Event sent when the contents of storage were replaced wholesale, as when a backup is restored.
+   * No change events are sent for the individual records that were replaced.
+   */
+  public static class StorageRestored implements PubsubEvent {
+    @Override
+    public boolean equals(Object o) {
+      return (o != null) && getClass().equals(o.getClass());
+    }
+
+    @Override
+    public int hashCode() {
+      return getClass().hashCode();
+    }
+  }
+
   /**
    * Event sent when a scheduling assignment was vetoed.
    */
@@ -16,23 +16,24 @@
 package org.apache.aurora.scheduler.events;
 
 import java.util.Set;
-import java.util.logging.Logger;
 
 import javax.inject.Inject;
 import javax.inject.Singleton;
 
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.eventbus.DeadEvent;
 import com.google.common.eventbus.EventBus;
-import com.google.common.eventbus.Subscribe;
 import com.google.inject.AbstractModule;
 import com.google.inject.Binder;
 import com.google.inject.multibindings.Multibinder;
 import com.twitter.common.application.modules.LifecycleModule;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
+import com.twitter.common.args.constraints.Positive;
 import com.twitter.common.base.Command;
 
 import org.apache.aurora.scheduler.events.NotifyingSchedulingFilter.NotifyDelegate;
 import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.SynchronousSubscriber;
 import org.apache.aurora.scheduler.filter.SchedulingFilter;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -42,27 +43,51 @@ import static com.google.common.base.Preconditions.checkNotNull;
  */
 public final class PubsubEventModule extends AbstractModule {
 
-  private static final Logger LOG = Logger.getLogger(PubsubEventModule.class.getName());
+  @CmdLine(name = "async_event_dispatch",
+      help = "Deliver events to each subscriber on its own thread, rather than on the thread "
+          + "that posted them.  Subscribers whose state scheduling decisions are made against "
+          + "always receive events on the posting thread.")
+  private static final Arg<Boolean> ASYNC_EVENT_DISPATCH = Arg.create(false);
 
-  private PubsubEventModule() {
+  @Positive
+  @CmdLine(name = "event_queue_capacity",
+      help = "Number of events that may be pending delivery to a subscriber before it is "
+          + "reported as not keeping up, when events are dispatched asynchronously.")
+  private static final Arg<Integer> EVENT_QUEUE_CAPACITY = Arg.create(10000);
+
+  private final DispatchSettings dispatchSettings;
+
+  private PubsubEventModule(DispatchSettings dispatchSettings) {
     // Must be constructed through factory.
+    this.dispatchSettings = checkNotNull(dispatchSettings);
   }
 
   @VisibleForTesting
   public static void installForTest(Binder binder) {
-    binder.install(new PubsubEventModule());
+    binder.install(new PubsubEventModule(DispatchSettings.SYNCHRONOUS));
+  }
+
+  /**
+   * Settings for delivering events to subscribers.
+   */
+  static class DispatchSettings {
+    static final DispatchSettings SYNCHRONOUS = new DispatchSettings(false, 1);
+
+    private final boolean async;
+    private final int queueCapacity;
+
+    DispatchSettings(boolean async, int queueCapacity) {
+      this.async = async;
+      this.queueCapacity = queueCapacity;
+    }
   }
 
   @Override
   protected void configure() {
     final EventBus eventBus = new EventBus("TaskEvents");
-    eventBus.register(new Object() {
-      @Subscribe public void logDeadEvent(DeadEvent event) {
-        LOG.warning("Captured dead event " + event.getEvent());
-      }
-    });
 
     bind(EventBus.class).toInstance(eventBus);
+    bind(DispatchSettings.class).toInstance(dispatchSettings);
 
     EventSink eventSink = new EventSink() {
       @Override
@@ -80,17 +105,27 @@ public final class PubsubEventModule extends AbstractModule {
   static class RegisterSubscribers implements Command {
     private final EventBus eventBus;
     private final Set<EventSubscriber> subscribers;
+    private final DispatchSettings settings;
 
     @Inject
-    RegisterSubscribers(EventBus eventBus, Set<EventSubscriber> subscribers) {
+    RegisterSubscribers(
+        EventBus eventBus,
+        Set<EventSubscriber> subscribers,
+        DispatchSettings settings) {
+
       this.eventBus = checkNotNull(eventBus);
       this.subscribers = checkNotNull(subscribers);
+      this.settings = checkNotNull(settings);
     }
 
     @Override
     public void execute() {
       for (EventSubscriber subscriber : subscribers) {
-        eventBus.register(subscriber);
+        if (settings.async && !(subscriber instanceof SynchronousSubscriber)) {
+          eventBus.register(new AsyncSubscriber(subscriber, settings.queueCapacity));
+        } else {
+          eventBus.register(new SubscriberBus(subscriber));
+        }
       }
     }
   }
@@ -105,7 +140,8 @@ public final class PubsubEventModule extends AbstractModule {
     binder.bind(SchedulingFilter.class).annotatedWith(NotifyDelegate.class).to(filterClass);
     binder.bind(SchedulingFilter.class).to(NotifyingSchedulingFilter.class);
     binder.bind(NotifyingSchedulingFilter.class).in(Singleton.class);
-    binder.install(new PubsubEventModule());
+    binder.install(new PubsubEventModule(
+        new DispatchSettings(ASYNC_EVENT_DISPATCH.get(), EVENT_QUEUE_CAPACITY.get())));
   }
 
   private static Multibinder<EventSubscriber> getSubscriberBinder(Binder binder) {
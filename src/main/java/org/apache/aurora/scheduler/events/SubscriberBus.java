@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.events;
+
+import java.lang.reflect.Method;
+import java.util.Set;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChanges;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Delivers events to a single subscriber.  A {@link TaskStateChanges} batch is delivered as-is if
+ * the subscriber handles batches, and as individual {@link TaskStateChange} events otherwise.
+ * Events of types the subscriber does not handle are not delivered.
+ */
+class SubscriberBus {
+
+  private final String name;
+  private final EventBus eventBus;
+  private final Set<Class<?>> handledTypes;
+
+  SubscriberBus(EventSubscriber subscriber) {
+    checkNotNull(subscriber);
+
+    this.name = nameOf(subscriber);
+    this.eventBus = new EventBus(name);
+    this.handledTypes = handledTypes(subscriber.getClass());
+    eventBus.register(subscriber);
+  }
+
+  /**
+   * Finds the event types that a subscriber class has handler methods for.
+   *
+   * @param subscriberClass Subscriber class, including classes generated for method interception.
+   * @return Parameter types of the {@link Subscribe} methods of the class and its superclasses.
+   */
+  @VisibleForTesting
+  static Set<Class<?>> handledTypes(Class<?> subscriberClass) {
+    ImmutableSet.Builder<Class<?>> types = ImmutableSet.builder();
+    for (Class<?> type = subscriberClass; type != null; type = type.getSuperclass()) {
+      for (Method method : type.getDeclaredMethods()) {
+        if (method.isAnnotationPresent(Subscribe.class)
+            && method.getParameterTypes().length == 1) {
+
+          types.add(method.getParameterTypes()[0]);
+        }
+      }
+    }
+    return types.build();
+  }
+
+  private boolean handles(Class<?> eventType) {
+    for (Class<?> type : handledTypes) {
+      if (type.isAssignableFrom(eventType)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  @VisibleForTesting
+  static String nameOf(EventSubscriber subscriber) {
+    // Strip the suffix of classes generated for method interception.
+    String className = subscriber.getClass().getSimpleName();
+    int generatedSuffix = className.indexOf("$$");
+    return generatedSuffix == -1 ? className : className.substring(0, generatedSuffix);
+  }
+
+  String getName() {
+    return name;
+  }
+
+  /**
+   * Delivers an event to the subscriber on the calling thread.
+   *
+   * @param event Event to deliver.
+   */
+  @Subscribe
+  public void deliver(PubsubEvent event) {
+    // Posting only handled events avoids creating a DeadEvent for every other event.
+    if (handles(event.getClass())) {
+      eventBus.post(event);
+    } else if (event instanceof TaskStateChanges && handles(TaskStateChange.class)) {
+      for (TaskStateChange change : ((TaskStateChanges) event).getChanges()) {
+        eventBus.post(change);
+      }
+    }
+  }
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.filter;
+
+import org.apache.aurora.gen.Attribute;
+
+/**
+ * Counts of a job's active tasks by the attributes of the hosts they reside on.
+ */
+public interface AttributeAggregate {
+
+  /**
+   * Gets the number of the job's active tasks that reside on hosts with an attribute.
+   *
+   * @param attribute Host attribute, matched by name and values.
+   * @return Number of active tasks on hosts with {@code attribute}.
+   */
+  int getNumTasks(Attribute attribute);
+}
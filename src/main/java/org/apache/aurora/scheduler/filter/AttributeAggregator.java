@@ -0,0 +1,246 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.filter;
+
+import java.util.Map;
+import java.util.Set;
+
+import javax.inject.Inject;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.HashMultiset;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.collect.SetMultimap;
+import com.google.common.eventbus.Subscribe;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.gen.Attribute;
+import org.apache.aurora.scheduler.base.JobKeys;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import org.apache.aurora.scheduler.events.PubsubEvent.SynchronousSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.storage.AttributeStore;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.Storage.StoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.Work.Quiet;
+import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
+import org.apache.aurora.scheduler.storage.entities.IJobKey;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Maintains an {@link AttributeAggregate} for every job, from task and host attribute events.
+ * This allows limit constraints to be evaluated with a lookup per host attribute, rather than by
+ * loading the host attributes of each of the job's active tasks.
+ * <p>
+ * Events are received synchronously, so that tasks assigned while scheduling a batch are counted
+ * before the next task in the batch is matched against limit constraints.
+ */
+public class AttributeAggregator implements SynchronousSubscriber {
+
+  private static final class CountedTask {
+    private final IJobKey jobKey;
+    private final String host;
+
+    CountedTask(IJobKey jobKey, String host) {
+      this.jobKey = jobKey;
+      this.host = host;
+    }
+  }
+
+  private final Storage storage;
+
+  // Guarded by this.
+  private final Map<IJobKey, Multiset<Attribute>> countsByJob = Maps.newHashMap();
+  private final Map<String, CountedTask> tasks = Maps.newHashMap();
+  private final SetMultimap<String, String> tasksByHost = HashMultimap.create();
+  // The attributes that tasks on each host were counted against.
+  private final Map<String, Set<Attribute>> hostAttributes = Maps.newHashMap();
+  // The number of attribute changes seen for each host, whether or not tasks are counted on it.
+  private final Multiset<String> hostVersions = HashMultiset.create();
+
+  @Inject
+  public AttributeAggregator(Storage storage) {
+    this.storage = checkNotNull(storage);
+    Stats.exportSize("attribute_aggregator_tasks", tasks);
+  }
+
+  /**
+   * Gets a live view of the attribute counts of a job's active tasks.
+   *
+   * @param jobKey Job to get counts for.
+   * @return Attribute counts of the job, which reflect subsequent task changes.
+   */
+  public AttributeAggregate getAggregate(final IJobKey jobKey) {
+    return new AttributeAggregate() {
+      @Override
+      public int getNumTasks(Attribute attribute) {
+        synchronized (AttributeAggregator.this) {
+          Multiset<Attribute> counts = countsByJob.get(jobKey);
+          return counts == null ? 0 : counts.count(attribute);
+        }
+      }
+    };
+  }
+
+  private static Set<Attribute> copyOf(Iterable<Attribute> attributes) {
+    // Stored attributes may be modified in place.
+    ImmutableSet.Builder<Attribute> copy = ImmutableSet.builder();
+    for (Attribute attribute : attributes) {
+      copy.add(attribute.deepCopy());
+    }
+    return copy.build();
+  }
+
+  private Set<Attribute> loadAttributes(final String host) {
+    return storage.weaklyConsistentRead(new Quiet<Set<Attribute>>() {
+      @Override
+      public Set<Attribute> apply(StoreProvider storeProvider) {
+        return copyOf(AttributeStore.Util.attributesOrNone(storeProvider, host));
+      }
+    });
+  }
+
+  private void count(IJobKey jobKey, Set<Attribute> attributes) {
+    Multiset<Attribute> counts = countsByJob.get(jobKey);
+    if (counts == null) {
+      counts = HashMultiset.create();
+      countsByJob.put(jobKey, counts);
+    }
+    counts.addAll(attributes);
+  }
+
+  private void uncount(IJobKey jobKey, Set<Attribute> attributes) {
+    Multiset<Attribute> counts = countsByJob.get(jobKey);
+    for (Attribute attribute : attributes) {
+      counts.remove(attribute);
+    }
+    if (counts.isEmpty()) {
+      countsByJob.remove(jobKey);
+    }
+  }
+
+  private void add(IAssignedTask task, Set<Attribute> attributes) {
+    if (tasks.containsKey(task.getTaskId())) {
+      return;
+    }
+
+    String host = task.getSlaveHost();
+    if (!hostAttributes.containsKey(host)) {
+      hostAttributes.put(host, attributes);
+    }
+
+    IJobKey jobKey = JobKeys.from(task.getTask());
+    tasks.put(task.getTaskId(), new CountedTask(jobKey, host));
+    tasksByHost.put(host, task.getTaskId());
+    count(jobKey, hostAttributes.get(host));
+  }
+
+  private void remove(String taskId) {
+    CountedTask task = tasks.remove(taskId);
+    if (task == null) {
+      return;
+    }
+
+    uncount(task.jobKey, hostAttributes.get(task.host));
+    tasksByHost.remove(task.host, taskId);
+    if (!tasksByHost.containsKey(task.host)) {
+      hostAttributes.remove(task.host);
+    }
+  }
+
+  /**
+   * Counts tasks that are assigned to a host, and stops counting tasks that are no longer active.
+   *
+   * @param stateChange State change notification.
+   */
+  @Subscribe
+  public void taskChangedState(TaskStateChange stateChange) {
+    IAssignedTask task = stateChange.getTask().getAssignedTask();
+    if (Tasks.SLAVE_ASSIGNED_STATES.contains(stateChange.getNewState())) {
+      String host = task.getSlaveHost();
+      while (true) {
+        int version;
+        synchronized (this) {
+          if (hostAttributes.containsKey(host)) {
+            add(task, hostAttributes.get(host));
+            return;
+          }
+          version = hostVersions.count(host);
+        }
+
+        // Storage must not be accessed while holding the monitor, as events may be delivered by a
+        // thread that holds the storage lock.
+        Set<Attribute> attributes = loadAttributes(host);
+
+        synchronized (this) {
+          // If the host attributes changed while they were loaded, the loaded copy may be stale.
+          if (hostAttributes.containsKey(host) || hostVersions.count(host) == version) {
+            add(task, attributes);
+            return;
+          }
+        }
+      }
+    } else {
+      synchronized (this) {
+        remove(task.getTaskId());
+      }
+    }
+  }
+
+  /**
+   * Stops counting deleted tasks.
+   *
+   * @param deleted Tasks deleted notification.
+   */
+  @Subscribe
+  public synchronized void tasksDeleted(TasksDeleted deleted) {
+    for (IScheduledTask task : deleted.getTasks()) {
+      remove(Tasks.id(task));
+    }
+  }
+
+  /**
+   * Recounts the tasks on a host against its new attributes.
+   *
+   * @param change Host attributes change notification.
+   */
+  @Subscribe
+  public synchronized void hostAttributesChanged(HostAttributesChanged change) {
+    String host = change.getAttributes().getHost();
+    hostVersions.add(host);
+    Set<Attribute> oldAttributes = hostAttributes.get(host);
+    if (oldAttributes == null) {
+      // No tasks are counted against the host.
+      return;
+    }
+
+    Set<Attribute> newAttributes = copyOf(change.getAttributes().isSetAttributes()
+        ? change.getAttributes().getAttributes()
+        : ImmutableSet.<Attribute>of());
+    hostAttributes.put(host, newAttributes);
+    for (String taskId : tasksByHost.get(host)) {
+      IJobKey jobKey = tasks.get(taskId).jobKey;
+      uncount(jobKey, oldAttributes);
+      count(jobKey, newAttributes);
+    }
+  }
+}
@@ -84,4 +84,20 @@ final class AttributeFilter {
 
     return limit > Iterables.size(Iterables.filter(activeTasks, hasAttribute));
   }
+
+  /**
+   * Tests whether an attribute matches a limit constraint, using precomputed attribute counts.
+   *
+   * @param attributes Attributes to match against.
+   * @param limit Limit value.
+   * @param aggregate Attribute counts of the job's active tasks.
+   * @return {@code true} if the limit constraint is satisfied, {@code false} otherwise.
+   */
+  static boolean matches(Set<Attribute> attributes, int limit, AttributeAggregate aggregate) {
+    int count = 0;
+    for (Attribute attribute : attributes) {
+      count += aggregate.getNumTasks(attribute);
+    }
+    return limit > count;
+  }
 }
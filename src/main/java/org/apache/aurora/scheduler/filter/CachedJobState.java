@@ -15,6 +15,7 @@
  */
 package org.apache.aurora.scheduler.filter;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableSet;
@@ -30,30 +31,41 @@ import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
  * on-demand), calling {@link #equals(Object)} and {@link #hashCode()} rely on the result of
  * {@link #getActiveTasks()}, thus invoking the {@link Supplier}.
  * <p>
- * TODO(wfarner): Take this caching one step further and don't store tasks here, but instead store
- * pre-computed aggregates of host attributes.  For example, translate each IScheduledTask into
- * the HostAttributes of the machine it resides on, and count the number of times each attribute is
- * seen.  This could be represented in a <pre>Map&lt;String, Multiset&lt;String&gt;&gt;</pre>, where
- * the outer key is the attribute name, and the inner key is attribute values.  So, for a job with
- * two tasks on the same rack but different hosts, you could have this aggregate:
- * <pre>
- * { "host": {"hostA": 1, "hostB": 1},
- *   "rack": {"rack1": 2}
- * }
- * </pre>
+ * The job state may also carry an {@link AttributeAggregate} of the job's active tasks, in which
+ * case limit constraints are evaluated against the aggregate instead of the individual tasks.
  */
 public class CachedJobState {
 
   private final Supplier<ImmutableSet<IScheduledTask>> activeTaskSupplier;
+  private final Optional<AttributeAggregate> attributeAggregate;
 
   public CachedJobState(Supplier<ImmutableSet<IScheduledTask>> activeTaskSupplier) {
+    this(activeTaskSupplier, Optional.<AttributeAggregate>absent());
+  }
+
+  public CachedJobState(
+      Supplier<ImmutableSet<IScheduledTask>> activeTaskSupplier,
+      AttributeAggregate attributeAggregate) {
+
+    this(activeTaskSupplier, Optional.of(attributeAggregate));
+  }
+
+  private CachedJobState(
+      Supplier<ImmutableSet<IScheduledTask>> activeTaskSupplier,
+      Optional<AttributeAggregate> attributeAggregate) {
+
     this.activeTaskSupplier = Preconditions.checkNotNull(activeTaskSupplier);
+    this.attributeAggregate = Preconditions.checkNotNull(attributeAggregate);
   }
 
   public ImmutableSet<IScheduledTask> getActiveTasks() {
     return activeTaskSupplier.get();
   }
 
+  public Optional<AttributeAggregate> getAttributeAggregate() {
+    return attributeAggregate;
+  }
+
   @Override
   public boolean equals(Object o) {
     if (!(o instanceof CachedJobState)) {
@@ -96,11 +96,17 @@ class ConstraintFilter implements Function<IConstraint, Optional<Veto>> {
           return Optional.of(mismatchVeto(constraint.getName()));
         }
 
-        boolean satisfied = AttributeFilter.matches(
-            attributes,
-            taskConstraint.getLimit().getLimit(),
-            cachedjobState.getActiveTasks(),
-            attributeLoader);
+        Optional<AttributeAggregate> aggregate = cachedjobState.getAttributeAggregate();
+        boolean satisfied = aggregate.isPresent()
+            ? AttributeFilter.matches(
+                attributes,
+                taskConstraint.getLimit().getLimit(),
+                aggregate.get())
+            : AttributeFilter.matches(
+                attributes,
+                taskConstraint.getLimit().getLimit(),
+                cachedjobState.getActiveTasks(),
+                attributeLoader);
         return satisfied
             ? Optional.<Veto>absent()
             : Optional.of(limitVeto(constraint.getName()));
@@ -15,33 +15,48 @@
  */
 package org.apache.aurora.scheduler.filter;
 
-import java.util.Comparator;
 import java.util.EnumSet;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Objects;
 import com.google.common.base.Optional;
+import com.google.common.base.Suppliers;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
-import com.google.common.collect.Ordering;
+import com.google.common.eventbus.Subscribe;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.Stats;
 
 import org.apache.aurora.gen.Attribute;
 import org.apache.aurora.gen.MaintenanceMode;
 import org.apache.aurora.gen.TaskConstraint;
 import org.apache.aurora.scheduler.ResourceSlot;
 import org.apache.aurora.scheduler.configuration.ConfigurationManager;
+import org.apache.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import org.apache.aurora.scheduler.events.PubsubEvent.StorageRestored;
+import org.apache.aurora.scheduler.events.PubsubEvent.SynchronousSubscriber;
 import org.apache.aurora.scheduler.state.MaintenanceController;
 import org.apache.aurora.scheduler.storage.AttributeStore;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.Storage.StoreProvider;
 import org.apache.aurora.scheduler.storage.Storage.Work.Quiet;
 import org.apache.aurora.scheduler.storage.entities.IConstraint;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -58,8 +73,12 @@ import static org.apache.aurora.scheduler.filter.SchedulingFilterImpl.ResourceVe
  * Implementation of the scheduling filter that ensures resource requirements of tasks are
  * fulfilled, and that tasks are allowed to run on the given machine.
  *
+ * <p>Host attributes are cached, as is the outcome of value constraints, which depends only on the
+ * task configuration and the attributes of the host.  Both are discarded when the host advertises
+ * different attributes or storage is restored.  Attribute changes are received synchronously, so
+ * that no decision is made against attributes that the host no longer advertises.
  */
-public class SchedulingFilterImpl implements SchedulingFilter {
+public class SchedulingFilterImpl implements SchedulingFilter, SynchronousSubscriber {
 
   @VisibleForTesting static final Veto DEDICATED_HOST_VETO =
       Veto.constraintMismatch("Host is dedicated");
@@ -68,9 +87,63 @@ public class SchedulingFilterImpl implements SchedulingFilter {
 
   private static final Set<MaintenanceMode> VETO_MODES = EnumSet.of(DRAINING, DRAINED);
 
+  // Bounds the number of (task configuration, host) pairs value constraint outcomes are kept for.
+  private static final int MAX_CACHED_VALUE_VETOES = 100000;
+
+  // Bounds how long host attributes are kept, in case a load that raced with a change cached
+  // attributes that were already stale.
+  private static final Amount<Long, Time> HOST_ATTRIBUTES_EXPIRATION = Amount.of(5L, Time.MINUTES);
+
+  private static final CachedJobState NO_JOB_STATE =
+      new CachedJobState(Suppliers.ofInstance(ImmutableSet.<IScheduledTask>of()));
+
+  private static final AttributeLoader NO_ATTRIBUTES = new AttributeLoader() {
+    @Override
+    public Iterable<Attribute> apply(String host) {
+      throw new UnsupportedOperationException("Value constraints do not load attributes.");
+    }
+  };
+
   private final Storage storage;
   private final MaintenanceController maintenance;
 
+  private final AtomicLong valueConstraintEvaluations =
+      Stats.exportLong("scheduling_filter_value_constraint_evaluations");
+
+  // Attributes of hosts, loaded when first needed and discarded when they change.
+  private final LoadingCache<String, HostSnapshot> hosts = CacheBuilder.newBuilder()
+      .expireAfterWrite(
+          HOST_ATTRIBUTES_EXPIRATION.getValue(),
+          HOST_ATTRIBUTES_EXPIRATION.getUnit().getTimeUnit())
+      .build(new CacheLoader<String, HostSnapshot>() {
+        @Override
+        public HostSnapshot load(final String host) {
+          // In the interest of performance, we perform a weakly consistent read here.  The biggest
+          // risk of this is that we might schedule against stale host attributes, or we might
+          // fail to correctly satisfy a diversity constraint.  Given that the likelihood is
+          // relatively low for both of these, and the impact is also low, the weak consistency is
+          // acceptable.
+          return storage.weaklyConsistentRead(new Quiet<HostSnapshot>() {
+            @Override
+            public HostSnapshot apply(StoreProvider storeProvider) {
+              return new HostSnapshot(AttributeStore.Util.attributesOrNone(storeProvider, host));
+            }
+          });
+        }
+      });
+
+  private final AttributeLoader cachedAttributeLoader = new AttributeLoader() {
+    @Override
+    public Iterable<Attribute> apply(String host) {
+      return hosts.getUnchecked(host).attributes;
+    }
+  };
+
+  // Outcome of the value constraints of a task against a host, which depends on nothing else.
+  private final Cache<ValueVetoKey, Optional<Veto>> valueVetoes = CacheBuilder.newBuilder()
+      .maximumSize(MAX_CACHED_VALUE_VETOES)
+      .build();
+
   /**
    * Creates a new scheduling filter.
    *
@@ -83,6 +156,51 @@ public class SchedulingFilterImpl implements SchedulingFilter {
     this.maintenance = checkNotNull(maintenance);
   }
 
+  /**
+   * The attributes of a host at a point in time.  A snapshot is replaced rather than updated when
+   * the host's attributes change, so a snapshot also identifies a version of the attributes.
+   */
+  private static final class HostSnapshot {
+    private final Set<Attribute> attributes;
+    private final boolean dedicated;
+
+    HostSnapshot(Iterable<Attribute> attributes) {
+      // Stored attributes may be modified in place, so a copy is kept.
+      ImmutableSet.Builder<Attribute> copy = ImmutableSet.builder();
+      for (Attribute attribute : attributes) {
+        copy.add(attribute.deepCopy());
+      }
+      this.attributes = copy.build();
+      this.dedicated =
+          Iterables.any(this.attributes, new ConstraintFilter.NameFilter(DEDICATED_ATTRIBUTE));
+    }
+  }
+
+  private static final class ValueVetoKey {
+    private final ITaskConfig task;
+    private final HostSnapshot host;
+
+    ValueVetoKey(ITaskConfig task, HostSnapshot host) {
+      this.task = task;
+      this.host = host;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof ValueVetoKey)) {
+        return false;
+      }
+
+      ValueVetoKey other = (ValueVetoKey) o;
+      return task.equals(other.task) && host == other.host;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(task, System.identityHashCode(host));
+    }
+  }
+
   /**
    * A function that fetches attributes associated with a given host.
    */
@@ -93,18 +211,6 @@ public class SchedulingFilterImpl implements SchedulingFilter {
    */
   private interface FilterRule extends Function<ITaskConfig, Iterable<Veto>> { }
 
-  /**
-   * Convenience class for a rule that will only ever have a single veto.
-   */
-  private abstract static class SingleVetoRule implements FilterRule {
-    @Override
-    public final Iterable<Veto> apply(ITaskConfig task) {
-      return doApply(task).asSet();
-    }
-
-    abstract Optional<Veto> doApply(ITaskConfig task);
-  }
-
   // Scaling ranges to use for comparison of vetos.  This has no real bearing besides trying to
   // determine if a veto along one resource vector is a 'stronger' veto than that of another vector.
   // The values below represent the maximum resources on a typical slave machine.
@@ -146,56 +252,10 @@ public class SchedulingFilterImpl implements SchedulingFilter {
     }
   }
 
-  private Iterable<FilterRule> rulesFromOffer(final ResourceSlot available) {
-    return ImmutableList.<FilterRule>of(
-        new SingleVetoRule() {
-          @Override
-          public Optional<Veto> doApply(ITaskConfig task) {
-            return CPU.maybeVeto(
-                available.getNumCpus(),
-                ResourceSlot.from(task).getNumCpus());
-          }
-        },
-        new SingleVetoRule() {
-          @Override
-          public Optional<Veto> doApply(ITaskConfig task) {
-            return RAM.maybeVeto(
-                available.getRam().as(Data.MB),
-                ResourceSlot.from(task).getRam().as(Data.MB));
-          }
-        },
-        new SingleVetoRule() {
-          @Override
-          public Optional<Veto> doApply(ITaskConfig task) {
-            return DISK.maybeVeto(available.getDisk().as(Data.MB),
-                ResourceSlot.from(task).getDisk().as(Data.MB));
-          }
-        },
-        new SingleVetoRule() {
-          @Override
-          public Optional<Veto> doApply(ITaskConfig task) {
-            return PORTS.maybeVeto(available.getNumPorts(),
-                ResourceSlot.from(task).getNumPorts());
-          }
-        }
-    );
-  }
-
   private static boolean isValueConstraint(IConstraint constraint) {
     return constraint.getConstraint().getSetField() == TaskConstraint._Fields.VALUE;
   }
 
-  private static final Ordering<IConstraint> VALUES_FIRST = Ordering.from(
-      new Comparator<IConstraint>() {
-        @Override
-        public int compare(IConstraint a, IConstraint b) {
-          if (a.getConstraint().getSetField() == b.getConstraint().getSetField()) {
-            return 0;
-          }
-          return isValueConstraint(a) ? -1 : 1;
-        }
-      });
-
   private FilterRule getConstraintFilter(final CachedJobState jobState, final String slaveHost) {
     return new FilterRule() {
       @Override
@@ -204,44 +264,55 @@ public class SchedulingFilterImpl implements SchedulingFilter {
           return ImmutableList.of();
         }
 
-        // In the interest of performance, we perform a weakly consistent read here.  The biggest
-        // risk of this is that we might schedule against stale host attributes, or we might fail
-        // to correctly satisfy a diversity constraint.  Given that the likelihood is relatively low
-        // for both of these, and the impact is also low, the weak consistency is acceptable.
-        return storage.weaklyConsistentRead(new Quiet<Iterable<Veto>>() {
-          @Override
-          public Iterable<Veto> apply(final StoreProvider storeProvider) {
-            AttributeLoader attributeLoader = new AttributeLoader() {
-              @Override
-              public Iterable<Attribute> apply(String host) {
-                return AttributeStore.Util.attributesOrNone(storeProvider, host);
-              }
-            };
-
-            ConstraintFilter constraintFilter = new ConstraintFilter(
-                jobState,
-                attributeLoader,
-                attributeLoader.apply(slaveHost));
-            ImmutableList.Builder<Veto> vetoes = ImmutableList.builder();
-            for (IConstraint constraint : VALUES_FIRST.sortedCopy(task.getConstraints())) {
-              Optional<Veto> veto = constraintFilter.apply(constraint);
-              if (veto.isPresent()) {
-                vetoes.add(veto.get());
-                if (isValueConstraint(constraint)) {
-                  // Break when a value constraint mismatch is found to avoid other
-                  // potentially-expensive operations to satisfy other constraints.
-                  break;
+        final HostSnapshot host = hosts.getUnchecked(slaveHost);
+        Optional<Veto> valueVeto;
+        try {
+          valueVeto = valueVetoes.get(
+              new ValueVetoKey(task, host),
+              new Callable<Optional<Veto>>() {
+                @Override
+                public Optional<Veto> call() {
+                  valueConstraintEvaluations.incrementAndGet();
+                  return getValueVeto(task, host);
                 }
-              }
-            }
+              });
+        } catch (ExecutionException e) {
+          throw Throwables.propagate(e.getCause());
+        }
 
-            return vetoes.build();
+        // Break when a value constraint mismatch is found to avoid other potentially-expensive
+        // operations to satisfy other constraints.
+        if (valueVeto.isPresent()) {
+          return valueVeto.asSet();
+        }
+
+        ConstraintFilter constraintFilter =
+            new ConstraintFilter(jobState, cachedAttributeLoader, host.attributes);
+        ImmutableList.Builder<Veto> vetoes = ImmutableList.builder();
+        for (IConstraint constraint : task.getConstraints()) {
+          if (!isValueConstraint(constraint)) {
+            vetoes.addAll(constraintFilter.apply(constraint).asSet());
           }
-        });
+        }
+        return vetoes.build();
       }
     };
   }
 
+  private static Optional<Veto> getValueVeto(ITaskConfig task, HostSnapshot host) {
+    ConstraintFilter constraintFilter =
+        new ConstraintFilter(NO_JOB_STATE, NO_ATTRIBUTES, host.attributes);
+    for (IConstraint constraint : task.getConstraints()) {
+      if (isValueConstraint(constraint)) {
+        Optional<Veto> veto = constraintFilter.apply(constraint);
+        if (veto.isPresent()) {
+          return veto;
+        }
+      }
+    }
+    return NO_VETO;
+  }
+
   private Optional<Veto> getMaintenanceVeto(String slaveHost) {
     MaintenanceMode mode = maintenance.getMode(slaveHost);
     return VETO_MODES.contains(mode)
@@ -249,24 +320,49 @@ public class SchedulingFilterImpl implements SchedulingFilter {
         : NO_VETO;
   }
 
-  private Set<Veto> getResourceVetoes(ResourceSlot offer, ITaskConfig task) {
-    ImmutableSet.Builder<Veto> builder = ImmutableSet.builder();
-    for (FilterRule rule : rulesFromOffer(offer)) {
-      builder.addAll(rule.apply(task));
-    }
-    return builder.build();
+  /**
+   * Gets the vetoes against placing a task requiring some resources on an offer, considering only
+   * the resources of the offer.
+   *
+   * @param available Resources available in the offer.
+   * @param required Resources required by the task.
+   * @return Vetoes for each resource the offer holds too little of.
+   */
+  public static Set<Veto> getResourceVetoes(ResourceSlot available, ResourceSlot required) {
+    return ImmutableSet.<Veto>builder()
+        .addAll(CPU.maybeVeto(available.getNumCpus(), required.getNumCpus()).asSet())
+        .addAll(RAM.maybeVeto(available.getRam().as(Data.MB), required.getRam().as(Data.MB))
+            .asSet())
+        .addAll(DISK.maybeVeto(available.getDisk().as(Data.MB), required.getDisk().as(Data.MB))
+            .asSet())
+        .addAll(PORTS.maybeVeto(available.getNumPorts(), required.getNumPorts()).asSet())
+        .build();
   }
 
-  private boolean isDedicated(final String slaveHost) {
-    Iterable<Attribute> slaveAttributes =
-        storage.weaklyConsistentRead(new Quiet<Iterable<Attribute>>() {
-          @Override
-          public Iterable<Attribute> apply(final StoreProvider storeProvider) {
-            return AttributeStore.Util.attributesOrNone(storeProvider, slaveHost);
-          }
-        });
+  private boolean isDedicated(String slaveHost) {
+    return hosts.getUnchecked(slaveHost).dedicated;
+  }
 
-    return Iterables.any(slaveAttributes, new ConstraintFilter.NameFilter(DEDICATED_ATTRIBUTE));
+  /**
+   * Discards the cached attributes of a host, along with the outcome of constraints evaluated
+   * against them.
+   *
+   * @param change Host attributes change notification.
+   */
+  @Subscribe
+  public void hostAttributesChanged(HostAttributesChanged change) {
+    hosts.invalidate(change.getAttributes().getHost());
+  }
+
+  /**
+   * Discards the cached attributes of all hosts, since storage was replaced without a change
+   * notification for each host.
+   *
+   * @param restored Storage restored notification.
+   */
+  @Subscribe
+  public void storageRestored(StorageRestored restored) {
+    hosts.invalidateAll();
   }
 
   @Override
@@ -282,7 +378,7 @@ public class SchedulingFilterImpl implements SchedulingFilter {
     }
     return ImmutableSet.<Veto>builder()
         .addAll(getConstraintFilter(cachedJobState, slaveHost).apply(task))
-        .addAll(getResourceVetoes(offer, task))
+        .addAll(getResourceVetoes(offer, ResourceSlot.from(task)))
         .addAll(getMaintenanceVeto(slaveHost).asSet())
         .build();
   }
@@ -17,9 +17,13 @@ package org.apache.aurora.scheduler.log.mesos;
 
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicLong;
@@ -31,9 +35,11 @@ import javax.inject.Provider;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.UnmodifiableIterator;
 import com.google.common.primitives.Longs;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.BindingAnnotation;
 import com.twitter.common.base.Function;
 import com.twitter.common.base.MorePreconditions;
@@ -82,6 +88,35 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
   @Target({ PARAMETER, METHOD })
   public @interface WriteTimeout { }
 
+  /**
+   * Settings for reading ahead of iteration when reading all entries in the log.
+   */
+  public static class ReadAheadSettings {
+    @VisibleForTesting
+    static final ReadAheadSettings DISABLED = new ReadAheadSettings(1, 0);
+
+    private final int batchSize;
+    private final int bufferedBatches;
+
+    /**
+     * Creates read-ahead settings.
+     *
+     * @param batchSize Number of log positions to read at a time.
+     * @param bufferedBatches Maximum number of batches to read ahead of iteration, or zero to read
+     *     entries one at a time as they are iterated.
+     */
+    public ReadAheadSettings(int batchSize, int bufferedBatches) {
+      Preconditions.checkArgument(batchSize > 0);
+      Preconditions.checkArgument(bufferedBatches >= 0);
+      this.batchSize = batchSize;
+      this.bufferedBatches = bufferedBatches;
+    }
+
+    boolean isEnabled() {
+      return bufferedBatches > 0;
+    }
+  }
+
   private final Provider<LogInterface> logFactory;
 
   private final Provider<ReaderInterface> readerFactory;
@@ -92,6 +127,8 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
 
   private final byte[] noopEntry;
 
+  private final ReadAheadSettings readAhead;
+
   /**
    * Creates a new mesos log.
    *
@@ -101,6 +138,7 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
    * @param writerFactory Factory to provide access to log writers.
    * @param writeTimeout Log write timeout.
    * @param noopEntry A no-op log entry blob.
+   * @param readAhead Settings for reading ahead when reading all log entries.
    */
   @Inject
   public MesosLog(
@@ -109,7 +147,8 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
       @ReadTimeout Amount<Long, Time> readTimeout,
       Provider<WriterInterface> writerFactory,
       @WriteTimeout Amount<Long, Time> writeTimeout,
-      @NoopEntry byte[] noopEntry) {
+      @NoopEntry byte[] noopEntry,
+      ReadAheadSettings readAhead) {
 
     this.logFactory = Preconditions.checkNotNull(logFactory);
 
@@ -120,12 +159,20 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
     this.writeTimeout = writeTimeout;
 
     this.noopEntry = Preconditions.checkNotNull(noopEntry);
+
+    this.readAhead = Preconditions.checkNotNull(readAhead);
   }
 
   @Override
   public Stream open() {
     return new LogStream(
-        logFactory.get(), readerFactory.get(), readTimeout, writerFactory, writeTimeout, noopEntry);
+        logFactory.get(),
+        readerFactory.get(),
+        readTimeout,
+        writerFactory,
+        writeTimeout,
+        noopEntry,
+        readAhead);
   }
 
   @VisibleForTesting
@@ -136,12 +183,17 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
       private final SlidingStats timing;
       private final AtomicLong timeouts;
       private final AtomicLong failures;
+      private final SlidingStats batchSizes;
+      private final SlidingStats readAheadStalls;
 
       OpStats(String opName) {
         this.opName = MorePreconditions.checkNotBlank(opName);
         timing = new SlidingStats("scheduler_log_native_" + opName, "nanos");
         timeouts = exportLongStat("scheduler_log_native_%s_timeouts", opName);
         failures = exportLongStat("scheduler_log_native_%s_failures", opName);
+        batchSizes = new SlidingStats("scheduler_log_native_" + opName + "_batch", "entries");
+        readAheadStalls =
+            new SlidingStats("scheduler_log_native_" + opName + "_read_ahead_stall", "nanos");
       }
 
       private static AtomicLong exportLongStat(String template, Object... args) {
@@ -175,11 +227,13 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
 
     private final byte[] noopEntry;
 
+    private final ReadAheadSettings readAhead;
+
     private WriterInterface writer;
 
     LogStream(LogInterface log, ReaderInterface reader, Amount<Long, Time> readTimeout,
         Provider<WriterInterface> writerFactory, Amount<Long, Time> writeTimeout,
-        byte[] noopEntry) {
+        byte[] noopEntry, ReadAheadSettings readAhead) {
 
       this.log = log;
 
@@ -192,6 +246,8 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
       this.writeTimeUnit = writeTimeout.getUnit().getTimeUnit();
 
       this.noopEntry = noopEntry;
+
+      this.readAhead = readAhead;
     }
 
     @Override
@@ -209,6 +265,21 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
       final Log.Position from = reader.beginning();
       final Log.Position to = end().unwrap();
 
+      if (readAhead.isEnabled()) {
+        return ReadAheadIterator.start(
+            new ReadAheadIterator.RangeReader<Entry>() {
+              @Override
+              public List<Entry> read(long first, long last) {
+                return readRange(first, last);
+              }
+            },
+            Longs.fromByteArray(from.identity()),
+            Longs.fromByteArray(to.identity()),
+            readAhead,
+            read,
+            new ThreadFactoryBuilder().setNameFormat("LogReadAhead-%d").setDaemon(true).build());
+      }
+
       // Reading all the entries at once may cause large garbage collections. Instead, we
       // lazily read the entries one by one as they are requested.
       // TODO(Benjamin Hindman): Eventually replace this functionality with functionality
@@ -274,6 +345,181 @@ public class MesosLog implements org.apache.aurora.scheduler.log.Log {
       };
     }
 
+    private List<Entry> readRange(long first, long last) {
+      long start = System.nanoTime();
+      try {
+        if (LOG.isLoggable(Level.FINE)) {
+          LOG.fine("Reading positions " + first + " to " + last + " from the log");
+        }
+        List<Log.Entry> entries = reader.read(
+            log.position(Longs.toByteArray(first)),
+            log.position(Longs.toByteArray(last)),
+            readTimeout,
+            readTimeUnit);
+
+        // As when reading positions one at a time, positions that are not appends are omitted.
+        entriesSkipped.getAndAdd((last - first + 1) - entries.size());
+        return ImmutableList.<Entry>copyOf(Iterables.transform(entries, MESOS_ENTRY_TO_ENTRY));
+      } catch (TimeoutException e) {
+        read.timeouts.getAndIncrement();
+        throw new StreamAccessException("Timeout reading from log.", e);
+      } catch (Log.OperationFailedException e) {
+        read.failures.getAndIncrement();
+        throw new StreamAccessException("Problem reading from log", e);
+      } finally {
+        read.timing.accumulate(System.nanoTime() - start);
+      }
+    }
+
+    /**
+     * Reads ranges of positions on a separate thread, ahead of iteration.  A bounded number of
+     * batches is buffered, so memory use does not grow with the size of the log, while iteration
+     * only waits on reads when it catches up with the reading thread.
+     *
+     * @param <T> Type of log entry.
+     */
+    @VisibleForTesting
+    static final class ReadAheadIterator<T> extends UnmodifiableIterator<T> {
+
+      /**
+       * Reads the entries in a range of log positions.
+       *
+       * @param <T> Type of log entry.
+       */
+      @VisibleForTesting
+      interface RangeReader<T> {
+        /**
+         * Reads entries in a range of positions.  Positions that do not hold an entry are omitted.
+         *
+         * @param first First position to read.
+         * @param last Last position to read, inclusive.
+         * @return The entries read.
+         * @throws StreamAccessException If the positions could not be read.
+         */
+        List<T> read(long first, long last) throws StreamAccessException;
+      }
+
+      private static final class Batch<T> {
+        private final List<T> entries;
+        private final RuntimeException failure;
+
+        Batch(List<T> entries, RuntimeException failure) {
+          this.entries = entries;
+          this.failure = failure;
+        }
+      }
+
+      private final BlockingQueue<Batch<T>> buffer;
+      private final OpStats stats;
+      private Iterator<T> current = Collections.emptyIterator();
+      private boolean done = false;
+
+      private ReadAheadIterator(int bufferedBatches, OpStats stats) {
+        // One extra slot guarantees that the final end or failure marker can always be enqueued
+        // once iteration has consumed all batches.
+        this.buffer = new ArrayBlockingQueue<>(bufferedBatches + 1);
+        this.stats = stats;
+      }
+
+      /**
+       * Starts reading ahead, returning an iterator over the entries read.
+       * <p>
+       * The reading thread blocks while the buffer is full.  It is a daemon thread, and does not
+       * prevent shutdown if iteration is abandoned.
+       *
+       * @param reader Reader of ranges of positions.
+       * @param from First position to read.
+       * @param to Last position to read, inclusive.
+       * @param settings Read-ahead settings.
+       * @param stats Stats to record batch sizes and iteration stalls with.
+       * @param threadFactory Factory for the reading thread.
+       * @param <T> Type of log entry.
+       * @return An iterator over the entries in the positions read.
+       */
+      static <T> ReadAheadIterator<T> start(
+          final RangeReader<T> reader,
+          final long from,
+          final long to,
+          final ReadAheadSettings settings,
+          OpStats stats,
+          ThreadFactory threadFactory) {
+
+        final ReadAheadIterator<T> iterator =
+            new ReadAheadIterator<>(settings.bufferedBatches, stats);
+        threadFactory.newThread(new Runnable() {
+          @Override
+          public void run() {
+            iterator.readAll(reader, from, to, settings.batchSize);
+          }
+        }).start();
+        return iterator;
+      }
+
+      private void readAll(RangeReader<T> reader, long from, long to, int batchSize) {
+        try {
+          Batch<T> last;
+          try {
+            long position = from;
+            while (position <= to) {
+              long batchEnd = Math.min(to, position + batchSize - 1);
+              List<T> entries = reader.read(position, batchEnd);
+              stats.batchSizes.accumulate(entries.size());
+              position = batchEnd + 1;
+              if (!entries.isEmpty()) {
+                buffer.put(new Batch<T>(entries, null));
+              }
+            }
+            last = new Batch<T>(null, null);
+          } catch (RuntimeException e) {
+            last = new Batch<T>(null, e);
+          }
+          buffer.put(last);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+
+      @Override
+      public boolean hasNext() {
+        while (!current.hasNext()) {
+          if (done) {
+            return false;
+          }
+
+          Batch<T> batch = buffer.poll();
+          if (batch == null) {
+            long start = System.nanoTime();
+            try {
+              batch = buffer.take();
+            } catch (InterruptedException e) {
+              Thread.currentThread().interrupt();
+              throw new StreamAccessException("Interrupted while reading from log", e);
+            } finally {
+              stats.readAheadStalls.accumulate(System.nanoTime() - start);
+            }
+          }
+
+          if (batch.failure != null) {
+            done = true;
+            throw new StreamAccessException("Problem reading ahead in log", batch.failure);
+          } else if (batch.entries == null) {
+            done = true;
+          } else {
+            current = batch.entries.iterator();
+          }
+        }
+        return true;
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+    }
+
     @Override
     public LogPosition append(final byte[] contents) throws StreamAccessException {
       Preconditions.checkNotNull(contents);
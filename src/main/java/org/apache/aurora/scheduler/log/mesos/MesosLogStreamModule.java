@@ -95,6 +95,15 @@ public class MesosLogStreamModule extends PrivateModule {
   private static final Arg<Amount<Long, Time>> WRITE_TIMEOUT =
       Arg.create(Amount.of(3L, Time.SECONDS));
 
+  @CmdLine(name = "native_log_read_batch_size",
+           help = "The number of log positions to read at a time when reading ahead.")
+  private static final Arg<Integer> READ_BATCH_SIZE = Arg.create(100);
+
+  @CmdLine(name = "native_log_read_ahead_batches",
+           help = "The maximum number of batches to read ahead of log replay, or 0 to read log "
+               + "entries one at a time during replay.")
+  private static final Arg<Integer> READ_AHEAD_BATCHES = Arg.create(0);
+
   private final ClientConfig zkClientConfig;
 
   public MesosLogStreamModule(ClientConfig zkClientConfig) {
@@ -107,6 +116,8 @@ public class MesosLogStreamModule extends PrivateModule {
         .toInstance(READ_TIMEOUT.get());
     bind(new TypeLiteral<Amount<Long, Time>>() { }).annotatedWith(MesosLog.WriteTimeout.class)
         .toInstance(WRITE_TIMEOUT.get());
+    bind(MesosLog.ReadAheadSettings.class).toInstance(
+        new MesosLog.ReadAheadSettings(READ_BATCH_SIZE.get(), READ_AHEAD_BATCHES.get()));
 
     bind(org.apache.aurora.scheduler.log.Log.class).to(MesosLog.class);
     bind(MesosLog.class).in(Singleton.class);
@@ -0,0 +1,448 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.log.segmented;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.UnmodifiableIterator;
+import com.google.common.primitives.Longs;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import org.apache.aurora.scheduler.log.Log;
+
+/**
+ * A log that appends to memory-mapped segment files in a local directory.  Suitable for
+ * single-node clusters, where the log need not be replicated, and for benchmarking storage.
+ * <p>
+ * Each segment is a file of a fixed size, named after the position of its first entry.  An entry
+ * is stored as its length, a CRC32 checksum of its contents, and its contents.  A zero length marks
+ * the end of the entries in a segment.  Entries are forced to disk before an append returns.
+ * <p>
+ * Truncation deletes whole segments, so entries before the truncation position may be retained
+ * until the rest of their segment is truncated.
+ */
+public class SegmentedLog implements Log {
+
+  private static final Logger LOG = Logger.getLogger(SegmentedLog.class.getName());
+
+  @VisibleForTesting
+  static final String SEGMENT_SUFFIX = ".segment";
+
+  // Length and checksum of an entry.
+  private static final int HEADER_BYTES = 8;
+
+  private static final FilenameFilter SEGMENT_FILES = new FilenameFilter() {
+    @Override
+    public boolean accept(File dir, String name) {
+      return name.endsWith(SEGMENT_SUFFIX);
+    }
+  };
+
+  private final File directory;
+  private final int segmentBytes;
+
+  /**
+   * Creates a log in a directory.
+   *
+   * @param directory Directory to store segment files in, created if it does not exist.
+   * @param segmentSize Size of each segment file.  Entries larger than this are stored in a segment
+   *     of their own.
+   */
+  public SegmentedLog(File directory, Amount<Long, Data> segmentSize) {
+    this.directory = Preconditions.checkNotNull(directory);
+    long bytes = segmentSize.as(Data.BYTES);
+    Preconditions.checkArgument(
+        bytes > HEADER_BYTES * 2 && bytes <= Integer.MAX_VALUE,
+        "Invalid segment size " + segmentSize);
+    this.segmentBytes = (int) bytes;
+  }
+
+  @Override
+  public Stream open() throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Failed to create log directory " + directory);
+    }
+
+    File[] files = directory.listFiles(SEGMENT_FILES);
+    if (files == null) {
+      throw new IOException("Failed to list log directory " + directory);
+    }
+
+    List<Segment> segments = Lists.newArrayList();
+    for (File file : files) {
+      segments.add(Segment.open(file));
+    }
+    return new SegmentedStream(directory, segmentBytes, segments);
+  }
+
+  @VisibleForTesting
+  static class SegmentedStream implements Stream {
+    private final File directory;
+    private final int segmentBytes;
+    private final List<Segment> segments;
+    private boolean closed = false;
+
+    SegmentedStream(File directory, int segmentBytes, List<Segment> segments) throws IOException {
+      this.directory = directory;
+      this.segmentBytes = segmentBytes;
+      this.segments = Lists.newArrayList(Segment.ORDERING.sortedCopy(segments));
+
+      for (int i = 0; i < this.segments.size() - 1; i++) {
+        Segment segment = this.segments.get(i);
+        if (segment.nextPosition() != this.segments.get(i + 1).firstPosition) {
+          throw new IOException("Log segment " + segment.file + " is truncated or corrupt.");
+        }
+      }
+    }
+
+    private Segment writableSegment(int recordBytes) {
+      Segment last = Iterables.getLast(segments, null);
+      if (last != null && last.hasRoomFor(recordBytes)) {
+        return last;
+      }
+
+      // Leave room for the end marker after the entry.
+      int size = Math.max(segmentBytes, recordBytes + HEADER_BYTES);
+      try {
+        Segment segment;
+        if (last != null && last.isEmpty()) {
+          // A segment with no entries, such as one left short by a failure while it was created,
+          // is grown in place since the next segment would have the same first position.
+          segment = last.grow(size);
+          segments.set(segments.size() - 1, segment);
+        } else {
+          long firstPosition = (last == null) ? 1 : last.nextPosition();
+          segment = Segment.create(
+              new File(directory, Segment.fileName(firstPosition)),
+              firstPosition,
+              size);
+          segments.add(segment);
+        }
+        return segment;
+      } catch (IOException e) {
+        throw new StreamAccessException("Failed to create log segment: " + e, e);
+      }
+    }
+
+    @Override
+    public synchronized Position append(byte[] contents) throws StreamAccessException {
+      Preconditions.checkNotNull(contents);
+      Preconditions.checkState(!closed, "Log stream is closed.");
+
+      Segment segment = writableSegment(HEADER_BYTES + contents.length);
+      return new SegmentPosition(segment.append(contents));
+    }
+
+    @Override
+    public synchronized Iterator<Entry> readAll() throws StreamAccessException {
+      Preconditions.checkState(!closed, "Log stream is closed.");
+
+      // Entries appended after this call are not included.
+      ImmutableList.Builder<Iterator<Entry>> segmentEntries = ImmutableList.builder();
+      for (Segment segment : segments) {
+        segmentEntries.add(segment.readAll());
+      }
+      return Iterators.concat(segmentEntries.build().iterator());
+    }
+
+    @Override
+    public synchronized void truncateBefore(Position position)
+        throws InvalidPositionException, StreamAccessException {
+
+      if (!(position instanceof SegmentPosition)) {
+        throw new InvalidPositionException("Unrecognized position " + position);
+      }
+
+      long truncateBefore = ((SegmentPosition) position).value;
+      // The last segment is always retained, to determine the position of the next entry.
+      while (segments.size() > 1 && segments.get(1).firstPosition <= truncateBefore) {
+        Segment removed = segments.remove(0);
+        LOG.info("Deleting log segment " + removed.file);
+        removed.release();
+        if (!removed.file.delete()) {
+          throw new StreamAccessException(
+              "Failed to delete log segment " + removed.file,
+              new IOException("Delete failed"));
+        }
+      }
+    }
+
+    @Override
+    public synchronized void close() {
+      closed = true;
+      for (Segment segment : segments) {
+        segment.release();
+      }
+      segments.clear();
+    }
+  }
+
+  @VisibleForTesting
+  static final class Segment {
+    static final Ordering<Segment> ORDERING = new Ordering<Segment>() {
+      @Override
+      public int compare(Segment a, Segment b) {
+        return Longs.compare(a.firstPosition, b.firstPosition);
+      }
+    };
+
+    private final File file;
+    private final long firstPosition;
+    private final MappedByteBuffer buffer;
+    // Guarded by the owning stream.
+    private int writeOffset;
+    private long entries;
+    private volatile boolean released = false;
+
+    private Segment(File file, long firstPosition, MappedByteBuffer buffer) {
+      this.file = file;
+      this.firstPosition = firstPosition;
+      this.buffer = buffer;
+    }
+
+    static String fileName(long firstPosition) {
+      return String.format("%020d%s", firstPosition, SEGMENT_SUFFIX);
+    }
+
+    static Segment create(File file, long firstPosition, int size) throws IOException {
+      if (file.exists()) {
+        throw new IOException("Log segment " + file + " already exists.");
+      }
+      return new Segment(file, firstPosition, map(file, size));
+    }
+
+    static Segment open(File file) throws IOException {
+      String name = file.getName();
+      long firstPosition;
+      try {
+        firstPosition = Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+      } catch (NumberFormatException e) {
+        throw new IOException("Unrecognized log segment " + file, e);
+      }
+
+      Segment segment = new Segment(file, firstPosition, map(file, file.length()));
+      segment.recover();
+      return segment;
+    }
+
+    /**
+     * Maps a segment with no entries again at a larger size.  This segment is released.
+     *
+     * @param size Size to grow the segment to.
+     * @return The grown segment.
+     * @throws IOException If the segment could not be mapped.
+     */
+    Segment grow(int size) throws IOException {
+      Preconditions.checkState(isEmpty(), "Only an empty segment may be grown.");
+      release();
+      return new Segment(file, firstPosition, map(file, size));
+    }
+
+    /**
+     * Releases the segment.  Iterators and entries read from the segment may not be used once it is
+     * released.
+     * <p>
+     * The mapping itself is released when the buffer is garbage collected, once no iterator, entry
+     * or view refers to it.  It is not unmapped explicitly, since a read through a reference that
+     * outlived the segment would then crash the JVM rather than fail.
+     */
+    void release() {
+      released = true;
+    }
+
+    private void checkNotReleased() {
+      Preconditions.checkState(!released, "Log segment %s was released.", file);
+    }
+
+    private static MappedByteBuffer map(File file, long size) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+           FileChannel channel = raf.getChannel()) {
+        // The mapping remains valid after the channel is closed.
+        return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+      }
+    }
+
+    private static int checksum(ByteBuffer contents) {
+      CRC32 crc = new CRC32();
+      if (contents.hasArray()) {
+        crc.update(
+            contents.array(),
+            contents.arrayOffset() + contents.position(),
+            contents.remaining());
+      } else {
+        byte[] bytes = new byte[contents.remaining()];
+        contents.duplicate().get(bytes);
+        crc.update(bytes);
+      }
+      return (int) crc.getValue();
+    }
+
+    /**
+     * Scans the entries in the segment, verifying their checksums.  Scanning stops at the end
+     * marker, or at an entry that was not completely written, which subsequent appends replace.
+     */
+    private void recover() {
+      ByteBuffer scan = buffer.duplicate();
+      while (scan.remaining() >= HEADER_BYTES) {
+        int start = scan.position();
+        int length = scan.getInt();
+        int crc = scan.getInt();
+        if (length <= 0 || length > scan.remaining()) {
+          break;
+        }
+        ByteBuffer contents = slice(scan, length);
+        if (checksum(contents) != crc) {
+          LOG.warning("Discarding corrupt entry at offset " + start + " of log segment " + file);
+          break;
+        }
+        scan.position(scan.position() + length);
+        writeOffset = scan.position();
+        entries++;
+      }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+      ByteBuffer slice = buffer.slice();
+      slice.limit(length);
+      return slice;
+    }
+
+    long nextPosition() {
+      return firstPosition + entries;
+    }
+
+    boolean isEmpty() {
+      return entries == 0;
+    }
+
+    boolean hasRoomFor(int recordBytes) {
+      // Leave room for the end marker after the entry.
+      return (long) writeOffset + recordBytes + HEADER_BYTES <= buffer.capacity();
+    }
+
+    long append(byte[] contents) {
+      ByteBuffer write = buffer.duplicate();
+      write.position(writeOffset);
+      write.putInt(contents.length);
+      write.putInt(checksum(ByteBuffer.wrap(contents)));
+      write.put(contents);
+      int nextOffset = write.position();
+      // Mark the end of the entries, in case this overwrote an incomplete entry.
+      write.putInt(0);
+      buffer.force();
+
+      long position = nextPosition();
+      writeOffset = nextOffset;
+      entries++;
+      return position;
+    }
+
+    Iterator<Entry> readAll() {
+      final ByteBuffer read = buffer.duplicate();
+      read.limit(writeOffset);
+      return new UnmodifiableIterator<Entry>() {
+        @Override
+        public boolean hasNext() {
+          checkNotReleased();
+          return read.hasRemaining();
+        }
+
+        @Override
+        public Entry next() {
+          if (!hasNext()) {
+            throw new NoSuchElementException();
+          }
+
+          int length = read.getInt();
+          read.getInt();
+          final ByteBuffer contents = slice(read, length);
+          read.position(read.position() + length);
+          return new SegmentEntry(Segment.this, contents);
+        }
+      };
+    }
+  }
+
+  /**
+   * An entry that refers to its contents in the mapped segment, copying them only when requested.
+   */
+  @VisibleForTesting
+  static final class SegmentEntry implements Entry {
+    private final Segment segment;
+    private final ByteBuffer contents;
+
+    SegmentEntry(Segment segment, ByteBuffer contents) {
+      this.segment = segment;
+      this.contents = contents;
+    }
+
+    /**
+     * Gets a read-only view of the entry contents, without copying them.  The view may not be read
+     * once the segment holding the entry is truncated or its stream closed.
+     *
+     * @return The entry contents.
+     */
+    ByteBuffer view() {
+      segment.checkNotReleased();
+      return contents.asReadOnlyBuffer();
+    }
+
+    @Override
+    public byte[] contents() {
+      segment.checkNotReleased();
+      byte[] bytes = new byte[contents.remaining()];
+      contents.duplicate().get(bytes);
+      return bytes;
+    }
+  }
+
+  private static final class SegmentPosition implements Position {
+    private final long value;
+
+    SegmentPosition(long value) {
+      this.value = value;
+    }
+
+    @Override
+    public int compareTo(Position position) {
+      return Longs.compare(value, ((SegmentPosition) position).value);
+    }
+
+    @Override
+    public String toString() {
+      return Long.toString(value);
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.log.segmented;
+
+import java.io.File;
+
+import com.google.common.base.Preconditions;
+import com.google.inject.PrivateModule;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import org.apache.aurora.scheduler.log.Log;
+
+/**
+ * Binding module for a log stored in segment files in a local directory, for clusters with a
+ * single scheduler.
+ *
+ * <p>Exports the following bindings:
+ * <ul>
+ *   <li>{@link Log} - a log backed by local segment files
+ * </ul>
+ */
+public class SegmentedLogStreamModule extends PrivateModule {
+
+  @CmdLine(name = "segmented_log_dir",
+      help = "Directory to store log segments in, when using a local segmented log.")
+  private static final Arg<File> LOG_DIR = Arg.create(null);
+
+  @CmdLine(name = "segmented_log_segment_size",
+      help = "Size of each log segment file, when using a local segmented log.")
+  private static final Arg<Amount<Long, Data>> SEGMENT_SIZE =
+      Arg.create(Amount.of(64L, Data.MB));
+
+  @Override
+  protected void configure() {
+    Preconditions.checkNotNull(LOG_DIR.get(), "A segmented log requires -segmented_log_dir.");
+    bind(Log.class).toInstance(new SegmentedLog(LOG_DIR.get(), SEGMENT_SIZE.get()));
+    expose(Log.class);
+  }
+}
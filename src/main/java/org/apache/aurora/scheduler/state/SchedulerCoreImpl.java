@@ -286,19 +286,10 @@ class SchedulerCoreImpl implements SchedulerCore {
     int tasksAffected = storage.write(new MutateWork.Quiet<Integer>() {
       @Override
       public Integer apply(MutableStoreProvider storeProvider) {
-        int total = 0;
-        for (String taskId : Tasks.ids(storeProvider.getTaskStore().fetchTasks(taskQuery))) {
-          boolean changed = stateManager.changeState(
-              taskId,
-              Optional.<ScheduleStatus>absent(),
-              KILLING,
-              Optional.of("Killed by " + user));
-
-          if (changed) {
-            total++;
-          }
-        }
-        return total;
+        return stateManager.changeStates(
+            Tasks.ids(storeProvider.getTaskStore().fetchTasks(taskQuery)),
+            KILLING,
+            Optional.of("Killed by " + user));
       }
     });
 
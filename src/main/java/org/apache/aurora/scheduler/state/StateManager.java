@@ -55,6 +55,19 @@ public interface StateManager {
       ScheduleStatus newState,
       Optional<String> auditMessage);
 
+  /**
+   * Attempts to alter many tasks from their existing states to {@code newState}, as
+   * {@link #changeState(String, Optional, ScheduleStatus, Optional)} does without a
+   * {@code casState}.  Events for the transitions are posted together once all tasks have been
+   * transitioned, allowing subscribers to process them as a batch.
+   *
+   * @param taskIds IDs of the tasks to transition.
+   * @param newState State to move the tasks to.
+   * @param auditMessage Message to include with the transitions.
+   * @return The number of tasks that were moved to {@code newState}.
+   */
+  int changeStates(Set<String> taskIds, ScheduleStatus newState, Optional<String> auditMessage);
+
   /**
    * Assigns a task to a specific slave.
    * This will modify the task record to reflect the host assignment and return the updated record.
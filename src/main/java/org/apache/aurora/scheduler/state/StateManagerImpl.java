@@ -42,6 +42,7 @@ import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
+import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.util.Clock;
 
 import org.apache.aurora.gen.AssignedTask;
@@ -55,6 +56,9 @@ import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.events.EventSink;
 import org.apache.aurora.scheduler.events.PubsubEvent;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChanges;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
 import org.apache.aurora.scheduler.state.SideEffect.Action;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
@@ -88,6 +92,10 @@ public class StateManagerImpl implements StateManager {
   private final EventSink eventSink;
   private final RescheduleCalculator rescheduleCalculator;
 
+  // Events of the bulk operation in progress on each thread, which are posted together once the
+  // outermost bulk operation completes.
+  private final ThreadLocal<List<PubsubEvent>> bulkEvents = new ThreadLocal<>();
+
   @Inject
   StateManagerImpl(
       final Storage storage,
@@ -115,6 +123,77 @@ public class StateManagerImpl implements StateManager {
         .setAssignedTask(assigned));
   }
 
+  private void post(List<PubsubEvent> events) {
+    List<PubsubEvent> pending = bulkEvents.get();
+    if (pending == null) {
+      for (PubsubEvent event : events) {
+        eventSink.post(event);
+      }
+    } else {
+      pending.addAll(events);
+    }
+  }
+
+  /**
+   * Starts a bulk operation on the calling thread, deferring its events until
+   * {@link #endBulk(boolean)}.
+   *
+   * @return {@code true} if this is the outermost bulk operation on the thread.
+   */
+  private boolean beginBulk() {
+    if (bulkEvents.get() != null) {
+      return false;
+    }
+    bulkEvents.set(Lists.<PubsubEvent>newArrayList());
+    return true;
+  }
+
+  private void endBulk(boolean outermost) {
+    if (outermost) {
+      List<PubsubEvent> events = bulkEvents.get();
+      // Cleared first, since subscribers may perform further state changes.
+      bulkEvents.remove();
+      for (PubsubEvent event : coalesce(events)) {
+        eventSink.post(event);
+      }
+    }
+  }
+
+  /**
+   * Combines the state changes and the deletions of a bulk operation into as few events as
+   * possible.  State changes are posted before deletions, which preserves the order of the events
+   * of each task.
+   */
+  @VisibleForTesting
+  static List<PubsubEvent> coalesce(List<PubsubEvent> events) {
+    List<TaskStateChange> changes = Lists.newArrayList();
+    ImmutableSet.Builder<IScheduledTask> deleted = ImmutableSet.builder();
+    List<PubsubEvent> others = Lists.newArrayList();
+    for (PubsubEvent event : events) {
+      if (event instanceof TaskStateChange) {
+        changes.add((TaskStateChange) event);
+      } else if (event instanceof TasksDeleted) {
+        deleted.addAll(((TasksDeleted) event).getTasks());
+      } else {
+        others.add(event);
+      }
+    }
+
+    ImmutableList.Builder<PubsubEvent> coalesced = ImmutableList.builder();
+    if (changes.size() == 1) {
+      coalesced.add(Iterables.getOnlyElement(changes));
+    } else if (!changes.isEmpty()) {
+      coalesced.add(new TaskStateChanges(changes));
+    }
+    coalesced.addAll(others);
+    Set<IScheduledTask> deletedTasks = deleted.build();
+    if (!deletedTasks.isEmpty()) {
+      coalesced.add(new TasksDeleted(deletedTasks));
+    }
+    return coalesced.build();
+  }
+
+  @Timed("state_manager_insert_pending_tasks")
   @Override
   public void insertPendingTasks(final Map<Integer, ITaskConfig> tasks) {
     checkNotNull(tasks);
@@ -128,20 +207,25 @@ public class StateManagerImpl implements StateManager {
           }
         }).toSet();
 
-    storage.write(new MutateWork.NoResult.Quiet() {
-      @Override
-      protected void execute(MutableStoreProvider storeProvider) {
-        storeProvider.getUnsafeTaskStore().saveTasks(scheduledTasks);
-
-        for (IScheduledTask task : scheduledTasks) {
-          updateTaskAndExternalState(
-              Tasks.id(task),
-              Optional.of(task),
-              PENDING,
-              Optional.<String>absent());
+    boolean outermost = beginBulk();
+    try {
+      storage.write(new MutateWork.NoResult.Quiet() {
+        @Override
+        protected void execute(MutableStoreProvider storeProvider) {
+          storeProvider.getUnsafeTaskStore().saveTasks(scheduledTasks);
+
+          for (IScheduledTask task : scheduledTasks) {
+            updateTaskAndExternalState(
+                Tasks.id(task),
+                Optional.of(task),
+                PENDING,
+                Optional.<String>absent());
+          }
         }
-      }
-    });
+      });
+    } finally {
+      endBulk(outermost);
+    }
   }
 
   @Override
@@ -154,6 +238,39 @@ public class StateManagerImpl implements StateManager {
     return updateTaskAndExternalState(casState, taskId, newState, auditMessage);
   }
 
+  @Timed("state_manager_change_states")
+  @Override
+  public int changeStates(
+      final Set<String> taskIds,
+      final ScheduleStatus newState,
+      final Optional<String> auditMessage) {
+
+    checkNotNull(taskIds);
+
+    boolean outermost = beginBulk();
+    try {
+      return storage.write(new MutateWork.Quiet<Integer>() {
+        @Override
+        public Integer apply(MutableStoreProvider storeProvider) {
+          int changed = 0;
+          for (String taskId : taskIds) {
+            if (updateTaskAndExternalState(
+                Optional.<ScheduleStatus>absent(),
+                taskId,
+                newState,
+                auditMessage)) {
+
+              changed++;
+            }
+          }
+          return changed;
+        }
+      });
+    } finally {
+      endBulk(outermost);
+    }
+  }
+
   @Override
   public IAssignedTask assignTask(
       final String taskId,
@@ -354,7 +471,7 @@ public class StateManagerImpl implements StateManager {
                 }
               });
               events.add(
-                  PubsubEvent.TaskStateChange.transition(
+                  TaskStateChange.transition(
                       Iterables.getOnlyElement(storeProvider.getTaskStore().fetchTasks(query)),
                       stateMachine.getPreviousState()));
               break;
@@ -425,9 +542,7 @@ public class StateManagerImpl implements StateManager {
     // (e.g. if this is a nested transaction). Ideally, Storage would add a facility to attach
     // side-effects that are performed after the outer-most transaction completes (meaning state
     // has been durably persisted).
-    for (PubsubEvent event : events) {
-      eventSink.post(event);
-    }
+    post(events);
 
     return success;
   }
@@ -446,6 +561,6 @@ public class StateManagerImpl implements StateManager {
     TaskStore.Mutable taskStore = storeProvider.getUnsafeTaskStore();
     Iterable<IScheduledTask> tasks = taskStore.fetchTasks(Query.taskScoped(taskIds));
     taskStore.deleteTasks(taskIds);
-    return new PubsubEvent.TasksDeleted(ImmutableSet.copyOf(tasks));
+    return new TasksDeleted(ImmutableSet.copyOf(tasks));
   }
 }
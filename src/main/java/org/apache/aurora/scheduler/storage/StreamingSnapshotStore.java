@@ -0,0 +1,35 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage;
+
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+
+/**
+ * A snapshot store that can write a snapshot incrementally, one store at a time, rather than
+ * materializing the whole snapshot before it is encoded.
+ */
+public interface StreamingSnapshotStore {
+
+  /**
+   * Writes a snapshot of the current storage state to a protocol.  The written form is identical
+   * to that of an {@link org.apache.aurora.gen.storage.Snapshot} struct.
+   *
+   * @param protocol Protocol to write the snapshot struct to.
+   * @throws TException If the snapshot could not be written.
+   */
+  void writeSnapshot(TProtocol protocol) throws TException;
+}
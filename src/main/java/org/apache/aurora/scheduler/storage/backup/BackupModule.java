@@ -16,6 +16,8 @@
 package org.apache.aurora.scheduler.storage.backup;
 
 import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
@@ -23,6 +25,7 @@ import javax.inject.Singleton;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.PrivateModule;
 import com.google.inject.Provides;
 import com.google.inject.TypeLiteral;
@@ -39,6 +42,7 @@ import org.apache.aurora.scheduler.storage.SnapshotStore;
 import org.apache.aurora.scheduler.storage.backup.Recovery.RecoveryImpl;
 import org.apache.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl;
 import org.apache.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl.BackupConfig;
+import org.apache.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl.BackupExecutor;
 import org.apache.aurora.scheduler.storage.backup.TemporaryStorage.TemporaryStorageFactory;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -63,6 +67,11 @@ public class BackupModule extends PrivateModule {
       help = "Directory to store backups under. Will be created if it does not exist.")
   private static final Arg<File> BACKUP_DIR = Arg.create();
 
+  @CmdLine(name = "compress_backups",
+      help = "Whether backups should be gzip-compressed. Compressed backups cannot be recovered by "
+          + "schedulers that predate this option.")
+  private static final Arg<Boolean> COMPRESS_BACKUPS = Arg.create(false);
+
   private final Class<? extends SnapshotStore<Snapshot>> snapshotStore;
   private final File unvalidatedBackupDir;
 
@@ -95,6 +104,9 @@ public class BackupModule extends PrivateModule {
     bind(type).to(StorageBackupImpl.class);
     bind(StorageBackup.class).to(StorageBackupImpl.class);
     bind(StorageBackupImpl.class).in(Singleton.class);
+    bind(ExecutorService.class).annotatedWith(BackupExecutor.class).toInstance(
+        Executors.newSingleThreadExecutor(
+            new ThreadFactoryBuilder().setNameFormat("StorageBackup-%d").setDaemon(true).build()));
     expose(type);
     expose(StorageBackup.class);
 
@@ -141,6 +153,10 @@ public class BackupModule extends PrivateModule {
 
   @Provides
   private BackupConfig provideBackupConfig(File backupDir) {
-    return new BackupConfig(backupDir, MAX_SAVED_BACKUPS.get(), BACKUP_INTERVAL.get());
+    return new BackupConfig(
+        backupDir,
+        MAX_SAVED_BACKUPS.get(),
+        BACKUP_INTERVAL.get(),
+        COMPRESS_BACKUPS.get());
   }
 }
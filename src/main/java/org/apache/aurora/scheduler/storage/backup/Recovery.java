@@ -25,7 +25,6 @@ import javax.inject.Inject;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableSet;
-import com.google.common.io.Files;
 import com.google.common.util.concurrent.Atomics;
 import com.twitter.common.base.Command;
 
@@ -33,10 +32,13 @@ import org.apache.aurora.codec.ThriftBinaryCodec;
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
 import org.apache.aurora.gen.storage.Snapshot;
 import org.apache.aurora.scheduler.base.Query;
+import org.apache.aurora.scheduler.events.EventSink;
+import org.apache.aurora.scheduler.events.PubsubEvent.StorageRestored;
 import org.apache.aurora.scheduler.storage.DistributedSnapshotStore;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
 import org.apache.aurora.scheduler.storage.Storage.MutateWork;
+import org.apache.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -112,6 +114,7 @@ public interface Recovery {
     private final Storage primaryStorage;
     private final DistributedSnapshotStore distributedStore;
     private final Command shutDownNow;
+    private final EventSink eventSink;
 
     @Inject
     RecoveryImpl(
@@ -119,7 +122,8 @@ public interface Recovery {
         Function<Snapshot, TemporaryStorage> tempStorageFactory,
         Storage primaryStorage,
         DistributedSnapshotStore distributedStore,
-        Command shutDownNow) {
+        Command shutDownNow,
+        EventSink eventSink) {
 
       this.backupDir = checkNotNull(backupDir);
       this.tempStorageFactory = checkNotNull(tempStorageFactory);
@@ -127,6 +131,7 @@ public interface Recovery {
       this.primaryStorage = checkNotNull(primaryStorage);
       this.distributedStore = checkNotNull(distributedStore);
       this.shutDownNow = checkNotNull(shutDownNow);
+      this.eventSink = checkNotNull(eventSink);
     }
 
     @Override
@@ -143,7 +148,8 @@ public interface Recovery {
 
       Snapshot snapshot;
       try {
-        snapshot = ThriftBinaryCodec.decode(Snapshot.class, Files.toByteArray(backupFile));
+        snapshot =
+            ThriftBinaryCodec.decode(Snapshot.class, StorageBackupImpl.readBackup(backupFile));
       } catch (CodingException e) {
         throw new RecoveryException("Failed to decode backup " + e, e);
       } catch (IOException e) {
@@ -203,6 +209,8 @@ public interface Recovery {
             }
           }
         });
+        // Caches of stored state are not notified of the individual records that were replaced.
+        eventSink.post(new StorageRestored());
       }
 
       Set<IScheduledTask> query(final Query.Builder query) {
@@ -15,36 +15,57 @@
  */
 package org.apache.aurora.scheduler.storage.backup;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Ordering;
-import com.google.common.io.Files;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.CountingOutputStream;
 import com.google.inject.BindingAnnotation;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
 import com.twitter.common.stats.Stats;
 import com.twitter.common.util.Clock;
 
 import org.apache.aurora.codec.ThriftBinaryCodec;
-import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
 import org.apache.aurora.gen.storage.Snapshot;
 import org.apache.aurora.scheduler.storage.SnapshotStore;
+import org.apache.aurora.scheduler.storage.StreamingSnapshotStore;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TIOStreamTransport;
 
 import static java.lang.annotation.ElementType.FIELD;
 import static java.lang.annotation.ElementType.METHOD;
@@ -56,32 +77,43 @@ import static com.google.common.base.Preconditions.checkNotNull;
 /**
  * A backup routine that layers over a snapshot store and periodically writes snapshots to
  * local disk.
- *
- * TODO(William Farner): Perform backups asynchronously.  As written, they are performed in a
- * blocking write operation, which is asking for trouble.
+ * <p>
+ * Snapshots are taken within the storage operation that creates them, but are encoded and written
+ * to disk on a background executor, so that the storage lock is not held while the backup is saved.
  */
 public interface StorageBackup {
 
   /**
    * Perform a storage backup immediately, blocking until it is complete.
+   *
+   * @throws RuntimeException If the thread was interrupted while waiting for the backup.
    */
   void backupNow();
 
-  class StorageBackupImpl implements StorageBackup, SnapshotStore<Snapshot> {
+  class StorageBackupImpl
+      implements StorageBackup, SnapshotStore<Snapshot>, StreamingSnapshotStore {
+
     private static final Logger LOG = Logger.getLogger(StorageBackup.class.getName());
 
     private static final String FILE_PREFIX = "scheduler-backup-";
+    private static final int BUFFER_BYTES = 64 * 1024;
     private final BackupConfig config;
 
     static class BackupConfig {
       private final File dir;
       private final int maxBackups;
       private final Amount<Long, Time> interval;
+      private final boolean compress;
 
       BackupConfig(File dir, int maxBackups, Amount<Long, Time> interval) {
+        this(dir, maxBackups, interval, false);
+      }
+
+      BackupConfig(File dir, int maxBackups, Amount<Long, Time> interval, boolean compress) {
         this.dir = checkNotNull(dir);
         this.maxBackups = maxBackups;
         this.interval = checkNotNull(interval);
+        this.compress = compress;
       }
 
       @VisibleForTesting
@@ -97,12 +129,26 @@ public interface StorageBackup {
     @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
     @interface SnapshotDelegate { }
 
+    /**
+     * Binding annotation for the executor that backups are saved on.
+     */
+    @BindingAnnotation
+    @Target({FIELD, PARAMETER, METHOD}) @Retention(RUNTIME)
+    @interface BackupExecutor { }
+
     private final SnapshotStore<Snapshot> delegate;
     private final Clock clock;
+    private final ExecutorService executor;
     private final long backupIntervalMs;
     private volatile long lastBackupMs;
+    private final AtomicBoolean backupPending = new AtomicBoolean(false);
     private final DateFormat backupDateFormat;
 
+    private final SlidingStats backupDuration = new SlidingStats("scheduler_backup_save", "ms");
+    private final SlidingStats backupLag = new SlidingStats("scheduler_backup_lag", "ms");
+    private final AtomicLong backupBytes = Stats.exportLong("scheduler_backup_last_size_bytes");
+    private final AtomicLong skipped = Stats.exportLong("scheduler_backup_skipped");
+
     private final AtomicLong successes = Stats.exportLong("scheduler_backup_success");
     @VisibleForTesting
     AtomicLong getSuccesses() {
@@ -115,32 +161,61 @@ public interface StorageBackup {
       return failures;
     }
 
+    @VisibleForTesting
+    AtomicLong getSkipped() {
+      return skipped;
+    }
+
     @Inject
     StorageBackupImpl(
         @SnapshotDelegate SnapshotStore<Snapshot> delegate,
         Clock clock,
-        BackupConfig config) {
+        BackupConfig config,
+        @BackupExecutor ExecutorService executor) {
 
       this.delegate = checkNotNull(delegate);
       this.clock = checkNotNull(clock);
       this.config = checkNotNull(config);
+      this.executor = checkNotNull(executor);
       backupDateFormat = new SimpleDateFormat("yyyy-MM-dd-HH-mm");
       backupIntervalMs = config.interval.as(Time.MILLISECONDS);
       lastBackupMs = clock.nowMillis();
     }
 
+    private boolean isBackupDue() {
+      return clock.nowMillis() >= (lastBackupMs + backupIntervalMs);
+    }
+
     @Override
     public Snapshot createSnapshot() {
       Snapshot snapshot = delegate.createSnapshot();
-      if (clock.nowMillis() >= (lastBackupMs + backupIntervalMs)) {
-        save(snapshot);
+      if (isBackupDue()) {
+        saveAsync(snapshot);
       }
       return snapshot;
     }
 
+    @Override
+    public void writeSnapshot(TProtocol protocol) throws TException {
+      // A backup is saved from a materialized snapshot, so the snapshot is only streamed when no
+      // backup is due.
+      if (!isBackupDue() && delegate instanceof StreamingSnapshotStore) {
+        ((StreamingSnapshotStore) delegate).writeSnapshot(protocol);
+      } else {
+        createSnapshot().write(protocol);
+      }
+    }
+
     @Override
     public void backupNow() {
-      save(delegate.createSnapshot());
+      try {
+        executor.submit(newBackup(delegate.createSnapshot())).get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw Throwables.propagate(e);
+      } catch (ExecutionException e) {
+        throw Throwables.propagate(e.getCause());
+      }
     }
 
     @VisibleForTesting
@@ -148,22 +223,71 @@ public interface StorageBackup {
       return FILE_PREFIX + backupDateFormat.format(new Date(clock.nowMillis()));
     }
 
-    private void save(Snapshot snapshot) {
+    /**
+     * Saves a backup on the backup executor.  A snapshot is not retained while an earlier backup
+     * is still pending, so a slow disk cannot cause snapshots to accumulate in memory.
+     *
+     * @param snapshot Snapshot to back up.
+     */
+    private void saveAsync(Snapshot snapshot) {
+      if (!backupPending.compareAndSet(false, true)) {
+        LOG.warning("Skipping backup since the previous backup has not completed.");
+        skipped.incrementAndGet();
+        return;
+      }
+
+      final Runnable backup = newBackup(snapshot);
+      try {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              backup.run();
+            } finally {
+              backupPending.set(false);
+            }
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        backupPending.set(false);
+        failures.incrementAndGet();
+        LOG.log(Level.SEVERE, "Failed to schedule backup: " + e, e);
+      }
+    }
+
+    private Runnable newBackup(final Snapshot snapshot) {
       lastBackupMs = clock.nowMillis();
+      final long snapshotMs = lastBackupMs;
+      final String backupName = createBackupName();
+      return new Runnable() {
+        @Override
+        public void run() {
+          save(snapshot, backupName, snapshotMs);
+        }
+      };
+    }
 
-      String backupName = createBackupName();
+    private void save(Snapshot snapshot, String backupName, long snapshotMs) {
+      long startNanos = System.nanoTime();
       String tempBackupName = "temp_" + backupName;
       File tempFile = new File(config.dir, tempBackupName);
       LOG.info("Saving backup to " + tempFile);
       try {
-        byte[] backup = ThriftBinaryCodec.encodeNonNull(snapshot);
-        Files.write(backup, tempFile);
-        Files.move(tempFile, new File(config.dir, backupName));
+        long bytes = write(snapshot, tempFile);
+        // The backup is only visible under its final name once it is completely written.
+        Files.move(
+            tempFile.toPath(),
+            new File(config.dir, backupName).toPath(),
+            StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory(config.dir);
+        backupBytes.set(bytes);
+        backupDuration.accumulate((System.nanoTime() - startNanos) / 1000000);
+        backupLag.accumulate(clock.nowMillis() - snapshotMs);
         successes.incrementAndGet();
       } catch (IOException e) {
         failures.incrementAndGet();
         LOG.log(Level.SEVERE, "Failed to prepare backup " + backupName + ": " + e, e);
-      } catch (CodingException e) {
+      } catch (TException e) {
         LOG.log(Level.SEVERE, "Failed to encode backup " + backupName + ": " + e, e);
         failures.incrementAndGet();
       } finally {
@@ -190,6 +314,69 @@ public interface StorageBackup {
       }
     }
 
+    /**
+     * Streams a snapshot into a file, compressing it if configured to, and forces the file to disk.
+     *
+     * @param snapshot Snapshot to write.
+     * @param file File to write to.
+     * @return The number of bytes written to the file.
+     * @throws IOException If the file could not be written.
+     * @throws TException If the snapshot could not be encoded.
+     */
+    private long write(Snapshot snapshot, File file) throws IOException, TException {
+      FileOutputStream fileOut = new FileOutputStream(file);
+      CountingOutputStream counted =
+          new CountingOutputStream(new BufferedOutputStream(fileOut, BUFFER_BYTES));
+      @Nullable GZIPOutputStream compressed =
+          config.compress ? new GZIPOutputStream(counted, BUFFER_BYTES) : null;
+      OutputStream out = compressed == null ? counted : compressed;
+      try {
+        snapshot.write(
+            ThriftBinaryCodec.PROTOCOL_FACTORY.getProtocol(new TIOStreamTransport(out)));
+        if (compressed != null) {
+          compressed.finish();
+        }
+        out.flush();
+        fileOut.getFD().sync();
+        return counted.getCount();
+      } finally {
+        out.close();
+      }
+    }
+
+    /**
+     * Flushes the entries of a directory to disk, so that a file renamed into it survives a crash.
+     *
+     * @param dir Directory to flush.
+     * @throws IOException If the directory could not be flushed.
+     */
+    private static void syncDirectory(File dir) throws IOException {
+      try (FileChannel channel = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+        channel.force(true);
+      }
+    }
+
+    /**
+     * Reads the contents of a backup file, decompressing them if the backup was compressed.
+     *
+     * @param file Backup file to read.
+     * @return The thrift binary-encoded snapshot in the backup.
+     * @throws IOException If the file could not be read or decompressed.
+     */
+    static byte[] readBackup(File file) throws IOException {
+      byte[] contents = Files.readAllBytes(file.toPath());
+      // An encoded snapshot never starts with the gzip magic number, since it is not a field type.
+      boolean compressed = contents.length >= 2
+          && (contents[0] & 0xFF) == (GZIPInputStream.GZIP_MAGIC & 0xFF)
+          && (contents[1] & 0xFF) == (GZIPInputStream.GZIP_MAGIC >>> 8);
+      if (!compressed) {
+        return contents;
+      }
+      try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(contents))) {
+        return ByteStreams.toByteArray(in);
+      }
+    }
+
     private static final FilenameFilter BACKUP_FILTER = new FilenameFilter() {
       @Override
       public boolean accept(File file, String s) {
@@ -0,0 +1,210 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.util.List;
+import java.util.Set;
+
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+
+import org.apache.aurora.gen.HostAttributes;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.storage.Op;
+import org.apache.aurora.gen.storage.RemoveJob;
+import org.apache.aurora.gen.storage.RemoveLock;
+import org.apache.aurora.gen.storage.RemoveQuota;
+import org.apache.aurora.gen.storage.RemoveTasks;
+import org.apache.aurora.gen.storage.SaveAcceptedJob;
+import org.apache.aurora.gen.storage.SaveFrameworkId;
+import org.apache.aurora.gen.storage.SaveHostAttributes;
+import org.apache.aurora.gen.storage.SaveLock;
+import org.apache.aurora.gen.storage.SaveQuota;
+import org.apache.aurora.gen.storage.SaveTasks;
+import org.apache.aurora.scheduler.base.Query;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.storage.Storage.StoreProvider;
+import org.apache.aurora.scheduler.storage.entities.IJobConfiguration;
+import org.apache.aurora.scheduler.storage.entities.IJobKey;
+import org.apache.aurora.scheduler.storage.entities.ILock;
+import org.apache.aurora.scheduler.storage.entities.ILockKey;
+import org.apache.aurora.scheduler.storage.entities.IQuota;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+
+/**
+ * Tracks the entities mutated by logged ops since the last snapshot, so that a delta snapshot can
+ * be built from only the changed portion of local storage.
+ *
+ * <p>This class is not thread-safe, callers must confine use to the storage write lock.
+ */
+class DeltaTracker {
+
+  private boolean frameworkIdChanged = false;
+  private final Set<String> taskIds = Sets.newHashSet();
+  private final Set<IJobKey> jobKeys = Sets.newHashSet();
+  private final Set<String> quotaRoles = Sets.newHashSet();
+  private final Set<ILockKey> lockKeys = Sets.newHashSet();
+  private final Set<String> hosts = Sets.newHashSet();
+
+  /**
+   * Records the entities mutated by an op.
+   *
+   * @param op A logged op.
+   */
+  void record(Op op) {
+    switch (op.getSetField()) {
+      case SAVE_FRAMEWORK_ID:
+        frameworkIdChanged = true;
+        break;
+
+      case SAVE_ACCEPTED_JOB:
+        jobKeys.add(IJobKey.build(op.getSaveAcceptedJob().getJobConfig().getKey()));
+        break;
+
+      case REMOVE_JOB:
+        jobKeys.add(IJobKey.build(op.getRemoveJob().getJobKey()));
+        break;
+
+      case SAVE_TASKS:
+        for (ScheduledTask task : op.getSaveTasks().getTasks()) {
+          taskIds.add(task.getAssignedTask().getTaskId());
+        }
+        break;
+
+      case REWRITE_TASK:
+        taskIds.add(op.getRewriteTask().getTaskId());
+        break;
+
+      case REMOVE_TASKS:
+        taskIds.addAll(op.getRemoveTasks().getTaskIds());
+        break;
+
+      case SAVE_QUOTA:
+        quotaRoles.add(op.getSaveQuota().getRole());
+        break;
+
+      case REMOVE_QUOTA:
+        quotaRoles.add(op.getRemoveQuota().getRole());
+        break;
+
+      case SAVE_HOST_ATTRIBUTES:
+        hosts.add(op.getSaveHostAttributes().getHostAttributes().getHost());
+        break;
+
+      case SAVE_LOCK:
+        lockKeys.add(ILockKey.build(op.getSaveLock().getLock().getKey()));
+        break;
+
+      case REMOVE_LOCK:
+        lockKeys.add(ILockKey.build(op.getRemoveLock().getLockKey()));
+        break;
+
+      default:
+        throw new IllegalStateException("Unknown transaction op: " + op);
+    }
+  }
+
+  /**
+   * Gets the number of entities changed since the tracker was last cleared.
+   *
+   * @return The number of changed entities.
+   */
+  int size() {
+    return (frameworkIdChanged ? 1 : 0)
+        + taskIds.size()
+        + jobKeys.size()
+        + quotaRoles.size()
+        + lockKeys.size()
+        + hosts.size();
+  }
+
+  /**
+   * Forgets all recorded changes, typically after a snapshot has captured them.
+   */
+  void clear() {
+    frameworkIdChanged = false;
+    taskIds.clear();
+    jobKeys.clear();
+    quotaRoles.clear();
+    lockKeys.clear();
+    hosts.clear();
+  }
+
+  /**
+   * Creates ops that restore the current state of every changed entity when replayed on top of
+   * the state as of the last snapshot.
+   *
+   * @param store Provider of the current local storage state.
+   * @return Ops capturing all changes recorded since the tracker was last cleared.
+   */
+  List<Op> createOps(StoreProvider store) {
+    ImmutableList.Builder<Op> ops = ImmutableList.builder();
+
+    if (frameworkIdChanged) {
+      String frameworkId = store.getSchedulerStore().fetchFrameworkId();
+      if (frameworkId != null) {
+        ops.add(Op.saveFrameworkId(new SaveFrameworkId(frameworkId)));
+      }
+    }
+
+    if (!taskIds.isEmpty()) {
+      Set<IScheduledTask> tasks = store.getTaskStore().fetchTasks(Query.taskScoped(taskIds));
+      Set<String> removed = Sets.difference(taskIds, Tasks.ids(tasks));
+      if (!removed.isEmpty()) {
+        ops.add(Op.removeTasks(new RemoveTasks(ImmutableSet.copyOf(removed))));
+      }
+      if (!tasks.isEmpty()) {
+        ops.add(Op.saveTasks(new SaveTasks(IScheduledTask.toBuildersSet(tasks))));
+      }
+    }
+
+    for (IJobKey jobKey : jobKeys) {
+      // Removal clears the job from all managers, so any surviving copies are saved afterwards.
+      ops.add(Op.removeJob(new RemoveJob().setJobKey(jobKey.newBuilder())));
+      for (String managerId : store.getJobStore().fetchManagerIds()) {
+        Optional<IJobConfiguration> job = store.getJobStore().fetchJob(managerId, jobKey);
+        if (job.isPresent()) {
+          ops.add(Op.saveAcceptedJob(new SaveAcceptedJob(managerId, job.get().newBuilder())));
+        }
+      }
+    }
+
+    for (String role : quotaRoles) {
+      Optional<IQuota> quota = store.getQuotaStore().fetchQuota(role);
+      ops.add(quota.isPresent()
+          ? Op.saveQuota(new SaveQuota(role, quota.get().newBuilder()))
+          : Op.removeQuota(new RemoveQuota(role)));
+    }
+
+    for (String host : hosts) {
+      Optional<HostAttributes> attributes = store.getAttributeStore().getHostAttributes(host);
+      if (attributes.isPresent()) {
+        ops.add(Op.saveHostAttributes(new SaveHostAttributes(attributes.get().deepCopy())));
+      }
+    }
+
+    for (ILockKey lockKey : lockKeys) {
+      Optional<ILock> lock = store.getLockStore().fetchLock(lockKey);
+      ops.add(lock.isPresent()
+          ? Op.saveLock(new SaveLock(lock.get().newBuilder()))
+          : Op.removeLock(new RemoveLock(lockKey.newBuilder())));
+    }
+
+    return ops.build();
+  }
+}
@@ -18,7 +18,11 @@ package org.apache.aurora.scheduler.storage.log;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.zip.DeflaterOutputStream;
@@ -26,12 +30,18 @@ import java.util.zip.InflaterInputStream;
 
 import com.google.common.base.Preconditions;
 import com.google.common.io.ByteStreams;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.StatImpl;
 import com.twitter.common.stats.Stats;
 
 import org.apache.aurora.codec.ThriftBinaryCodec;
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.gen.storage.CompressedEntry;
+import org.apache.aurora.gen.storage.CompressionCodec;
 import org.apache.aurora.gen.storage.LogEntry;
 import org.apache.aurora.gen.storage.LogEntry._Fields;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TIOStreamTransport;
 
 /**
  * Utility class for working with log entries.
@@ -43,10 +53,110 @@ final class Entries {
   private static final AtomicLong COMPRESSION_BYTES_SAVED =
       Stats.exportLong("log_compressed_entry_bytes_saved");
 
+  private static final Map<CompressionCodec, CodecStats> CODEC_STATS =
+      new EnumMap<>(CompressionCodec.class);
+  static {
+    for (CompressionCodec codec : CompressionCodec.values()) {
+      CODEC_STATS.put(codec, new CodecStats(codec));
+    }
+  }
+
   private Entries() {
     // Utility class.
   }
 
+  private static final class CodecStats {
+    private final SlidingStats compressNanos;
+    private final SlidingStats decompressNanos;
+    private final AtomicLong uncompressedBytes;
+    private final AtomicLong compressedBytes;
+
+    CodecStats(CompressionCodec codec) {
+      String prefix = "log_entry_" + codec.name().toLowerCase(Locale.ENGLISH);
+      compressNanos = new SlidingStats(prefix + "_compress", "nanos");
+      decompressNanos = new SlidingStats(prefix + "_decompress", "nanos");
+      uncompressedBytes = Stats.exportLong(prefix + "_uncompressed_bytes");
+      compressedBytes = Stats.exportLong(prefix + "_compressed_bytes");
+      Stats.export(new StatImpl<Double>(prefix + "_compression_ratio") {
+        @Override
+        public Double read() {
+          long compressed = compressedBytes.get();
+          return compressed == 0 ? 0.0 : uncompressedBytes.get() / (double) compressed;
+        }
+      });
+    }
+  }
+
+  /**
+   * Compresses a serialized log entry and wraps it in an entry that can be read back with
+   * {@link #inflate(LogEntry)} or {@link #decompress(LogEntry)}.
+   * <p>
+   * Entries compressed with the DEFLATE codec are wrapped in a {@code deflatedEntry}, which
+   * schedulers that predate {@code compressedEntry} can read.  Entries compressed with any other
+   * codec are wrapped in a {@code compressedEntry} identifying the codec.
+   * <p>
+   * Byte counts are not recorded since the caller may discard the result; see
+   * {@link #recordCompressed(CompressionCodec, int, int)}.
+   *
+   * @param data Thrift binary-encoded entry to compress.
+   * @param codec Codec to compress with.
+   * @return An entry with the {@code deflatedEntry} or the {@code compressedEntry} field set.
+   */
+  static LogEntry compress(byte[] data, EntryCodec codec) {
+    long start = System.nanoTime();
+    byte[] compressed = codec.compress(data);
+    CODEC_STATS.get(codec.getId()).compressNanos.accumulate(System.nanoTime() - start);
+
+    if (codec.getId() == CompressionCodec.DEFLATE) {
+      return LogEntry.deflatedEntry(ByteBuffer.wrap(compressed));
+    }
+    return LogEntry.compressedEntry(
+        new CompressedEntry(codec.getId(), data.length, ByteBuffer.wrap(compressed)));
+  }
+
+  /**
+   * Records that a compressed entry was written in place of the uncompressed entry.
+   *
+   * @param codec Codec the entry was compressed with.
+   * @param uncompressedBytes Encoded size of the uncompressed entry.
+   * @param compressedBytes Encoded size of the compressed entry that was written.
+   */
+  static void recordCompressed(CompressionCodec codec, int uncompressedBytes, int compressedBytes) {
+    CodecStats stats = CODEC_STATS.get(codec);
+    stats.uncompressedBytes.addAndGet(uncompressedBytes);
+    stats.compressedBytes.addAndGet(compressedBytes);
+    COMPRESSION_BYTES_SAVED.addAndGet(uncompressedBytes - compressedBytes);
+  }
+
+  /**
+   * Decompresses and deserializes a compressed log entry.
+   * <p>
+   * This requires that the {@code compressedEntry} field is set on the provided {@code entry}.
+   *
+   * @param entry Entry to decompress, which must be a compressed entry.
+   * @return The decompressed entry.
+   * @throws CodingException If the value could not be decompressed or decoded.
+   */
+  static LogEntry decompress(LogEntry entry) throws CodingException {
+    Preconditions.checkArgument(entry.isSet(_Fields.COMPRESSED_ENTRY));
+
+    CompressedEntry compressed = entry.getCompressedEntry();
+    if (compressed.getCodec() == null) {
+      throw new CodingException("Log entry was compressed with an unknown codec.");
+    }
+    CodecStats stats = CODEC_STATS.get(compressed.getCodec());
+    long start = System.nanoTime();
+    byte[] data;
+    try {
+      data = EntryCodec.forId(compressed.getCodec())
+          .decompress(compressed.getData(), compressed.getUncompressedSize());
+    } catch (IOException e) {
+      throw new CodingException("Failed to decompress " + compressed.getCodec() + " log entry.", e);
+    }
+    stats.decompressNanos.accumulate(System.nanoTime() - start);
+    return thriftBinaryDecode(data);
+  }
+
   /**
    * Deflates a log entry and wraps it in a deflated entry.
    * <p>
@@ -134,4 +244,28 @@ final class Entries {
   static LogEntry thriftBinaryDecode(byte[] contents) throws CodingException {
     return ThriftBinaryCodec.decodeNonNull(LogEntry.class, contents);
   }
+
+  /**
+   * Decodes a byte array containing thrift binary-encoded data that may be deflate-compressed.
+   * Compressed data is inflated as it is decoded rather than first being inflated in full.
+   *
+   * @param contents The data to decode.
+   * @param deflated Whether the data is deflate-compressed.
+   * @return The deserialized entry.
+   * @throws CodingException If the entry could not be inflated or deserialized.
+   */
+  static LogEntry thriftBinaryDecode(byte[] contents, boolean deflated) throws CodingException {
+    InputStream input = new ByteArrayInputStream(contents);
+    if (deflated) {
+      input = new InflaterInputStream(input);
+    }
+
+    LogEntry entry = new LogEntry();
+    try {
+      entry.read(ThriftBinaryCodec.PROTOCOL_FACTORY.getProtocol(new TIOStreamTransport(input)));
+    } catch (TException e) {
+      throw new CodingException("Failed to decode log entry.", e);
+    }
+    return entry;
+  }
 }
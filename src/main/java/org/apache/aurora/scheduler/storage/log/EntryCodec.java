@@ -0,0 +1,363 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.apache.aurora.gen.storage.CompressionCodec;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A compression codec for serialized log entries.
+ */
+abstract class EntryCodec {
+
+  private static final EntryCodec LZ = new Lz();
+
+  private final CompressionCodec id;
+
+  private EntryCodec(CompressionCodec id) {
+    this.id = checkNotNull(id);
+  }
+
+  /**
+   * Creates a codec that applies deflate compression.
+   *
+   * @param level Deflate compression level, from 0 to 9, or {@link Deflater#DEFAULT_COMPRESSION}.
+   * @return A deflate codec.
+   */
+  static EntryCodec deflate(int level) {
+    checkArgument(
+        level == Deflater.DEFAULT_COMPRESSION
+            || (level >= Deflater.NO_COMPRESSION && level <= Deflater.BEST_COMPRESSION),
+        "Invalid deflate level " + level);
+    return new Deflate(level);
+  }
+
+  /**
+   * Gets a codec that applies fast LZ77 compression.
+   *
+   * @return An LZ codec.
+   */
+  static EntryCodec lz() {
+    return LZ;
+  }
+
+  /**
+   * Gets a codec that can decompress data compressed by a codec with the given id.
+   *
+   * @param id Codec id.
+   * @return A codec for the id.
+   */
+  static EntryCodec forId(CompressionCodec id) {
+    switch (id) {
+      case DEFLATE:
+        return deflate(Deflater.DEFAULT_COMPRESSION);
+      case LZ:
+        return lz();
+      default:
+        throw new IllegalArgumentException("Unknown compression codec " + id);
+    }
+  }
+
+  /**
+   * Gets the id recorded with entries compressed by this codec.
+   *
+   * @return The codec id.
+   */
+  CompressionCodec getId() {
+    return id;
+  }
+
+  /**
+   * Compresses data.
+   *
+   * @param data Data to compress.
+   * @return Compressed data.
+   */
+  abstract byte[] compress(byte[] data);
+
+  /**
+   * Decompresses data compressed by this codec.
+   *
+   * @param data Compressed data.
+   * @param uncompressedSize The size of the data before it was compressed.
+   * @return The decompressed data.
+   * @throws IOException If the data is corrupt or does not decompress to the expected size.
+   */
+  abstract byte[] decompress(byte[] data, int uncompressedSize) throws IOException;
+
+  /**
+   * Checks that the uncompressed size recorded with an entry is one that its compressed data could
+   * decompress to, so that a corrupt size fails before a buffer of that size is allocated.
+   *
+   * @param data Compressed data.
+   * @param uncompressedSize The recorded size of the data before it was compressed.
+   * @param maxExpansion The most bytes that a byte of compressed data can decompress to.
+   * @throws IOException If the size is negative or larger than the data could decompress to.
+   */
+  static void checkUncompressedSize(byte[] data, int uncompressedSize, int maxExpansion)
+      throws IOException {
+
+    if (uncompressedSize < 0 || uncompressedSize > (long) data.length * maxExpansion) {
+      throw new IOException("Invalid uncompressed size " + uncompressedSize + " for "
+          + data.length + " bytes of compressed data.");
+    }
+  }
+
+  @Override
+  public String toString() {
+    return id.name();
+  }
+
+  private static final class Deflate extends EntryCodec {
+    // The deflate format cannot compress data by more than a factor of 1032.
+    private static final int MAX_EXPANSION = 1032;
+
+    private final int level;
+
+    Deflate(int level) {
+      super(CompressionCodec.DEFLATE);
+      this.level = level;
+    }
+
+    @Override
+    byte[] compress(byte[] data) {
+      Deflater deflater = new Deflater(level);
+      try {
+        deflater.setInput(data);
+        deflater.finish();
+        byte[] buffer = new byte[Math.max(64, data.length / 2)];
+        int length = 0;
+        while (!deflater.finished()) {
+          if (length == buffer.length) {
+            buffer = Arrays.copyOf(buffer, buffer.length * 2);
+          }
+          length += deflater.deflate(buffer, length, buffer.length - length);
+        }
+        return Arrays.copyOf(buffer, length);
+      } finally {
+        deflater.end();
+      }
+    }
+
+    @Override
+    byte[] decompress(byte[] data, int uncompressedSize) throws IOException {
+      checkUncompressedSize(data, uncompressedSize, MAX_EXPANSION);
+      Inflater inflater = new Inflater();
+      try {
+        inflater.setInput(data);
+        byte[] inflated = new byte[uncompressedSize];
+        int length = 0;
+        while (length < uncompressedSize && !inflater.finished()) {
+          int inflatedBytes = inflater.inflate(inflated, length, uncompressedSize - length);
+          if (inflatedBytes == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+            break;
+          }
+          length += inflatedBytes;
+        }
+        if (length != uncompressedSize) {
+          throw new IOException("Deflated data did not inflate to " + uncompressedSize + " bytes.");
+        }
+        return inflated;
+      } catch (DataFormatException e) {
+        throw new IOException("Invalid deflated data.", e);
+      } finally {
+        inflater.end();
+      }
+    }
+
+    @Override
+    public String toString() {
+      return super.toString() + "(" + level + ")";
+    }
+  }
+
+  /**
+   * A byte-oriented LZ77 codec in the style of LZ4, which finds matches with a single hash probe
+   * and so compresses and decompresses several times faster than deflate.
+   * <p>
+   * Compressed data is a series of sequences.  Each sequence starts with a token byte holding the
+   * number of literal bytes in its high four bits and the length of the match following them, less
+   * the minimum match length, in its low four bits.  A value of 15 in either is extended by the
+   * following bytes, each added to it until one is less than 255.  The literals follow, then the
+   * two byte little-endian offset back to the match and any match length extension bytes.  The
+   * final sequence has only literals.
+   */
+  private static final class Lz extends EntryCodec {
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 14;
+    private static final int RUN_MASK = 0xF;
+    // Each match length extension byte adds at most 255 bytes, more than any other encoded byte.
+    private static final int MAX_EXPANSION = 0xFF;
+
+    Lz() {
+      super(CompressionCodec.LZ);
+    }
+
+    private static int readInt(byte[] data, int offset) {
+      return (data[offset] & 0xFF)
+          | (data[offset + 1] & 0xFF) << 8
+          | (data[offset + 2] & 0xFF) << 16
+          | (data[offset + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int value) {
+      return (value * -1640531535) >>> (Integer.SIZE - HASH_BITS);
+    }
+
+    private static int writeLength(byte[] out, int offset, int length) {
+      int position = offset;
+      int remaining = length;
+      while (remaining >= 0xFF) {
+        out[position++] = (byte) 0xFF;
+        remaining -= 0xFF;
+      }
+      out[position++] = (byte) remaining;
+      return position;
+    }
+
+    private static int writeSequence(
+        byte[] out,
+        int offset,
+        byte[] data,
+        int literalStart,
+        int literalLength,
+        int matchOffset,
+        int matchLength) {
+
+      int literalToken = Math.min(literalLength, RUN_MASK);
+      int matchToken = matchLength == 0 ? 0 : Math.min(matchLength - MIN_MATCH, RUN_MASK);
+      int position = offset;
+      out[position++] = (byte) (literalToken << 4 | matchToken);
+      if (literalToken == RUN_MASK) {
+        position = writeLength(out, position, literalLength - RUN_MASK);
+      }
+      System.arraycopy(data, literalStart, out, position, literalLength);
+      position += literalLength;
+      if (matchLength > 0) {
+        out[position++] = (byte) matchOffset;
+        out[position++] = (byte) (matchOffset >>> 8);
+        if (matchToken == RUN_MASK) {
+          position = writeLength(out, position, matchLength - MIN_MATCH - RUN_MASK);
+        }
+      }
+      return position;
+    }
+
+    @Override
+    byte[] compress(byte[] data) {
+      // The size if no matches are found, which matches can only reduce.
+      byte[] out = new byte[data.length + data.length / 0xFF + 16];
+      int[] table = new int[1 << HASH_BITS];
+      Arrays.fill(table, -1);
+
+      int length = 0;
+      int anchor = 0;
+      int position = 0;
+      while (position + MIN_MATCH <= data.length) {
+        int value = readInt(data, position);
+        int bucket = hash(value);
+        int candidate = table[bucket];
+        table[bucket] = position;
+        if (candidate >= 0
+            && position - candidate <= MAX_OFFSET
+            && readInt(data, candidate) == value) {
+
+          int matchLength = MIN_MATCH;
+          while (position + matchLength < data.length
+              && data[candidate + matchLength] == data[position + matchLength]) {
+            matchLength++;
+          }
+          length = writeSequence(
+              out,
+              length,
+              data,
+              anchor,
+              position - anchor,
+              position - candidate,
+              matchLength);
+          position += matchLength;
+          anchor = position;
+        } else {
+          position++;
+        }
+      }
+      length = writeSequence(out, length, data, anchor, data.length - anchor, 0, 0);
+      return Arrays.copyOf(out, length);
+    }
+
+    @Override
+    byte[] decompress(byte[] data, int uncompressedSize) throws IOException {
+      checkUncompressedSize(data, uncompressedSize, MAX_EXPANSION);
+      byte[] out = new byte[uncompressedSize];
+      try {
+        int position = 0;
+        int length = 0;
+        while (true) {
+          int token = data[position++] & 0xFF;
+
+          int literalLength = token >>> 4;
+          if (literalLength == RUN_MASK) {
+            int extension;
+            do {
+              extension = data[position++] & 0xFF;
+              literalLength += extension;
+            } while (extension == 0xFF);
+          }
+          System.arraycopy(data, position, out, length, literalLength);
+          position += literalLength;
+          length += literalLength;
+          if (position == data.length) {
+            break;
+          }
+
+          int matchOffset = (data[position++] & 0xFF) | (data[position++] & 0xFF) << 8;
+          int matchLength = token & RUN_MASK;
+          if (matchLength == RUN_MASK) {
+            int extension;
+            do {
+              extension = data[position++] & 0xFF;
+              matchLength += extension;
+            } while (extension == 0xFF);
+          }
+          matchLength += MIN_MATCH;
+          int matchStart = length - matchOffset;
+          if (matchOffset == 0 || matchStart < 0 || length + matchLength > out.length) {
+            throw new IOException("Invalid match in LZ compressed data.");
+          }
+          // Matches may overlap the bytes they produce, so are copied a byte at a time.
+          for (int i = 0; i < matchLength; i++) {
+            out[length++] = out[matchStart + i];
+          }
+        }
+        if (length != uncompressedSize) {
+          throw new IOException("LZ data did not decompress to " + uncompressedSize + " bytes.");
+        }
+        return out;
+      } catch (IndexOutOfBoundsException e) {
+        throw new IOException("Truncated or corrupt LZ compressed data.", e);
+      }
+    }
+  }
+}
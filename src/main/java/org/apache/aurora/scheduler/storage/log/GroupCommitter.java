@@ -0,0 +1,196 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.base.Preconditions;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.SlidingStats;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.scheduler.log.Log.Stream.StreamAccessException;
+import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager;
+import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Coalesces the log transactions of concurrent writers into a single log entry.
+ *
+ * <p>Writers {@link #enqueue(StreamTransaction) enqueue} their transaction and then
+ * {@link #await(Batch) await} durability of the batch it joined.  The first writer to wait on an
+ * unflushed batch becomes the leader: it holds the batch open until the commit window (measured
+ * from the batch's first write) elapses so that other writers may join, then seals and appends it
+ * to the log while any further writers accumulate in the next batch.  Batches are appended in the
+ * order they were opened, so ops reach the log in the order they were enqueued.
+ */
+class GroupCommitter {
+
+  /**
+   * A group of transactions that are committed to the log together.
+   */
+  static final class Batch {
+    private final StreamTransaction transaction;
+    private long openedNanos;
+    private int writers;
+    private boolean done;
+    private Exception failure;
+
+    private Batch(StreamTransaction transaction) {
+      this.transaction = transaction;
+    }
+  }
+
+  // Returned for transactions with no ops, there is nothing to wait on.
+  private static final Batch EMPTY = new Batch(null);
+
+  private final StreamManager streamManager;
+  private final long windowNanos;
+
+  private final SlidingStats batchWriters =
+      new SlidingStats("scheduler_log_group_commit_batch_size", "writes");
+  private final SlidingStats commitLatency =
+      new SlidingStats("scheduler_log_group_commit_latency", "nanos");
+  private final SlidingStats queueDepth =
+      new SlidingStats("scheduler_log_group_commit_queue_depth", "writes");
+  private final AtomicLong writersWaiting =
+      Stats.exportLong("scheduler_log_group_commit_writers_waiting");
+
+  // Guarded by this.
+  private Batch open;
+  private boolean flushing = false;
+
+  GroupCommitter(StreamManager streamManager, Amount<Long, Time> window) {
+    this.streamManager = checkNotNull(streamManager);
+    Preconditions.checkArgument(window.getValue() >= 0, "Commit window may not be negative.");
+    this.windowNanos = window.as(Time.NANOSECONDS);
+    this.open = newBatch();
+  }
+
+  private Batch newBatch() {
+    return new Batch(streamManager.startTransaction());
+  }
+
+  /**
+   * Adds the ops of a transaction to the batch that will be committed next.  The transaction is
+   * consumed and should not be committed by the caller.
+   *
+   * @param transaction Transaction whose ops should be logged.
+   * @return The batch the ops were added to, for use with {@link #await(Batch)}.
+   */
+  synchronized Batch enqueue(StreamTransaction transaction) {
+    if (transaction.isEmpty()) {
+      return EMPTY;
+    }
+
+    if (open.writers++ == 0) {
+      open.openedNanos = System.nanoTime();
+    }
+    open.transaction.addAll(transaction);
+    queueDepth.accumulate(writersWaiting.incrementAndGet());
+    return open;
+  }
+
+  /**
+   * Blocks until the given batch has been appended to the log, committing it if no other writer is
+   * already doing so.
+   *
+   * @param batch A batch returned from {@link #enqueue(StreamTransaction)}.
+   * @throws CodingException If the batch could not be encoded.
+   * @throws StreamAccessException If the batch could not be appended to the log.
+   */
+  void await(Batch batch) throws CodingException, StreamAccessException {
+    if (batch == EMPTY) {
+      return;
+    }
+
+    long startNanos = System.nanoTime();
+    boolean interrupted = false;
+    try {
+      Batch sealed;
+      synchronized (this) {
+        while (!batch.done && flushing) {
+          try {
+            wait();
+          } catch (InterruptedException e) {
+            interrupted = true;
+          }
+        }
+
+        if (batch.done) {
+          sealed = null;
+        } else {
+          // No flush is in progress, so the batch we are waiting on must be the open one.
+          flushing = true;
+          interrupted |= holdOpen(batch);
+          sealed = open;
+          open = newBatch();
+        }
+      }
+
+      if (sealed != null) {
+        flush(sealed);
+      }
+    } finally {
+      writersWaiting.decrementAndGet();
+      commitLatency.accumulate(System.nanoTime() - startNanos);
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    // The failure was raised on the flushing thread, wrap it to retain this writer's stack.
+    if (batch.failure instanceof CodingException) {
+      throw new CodingException("Failed to encode group commit.", batch.failure);
+    } else if (batch.failure != null) {
+      throw new StreamAccessException("Failed to append group commit.", batch.failure);
+    }
+  }
+
+  private boolean holdOpen(Batch batch) {
+    boolean interrupted = false;
+    long remainingNanos;
+    while ((remainingNanos = batch.openedNanos + windowNanos - System.nanoTime()) > 0) {
+      try {
+        TimeUnit.NANOSECONDS.timedWait(this, remainingNanos);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    return interrupted;
+  }
+
+  private void flush(Batch sealed) {
+    Exception failure = null;
+    try {
+      sealed.transaction.commit();
+    } catch (CodingException | RuntimeException e) {
+      failure = e;
+    } finally {
+      synchronized (this) {
+        batchWriters.accumulate(sealed.writers);
+        sealed.failure = failure;
+        sealed.done = true;
+        flushing = false;
+        notifyAll();
+      }
+    }
+  }
+}
@@ -16,6 +16,7 @@
 package org.apache.aurora.scheduler.storage.log;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.lang.annotation.ElementType;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
@@ -25,19 +26,25 @@ import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.Arrays;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
 
 import javax.annotation.Nullable;
 import javax.inject.Inject;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.primitives.Bytes;
 import com.google.inject.BindingAnnotation;
@@ -49,11 +56,14 @@ import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
 import com.twitter.common.stats.Stats;
 
+import org.apache.aurora.codec.ThriftBinaryCodec;
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
 import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.storage.DeltaSnapshot;
 import org.apache.aurora.gen.storage.Frame;
 import org.apache.aurora.gen.storage.FrameChunk;
 import org.apache.aurora.gen.storage.FrameHeader;
+import org.apache.aurora.gen.storage.FrameTrailer;
 import org.apache.aurora.gen.storage.LogEntry;
 import org.apache.aurora.gen.storage.LogEntry._Fields;
 import org.apache.aurora.gen.storage.Op;
@@ -61,6 +71,7 @@ import org.apache.aurora.gen.storage.RemoveTasks;
 import org.apache.aurora.gen.storage.SaveHostAttributes;
 import org.apache.aurora.gen.storage.SaveTasks;
 import org.apache.aurora.gen.storage.Snapshot;
+import org.apache.aurora.gen.storage.StreamHeader;
 import org.apache.aurora.gen.storage.Transaction;
 import org.apache.aurora.gen.storage.storageConstants;
 import org.apache.aurora.scheduler.log.Log;
@@ -69,6 +80,13 @@ import org.apache.aurora.scheduler.log.Log.Position;
 import org.apache.aurora.scheduler.log.Log.Stream;
 import org.apache.aurora.scheduler.log.Log.Stream.InvalidPositionException;
 import org.apache.aurora.scheduler.log.Log.Stream.StreamAccessException;
+import org.apache.aurora.scheduler.storage.StreamingSnapshotStore;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
+import org.apache.thrift.transport.TIOStreamTransport;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -93,11 +111,46 @@ public final class LogManager {
   @BindingAnnotation
   public @interface SnapshotSetting { }
 
+  /**
+   * Binding annotation for whether log replay should be pipelined across threads.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface PipelinedReplay { }
+
+  /**
+   * Settings for compressing log entries.  Transactions are compressed when enabled, and snapshots
+   * when the {@link SnapshotSetting} is enabled, if their encoded size reaches a threshold.
+   */
+  static class CompressionSettings {
+    static final CompressionSettings DEFAULT = new CompressionSettings(
+        EntryCodec.deflate(Deflater.DEFAULT_COMPRESSION),
+        Amount.of(0, Data.BYTES),
+        false);
+
+    private final EntryCodec codec;
+    private final int thresholdBytes;
+    private final boolean compressTransactions;
+
+    CompressionSettings(
+        EntryCodec codec,
+        Amount<Integer, Data> threshold,
+        boolean compressTransactions) {
+
+      this.codec = checkNotNull(codec);
+      this.thresholdBytes = threshold.as(Data.BYTES);
+      this.compressTransactions = compressTransactions;
+    }
+  }
+
   private static final Logger LOG = Logger.getLogger(LogManager.class.getName());
 
   private final Log log;
   private final Amount<Integer, Data> maxEntrySize;
   private final boolean deflateSnapshots;
+  private final boolean pipelinedReplay;
+  private final CompressionSettings compression;
   private final ShutdownRegistry shutdownRegistry;
 
   @Inject
@@ -105,11 +158,15 @@ public final class LogManager {
       Log log,
       @MaxEntrySize Amount<Integer, Data> maxEntrySize,
       @SnapshotSetting boolean deflateSnapshots,
+      @PipelinedReplay boolean pipelinedReplay,
+      CompressionSettings compression,
       ShutdownRegistry shutdownRegistry) {
 
     this.log = checkNotNull(log);
     this.maxEntrySize = checkNotNull(maxEntrySize);
     this.deflateSnapshots = deflateSnapshots;
+    this.pipelinedReplay = pipelinedReplay;
+    this.compression = checkNotNull(compression);
     this.shutdownRegistry = checkNotNull(shutdownRegistry);
   }
 
@@ -127,7 +184,12 @@ public final class LogManager {
         stream.close();
       }
     });
-    return new StreamManager(stream, deflateSnapshots, maxEntrySize);
+    return new StreamManager(
+        stream,
+        deflateSnapshots,
+        maxEntrySize,
+        pipelinedReplay,
+        compression);
   }
 
   /**
@@ -157,27 +219,74 @@ public final class LogManager {
       private final AtomicLong entriesRead = Stats.exportLong("scheduler_log_entries_read");
       private final AtomicLong deflatedEntriesRead =
           Stats.exportLong("scheduler_log_deflated_entries_read");
+      private final AtomicLong compressedEntriesRead =
+          Stats.exportLong("scheduler_log_compressed_entries_read");
+      private final AtomicLong compressedEntriesWritten =
+          Stats.exportLong("scheduler_log_compressed_entries_written");
       private final AtomicLong snapshots = Stats.exportLong("scheduler_log_snapshots");
+      private final AtomicLong deltaSnapshots =
+          Stats.exportLong("scheduler_log_delta_snapshots");
     }
     private final Vars vars = new Vars();
 
+    // Bounds the memory used to stream a snapshot when the maximum entry size is very large.
+    private static final int MAX_STREAMED_CHUNK_BYTES = Amount.of(1, Data.MB).as(Data.BYTES);
+    private static final int DEFLATE_BUFFER_BYTES = Amount.of(64, Data.KB).as(Data.BYTES);
+
+    private static final TStruct LOG_ENTRY_STRUCT = new TStruct("LogEntry");
+    private static final TField SNAPSHOT_FIELD = new TField(
+        LogEntry._Fields.SNAPSHOT.getFieldName(),
+        TType.STRUCT,
+        LogEntry._Fields.SNAPSHOT.getThriftFieldId());
+
+    // Bounds the entries buffered between replay pipeline stages, each is at most the maximum entry
+    // size unless it is a snapshot.
+    private static final int REPLAY_QUEUE_CAPACITY = 64;
+
     private final Object writeMutex = new Object();
     private final Stream stream;
     private final boolean deflateSnapshots;
+    private final boolean pipelinedReplay;
+    private final CompressionSettings compression;
     private final MessageDigest digest;
     private final EntrySerializer entrySerializer;
 
     StreamManager(Stream stream, boolean deflateSnapshots, Amount<Integer, Data> maxEntrySize) {
+      this(stream, deflateSnapshots, maxEntrySize, false);
+    }
+
+    StreamManager(
+        Stream stream,
+        boolean deflateSnapshots,
+        Amount<Integer, Data> maxEntrySize,
+        boolean pipelinedReplay) {
+
+      this(stream, deflateSnapshots, maxEntrySize, pipelinedReplay, CompressionSettings.DEFAULT);
+    }
+
+    StreamManager(
+        Stream stream,
+        boolean deflateSnapshots,
+        Amount<Integer, Data> maxEntrySize,
+        boolean pipelinedReplay,
+        CompressionSettings compression) {
+
       this.stream = checkNotNull(stream);
       this.deflateSnapshots = deflateSnapshots;
+      this.pipelinedReplay = pipelinedReplay;
+      this.compression = checkNotNull(compression);
       digest = createDigest();
-      entrySerializer = new EntrySerializer(digest, maxEntrySize);
+      entrySerializer = new EntrySerializer(maxEntrySize);
     }
 
     /**
      * Reads all entries in the log stream after the given position.  If the position
      * supplied is {@code null} then all log entries in the stream will be read.
      *
+     * <p>When replay is pipelined, reading, decoding and inflating entries each proceed on their
+     * own thread ahead of the reader, which is still handed entries in log order on the calling
+     * thread.
+     *
      * @param reader A reader that will be handed log entries decoded from the stream.
      * @throws CodingException if there was a problem decoding a log entry from the stream.
      * @throws InvalidPositionException if the given position is not found in the log.
@@ -187,26 +296,99 @@ public final class LogManager {
         throws CodingException, InvalidPositionException, StreamAccessException {
 
       Iterator<Entry> entries = stream.readAll();
-
-      while (entries.hasNext()) {
-        LogEntry logEntry = decodeLogEntry(entries.next());
-        while (logEntry != null && isFrame(logEntry)) {
-          logEntry = tryDecodeFrame(logEntry.getFrame(), entries);
+      if (pipelinedReplay) {
+        readPipelined(entries, reader);
+      } else {
+        Iterator<byte[]> contents = Iterators.transform(entries, readContents);
+        while (contents.hasNext()) {
+          LogEntry logEntry = decodeNext(contents);
+          if (logEntry != null) {
+            reader.execute(decompressIfCompressed(logEntry));
+            vars.entriesRead.incrementAndGet();
+          }
         }
-        if (logEntry != null) {
-          if (logEntry.isSet(_Fields.DEFLATED_ENTRY)) {
-            logEntry = Entries.inflate(logEntry);
-            vars.deflatedEntriesRead.incrementAndGet();
+      }
+    }
+
+    private void readPipelined(Iterator<Entry> entries, final Closure<LogEntry> reader)
+        throws CodingException {
+
+      try (ReplayPipeline pipeline = new ReplayPipeline(REPLAY_QUEUE_CAPACITY)) {
+        Iterator<byte[]> contents = pipeline.stage("read", entries,
+            new ReplayPipeline.Stage<Entry, byte[]>() {
+              @Override
+              public byte[] process(Iterator<Entry> input) {
+                return readContents.apply(input.next());
+              }
+            });
+        Iterator<LogEntry> decoded = pipeline.stage("decode", contents,
+            new ReplayPipeline.Stage<byte[], LogEntry>() {
+              @Override
+              public LogEntry process(Iterator<byte[]> input) throws CodingException {
+                return decodeNext(input);
+              }
+            });
+        Iterator<LogEntry> inflated = pipeline.stage("inflate", decoded,
+            new ReplayPipeline.Stage<LogEntry, LogEntry>() {
+              @Override
+              public LogEntry process(Iterator<LogEntry> input) throws CodingException {
+                return decompressIfCompressed(input.next());
+              }
+            });
+        pipeline.drain("apply", inflated, new Closure<LogEntry>() {
+          @Override
+          public void execute(LogEntry logEntry) {
+            reader.execute(logEntry);
+            vars.entriesRead.incrementAndGet();
           }
+        });
+      }
+    }
 
-          reader.execute(logEntry);
-          vars.entriesRead.incrementAndGet();
-        }
+    private final Function<Entry, byte[]> readContents = new Function<Entry, byte[]>() {
+      @Override
+      public byte[] apply(Entry entry) {
+        byte[] contents = entry.contents();
+        vars.bytesRead.addAndGet(contents.length);
+        return contents;
+      }
+    };
+
+    /**
+     * Decodes the next log entry, assembling it from frames if necessary.
+     *
+     * @param contents Encoded log entries.
+     * @return The next entry, or {@code null} if only an aborted framed entry remained.
+     * @throws CodingException If an entry could not be decoded.
+     */
+    @Nullable
+    private LogEntry decodeNext(Iterator<byte[]> contents) throws CodingException {
+      LogEntry logEntry = Entries.thriftBinaryDecode(contents.next());
+      while (logEntry != null && isFrame(logEntry)) {
+        logEntry = tryDecodeFrame(logEntry.getFrame(), contents);
       }
+      return logEntry;
+    }
+
+    private LogEntry decompressIfCompressed(LogEntry logEntry) throws CodingException {
+      if (logEntry.isSet(_Fields.COMPRESSED_ENTRY)) {
+        LogEntry decompressed = Entries.decompress(logEntry);
+        vars.compressedEntriesRead.incrementAndGet();
+        return decompressed;
+      }
+      if (logEntry.isSet(_Fields.DEFLATED_ENTRY)) {
+        LogEntry inflated = Entries.inflate(logEntry);
+        vars.deflatedEntriesRead.incrementAndGet();
+        return inflated;
+      }
+      return logEntry;
     }
 
     @Nullable
-    private LogEntry tryDecodeFrame(Frame frame, Iterator<Entry> entries) throws CodingException {
+    private LogEntry tryDecodeFrame(Frame frame, Iterator<byte[]> entries) throws CodingException {
+      if (frame.getSetField() == Frame._Fields.STREAM_HEADER) {
+        return tryDecodeStream(frame.getStreamHeader(), entries);
+      }
       if (!isHeader(frame)) {
         LOG.warning("Found a frame with no preceding header, skipping.");
         return null;
@@ -220,7 +402,7 @@ public final class LogManager {
           logBadFrame(header, i);
           return null;
         }
-        LogEntry logEntry = decodeLogEntry(entries.next());
+        LogEntry logEntry = Entries.thriftBinaryDecode(entries.next());
         if (!isFrame(logEntry)) {
           logBadFrame(header, i);
           return logEntry;
@@ -240,6 +422,49 @@ public final class LogManager {
       return Entries.thriftBinaryDecode(Bytes.concat(chunks));
     }
 
+    @Nullable
+    private LogEntry tryDecodeStream(StreamHeader header, Iterator<byte[]> entries)
+        throws CodingException {
+
+      List<byte[]> chunks = Lists.newArrayList();
+      digest.reset();
+      while (entries.hasNext()) {
+        LogEntry logEntry = Entries.thriftBinaryDecode(entries.next());
+        if (!isFrame(logEntry)) {
+          logAbortedStream(chunks.size());
+          return logEntry;
+        }
+
+        Frame frame = logEntry.getFrame();
+        if (isChunk(frame)) {
+          byte[] chunkData = frame.getChunk().getData();
+          digest.update(chunkData);
+          chunks.add(chunkData);
+        } else if (frame.getSetField() == Frame._Fields.TRAILER) {
+          FrameTrailer trailer = frame.getTrailer();
+          if (trailer.getChunkCount() != chunks.size()
+              || !Arrays.equals(trailer.getChecksum(), digest.digest())) {
+
+            throw new CodingException("Read back a streamed log entry that failed its checksum");
+          }
+          return Entries.thriftBinaryDecode(
+              Bytes.concat(chunks.toArray(new byte[chunks.size()][])),
+              header.isDeflated());
+        } else {
+          logAbortedStream(chunks.size());
+          return logEntry;
+        }
+      }
+      logAbortedStream(chunks.size());
+      return null;
+    }
+
+    private void logAbortedStream(int chunkCount) {
+      LOG.info(String.format(
+          "Found an aborted streamed transaction, found %d frames and no trailer", chunkCount));
+      vars.badFramesRead.incrementAndGet();
+    }
+
     private static boolean isFrame(LogEntry logEntry) {
       return logEntry.getSetField() == LogEntry._Fields.FRAME;
     }
@@ -258,12 +483,6 @@ public final class LogManager {
       vars.badFramesRead.incrementAndGet();
     }
 
-    private LogEntry decodeLogEntry(Entry entry) throws CodingException {
-      byte[] contents = entry.contents();
-      vars.bytesRead.addAndGet(contents.length);
-      return Entries.thriftBinaryDecode(contents);
-    }
-
     /**
      * Truncates all entries in the log stream occuring before the given position.  The entry at the
      * given position becomes the first entry in the stream when this call completes.
@@ -300,19 +519,168 @@ public final class LogManager {
     void snapshot(Snapshot snapshot)
         throws CodingException, InvalidPositionException, StreamAccessException {
 
-      LogEntry entry = LogEntry.snapshot(snapshot);
-      if (deflateSnapshots) {
-        entry = Entries.deflate(entry);
-      }
+      Position position =
+          appendAndGetPosition(encode(LogEntry.snapshot(snapshot), deflateSnapshots));
+      vars.snapshots.incrementAndGet();
+      vars.unSnapshottedTransactions.set(0);
+      stream.truncateBefore(position);
+    }
+
+    /**
+     * Adds a delta snapshot to the log.  Since a delta can only be applied on top of the entries
+     * preceding it, the log is not truncated.
+     *
+     * @param deltaSnapshot The delta snapshot to add.
+     * @throws CodingException if the was a problem encoding the delta into a log entry.
+     * @throws StreamAccessException if there was a problem appending the delta to the log.
+     */
+    @Timed("log_manager_delta_snapshot")
+    void deltaSnapshot(DeltaSnapshot deltaSnapshot) throws CodingException, StreamAccessException {
+      appendAndGetPosition(encode(LogEntry.deltaSnapshot(deltaSnapshot), deflateSnapshots));
+      vars.deltaSnapshots.incrementAndGet();
+      vars.unSnapshottedTransactions.set(0);
+    }
 
-      Position position = appendAndGetPosition(entry);
+    /**
+     * Streams a snapshot into the log as it is written by a snapshot store, and if successful,
+     * truncates the log entries preceding the snapshot.
+     *
+     * <p>Unlike {@link #snapshot(Snapshot)}, the snapshot is never materialized in full.  It is
+     * encoded (and deflated, if enabled) directly into frame chunks that are appended to the log as
+     * each fills, so memory use is bounded by the maximum entry size rather than the snapshot size.
+     *
+     * @param snapshotStore The store to write a snapshot from.
+     * @throws CodingException if the was a problem encoding the snapshot.
+     * @throws InvalidPositionException if there was a problem truncating before the snapshot.
+     * @throws StreamAccessException if there was a problem appending the snapshot to the log.
+     */
+    @Timed("log_manager_stream_snapshot")
+    void streamSnapshot(StreamingSnapshotStore snapshotStore)
+        throws CodingException, InvalidPositionException, StreamAccessException {
+
+      Position position;
+      synchronized (writeMutex) { // ensure all sub-entries are written as a unit
+        position = appendFrame(Frame.streamHeader(new StreamHeader(deflateSnapshots)));
+
+        ChunkWriter chunks = new ChunkWriter();
+        // The deflater is ended explicitly since its native memory is otherwise only released on
+        // finalization when encoding fails.
+        Deflater deflater = deflateSnapshots ? new Deflater() : null;
+        try {
+          OutputStream out = deflater == null
+              ? chunks
+              : new DeflaterOutputStream(chunks, deflater, DEFLATE_BUFFER_BYTES);
+          TProtocol protocol =
+              ThriftBinaryCodec.PROTOCOL_FACTORY.getProtocol(new TIOStreamTransport(out));
+          protocol.writeStructBegin(LOG_ENTRY_STRUCT);
+          protocol.writeFieldBegin(SNAPSHOT_FIELD);
+          snapshotStore.writeSnapshot(protocol);
+          protocol.writeFieldEnd();
+          protocol.writeFieldStop();
+          protocol.writeStructEnd();
+          out.close();
+        } catch (TException | IOException e) {
+          throw new CodingException("Failed to stream snapshot to the log: " + e, e);
+        } finally {
+          if (deflater != null) {
+            deflater.end();
+          }
+        }
+
+        appendFrame(Frame.trailer(
+            new FrameTrailer(chunks.chunkCount, ByteBuffer.wrap(chunks.digest.digest()))));
+      }
+      vars.entriesWritten.incrementAndGet();
       vars.snapshots.incrementAndGet();
       vars.unSnapshottedTransactions.set(0);
       stream.truncateBefore(position);
     }
 
+    private Position appendFrame(Frame frame) throws CodingException {
+      byte[] entry = Entries.thriftBinaryEncode(LogEntry.frame(frame));
+      Position position = stream.append(entry);
+      vars.bytesWritten.addAndGet(entry.length);
+      return position;
+    }
+
+    /**
+     * Buffers written data and appends it to the log stream as frame chunks of up to the maximum
+     * entry size, tracking the chunk count and a running digest for the trailer.
+     */
+    private class ChunkWriter extends OutputStream {
+      private final byte[] buffer =
+          new byte[Math.min(entrySerializer.maxEntrySizeBytes, MAX_STREAMED_CHUNK_BYTES)];
+      private final MessageDigest digest = createDigest();
+      private int buffered = 0;
+      private int chunkCount = 0;
+
+      @Override
+      public void write(int b) throws IOException {
+        buffer[buffered++] = (byte) b;
+        if (buffered == buffer.length) {
+          appendChunk();
+        }
+      }
+
+      @Override
+      public void write(byte[] data, int offset, int length) throws IOException {
+        int written = 0;
+        while (written < length) {
+          int count = Math.min(length - written, buffer.length - buffered);
+          System.arraycopy(data, offset + written, buffer, buffered, count);
+          buffered += count;
+          written += count;
+          if (buffered == buffer.length) {
+            appendChunk();
+          }
+        }
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (buffered > 0) {
+          appendChunk();
+        }
+      }
+
+      private void appendChunk() throws IOException {
+        digest.update(buffer, 0, buffered);
+        try {
+          appendFrame(Frame.chunk(new FrameChunk(ByteBuffer.wrap(buffer, 0, buffered))));
+        } catch (CodingException e) {
+          throw new IOException("Failed to encode snapshot chunk.", e);
+        }
+        buffered = 0;
+        chunkCount++;
+      }
+    }
+
+    /**
+     * Encodes a log entry, compressing it if requested and it is at least the compression threshold
+     * in size.  The entry is left uncompressed if compression does not make it smaller.
+     *
+     * @param logEntry The entry to encode.
+     * @param compress Whether the entry may be compressed.
+     * @return The encoded entry.
+     * @throws CodingException If the entry could not be encoded.
+     */
+    private byte[] encode(LogEntry logEntry, boolean compress) throws CodingException {
+      byte[] entry = Entries.thriftBinaryEncode(logEntry);
+      if (!compress || entry.length < compression.thresholdBytes) {
+        return entry;
+      }
+
+      byte[] compressed = Entries.thriftBinaryEncode(Entries.compress(entry, compression.codec));
+      if (compressed.length >= entry.length) {
+        return entry;
+      }
+      Entries.recordCompressed(compression.codec.getId(), entry.length, compressed.length);
+      vars.compressedEntriesWritten.incrementAndGet();
+      return compressed;
+    }
+
     @Timed("log_manager_append")
-    private Position appendAndGetPosition(LogEntry logEntry) throws CodingException {
+    private Position appendAndGetPosition(byte[] logEntry) throws CodingException {
       Position firstPosition = null;
       byte[][] entries = entrySerializer.serialize(logEntry);
       synchronized (writeMutex) { // ensure all sub-entries are written as a unit
@@ -330,16 +698,10 @@ public final class LogManager {
 
     @VisibleForTesting
     public static class EntrySerializer {
-      private final MessageDigest digest;
       private final int maxEntrySizeBytes;
 
-      private EntrySerializer(MessageDigest digest, Amount<Integer, Data> maxEntrySize) {
-        this.digest = checkNotNull(digest);
-        maxEntrySizeBytes = maxEntrySize.as(Data.BYTES);
-      }
-
       public EntrySerializer(Amount<Integer, Data> maxEntrySize) {
-        this(createDigest(), maxEntrySize);
+        maxEntrySizeBytes = maxEntrySize.as(Data.BYTES);
       }
 
       /**
@@ -351,7 +713,10 @@ public final class LogManager {
        */
       @VisibleForTesting
       public byte[][] serialize(LogEntry logEntry) throws CodingException {
-        byte[] entry = Entries.thriftBinaryEncode(logEntry);
+        return serialize(Entries.thriftBinaryEncode(logEntry));
+      }
+
+      private byte[][] serialize(byte[] entry) throws CodingException {
         if (entry.length <= maxEntrySizeBytes) {
           return new byte[][] {entry};
         }
@@ -369,9 +734,10 @@ public final class LogManager {
         return frames;
       }
 
-      private byte[] checksum(byte[] data) {
-        digest.reset();
-        return digest.digest(data);
+      private static byte[] checksum(byte[] data) {
+        // Group commits serialize entries concurrently with snapshots, and a digest may not be
+        // shared between threads.
+        return createDigest().digest(data);
       }
 
       private static byte[] encode(Frame frame) throws CodingException {
@@ -407,7 +773,8 @@ public final class LogManager {
           return null;
         }
 
-        Position position = appendAndGetPosition(LogEntry.transaction(transaction));
+        Position position = appendAndGetPosition(
+            encode(LogEntry.transaction(transaction), compression.compressTransactions));
         vars.unSnapshottedTransactions.incrementAndGet();
         return position;
       }
@@ -426,6 +793,33 @@ public final class LogManager {
         }
       }
 
+      /**
+       * Moves all ops from another uncommitted transaction into this one, coalescing them with the
+       * ops already added.  The other transaction is consumed and may not be committed afterwards.
+       *
+       * @param other The transaction whose ops should be added.
+       */
+      void addAll(StreamTransaction other) {
+        Preconditions.checkState(!committed.get());
+        Preconditions.checkState(!other.committed.getAndSet(true),
+            "Can only add ops from an uncommitted transaction.");
+
+        if (other.transaction.isSetOps()) {
+          for (Op op : other.transaction.getOps()) {
+            add(op);
+          }
+        }
+      }
+
+      /**
+       * Checks whether any ops have been added to this transaction.
+       *
+       * @return {@code true} if this transaction has no ops to commit.
+       */
+      boolean isEmpty() {
+        return !transaction.isSetOps();
+      }
+
       /**
        * Tries to coalesce a new op into the prior to compact the binary representation and increase
        * batching.
@@ -21,11 +21,13 @@ import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 import java.util.Date;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -34,8 +36,10 @@ import javax.inject.Inject;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.inject.BindingAnnotation;
 import com.twitter.common.application.ShutdownRegistry;
@@ -43,11 +47,14 @@ import com.twitter.common.base.Closure;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
+import com.twitter.common.stats.Stats;
+import com.twitter.common.util.Clock;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
 import org.apache.aurora.gen.HostAttributes;
 import org.apache.aurora.gen.MaintenanceMode;
+import org.apache.aurora.gen.storage.DeltaSnapshot;
 import org.apache.aurora.gen.storage.LogEntry;
 import org.apache.aurora.gen.storage.Op;
 import org.apache.aurora.gen.storage.RemoveJob;
@@ -62,6 +69,7 @@ import org.apache.aurora.gen.storage.SaveLock;
 import org.apache.aurora.gen.storage.SaveQuota;
 import org.apache.aurora.gen.storage.SaveTasks;
 import org.apache.aurora.gen.storage.Snapshot;
+import org.apache.aurora.gen.storage.Transaction;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.SchedulerException;
 import org.apache.aurora.scheduler.base.Tasks;
@@ -77,6 +85,7 @@ import org.apache.aurora.scheduler.storage.SchedulerStore;
 import org.apache.aurora.scheduler.storage.SnapshotStore;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.Storage.NonVolatileStorage;
+import org.apache.aurora.scheduler.storage.StreamingSnapshotStore;
 import org.apache.aurora.scheduler.storage.TaskStore;
 import org.apache.aurora.scheduler.storage.entities.IJobConfiguration;
 import org.apache.aurora.scheduler.storage.entities.IJobKey;
@@ -167,16 +176,37 @@ public class LogStorage extends ForwardingStore
 
   private static final Logger LOG = Logger.getLogger(LogStorage.class.getName());
 
+  private static final int MAX_PENDING_REPLAY_OPS = 100000;
+
   private final LogManager logManager;
   private final SchedulingService schedulingService;
   private final SnapshotStore<Snapshot> snapshotStore;
   private final Amount<Long, Time> snapshotInterval;
 
+  private final boolean streamSnapshots;
+  private final int deltaSnapshotsPerCompaction;
+  private final Optional<Amount<Long, Time>> groupCommitWindow;
+  private final Clock clock;
+
   private StreamManager streamManager;
+  private Optional<GroupCommitter> groupCommitter = Optional.absent();
 
   private boolean recovered = false;
   private StreamTransaction transaction = null;
 
+  // Changes made since the last snapshot, guarded by the storage write lock.
+  private final DeltaTracker deltaTracker = new DeltaTracker();
+  private volatile int deltaSnapshotsSinceCompaction = 0;
+
+  // Transactions read during recovery that may yet be superseded by a delta snapshot.
+  private final List<Transaction> pendingTransactions = Lists.newArrayList();
+  private int pendingOps = 0;
+
+  private final AtomicLong deltaSnapshotEntities =
+      Stats.exportLong("scheduler_log_delta_snapshot_entities");
+  private final AtomicLong supersededOps =
+      Stats.exportLong("scheduler_log_recovery_superseded_ops");
+
   private final MutableStoreProvider logStoreProvider = new MutableStoreProvider() {
     @Override
     public SchedulerStore.Mutable getSchedulerStore() {
@@ -240,12 +270,41 @@ public class LogStorage extends ForwardingStore
   @BindingAnnotation
   public @interface WriteBehind { }
 
+  /**
+   * Identifies the window over which concurrent write transactions are coalesced into a single log
+   * entry, if group commit is enabled.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface GroupCommitWindow { }
+
+  /**
+   * Identifies whether snapshots should be streamed into the log rather than materialized first.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface StreamSnapshots { }
+
+  /**
+   * Identifies the number of delta snapshots to take between full, log-truncating snapshots.
+   */
+  @Retention(RetentionPolicy.RUNTIME)
+  @Target({ ElementType.PARAMETER, ElementType.METHOD })
+  @BindingAnnotation
+  public @interface DeltaSnapshotsPerCompaction { }
+
   @Inject
   LogStorage(LogManager logManager,
              ShutdownRegistry shutdownRegistry,
              @ShutdownGracePeriod Amount<Long, Time> shutdownGracePeriod,
              SnapshotStore<Snapshot> snapshotStore,
              @SnapshotInterval Amount<Long, Time> snapshotInterval,
+             @StreamSnapshots boolean streamSnapshots,
+             @DeltaSnapshotsPerCompaction int deltaSnapshotsPerCompaction,
+             @GroupCommitWindow Optional<Amount<Long, Time>> groupCommitWindow,
+             Clock clock,
              @WriteBehind Storage storage,
              @WriteBehind SchedulerStore.Mutable schedulerStore,
              @WriteBehind JobStore.Mutable jobStore,
@@ -258,6 +317,10 @@ public class LogStorage extends ForwardingStore
         new ScheduledExecutorSchedulingService(shutdownRegistry, shutdownGracePeriod),
         snapshotStore,
         snapshotInterval,
+        streamSnapshots,
+        deltaSnapshotsPerCompaction,
+        groupCommitWindow,
+        clock,
         storage,
         schedulerStore,
         jobStore,
@@ -272,6 +335,10 @@ public class LogStorage extends ForwardingStore
              SchedulingService schedulingService,
              SnapshotStore<Snapshot> snapshotStore,
              Amount<Long, Time> snapshotInterval,
+             boolean streamSnapshots,
+             int deltaSnapshotsPerCompaction,
+             Optional<Amount<Long, Time>> groupCommitWindow,
+             Clock clock,
              Storage storage,
              SchedulerStore.Mutable schedulerStore,
              JobStore.Mutable jobStore,
@@ -285,6 +352,11 @@ public class LogStorage extends ForwardingStore
     this.schedulingService = checkNotNull(schedulingService);
     this.snapshotStore = checkNotNull(snapshotStore);
     this.snapshotInterval = checkNotNull(snapshotInterval);
+    this.streamSnapshots = streamSnapshots;
+    Preconditions.checkArgument(deltaSnapshotsPerCompaction >= 0);
+    this.deltaSnapshotsPerCompaction = deltaSnapshotsPerCompaction;
+    this.groupCommitWindow = checkNotNull(groupCommitWindow);
+    this.clock = checkNotNull(clock);
   }
 
   @Override
@@ -295,6 +367,9 @@ public class LogStorage extends ForwardingStore
     } catch (IOException e) {
       throw new IllegalStateException("Failed to open the log, cannot continue", e);
     }
+    if (groupCommitWindow.isPresent()) {
+      groupCommitter = Optional.of(new GroupCommitter(streamManager, groupCommitWindow.get()));
+    }
 
     // TODO(John Sirois): start incremental recovery here from the log and do a final recovery
     // catchup in start after shutting down the incremental syncer.
@@ -334,6 +409,7 @@ public class LogStorage extends ForwardingStore
           replay(logEntry);
         }
       });
+      replayPendingTransactions();
     } catch (CodingException | InvalidPositionException | StreamAccessException e) {
       throw new RecoveryFailedException(e);
     }
@@ -350,12 +426,29 @@ public class LogStorage extends ForwardingStore
       case SNAPSHOT:
         Snapshot snapshot = logEntry.getSnapshot();
         LOG.info("Applying snapshot taken on " + new Date(snapshot.getTimestamp()));
+        discardPendingTransactions();
         snapshotStore.applySnapshot(snapshot);
         break;
 
+      case DELTA_SNAPSHOT:
+        DeltaSnapshot deltaSnapshot = logEntry.getDeltaSnapshot();
+        LOG.info("Applying delta snapshot taken on " + new Date(deltaSnapshot.getTimestamp()));
+        discardPendingTransactions();
+        if (deltaSnapshot.isSetOps()) {
+          for (Op op : deltaSnapshot.getOps()) {
+            replayOp(op);
+          }
+        }
+        break;
+
       case TRANSACTION:
-        for (Op op : logEntry.getTransaction().getOps()) {
-          replayOp(op);
+        // Hold transactions back in case a later delta snapshot supersedes them, bounding the
+        // number held so that recovery of a log with long gaps between snapshots stays lean.
+        Transaction pending = logEntry.getTransaction();
+        pendingTransactions.add(pending);
+        pendingOps += pending.getOpsSize();
+        if (pendingOps > MAX_PENDING_REPLAY_OPS) {
+          replayPendingTransactions();
         }
         break;
 
@@ -366,6 +459,9 @@ public class LogStorage extends ForwardingStore
       case DEFLATED_ENTRY:
         throw new IllegalArgumentException("Deflated entries are not handled at this layer.");
 
+      case COMPRESSED_ENTRY:
+        throw new IllegalArgumentException("Compressed entries are not handled at this layer.");
+
       case FRAME:
         throw new IllegalArgumentException("Framed entries are not handled at this layer.");
 
@@ -374,6 +470,27 @@ public class LogStorage extends ForwardingStore
     }
   }
 
+  private void discardPendingTransactions() {
+    supersededOps.addAndGet(pendingOps);
+    pendingTransactions.clear();
+    pendingOps = 0;
+    deltaTracker.clear();
+  }
+
+  private void replayPendingTransactions() {
+    for (Transaction pending : pendingTransactions) {
+      for (Op op : pending.getOps()) {
+        replayOp(op);
+        // These changes are not yet captured by a snapshot, so the next delta must include them.
+        if (deltaSnapshotsPerCompaction > 0) {
+          deltaTracker.record(op);
+        }
+      }
+    }
+    pendingTransactions.clear();
+    pendingOps = 0;
+  }
+
   private void replayOp(Op op) {
     switch (op.getSetField()) {
       case SAVE_FRAMEWORK_ID:
@@ -436,7 +553,7 @@ public class LogStorage extends ForwardingStore
         @Override
         public void run() {
           try {
-            snapshot();
+            scheduledSnapshot();
           } catch (StorageException e) {
             if (e.getCause() != null) {
               LOG.log(Level.WARNING, e.getMessage(), e.getCause());
@@ -449,6 +566,52 @@ public class LogStorage extends ForwardingStore
     }
   }
 
+  /**
+   * Takes the snapshot due on the regular snapshot schedule; a delta snapshot when deltas are
+   * enabled and fewer than the configured number have been taken since the last full snapshot,
+   * otherwise a full snapshot.
+   *
+   * @throws StorageException If the snapshot could not be taken.
+   */
+  @VisibleForTesting
+  void scheduledSnapshot() throws StorageException {
+    if (deltaSnapshotsSinceCompaction >= deltaSnapshotsPerCompaction) {
+      snapshot();
+      return;
+    }
+
+    try {
+      doDeltaSnapshot();
+    } catch (CodingException e) {
+      throw new StorageException("Failed to encode a delta snapshot", e);
+    } catch (StreamAccessException e) {
+      throw new StorageException("Failed to create a delta snapshot", e);
+    }
+  }
+
+  /**
+   * Writes a delta snapshot of only the storage state that changed since the last snapshot.
+   *
+   * @throws CodingException If there is a problem encoding the delta snapshot.
+   * @throws StreamAccessException If there is a problem writing the delta to the log stream.
+   */
+  @Timed("scheduler_log_delta_snapshot")
+  void doDeltaSnapshot() throws CodingException, StreamAccessException {
+    super.write(new MutateWork.NoResult<CodingException>() {
+      @Override
+      protected void execute(MutableStoreProvider storeProvider)
+          throws CodingException, StreamAccessException {
+
+        deltaSnapshotEntities.set(deltaTracker.size());
+        streamManager.deltaSnapshot(new DeltaSnapshot()
+            .setTimestamp(clock.nowMillis())
+            .setOps(deltaTracker.createOps(storeProvider)));
+        deltaTracker.clear();
+        deltaSnapshotsSinceCompaction++;
+      }
+    });
+  }
+
   /**
    * Forces a snapshot of the storage state.
    *
@@ -463,7 +626,13 @@ public class LogStorage extends ForwardingStore
       protected void execute(MutableStoreProvider unused)
           throws CodingException, InvalidPositionException, StreamAccessException {
 
-        persist(snapshotStore.createSnapshot());
+        if (streamSnapshots && snapshotStore instanceof StreamingSnapshotStore) {
+          streamManager.streamSnapshot((StreamingSnapshotStore) snapshotStore);
+        } else {
+          persist(snapshotStore.createSnapshot());
+        }
+        deltaTracker.clear();
+        deltaSnapshotsSinceCompaction = 0;
       }
     });
   }
@@ -477,7 +646,51 @@ public class LogStorage extends ForwardingStore
   }
 
   @Override
-  public synchronized <T, E extends Exception> T write(final MutateWork<T, E> work)
+  public <T, E extends Exception> T write(final MutateWork<T, E> work)
+      throws StorageException, E {
+
+    // Nested writes join the transaction of the enclosing write.
+    if (!groupCommitter.isPresent() || Thread.holdsLock(this)) {
+      return writeAndCommit(work);
+    }
+
+    // With group commit the work is applied locally and its ops queued under our lock, but we wait
+    // for the ops to reach the log only after releasing the lock so that other writers may apply
+    // their work and join the same log entry.  As with a synchronous commit, a failure to append is
+    // surfaced to every writer in the batch before it proceeds.
+    GroupCommitter.Batch batch;
+    T result;
+    synchronized (this) {
+      if (!recovered) {
+        return super.write(work);
+      }
+
+      transaction = streamManager.startTransaction();
+      try {
+        result = super.write(new MutateWork<T, E>() {
+          @Override
+          public T apply(MutableStoreProvider unused) throws E {
+            return work.apply(logStoreProvider);
+          }
+        });
+        batch = groupCommitter.get().enqueue(transaction);
+      } finally {
+        transaction = null;
+      }
+    }
+
+    try {
+      groupCommitter.get().await(batch);
+    } catch (CodingException e) {
+      throw new IllegalStateException(
+          "Problem encoding transaction operations to the log stream", e);
+    } catch (StreamAccessException e) {
+      throw new StorageException("There was a problem committing the transaction to the log.", e);
+    }
+    return result;
+  }
+
+  private synchronized <T, E extends Exception> T writeAndCommit(final MutateWork<T, E> work)
       throws StorageException, E {
 
     // We don't want to use the log when recovering from it, we just want to update the underlying
@@ -737,6 +950,9 @@ public class LogStorage extends ForwardingStore
   private void log(Op op) {
     if (recovered) {
       transaction.add(op);
+      if (deltaSnapshotsPerCompaction > 0) {
+        deltaTracker.record(op);
+      }
     }
   }
 }
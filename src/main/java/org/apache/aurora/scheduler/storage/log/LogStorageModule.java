@@ -16,10 +16,12 @@
 package org.apache.aurora.scheduler.storage.log;
 
 import java.lang.annotation.Annotation;
+import java.util.zip.Deflater;
 
 import javax.inject.Singleton;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.inject.AbstractModule;
 import com.google.inject.Key;
 import com.google.inject.TypeLiteral;
@@ -31,13 +33,19 @@ import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.util.Clock;
 
+import org.apache.aurora.gen.storage.CompressionCodec;
 import org.apache.aurora.scheduler.log.Log;
 import org.apache.aurora.scheduler.storage.CallOrderEnforcingStorage;
 import org.apache.aurora.scheduler.storage.DistributedSnapshotStore;
+import org.apache.aurora.scheduler.storage.log.LogManager.CompressionSettings;
 import org.apache.aurora.scheduler.storage.log.LogManager.MaxEntrySize;
+import org.apache.aurora.scheduler.storage.log.LogManager.PipelinedReplay;
 import org.apache.aurora.scheduler.storage.log.LogManager.SnapshotSetting;
+import org.apache.aurora.scheduler.storage.log.LogStorage.DeltaSnapshotsPerCompaction;
+import org.apache.aurora.scheduler.storage.log.LogStorage.GroupCommitWindow;
 import org.apache.aurora.scheduler.storage.log.LogStorage.ShutdownGracePeriod;
 import org.apache.aurora.scheduler.storage.log.LogStorage.SnapshotInterval;
+import org.apache.aurora.scheduler.storage.log.LogStorage.StreamSnapshots;
 
 /**
  * Bindings for scheduler distributed log based storage.
@@ -64,6 +72,18 @@ public class LogStorageModule extends AbstractModule {
   private static final Arg<Amount<Long, Time>> SNAPSHOT_INTERVAL =
       Arg.create(Amount.of(1L, Time.HOURS));
 
+  @CmdLine(name = "dlog_stream_snapshots",
+           help = "Whether snapshots should be encoded directly into log entry frames store by "
+                  + "store rather than first being built in memory. Streamed snapshots cannot be "
+                  + "read by schedulers that predate this option.")
+  private static final Arg<Boolean> STREAM_SNAPSHOTS = Arg.create(false);
+
+  @CmdLine(name = "dlog_delta_snapshots_per_compaction",
+           help = "The number of delta snapshots, holding only the state changed since the "
+                  + "previous snapshot, to take between full snapshots that compact the log. Zero "
+                  + "disables delta snapshots.")
+  private static final Arg<Integer> DELTA_SNAPSHOTS_PER_COMPACTION = Arg.create(0);
+
   @CmdLine(name = "dlog_max_entry_size",
            help = "Specifies the maximum entry size to append to the log. Larger entries will be "
                   + "split across entry Frames.")
@@ -71,9 +91,49 @@ public class LogStorageModule extends AbstractModule {
   public static final Arg<Amount<Integer, Data>> MAX_LOG_ENTRY_SIZE =
       Arg.create(Amount.of(512, Data.KB));
 
-  @CmdLine(name = "deflate_snapshots", help = "Whether snapshots should be deflate-compressed.")
+  @CmdLine(name = "deflate_snapshots",
+           help = "Whether snapshots should be compressed with the dlog_compression_codec.")
   private static final Arg<Boolean> DEFLATE_SNAPSHOTS = Arg.create(true);
 
+  @CmdLine(name = "dlog_compress_transactions",
+           help = "Whether transactions should be compressed with the dlog_compression_codec. "
+                  + "Transactions compressed with a codec other than DEFLATE cannot be read by "
+                  + "schedulers that predate this option.")
+  private static final Arg<Boolean> COMPRESS_TRANSACTIONS = Arg.create(false);
+
+  @CmdLine(name = "dlog_compression_codec",
+           help = "The codec to compress log entries with. DEFLATE entries are written in the "
+                  + "deflated entry format that all schedulers can read; entries compressed with "
+                  + "any other codec cannot be read by schedulers that predate this option.")
+  private static final Arg<CompressionCodec> COMPRESSION_CODEC =
+      Arg.create(CompressionCodec.DEFLATE);
+
+  @CmdLine(name = "dlog_deflate_level",
+           help = "The compression level, from 0 to 9, of the DEFLATE codec. -1 selects the "
+                  + "default level.")
+  private static final Arg<Integer> DEFLATE_LEVEL = Arg.create(Deflater.DEFAULT_COMPRESSION);
+
+  @CmdLine(name = "dlog_compression_threshold",
+           help = "The minimum encoded size of a snapshot or transaction for it to be compressed.")
+  private static final Arg<Amount<Integer, Data>> COMPRESSION_THRESHOLD =
+      Arg.create(Amount.of(64, Data.KB));
+
+  @CmdLine(name = "dlog_pipelined_recovery",
+           help = "Whether reading, decoding, inflating and applying log entries during recovery "
+                  + "should run as a pipeline of stages on separate threads.")
+  private static final Arg<Boolean> PIPELINED_RECOVERY = Arg.create(false);
+
+  @CmdLine(name = "dlog_group_commit",
+           help = "Whether concurrent write transactions should be coalesced into a single log "
+                  + "entry rather than each being appended to the log individually.")
+  private static final Arg<Boolean> GROUP_COMMIT = Arg.create(false);
+
+  @CmdLine(name = "dlog_group_commit_window",
+           help = "When group commit is enabled, the time to hold a batch of write transactions "
+                  + "open for other writers to join before appending it to the log.")
+  private static final Arg<Amount<Long, Time>> GROUP_COMMIT_WINDOW =
+      Arg.create(Amount.of(0L, Time.MILLISECONDS));
+
   @Override
   protected void configure() {
     requireBinding(Log.class);
@@ -82,11 +142,25 @@ public class LogStorageModule extends AbstractModule {
 
     bindInterval(ShutdownGracePeriod.class, SHUTDOWN_GRACE_PERIOD);
     bindInterval(SnapshotInterval.class, SNAPSHOT_INTERVAL);
+    bind(Boolean.class).annotatedWith(StreamSnapshots.class).toInstance(STREAM_SNAPSHOTS.get());
+    bind(Integer.class).annotatedWith(DeltaSnapshotsPerCompaction.class)
+        .toInstance(DELTA_SNAPSHOTS_PER_COMPACTION.get());
+    bind(new TypeLiteral<Optional<Amount<Long, Time>>>() { }).annotatedWith(GroupCommitWindow.class)
+        .toInstance(GROUP_COMMIT.get()
+            ? Optional.of(GROUP_COMMIT_WINDOW.get())
+            : Optional.<Amount<Long, Time>>absent());
 
     bind(new TypeLiteral<Amount<Integer, Data>>() { }).annotatedWith(MaxEntrySize.class)
         .toInstance(MAX_LOG_ENTRY_SIZE.get());
     bind(LogManager.class).in(Singleton.class);
     bind(Boolean.class).annotatedWith(SnapshotSetting.class).toInstance(DEFLATE_SNAPSHOTS.get());
+    bind(Boolean.class).annotatedWith(PipelinedReplay.class).toInstance(PIPELINED_RECOVERY.get());
+    bind(CompressionSettings.class).toInstance(new CompressionSettings(
+        COMPRESSION_CODEC.get() == CompressionCodec.LZ
+            ? EntryCodec.lz()
+            : EntryCodec.deflate(DEFLATE_LEVEL.get()),
+        COMPRESSION_THRESHOLD.get(),
+        COMPRESS_TRANSACTIONS.get()));
 
     bind(LogStorage.class).in(Singleton.class);
     install(CallOrderEnforcingStorage.wrappingModule(LogStorage.class));
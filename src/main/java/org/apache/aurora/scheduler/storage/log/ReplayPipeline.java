@@ -0,0 +1,283 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+import com.google.common.collect.AbstractIterator;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.common.base.Closure;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.scheduler.log.Log.Stream.StreamAccessException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs the stages of log replay on separate threads, handing items between stages through bounded
+ * queues.  Each stage consumes its input in order on a single thread, so the order of items is
+ * preserved end to end and the final stage, which runs on the calling thread, sees the same
+ * sequence a sequential replay would.
+ *
+ * <p>Per-stage throughput is exported as {@code scheduler_log_replay_<stage>_items}, the time the
+ * stage spent working (rather than waiting on its neighbours) as
+ * {@code scheduler_log_replay_<stage>_busy_nanos}, and their ratio as
+ * {@code scheduler_log_replay_<stage>_items_per_sec}.  The stage with the highest busy time is the
+ * one bounding replay speed.
+ *
+ * <p>A pipeline must be {@link #close() closed} once drained to release its threads.
+ */
+class ReplayPipeline implements AutoCloseable {
+
+  /**
+   * A step of the replay pipeline.
+   *
+   * @param <I> The type of items the stage consumes.
+   * @param <O> The type of items the stage produces.
+   */
+  interface Stage<I, O> {
+    /**
+     * Consumes at least one item from the input and transforms it.  Stages that combine several
+     * input items, such as frame decoding, may consume more.
+     *
+     * @param input Stage input, guaranteed to have a next item.
+     * @return The item to hand to the next stage, or {@code null} to hand on nothing.
+     * @throws CodingException If the input could not be decoded.
+     */
+    @Nullable
+    O process(Iterator<I> input) throws CodingException;
+  }
+
+  private final int queueCapacity;
+  private final ExecutorService executor;
+
+  /**
+   * Creates a new pipeline.
+   *
+   * @param queueCapacity Maximum number of items to buffer between two adjacent stages.
+   */
+  ReplayPipeline(int queueCapacity) {
+    checkArgument(queueCapacity > 0);
+    this.queueCapacity = queueCapacity;
+    this.executor = Executors.newCachedThreadPool(
+        new ThreadFactoryBuilder().setNameFormat("LogReplay-%d").setDaemon(true).build());
+  }
+
+  /**
+   * Starts a stage on its own thread.
+   *
+   * @param name Name of the stage, used in exported stats.
+   * @param input Items to process, typically the output of the preceding stage.
+   * @param stage The stage to run.
+   * @param <I> The type of items the stage consumes.
+   * @param <O> The type of items the stage produces.
+   * @return The stage output, which may be handed on to another stage or {@link #drain drained}.
+   */
+  <I, O> Iterator<O> stage(String name, final Iterator<I> input, final Stage<I, O> stage) {
+    checkNotNull(input);
+    checkNotNull(stage);
+
+    final StageStats stats = new StageStats(name);
+    final Handoff<O> output = new Handoff<>(queueCapacity);
+    executor.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          try {
+            O item;
+            while ((item = stats.process(input, stage)) != null || input.hasNext()) {
+              if (item != null) {
+                output.put(item);
+              }
+            }
+            output.end();
+          } catch (StageFailure e) {
+            output.fail(e.getCause());
+          } catch (CodingException | RuntimeException e) {
+            output.fail(e);
+          }
+        } catch (InterruptedException e) {
+          // The pipeline was closed, there is no one left to hand items to.
+        }
+      }
+    });
+    return output;
+  }
+
+  /**
+   * Runs a final stage on the calling thread, handing every item in the input to a sink.
+   *
+   * @param name Name of the stage, used in exported stats.
+   * @param input Items to process, typically the output of the preceding stage.
+   * @param sink Closure to apply to each item.
+   * @param <T> The type of items to drain.
+   * @throws CodingException If any stage failed to decode its input.
+   */
+  <T> void drain(String name, Iterator<T> input, final Closure<T> sink) throws CodingException {
+    StageStats stats = new StageStats(name);
+    Stage<T, T> apply = new Stage<T, T>() {
+      @Override
+      public T process(Iterator<T> items) {
+        T item = items.next();
+        sink.execute(item);
+        return item;
+      }
+    };
+
+    try {
+      while (stats.process(input, apply) != null) {
+        // Items are consumed by the sink.
+      }
+    } catch (StageFailure e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof CodingException) {
+        throw new CodingException("Failed to decode log entry.", cause);
+      } else if (cause instanceof StreamAccessException) {
+        throw new StreamAccessException("Failed to read from the log.", cause);
+      } else {
+        throw new IllegalStateException("Log replay stage failed.", cause);
+      }
+    }
+  }
+
+  @Override
+  public void close() {
+    executor.shutdownNow();
+  }
+
+  private static class StageStats {
+    private final AtomicLong items;
+    private final AtomicLong busyNanos;
+
+    StageStats(String stage) {
+      String prefix = "scheduler_log_replay_" + stage;
+      items = Stats.exportLong(prefix + "_items");
+      busyNanos = Stats.exportLong(prefix + "_busy_nanos");
+      Stats.export(new StatImpl<Double>(prefix + "_items_per_sec") {
+        @Override
+        public Double read() {
+          long nanos = busyNanos.get();
+          return nanos == 0 ? 0.0 : items.get() * 1e9 / nanos;
+        }
+      });
+    }
+
+    /**
+     * Processes the next item of the input if there is one, counting the time spent towards this
+     * stage less any time spent waiting on the preceding stage.
+     */
+    @Nullable
+    <I, O> O process(Iterator<I> input, Stage<I, O> stage) throws CodingException {
+      long startNanos = System.nanoTime();
+      long startWaitNanos = waitNanos(input);
+      try {
+        if (!input.hasNext()) {
+          return null;
+        }
+        O item = stage.process(input);
+        if (item != null) {
+          items.incrementAndGet();
+        }
+        return item;
+      } finally {
+        busyNanos.addAndGet(
+            System.nanoTime() - startNanos - (waitNanos(input) - startWaitNanos));
+      }
+    }
+
+    private static long waitNanos(Iterator<?> input) {
+      return input instanceof Handoff ? ((Handoff<?>) input).waitNanos : 0;
+    }
+  }
+
+  /**
+   * Thrown from a stage's input when the preceding stage failed.
+   */
+  private static class StageFailure extends RuntimeException {
+    StageFailure(Throwable cause) {
+      super(cause);
+    }
+  }
+
+  /**
+   * A bounded queue between two stages, presented to the consuming stage as an iterator.
+   */
+  private static final class Handoff<T> extends AbstractIterator<T> {
+    private static final Object END = new Object();
+
+    private static final class Failure {
+      private final Throwable cause;
+
+      Failure(Throwable cause) {
+        this.cause = cause;
+      }
+    }
+
+    private final BlockingQueue<Object> queue;
+
+    // Only accessed by the consuming thread.
+    private long waitNanos = 0;
+
+    Handoff(int capacity) {
+      queue = new LinkedBlockingQueue<>(capacity);
+    }
+
+    void put(T item) throws InterruptedException {
+      queue.put(item);
+    }
+
+    void end() throws InterruptedException {
+      queue.put(END);
+    }
+
+    void fail(Throwable cause) throws InterruptedException {
+      queue.put(new Failure(cause));
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected T computeNext() {
+      Object next;
+      long startNanos = System.nanoTime();
+      try {
+        next = queue.take();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new StreamAccessException("Interrupted while replaying the log.", e);
+      } finally {
+        waitNanos += System.nanoTime() - startNanos;
+      }
+
+      if (next == END) {
+        return endOfData();
+      } else if (next instanceof Failure) {
+        throw new StageFailure(((Failure) next).cause);
+      } else {
+        return (T) next;
+      }
+    }
+  }
+}
@@ -18,6 +18,7 @@ package org.apache.aurora.scheduler.storage.log;
 import java.util.Arrays;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
@@ -41,10 +42,19 @@ import org.apache.aurora.scheduler.storage.Storage.MutateWork;
 import org.apache.aurora.scheduler.storage.Storage.StoreProvider;
 import org.apache.aurora.scheduler.storage.Storage.Volatile;
 import org.apache.aurora.scheduler.storage.Storage.Work;
+import org.apache.aurora.scheduler.storage.StreamingSnapshotStore;
 import org.apache.aurora.scheduler.storage.entities.IJobConfiguration;
 import org.apache.aurora.scheduler.storage.entities.ILock;
 import org.apache.aurora.scheduler.storage.entities.IQuota;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TException;
+import org.apache.thrift.meta_data.FieldValueMetaData;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TSet;
+import org.apache.thrift.protocol.TStruct;
+import org.apache.thrift.protocol.TType;
 
 import static com.google.common.base.Preconditions.checkNotNull;
 
@@ -54,10 +64,12 @@ import static org.apache.aurora.gen.apiConstants.CURRENT_API_VERSION;
  * Snapshot store implementation that delegates to underlying snapshot stores by
  * extracting/applying fields in a snapshot thrift struct.
  */
-public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
+public class SnapshotStoreImpl implements SnapshotStore<Snapshot>, StreamingSnapshotStore {
 
   private static final Logger LOG = Logger.getLogger(SnapshotStoreImpl.class.getName());
 
+  private static final TStruct SNAPSHOT_STRUCT = new TStruct("Snapshot");
+
   private static final SnapshotField ATTRIBUTE_FIELD = new SnapshotField() {
     @Override
     public void saveToSnapshot(StoreProvider storeProvider, Snapshot snapshot) {
@@ -76,25 +88,27 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
     }
   };
 
-  private static final Iterable<SnapshotField> SNAPSHOT_FIELDS = Arrays.asList(
-      ATTRIBUTE_FIELD,
-      new SnapshotField() {
-        @Override
-        public void saveToSnapshot(StoreProvider store, Snapshot snapshot) {
-          snapshot.setTasks(
-              IScheduledTask.toBuildersSet(store.getTaskStore().fetchTasks(Query.unscoped())));
-        }
+  private static final SnapshotField TASK_FIELD = new SnapshotField() {
+    @Override
+    public void saveToSnapshot(StoreProvider store, Snapshot snapshot) {
+      snapshot.setTasks(
+          IScheduledTask.toBuildersSet(store.getTaskStore().fetchTasks(Query.unscoped())));
+    }
 
-        @Override
-        public void restoreFromSnapshot(MutableStoreProvider store, Snapshot snapshot) {
-          store.getUnsafeTaskStore().deleteAllTasks();
+    @Override
+    public void restoreFromSnapshot(MutableStoreProvider store, Snapshot snapshot) {
+      store.getUnsafeTaskStore().deleteAllTasks();
 
-          if (snapshot.isSetTasks()) {
-            store.getUnsafeTaskStore().saveTasks(
-                IScheduledTask.setFromBuilders(snapshot.getTasks()));
-          }
-        }
-      },
+      if (snapshot.isSetTasks()) {
+        store.getUnsafeTaskStore().saveTasks(
+            IScheduledTask.setFromBuilders(snapshot.getTasks()));
+      }
+    }
+  };
+
+  private static final Iterable<SnapshotField> SNAPSHOT_FIELDS = Arrays.asList(
+      ATTRIBUTE_FIELD,
+      TASK_FIELD,
       new SnapshotField() {
         @Override
         public void saveToSnapshot(StoreProvider store, Snapshot snapshot) {
@@ -216,6 +230,86 @@ public class SnapshotStoreImpl implements SnapshotStore<Snapshot> {
     });
   }
 
+  @Timed("snapshot_write")
+  @Override
+  public void writeSnapshot(final TProtocol protocol) throws TException {
+    checkNotNull(protocol);
+
+    storage.consistentRead(new Work<Void, TException>() {
+      @Override
+      public Void apply(StoreProvider storeProvider) throws TException {
+        long timestamp = clock.nowMillis();
+        protocol.writeStructBegin(SNAPSHOT_STRUCT);
+
+        // Tasks dominate the size of a snapshot, so rather than copying them all into a Snapshot
+        // they are copied and written one at a time.  The remaining stores are small enough to be
+        // written from a partial Snapshot holding one store at a time.
+        for (SnapshotField field : SNAPSHOT_FIELDS) {
+          if (field == TASK_FIELD) {
+            writeTasks(protocol, storeProvider.getTaskStore().fetchTasks(Query.unscoped()));
+          } else {
+            Snapshot partial = new Snapshot();
+            field.saveToSnapshot(storeProvider, partial);
+            writeFields(protocol, partial);
+          }
+        }
+        writeFields(protocol, new Snapshot().setTimestamp(timestamp));
+
+        protocol.writeFieldStop();
+        protocol.writeStructEnd();
+        return null;
+      }
+    });
+  }
+
+  private static void writeTasks(TProtocol protocol, Set<IScheduledTask> tasks)
+      throws TException {
+
+    Snapshot._Fields field = Snapshot._Fields.TASKS;
+    protocol.writeFieldBegin(new TField(field.getFieldName(), TType.SET, field.getThriftFieldId()));
+    protocol.writeSetBegin(new TSet(TType.STRUCT, tasks.size()));
+    for (IScheduledTask task : tasks) {
+      task.newBuilder().write(protocol);
+    }
+    protocol.writeSetEnd();
+    protocol.writeFieldEnd();
+  }
+
+  private static void writeFields(TProtocol protocol, Snapshot partial) throws TException {
+    for (Snapshot._Fields field : Snapshot._Fields.values()) {
+      if (!partial.isSet(field)) {
+        continue;
+      }
+
+      FieldValueMetaData type = Snapshot.metaDataMap.get(field).valueMetaData;
+      Object value = partial.getFieldValue(field);
+      protocol.writeFieldBegin(
+          new TField(field.getFieldName(), type.type, field.getThriftFieldId()));
+      switch (type.type) {
+        case TType.I64:
+          protocol.writeI64((Long) value);
+          break;
+
+        case TType.STRUCT:
+          ((TBase<?, ?>) value).write(protocol);
+          break;
+
+        case TType.SET:
+          Set<?> elements = (Set<?>) value;
+          protocol.writeSetBegin(new TSet(TType.STRUCT, elements.size()));
+          for (Object element : elements) {
+            ((TBase<?, ?>) element).write(protocol);
+          }
+          protocol.writeSetEnd();
+          break;
+
+        default:
+          throw new IllegalStateException("Unsupported snapshot field type: " + field);
+      }
+      protocol.writeFieldEnd();
+    }
+  }
+
   @Timed("snapshot_apply")
   @Override
   public void applySnapshot(final Snapshot snapshot) {
@@ -19,6 +19,8 @@ import javax.inject.Singleton;
 
 import com.google.inject.Key;
 import com.google.inject.PrivateModule;
+import com.twitter.common.args.Arg;
+import com.twitter.common.args.CmdLine;
 import com.twitter.common.inject.Bindings.KeyFactory;
 
 import org.apache.aurora.scheduler.storage.AttributeStore;
@@ -48,9 +50,17 @@ import static com.google.common.base.Preconditions.checkNotNull;
  *       <li>{@link org.apache.aurora.scheduler.storage.AttributeStore}</li>
  *     </ul>
  * </ul>
+ * When {@code -mvcc_storage} is set, the multi-version {@link MvccStorage} is bound in place of
+ * {@link MemStorage}, allowing reads to proceed against a committed snapshot without contending
+ * with writers.
  */
 public final class MemStorageModule extends PrivateModule {
 
+  @CmdLine(name = "mvcc_storage",
+           help = "Whether to use multi-version in-memory storage, which serves reads from an "
+                  + "immutable snapshot rather than blocking on a global lock.")
+  private static final Arg<Boolean> MVCC_STORAGE = Arg.create(false);
+
   private final KeyFactory keyFactory;
 
   public MemStorageModule(KeyFactory keyFactory) {
@@ -65,15 +75,32 @@ public final class MemStorageModule extends PrivateModule {
     expose(key);
   }
 
-  @Override
-  protected void configure() {
+  private void bindStorage(Class<? extends Storage> impl) {
     Key<Storage> storageKey = keyFactory.create(Storage.class);
-    bind(storageKey).to(MemStorage.class);
+    bind(storageKey).to(impl);
     expose(storageKey);
     Key<Storage> exposedMemStorageKey = Key.get(Storage.class, Volatile.class);
-    bind(exposedMemStorageKey).to(MemStorage.class);
+    bind(exposedMemStorageKey).to(impl);
     expose(exposedMemStorageKey);
-    bind(MemStorage.class).in(Singleton.class);
+    bind(impl).in(Singleton.class);
+  }
+
+  @Override
+  protected void configure() {
+    if (MVCC_STORAGE.get()) {
+      bindStorage(MvccStorage.class);
+      bind(MvccStorage.Versions.class).in(Singleton.class);
+
+      bindStore(SchedulerStore.Mutable.class, MvccStorage.SchedulerStoreImpl.class);
+      bindStore(JobStore.Mutable.class, MvccStorage.JobStoreImpl.class);
+      bindStore(TaskStore.Mutable.class, MvccStorage.TaskStoreImpl.class);
+      bindStore(LockStore.Mutable.class, MvccStorage.LockStoreImpl.class);
+      bindStore(QuotaStore.Mutable.class, MvccStorage.QuotaStoreImpl.class);
+      bindStore(AttributeStore.Mutable.class, MvccStorage.AttributeStoreImpl.class);
+      return;
+    }
+
+    bindStorage(MemStorage.class);
 
     bindStore(SchedulerStore.Mutable.class, MemSchedulerStore.class);
     bindStore(JobStore.Mutable.class, MemJobStore.class);
@@ -22,8 +22,9 @@ import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
 import com.google.common.base.Function;
-import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
@@ -33,17 +34,22 @@ import com.google.common.collect.HashMultimap;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.collect.Multimap;
 import com.google.common.collect.Multimaps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.SetMultimap;
+import com.google.common.collect.Sets;
 import com.twitter.common.args.Arg;
 import com.twitter.common.args.CmdLine;
 import com.twitter.common.base.MorePreconditions;
+import com.twitter.common.collections.Pair;
 import com.twitter.common.inject.TimedInterceptor.Timed;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.stats.Stats;
 
+import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.gen.TaskConfig;
 import org.apache.aurora.gen.TaskQuery;
@@ -72,21 +78,87 @@ class MemTaskStore implements TaskStore.Mutable {
 
   private final long slowQueryThresholdNanos = SLOW_QUERY_LOG_THRESHOLD.get().as(Time.NANOSECONDS);
 
-  private static final Function<Query.Builder, Optional<IJobKey>> QUERY_TO_JOB_KEY =
-      new Function<Query.Builder, Optional<IJobKey>>() {
+  private static final Function<Query.Builder, Optional<Set<IJobKey>>> QUERY_TO_JOB_KEY =
+      new Function<Query.Builder, Optional<Set<IJobKey>>>() {
+        @Override
+        public Optional<Set<IJobKey>> apply(Query.Builder query) {
+          return JobKeys.from(query).transform(MemTaskStore.<IJobKey>singleton());
+        }
+      };
+  private static final Function<Query.Builder, Optional<Set<String>>> QUERY_TO_SLAVE_HOST =
+      new Function<Query.Builder, Optional<Set<String>>>() {
         @Override
-        public Optional<IJobKey> apply(Query.Builder query) {
-          return JobKeys.from(query);
+        public Optional<Set<String>> apply(Query.Builder query) {
+          return Optional.fromNullable(query.get().getSlaveHost())
+              .transform(MemTaskStore.<String>singleton());
         }
       };
-  private static final Function<Query.Builder, Optional<String>> QUERY_TO_SLAVE_HOST =
-      new Function<Query.Builder, Optional<String>>() {
+  private static final Function<Query.Builder, Optional<Set<String>>> QUERY_TO_ROLE =
+      new Function<Query.Builder, Optional<Set<String>>>() {
         @Override
-        public Optional<String> apply(Query.Builder query) {
-          return Optional.fromNullable(query.get().getSlaveHost());
+        public Optional<Set<String>> apply(Query.Builder query) {
+          TaskQuery taskQuery = query.get();
+          if ((taskQuery.getOwner() == null)
+              || StringUtils.isBlank(taskQuery.getOwner().getRole())) {
+
+            return Optional.absent();
+          }
+          return Optional.<Set<String>>of(ImmutableSet.of(taskQuery.getOwner().getRole()));
+        }
+      };
+  private static final Function<Query.Builder, Optional<Set<Pair<String, String>>>>
+      QUERY_TO_ROLE_ENV = new Function<Query.Builder, Optional<Set<Pair<String, String>>>>() {
+        @Override
+        public Optional<Set<Pair<String, String>>> apply(Query.Builder query) {
+          TaskQuery taskQuery = query.get();
+          if ((taskQuery.getOwner() == null)
+              || StringUtils.isBlank(taskQuery.getOwner().getRole())
+              || (taskQuery.getEnvironment() == null)) {
+
+            return Optional.absent();
+          }
+          return Optional.<Set<Pair<String, String>>>of(ImmutableSet.of(
+              Pair.of(taskQuery.getOwner().getRole(), taskQuery.getEnvironment())));
+        }
+      };
+  private static final Function<Query.Builder, Optional<Set<ScheduleStatus>>> QUERY_TO_STATUS =
+      new Function<Query.Builder, Optional<Set<ScheduleStatus>>>() {
+        @Override
+        public Optional<Set<ScheduleStatus>> apply(Query.Builder query) {
+          TaskQuery taskQuery = query.get();
+          // An empty status set is treated as unscoped by the query filter.
+          if (taskQuery.getStatusesSize() == 0) {
+            return Optional.absent();
+          }
+          return Optional.<Set<ScheduleStatus>>of(ImmutableSet.copyOf(taskQuery.getStatuses()));
         }
       };
 
+  private static final Function<IScheduledTask, String> SCHEDULED_TO_ROLE =
+      new Function<IScheduledTask, String>() {
+        @Override
+        public String apply(IScheduledTask task) {
+          return Tasks.getRole(task);
+        }
+      };
+  private static final Function<IScheduledTask, Pair<String, String>> SCHEDULED_TO_ROLE_ENV =
+      new Function<IScheduledTask, Pair<String, String>>() {
+        @Override
+        public Pair<String, String> apply(IScheduledTask task) {
+          ITaskConfig config = task.getAssignedTask().getTask();
+          return Pair.of(config.getOwner().getRole(), config.getEnvironment());
+        }
+      };
+
+  private static <T> Function<T, Set<T>> singleton() {
+    return new Function<T, Set<T>>() {
+      @Override
+      public Set<T> apply(T item) {
+        return ImmutableSet.of(item);
+      }
+    };
+  }
+
   // Since this class operates under the API and umbrella of {@link Storage}, it is expected to be
   // thread-safe but not necessarily strongly-consistent unless the externally-controlled storage
   // lock is secured.  To adhere to that, these data structures are individually thread-safe, but
@@ -96,16 +168,17 @@ class MemTaskStore implements TaskStore.Mutable {
   // support the invariant that a query by slave host yields a result with all tasks matching that
   // slave host.  This is deemed acceptable due to the fact that secondary key values are rarely
   // mutated in practice, and mutated in ways that are not impacted by this behavior.
-  private final Map<String, Task> tasks = Maps.newConcurrentMap();
+  // Tasks are partitioned by whether they are in a terminal state, so that queries for active
+  // tasks need not enumerate the (typically much larger) retained task history.  A task is only
+  // ever present in one partition once a mutation completes.
+  private final Map<String, Task> liveTasks = Maps.newConcurrentMap();
+  private final Map<String, Task> terminalTasks = Maps.newConcurrentMap();
   private final List<SecondaryIndex<?>> secondaryIndices = ImmutableList.of(
-      new SecondaryIndex<>(
-          Tasks.SCHEDULED_TO_JOB_KEY,
-          QUERY_TO_JOB_KEY,
-          Stats.exportLong("task_queries_by_job")),
-      new SecondaryIndex<>(
-          Tasks.SCHEDULED_TO_SLAVE_HOST,
-          QUERY_TO_SLAVE_HOST,
-          Stats.exportLong("task_queries_by_host")));
+      new SecondaryIndex<>(Tasks.SCHEDULED_TO_JOB_KEY, QUERY_TO_JOB_KEY, "job"),
+      new SecondaryIndex<>(Tasks.SCHEDULED_TO_SLAVE_HOST, QUERY_TO_SLAVE_HOST, "host"),
+      new SecondaryIndex<>(SCHEDULED_TO_ROLE_ENV, QUERY_TO_ROLE_ENV, "role_env"),
+      new SecondaryIndex<>(SCHEDULED_TO_ROLE, QUERY_TO_ROLE, "role"),
+      new SecondaryIndex<>(Tasks.GET_STATUS, QUERY_TO_STATUS, "status"));
 
   // An interner is used here to collapse equivalent TaskConfig instances into canonical instances.
   // Ideally this would fall out of the object hierarchy (TaskConfig being associated with the job
@@ -114,6 +187,15 @@ class MemTaskStore implements TaskStore.Mutable {
 
   private final AtomicLong taskQueriesById = Stats.exportLong("task_queries_by_id");
   private final AtomicLong taskQueriesAll = Stats.exportLong("task_queries_all");
+  private final AtomicLong taskQueriesIntersected = Stats.exportLong("task_queries_intersected");
+  private final AtomicLong taskQueriesLive = Stats.exportLong("task_queries_live_partition");
+  private final AtomicLong taskQueriesTerminal =
+      Stats.exportLong("task_queries_terminal_partition");
+
+  MemTaskStore() {
+    Stats.exportSize("task_store_live_tasks", liveTasks);
+    Stats.exportSize("task_store_terminal_tasks", terminalTasks);
+  }
 
   @Timed("mem_storage_fetch_tasks")
   @Override
@@ -147,8 +229,15 @@ class MemTaskStore implements TaskStore.Mutable {
     Preconditions.checkState(Tasks.ids(newTasks).size() == newTasks.size(),
         "Proposed new tasks would create task ID collision.");
 
-    Iterable<Task> canonicalized = Iterables.transform(newTasks, toTask);
-    tasks.putAll(Maps.uniqueIndex(canonicalized, TO_ID));
+    List<Task> canonicalized = ImmutableList.copyOf(Iterables.transform(newTasks, toTask));
+    for (Task replaced : fromIdIndex(Tasks.ids(newTasks))) {
+      for (SecondaryIndex<?> index : secondaryIndices) {
+        index.remove(replaced.task);
+      }
+    }
+    for (Task task : canonicalized) {
+      putTask(task);
+    }
     for (SecondaryIndex<?> index : secondaryIndices) {
       index.insert(Iterables.transform(canonicalized, TO_SCHEDULED));
     }
@@ -157,7 +246,8 @@ class MemTaskStore implements TaskStore.Mutable {
   @Timed("mem_storage_delete_all_tasks")
   @Override
   public void deleteAllTasks() {
-    tasks.clear();
+    liveTasks.clear();
+    terminalTasks.clear();
     for (SecondaryIndex<?> index : secondaryIndices) {
       index.clear();
     }
@@ -170,7 +260,7 @@ class MemTaskStore implements TaskStore.Mutable {
     checkNotNull(taskIds);
 
     for (String id : taskIds) {
-      Task removed = tasks.remove(id);
+      Task removed = removeTask(id);
       if (removed != null) {
         for (SecondaryIndex<?> index : secondaryIndices) {
           index.remove(removed.task);
@@ -196,7 +286,7 @@ class MemTaskStore implements TaskStore.Mutable {
         Preconditions.checkState(
             Tasks.id(original.task).equals(Tasks.id(maybeMutated)),
             "A task's ID may not be mutated.");
-        tasks.put(Tasks.id(maybeMutated), toTask.apply(maybeMutated));
+        putTask(toTask.apply(maybeMutated));
         for (SecondaryIndex<?> index : secondaryIndices) {
           index.replace(original.task, maybeMutated);
         }
@@ -214,106 +304,159 @@ class MemTaskStore implements TaskStore.Mutable {
     MorePreconditions.checkNotBlank(taskId);
     checkNotNull(taskConfiguration);
 
-    Task stored = tasks.get(taskId);
+    Task stored = getTask(taskId);
     if (stored == null) {
       return false;
     } else {
       ScheduledTask updated = stored.task.newBuilder();
       updated.getAssignedTask().setTask(taskConfiguration.newBuilder());
-      tasks.put(taskId, toTask.apply(IScheduledTask.build(updated)));
+      putTask(toTask.apply(IScheduledTask.build(updated)));
       return true;
     }
   }
 
-  private static Predicate<Task> queryFilter(final TaskQuery query) {
-    return new Predicate<Task>() {
-      @Override
-      public boolean apply(Task canonicalTask) {
-        IScheduledTask task = canonicalTask.task;
-        ITaskConfig config = task.getAssignedTask().getTask();
-        if (query.getOwner() != null) {
-          if (!StringUtils.isBlank(query.getOwner().getRole())) {
-            if (!query.getOwner().getRole().equals(config.getOwner().getRole())) {
-              return false;
-            }
-          }
-          if (!StringUtils.isBlank(query.getOwner().getUser())) {
-            if (!query.getOwner().getUser().equals(config.getOwner().getUser())) {
-              return false;
-            }
-          }
-        }
-        if (query.getEnvironment() != null) {
-          if (!query.getEnvironment().equals(config.getEnvironment())) {
-            return false;
-          }
-        }
-        if (query.getJobName() != null) {
-          if (!query.getJobName().equals(config.getJobName())) {
-            return false;
-          }
-        }
+  private Map<String, Task> partitionFor(IScheduledTask task) {
+    return Tasks.isTerminated(task.getStatus()) ? terminalTasks : liveTasks;
+  }
 
-        if (query.getTaskIds() != null) {
-          if (!query.getTaskIds().contains(Tasks.id(task))) {
-            return false;
-          }
-        }
+  @Nullable
+  private Task getTask(String taskId) {
+    Task task = liveTasks.get(taskId);
+    return (task == null) ? terminalTasks.get(taskId) : task;
+  }
 
-        if (query.getStatusesSize() > 0) {
-          if (!query.getStatuses().contains(task.getStatus())) {
-            return false;
-          }
-        }
-        if (!StringUtils.isEmpty(query.getSlaveHost())) {
-          if (!query.getSlaveHost().equals(task.getAssignedTask().getSlaveHost())) {
-            return false;
-          }
-        }
-        if (query.getInstanceIdsSize() > 0) {
-          if (!query.getInstanceIds().contains(task.getAssignedTask().getInstanceId())) {
-            return false;
-          }
-        }
+  private void putTask(Task task) {
+    String taskId = Tasks.id(task.task);
+    Map<String, Task> partition = partitionFor(task.task);
+    partition.put(taskId, task);
+    // Moving between partitions happens on a transition to (or, for overwrites, from) a terminal
+    // state.  Removal from the other partition follows insertion so that a concurrent ID lookup
+    // never misses the task.
+    if (partition == liveTasks) {
+      terminalTasks.remove(taskId);
+    } else {
+      liveTasks.remove(taskId);
+    }
+  }
 
-        return true;
-      }
-    };
+  @Nullable
+  private Task removeTask(String taskId) {
+    Task removed = liveTasks.remove(taskId);
+    return (removed == null) ? terminalTasks.remove(taskId) : removed;
   }
 
+  private final Function<String, Task> getTask = new Function<String, Task>() {
+    @Override
+    public Task apply(String taskId) {
+      return getTask(taskId);
+    }
+  };
+
   private Iterable<Task> fromIdIndex(Iterable<String> taskIds) {
     return FluentIterable.from(taskIds)
-        .transform(Functions.forMap(tasks, null))
+        .transform(getTask)
         .filter(Predicates.notNull())
         .toList();
   }
 
+  /**
+   * Determines the partitions that may contain tasks matching a query's status filter.
+   *
+   * @param query Query to find partitions for.
+   * @return Partitions that must be scanned to satisfy the query.
+   */
+  private List<Map<String, Task>> partitionsFor(TaskQuery query) {
+    if (query.getStatusesSize() == 0) {
+      return ImmutableList.of(liveTasks, terminalTasks);
+    }
+
+    boolean live = false;
+    boolean terminal = false;
+    for (ScheduleStatus status : query.getStatuses()) {
+      if (Tasks.isTerminated(status)) {
+        terminal = true;
+      } else {
+        live = true;
+      }
+    }
+
+    ImmutableList.Builder<Map<String, Task>> partitions = ImmutableList.builder();
+    if (live) {
+      partitions.add(liveTasks);
+    }
+    if (terminal) {
+      partitions.add(terminalTasks);
+    }
+    return partitions.build();
+  }
+
   private FluentIterable<Task> matches(Query.Builder query) {
     // Apply the query against the working set.
-    Optional<? extends Iterable<Task>> from = Optional.absent();
-    if (query.get().isSetTaskIds()) {
+    TaskQuery taskQuery = query.get();
+    Iterable<Task> from;
+    if (taskQuery.isSetTaskIds()) {
       taskQueriesById.incrementAndGet();
-      from = Optional.of(fromIdIndex(query.get().getTaskIds()));
+      from = fromIdIndex(taskQuery.getTaskIds());
     } else {
+      List<Map<String, Task>> partitions = partitionsFor(taskQuery);
+      int scanSize = 0;
+      for (Map<String, Task> partition : partitions) {
+        scanSize += partition.size();
+      }
+
+      List<IndexMatch<?>> indexMatches = Lists.newArrayList();
       for (SecondaryIndex<?> index : secondaryIndices) {
-        Optional<Iterable<String>> indexMatch = index.getMatches(query);
+        Optional<? extends IndexMatch<?>> indexMatch = index.getMatches(query);
         if (indexMatch.isPresent()) {
-          // Note: we could leverage multiple indexes here if the query applies to them, by
-          // choosing to intersect the results.  Given current indexes and query profile, this is
-          // unlikely to offer much improvement, though.
-          from = Optional.of(fromIdIndex(indexMatch.get()));
-          break;
+          indexMatches.add(indexMatch.get());
         }
       }
 
-      // No indices match, fall back to a full scan.
-      if (!from.isPresent()) {
+      if (!indexMatches.isEmpty()
+          && (IndexMatch.BY_COST.min(indexMatches).cost < scanSize)) {
+
+        from = fromIdIndex(intersect(indexMatches));
+      } else if (partitions.size() == 1) {
+        // Scanning a single partition is cheaper than any applicable index.
+        if (partitions.get(0) == liveTasks) {
+          taskQueriesLive.incrementAndGet();
+        } else {
+          taskQueriesTerminal.incrementAndGet();
+        }
+        from = partitions.get(0).values();
+      } else {
+        // No indices match, fall back to a full scan.
         taskQueriesAll.incrementAndGet();
-        from = Optional.of(tasks.values());
+        from = Iterables.concat(liveTasks.values(), terminalTasks.values());
       }
     }
 
-    return FluentIterable.from(from.get()).filter(queryFilter(query.get()));
+    return FluentIterable.from(from)
+        .filter(Predicates.compose(Util.queryFilter(taskQuery), TO_SCHEDULED));
+  }
+
+  /**
+   * Intersects the task IDs yielded by all applicable indices.  The cheapest index drives the
+   * iteration, and the remaining indices are only probed for membership, so the cost of an
+   * intersection is bounded by the size of the most selective index match.
+   *
+   * @param indexMatches Matches from all indices that apply to a query.
+   * @return Task IDs present in every index match.
+   */
+  private Set<String> intersect(List<IndexMatch<?>> indexMatches) {
+    List<IndexMatch<?>> byCost = IndexMatch.BY_COST.sortedCopy(indexMatches);
+    Set<String> ids = byCost.get(0).fetch();
+    if (byCost.size() > 1) {
+      taskQueriesIntersected.incrementAndGet();
+      for (IndexMatch<?> match : byCost.subList(1, byCost.size())) {
+        if (ids.isEmpty()) {
+          break;
+        }
+        ids = Sets.filter(ids, match.containsPredicate());
+      }
+      ids = ImmutableSet.copyOf(ids);
+    }
+    return ids;
   }
 
   private static final Function<Task, IScheduledTask> TO_SCHEDULED =
@@ -324,9 +467,6 @@ class MemTaskStore implements TaskStore.Mutable {
         }
       };
 
-  private static final Function<Task, String> TO_ID =
-      Functions.compose(Tasks.SCHEDULED_TO_ID, TO_SCHEDULED);
-
   private static class Task {
     private final IScheduledTask task;
 
@@ -356,33 +496,75 @@ class MemTaskStore implements TaskStore.Mutable {
     }
   }
 
+  /**
+   * The portion of a secondary index that applies to a query, along with an estimate of how many
+   * task IDs it would yield.
+   */
+  private static class IndexMatch<K> {
+    static final Ordering<IndexMatch<?>> BY_COST = Ordering.<Integer>natural().onResultOf(
+        new Function<IndexMatch<?>, Integer>() {
+          @Override
+          public Integer apply(IndexMatch<?> match) {
+            return match.cost;
+          }
+        });
+
+    private final SecondaryIndex<K> index;
+    private final Set<K> keys;
+    private final int cost;
+
+    IndexMatch(SecondaryIndex<K> index, Set<K> keys, int cost) {
+      this.index = index;
+      this.keys = keys;
+      this.cost = cost;
+    }
+
+    Set<String> fetch() {
+      return index.fetch(keys);
+    }
+
+    Predicate<String> containsPredicate() {
+      return new Predicate<String>() {
+        @Override
+        public boolean apply(String taskId) {
+          return index.contains(keys, taskId);
+        }
+      };
+    }
+  }
+
   /**
    * A non-unique secondary index on the task store.  Maps a custom key type to a set of task IDs.
    *
    * @param <K> Key type.
    */
   private static class SecondaryIndex<K> {
-    private final Multimap<K, String> index =
+    private final SetMultimap<K, String> index =
         Multimaps.synchronizedSetMultimap(HashMultimap.<K, String>create());
     private final Function<IScheduledTask, K> indexer;
-    private final Function<Query.Builder, Optional<K>> queryExtractor;
+    private final Function<Query.Builder, Optional<Set<K>>> queryExtractor;
     private final AtomicLong hitCount;
+    private final AtomicLong missCount;
+    private final AtomicLong scanSize;
 
     /**
      * Creates a secondary index that will extract keys from tasks using the provided indexer.
      *
      * @param indexer Indexing function.
-     * @param queryExtractor Function to extract the key relevant to a query.
-     * @param hitCount Counter for number of times the seconary index applies to a query.
+     * @param queryExtractor Function to extract the keys relevant to a query, which are ORed
+     *                       together.
+     * @param name Name of the index, used to export stats.
      */
     SecondaryIndex(
         Function<IScheduledTask, K> indexer,
-        Function<Query.Builder, Optional<K>> queryExtractor,
-        AtomicLong hitCount) {
+        Function<Query.Builder, Optional<Set<K>>> queryExtractor,
+        String name) {
 
       this.indexer = indexer;
       this.queryExtractor = queryExtractor;
-      this.hitCount = hitCount;
+      this.hitCount = Stats.exportLong("task_queries_by_" + name);
+      this.missCount = Stats.exportLong("task_index_" + name + "_misses");
+      this.scanSize = Stats.exportLong("task_index_" + name + "_scan_size");
     }
 
     void insert(Iterable<IScheduledTask> tasks) {
@@ -405,7 +587,7 @@ class MemTaskStore implements TaskStore.Mutable {
     void remove(IScheduledTask task) {
       K key = indexer.apply(task);
       if (key != null) {
-        index.remove(key, task);
+        index.remove(key, Tasks.id(task));
       }
     }
 
@@ -416,16 +598,42 @@ class MemTaskStore implements TaskStore.Mutable {
       }
     }
 
-    private final Function<K, Iterable<String>> lookup = new Function<K, Iterable<String>>() {
-      @Override
-      public Iterable<String> apply(K key) {
-        hitCount.incrementAndGet();
-        return index.get(key);
+    Set<String> fetch(Set<K> keys) {
+      hitCount.incrementAndGet();
+      ImmutableSet.Builder<String> ids = ImmutableSet.builder();
+      synchronized (index) {
+        for (K key : keys) {
+          ids.addAll(index.get(key));
+        }
+      }
+      Set<String> result = ids.build();
+      scanSize.addAndGet(result.size());
+      return result;
+    }
+
+    boolean contains(Set<K> keys, String taskId) {
+      for (K key : keys) {
+        if (index.containsEntry(key, taskId)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    Optional<IndexMatch<K>> getMatches(Query.Builder query) {
+      Optional<Set<K>> keys = queryExtractor.apply(query);
+      if (!keys.isPresent()) {
+        missCount.incrementAndGet();
+        return Optional.absent();
       }
-    };
 
-    Optional<Iterable<String>> getMatches(Query.Builder query) {
-      return queryExtractor.apply(query).transform(lookup);
+      int cost = 0;
+      synchronized (index) {
+        for (K key : keys.get()) {
+          cost += index.get(key).size();
+        }
+      }
+      return Optional.of(new IndexMatch<>(this, keys.get(), cost));
     }
   }
 }
@@ -0,0 +1,886 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.mem;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import javax.annotation.Nullable;
+import javax.inject.Inject;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Function;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.twitter.common.base.MorePreconditions;
+import com.twitter.common.inject.TimedInterceptor.Timed;
+import com.twitter.common.stats.StatImpl;
+import com.twitter.common.stats.Stats;
+
+import org.apache.aurora.gen.Attribute;
+import org.apache.aurora.gen.HostAttributes;
+import org.apache.aurora.gen.MaintenanceMode;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskQuery;
+import org.apache.aurora.scheduler.base.JobKeys;
+import org.apache.aurora.scheduler.base.Query;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.storage.AttributeStore;
+import org.apache.aurora.scheduler.storage.JobStore;
+import org.apache.aurora.scheduler.storage.LockStore;
+import org.apache.aurora.scheduler.storage.QuotaStore;
+import org.apache.aurora.scheduler.storage.SchedulerStore;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.TaskStore;
+import org.apache.aurora.scheduler.storage.entities.IJobConfiguration;
+import org.apache.aurora.scheduler.storage.entities.IJobKey;
+import org.apache.aurora.scheduler.storage.entities.ILock;
+import org.apache.aurora.scheduler.storage.entities.ILockKey;
+import org.apache.aurora.scheduler.storage.entities.IQuota;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An in-memory storage implementation providing multi-version concurrency control.
+ * <p>
+ * All stored state lives in an immutable {@link Version}, built from persistent maps that share
+ * structure between versions.  Read operations pin the most recently committed version for their
+ * duration and never block, so a long read cannot delay writers.  Write operations are serialized
+ * by a write lock and operate on a private working copy of the state, which is published as a new
+ * version when the outermost write completes.  A write that throws publishes nothing.
+ * <p>
+ * Unlike {@link MemStorage}, {@link #weaklyConsistentRead(Work)} provides the same guarantees as
+ * {@link #consistentRead(Work)}, since a consistent view is available without locking.  Task
+ * configurations are not interned, and host attributes are copied on the way in and out of the
+ * store, since they are mutable thrift structs.
+ */
+public class MvccStorage implements Storage {
+
+  private final Versions versions;
+  private final MutableStoreProvider storeProvider;
+
+  @Inject
+  MvccStorage(
+      Versions versions,
+      final SchedulerStore.Mutable schedulerStore,
+      final JobStore.Mutable jobStore,
+      final TaskStore.Mutable taskStore,
+      final LockStore.Mutable lockStore,
+      final QuotaStore.Mutable quotaStore,
+      final AttributeStore.Mutable attributeStore) {
+
+    this.versions = checkNotNull(versions);
+    storeProvider = new MutableStoreProvider() {
+      @Override
+      public SchedulerStore.Mutable getSchedulerStore() {
+        return schedulerStore;
+      }
+
+      @Override
+      public JobStore.Mutable getJobStore() {
+        return jobStore;
+      }
+
+      @Override
+      public TaskStore getTaskStore() {
+        return taskStore;
+      }
+
+      @Override
+      public TaskStore.Mutable getUnsafeTaskStore() {
+        return taskStore;
+      }
+
+      @Override
+      public LockStore.Mutable getLockStore() {
+        return lockStore;
+      }
+
+      @Override
+      public QuotaStore.Mutable getQuotaStore() {
+        return quotaStore;
+      }
+
+      @Override
+      public AttributeStore.Mutable getAttributeStore() {
+        return attributeStore;
+      }
+    };
+  }
+
+  /**
+   * Creates a new empty multi-version storage for use in testing.
+   */
+  @VisibleForTesting
+  public static MvccStorage newEmptyStorage() {
+    Versions versions = new Versions();
+    return new MvccStorage(
+        versions,
+        new SchedulerStoreImpl(versions),
+        new JobStoreImpl(versions),
+        new TaskStoreImpl(versions),
+        new LockStoreImpl(versions),
+        new QuotaStoreImpl(versions),
+        new AttributeStoreImpl(versions));
+  }
+
+  @Timed("mvcc_storage_consistent_read_operation")
+  @Override
+  public <T, E extends Exception> T consistentRead(Work<T, E> work) throws StorageException, E {
+    checkNotNull(work);
+
+    return versions.read(work, storeProvider);
+  }
+
+  @Timed("mvcc_storage_weakly_consistent_read_operation")
+  @Override
+  public <T, E extends Exception> T weaklyConsistentRead(Work<T, E> work)
+      throws StorageException, E {
+
+    checkNotNull(work);
+
+    return versions.read(work, storeProvider);
+  }
+
+  @Timed("mvcc_storage_write_operation")
+  @Override
+  public <T, E extends Exception> T write(MutateWork<T, E> work) throws StorageException, E {
+    checkNotNull(work);
+
+    return versions.write(work, storeProvider);
+  }
+
+  @Override
+  public void snapshot() {
+    // No-op.
+  }
+
+  /**
+   * An immutable, complete view of stored state.
+   */
+  static final class Version {
+    static final Version EMPTY = new Builder(0).build();
+
+    private final long number;
+    @Nullable private final String frameworkId;
+    private final PersistentMap<String, IScheduledTask> liveTasks;
+    private final PersistentMap<String, IScheduledTask> terminalTasks;
+    private final PersistentMap<IJobKey, PersistentMap<String, IScheduledTask>> tasksByJob;
+    private final PersistentMap<String, PersistentMap<IJobKey, IJobConfiguration>> jobs;
+    private final PersistentMap<ILockKey, ILock> locks;
+    private final PersistentMap<String, IQuota> quotas;
+    private final PersistentMap<String, HostAttributes> attributes;
+
+    private Version(Builder builder) {
+      this.number = builder.number;
+      this.frameworkId = builder.frameworkId;
+      this.liveTasks = builder.liveTasks;
+      this.terminalTasks = builder.terminalTasks;
+      this.tasksByJob = builder.tasksByJob;
+      this.jobs = builder.jobs;
+      this.locks = builder.locks;
+      this.quotas = builder.quotas;
+      this.attributes = builder.attributes;
+    }
+
+    long getNumber() {
+      return number;
+    }
+
+    @Nullable
+    IScheduledTask getTask(String taskId) {
+      IScheduledTask task = liveTasks.get(taskId);
+      return (task == null) ? terminalTasks.get(taskId) : task;
+    }
+
+    private final Function<String, IScheduledTask> getTask =
+        new Function<String, IScheduledTask>() {
+          @Override
+          public IScheduledTask apply(String taskId) {
+            return getTask(taskId);
+          }
+        };
+
+    /**
+     * Finds the smallest set of stored tasks that is guaranteed to contain all matches of a
+     * query.
+     */
+    Iterable<IScheduledTask> candidates(Query.Builder query) {
+      TaskQuery taskQuery = query.get();
+      if (taskQuery.isSetTaskIds()) {
+        return FluentIterable.from(taskQuery.getTaskIds())
+            .transform(getTask)
+            .filter(Predicates.notNull());
+      }
+
+      Optional<IJobKey> jobKey = JobKeys.from(query);
+      if (jobKey.isPresent()) {
+        PersistentMap<String, IScheduledTask> jobTasks = tasksByJob.get(jobKey.get());
+        return (jobTasks == null) ? ImmutableList.<IScheduledTask>of() : jobTasks.values();
+      }
+
+      if (taskQuery.getStatusesSize() == 0) {
+        return Iterables.concat(liveTasks.values(), terminalTasks.values());
+      }
+      boolean live = false;
+      boolean terminal = false;
+      for (ScheduleStatus status : taskQuery.getStatuses()) {
+        if (Tasks.isTerminated(status)) {
+          terminal = true;
+        } else {
+          live = true;
+        }
+      }
+      if (live && terminal) {
+        return Iterables.concat(liveTasks.values(), terminalTasks.values());
+      }
+      return live ? liveTasks.values() : terminalTasks.values();
+    }
+
+    Builder toBuilder(long newNumber) {
+      Builder builder = new Builder(newNumber);
+      builder.frameworkId = frameworkId;
+      builder.liveTasks = liveTasks;
+      builder.terminalTasks = terminalTasks;
+      builder.tasksByJob = tasksByJob;
+      builder.jobs = jobs;
+      builder.locks = locks;
+      builder.quotas = quotas;
+      builder.attributes = attributes;
+      return builder;
+    }
+
+    /**
+     * A mutable working copy of a version, used by a write operation in progress.
+     */
+    static final class Builder {
+      private final long number;
+      @Nullable private String frameworkId;
+      private PersistentMap<String, IScheduledTask> liveTasks = PersistentMap.empty();
+      private PersistentMap<String, IScheduledTask> terminalTasks = PersistentMap.empty();
+      private PersistentMap<IJobKey, PersistentMap<String, IScheduledTask>> tasksByJob =
+          PersistentMap.empty();
+      private PersistentMap<String, PersistentMap<IJobKey, IJobConfiguration>> jobs =
+          PersistentMap.empty();
+      private PersistentMap<ILockKey, ILock> locks = PersistentMap.empty();
+      private PersistentMap<String, IQuota> quotas = PersistentMap.empty();
+      private PersistentMap<String, HostAttributes> attributes = PersistentMap.empty();
+
+      private Builder(long number) {
+        this.number = number;
+      }
+
+      Version build() {
+        return new Version(this);
+      }
+
+      void putTask(IScheduledTask task) {
+        String taskId = Tasks.id(task);
+        removeTask(taskId);
+
+        if (Tasks.isTerminated(task.getStatus())) {
+          terminalTasks = terminalTasks.plus(taskId, task);
+        } else {
+          liveTasks = liveTasks.plus(taskId, task);
+        }
+        IJobKey jobKey = Tasks.SCHEDULED_TO_JOB_KEY.apply(task);
+        PersistentMap<String, IScheduledTask> jobTasks = tasksByJob.get(jobKey);
+        if (jobTasks == null) {
+          jobTasks = PersistentMap.empty();
+        }
+        tasksByJob = tasksByJob.plus(jobKey, jobTasks.plus(taskId, task));
+      }
+
+      @Nullable
+      IScheduledTask removeTask(String taskId) {
+        IScheduledTask removed = liveTasks.get(taskId);
+        if (removed != null) {
+          liveTasks = liveTasks.minus(taskId);
+        } else {
+          removed = terminalTasks.get(taskId);
+          if (removed == null) {
+            return null;
+          }
+          terminalTasks = terminalTasks.minus(taskId);
+        }
+
+        IJobKey jobKey = Tasks.SCHEDULED_TO_JOB_KEY.apply(removed);
+        PersistentMap<String, IScheduledTask> jobTasks = tasksByJob.get(jobKey).minus(taskId);
+        tasksByJob = jobTasks.isEmpty()
+            ? tasksByJob.minus(jobKey)
+            : tasksByJob.plus(jobKey, jobTasks);
+        return removed;
+      }
+    }
+  }
+
+  /**
+   * Tracks the committed version, and the working copy of the write operation in progress.
+   */
+  static class Versions {
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ThreadLocal<Version> pinned = new ThreadLocal<>();
+    private final AtomicLong writeLockWaitNanos = Stats.exportLong("mvcc_write_lock_wait_nanos");
+    private final AtomicLong rolledBackWrites = Stats.exportLong("mvcc_rolled_back_writes");
+
+    private volatile Version committed = Version.EMPTY;
+
+    // Only accessed by the thread holding writeLock.
+    @Nullable private Version.Builder working;
+
+    @Inject
+    Versions() {
+      Stats.export(new StatImpl<Long>("mvcc_storage_version") {
+        @Override
+        public Long read() {
+          return committed.getNumber();
+        }
+      });
+      Stats.export(new StatImpl<Integer>("mvcc_write_lock_threads_waiting") {
+        @Override
+        public Integer read() {
+          return writeLock.getQueueLength();
+        }
+      });
+    }
+
+    /**
+     * Gets the version visible to the calling thread: the working copy if the thread is writing,
+     * the version pinned by an enclosing read operation, or else the latest committed version.
+     *
+     * @return The state visible to the caller.
+     */
+    Version current() {
+      if (writeLock.isHeldByCurrentThread()) {
+        return working.build();
+      }
+      Version version = pinned.get();
+      return (version == null) ? committed : version;
+    }
+
+    <T, E extends Exception> T read(Work<T, E> work, StoreProvider storeProvider) throws E {
+      if (writeLock.isHeldByCurrentThread() || (pinned.get() != null)) {
+        return work.apply(storeProvider);
+      }
+
+      pinned.set(committed);
+      try {
+        return work.apply(storeProvider);
+      } finally {
+        pinned.remove();
+      }
+    }
+
+    <T, E extends Exception> T write(MutateWork<T, E> work, MutableStoreProvider storeProvider)
+        throws E {
+
+      begin();
+      boolean success = false;
+      try {
+        T result = work.apply(storeProvider);
+        success = true;
+        return result;
+      } finally {
+        end(success);
+      }
+    }
+
+    /**
+     * Applies a mutation to the working copy, committing it immediately if the caller is not
+     * already within a write operation.
+     */
+    <T> T mutate(Function<Version.Builder, T> mutation) {
+      Version.Builder state = begin();
+      boolean success = false;
+      try {
+        T result = mutation.apply(state);
+        success = true;
+        return result;
+      } finally {
+        end(success);
+      }
+    }
+
+    private Version.Builder begin() {
+      Preconditions.checkState(pinned.get() == null,
+          "A read operation may not be upgraded to a write operation.");
+
+      long lockStartNanos = System.nanoTime();
+      writeLock.lock();
+      if (writeLock.getHoldCount() == 1) {
+        writeLockWaitNanos.addAndGet(System.nanoTime() - lockStartNanos);
+        working = committed.toBuilder(committed.getNumber() + 1);
+      }
+      return working;
+    }
+
+    private void end(boolean success) {
+      try {
+        if (writeLock.getHoldCount() == 1) {
+          if (success) {
+            committed = working.build();
+          } else {
+            rolledBackWrites.incrementAndGet();
+          }
+          working = null;
+        }
+      } finally {
+        writeLock.unlock();
+      }
+    }
+  }
+
+  /**
+   * A scheduler store backed by the versioned state.
+   */
+  static class SchedulerStoreImpl implements SchedulerStore.Mutable {
+    private final Versions versions;
+
+    @Inject
+    SchedulerStoreImpl(Versions versions) {
+      this.versions = checkNotNull(versions);
+    }
+
+    @Override
+    public void saveFrameworkId(final String frameworkId) {
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          state.frameworkId = frameworkId;
+          return null;
+        }
+      });
+    }
+
+    @Nullable
+    @Override
+    public String fetchFrameworkId() {
+      return versions.current().frameworkId;
+    }
+  }
+
+  /**
+   * A job store backed by the versioned state.
+   */
+  static class JobStoreImpl implements JobStore.Mutable {
+    private final Versions versions;
+
+    @Inject
+    JobStoreImpl(Versions versions) {
+      this.versions = checkNotNull(versions);
+    }
+
+    @Override
+    public void saveAcceptedJob(final String managerId, final IJobConfiguration jobConfig) {
+      checkNotNull(managerId);
+      checkNotNull(jobConfig);
+
+      final IJobKey key = JobKeys.assertValid(jobConfig.getKey());
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          PersistentMap<IJobKey, IJobConfiguration> managerJobs = state.jobs.get(managerId);
+          if (managerJobs == null) {
+            managerJobs = PersistentMap.empty();
+          }
+          state.jobs = state.jobs.plus(managerId, managerJobs.plus(key, jobConfig));
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void removeJob(final IJobKey jobKey) {
+      checkNotNull(jobKey);
+
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          for (Map.Entry<String, PersistentMap<IJobKey, IJobConfiguration>> manager
+              : state.jobs.entries()) {
+
+            state.jobs = state.jobs.plus(manager.getKey(), manager.getValue().minus(jobKey));
+          }
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void deleteJobs() {
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          state.jobs = PersistentMap.empty();
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public Iterable<IJobConfiguration> fetchJobs(String managerId) {
+      checkNotNull(managerId);
+
+      PersistentMap<IJobKey, IJobConfiguration> managerJobs =
+          versions.current().jobs.get(managerId);
+      return (managerJobs == null)
+          ? ImmutableSet.<IJobConfiguration>of()
+          : ImmutableSet.copyOf(managerJobs.values());
+    }
+
+    @Override
+    public Optional<IJobConfiguration> fetchJob(String managerId, IJobKey jobKey) {
+      checkNotNull(managerId);
+      checkNotNull(jobKey);
+
+      PersistentMap<IJobKey, IJobConfiguration> managerJobs =
+          versions.current().jobs.get(managerId);
+      return (managerJobs == null)
+          ? Optional.<IJobConfiguration>absent()
+          : Optional.fromNullable(managerJobs.get(jobKey));
+    }
+
+    @Override
+    public Set<String> fetchManagerIds() {
+      return ImmutableSet.copyOf(versions.current().jobs.keys());
+    }
+  }
+
+  /**
+   * A task store backed by the versioned state.
+   */
+  static class TaskStoreImpl implements TaskStore.Mutable {
+    private final Versions versions;
+
+    @Inject
+    TaskStoreImpl(Versions versions) {
+      this.versions = checkNotNull(versions);
+    }
+
+    @Timed("mvcc_storage_fetch_tasks")
+    @Override
+    public ImmutableSet<IScheduledTask> fetchTasks(Query.Builder query) {
+      checkNotNull(query);
+
+      return FluentIterable.from(versions.current().candidates(query))
+          .filter(Util.queryFilter(query.get()))
+          .toSet();
+    }
+
+    @Timed("mvcc_storage_save_tasks")
+    @Override
+    public void saveTasks(final Set<IScheduledTask> newTasks) {
+      checkNotNull(newTasks);
+      Preconditions.checkState(Tasks.ids(newTasks).size() == newTasks.size(),
+          "Proposed new tasks would create task ID collision.");
+
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          for (IScheduledTask task : newTasks) {
+            state.putTask(task);
+          }
+          return null;
+        }
+      });
+    }
+
+    @Timed("mvcc_storage_delete_all_tasks")
+    @Override
+    public void deleteAllTasks() {
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          state.liveTasks = PersistentMap.empty();
+          state.terminalTasks = PersistentMap.empty();
+          state.tasksByJob = PersistentMap.empty();
+          return null;
+        }
+      });
+    }
+
+    @Timed("mvcc_storage_delete_tasks")
+    @Override
+    public void deleteTasks(final Set<String> taskIds) {
+      checkNotNull(taskIds);
+
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          for (String taskId : taskIds) {
+            state.removeTask(taskId);
+          }
+          return null;
+        }
+      });
+    }
+
+    @Timed("mvcc_storage_mutate_tasks")
+    @Override
+    public ImmutableSet<IScheduledTask> mutateTasks(
+        final Query.Builder query,
+        final Function<IScheduledTask, IScheduledTask> mutator) {
+
+      checkNotNull(query);
+      checkNotNull(mutator);
+
+      return versions.mutate(new Function<Version.Builder, ImmutableSet<IScheduledTask>>() {
+        @Override
+        public ImmutableSet<IScheduledTask> apply(Version.Builder state) {
+          ImmutableSet.Builder<IScheduledTask> mutated = ImmutableSet.builder();
+          for (IScheduledTask original : fetchTasks(query)) {
+            IScheduledTask maybeMutated = mutator.apply(original);
+            if (!original.equals(maybeMutated)) {
+              Preconditions.checkState(
+                  Tasks.id(original).equals(Tasks.id(maybeMutated)),
+                  "A task's ID may not be mutated.");
+              state.putTask(maybeMutated);
+              mutated.add(maybeMutated);
+            }
+          }
+          return mutated.build();
+        }
+      });
+    }
+
+    @Timed("mvcc_storage_unsafe_modify_in_place")
+    @Override
+    public boolean unsafeModifyInPlace(
+        final String taskId,
+        final ITaskConfig taskConfiguration) {
+
+      MorePreconditions.checkNotBlank(taskId);
+      checkNotNull(taskConfiguration);
+
+      return versions.mutate(new Function<Version.Builder, Boolean>() {
+        @Override
+        public Boolean apply(Version.Builder state) {
+          IScheduledTask stored = state.build().getTask(taskId);
+          if (stored == null) {
+            return false;
+          }
+
+          ScheduledTask updated = stored.newBuilder();
+          updated.getAssignedTask().setTask(taskConfiguration.newBuilder());
+          state.putTask(IScheduledTask.build(updated));
+          return true;
+        }
+      });
+    }
+  }
+
+  /**
+   * A lock store backed by the versioned state.
+   */
+  static class LockStoreImpl implements LockStore.Mutable {
+    private final Versions versions;
+
+    @Inject
+    LockStoreImpl(Versions versions) {
+      this.versions = checkNotNull(versions);
+    }
+
+    @Override
+    public void saveLock(final ILock lock) {
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          state.locks = state.locks.plus(lock.getKey(), lock);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void removeLock(final ILockKey lockKey) {
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          state.locks = state.locks.minus(lockKey);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void deleteLocks() {
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          state.locks = PersistentMap.empty();
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public Set<ILock> fetchLocks() {
+      return ImmutableSet.copyOf(versions.current().locks.values());
+    }
+
+    @Override
+    public Optional<ILock> fetchLock(ILockKey lockKey) {
+      return Optional.fromNullable(versions.current().locks.get(lockKey));
+    }
+  }
+
+  /**
+   * A quota store backed by the versioned state.
+   */
+  static class QuotaStoreImpl implements QuotaStore.Mutable {
+    private final Versions versions;
+
+    @Inject
+    QuotaStoreImpl(Versions versions) {
+      this.versions = checkNotNull(versions);
+    }
+
+    @Override
+    public void deleteQuotas() {
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          state.quotas = PersistentMap.empty();
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void removeQuota(final String role) {
+      checkNotNull(role);
+
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          state.quotas = state.quotas.minus(role);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void saveQuota(final String role, final IQuota quota) {
+      checkNotNull(role);
+      checkNotNull(quota);
+
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          state.quotas = state.quotas.plus(role, quota);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public Optional<IQuota> fetchQuota(String role) {
+      checkNotNull(role);
+      return Optional.fromNullable(versions.current().quotas.get(role));
+    }
+
+    @Override
+    public Map<String, IQuota> fetchQuotas() {
+      ImmutableMap.Builder<String, IQuota> quotas = ImmutableMap.builder();
+      for (Map.Entry<String, IQuota> entry : versions.current().quotas.entries()) {
+        quotas.put(entry);
+      }
+      return quotas.build();
+    }
+  }
+
+  /**
+   * An attribute store backed by the versioned state.  Since {@link HostAttributes} are mutable,
+   * they are copied when stored and when fetched.
+   */
+  static class AttributeStoreImpl implements AttributeStore.Mutable {
+    private static final Function<HostAttributes, HostAttributes> COPY = Util.deepCopier();
+
+    private final Versions versions;
+
+    @Inject
+    AttributeStoreImpl(Versions versions) {
+      this.versions = checkNotNull(versions);
+    }
+
+    @Override
+    public void deleteHostAttributes() {
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          state.attributes = PersistentMap.empty();
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public void saveHostAttributes(final HostAttributes attributes) {
+      final HostAttributes incoming = attributes.deepCopy();
+      versions.mutate(new Function<Version.Builder, Void>() {
+        @Override
+        public Void apply(Version.Builder state) {
+          HostAttributes stored = state.attributes.get(incoming.getHost());
+          HostAttributes updated = (stored == null) ? incoming : stored.deepCopy();
+          if (!updated.isSetMode()) {
+            updated.setMode(incoming.isSetMode() ? incoming.getMode() : MaintenanceMode.NONE);
+          }
+          updated.setAttributes(incoming.isSetAttributes()
+              ? incoming.getAttributes() : ImmutableSet.<Attribute>of());
+          state.attributes = state.attributes.plus(updated.getHost(), updated);
+          return null;
+        }
+      });
+    }
+
+    @Override
+    public boolean setMaintenanceMode(final String host, final MaintenanceMode mode) {
+      return versions.mutate(new Function<Version.Builder, Boolean>() {
+        @Override
+        public Boolean apply(Version.Builder state) {
+          HostAttributes stored = state.attributes.get(host);
+          if (stored == null) {
+            return false;
+          }
+
+          state.attributes = state.attributes.plus(host, stored.deepCopy().setMode(mode));
+          return true;
+        }
+      });
+    }
+
+    @Override
+    public Optional<HostAttributes> getHostAttributes(String host) {
+      return Optional.fromNullable(versions.current().attributes.get(host)).transform(COPY);
+    }
+
+    @Override
+    public Set<HostAttributes> getHostAttributes() {
+      return FluentIterable.from(versions.current().attributes.values()).transform(COPY).toSet();
+    }
+  }
+}
@@ -0,0 +1,481 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.mem;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+import com.google.common.base.Function;
+import com.google.common.base.Objects;
+import com.google.common.collect.AbstractIterator;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An immutable hash map supporting efficient non-destructive updates.
+ * <p>
+ * The map is a hash array mapped trie, so {@link #plus(Object, Object)} and
+ * {@link #minus(Object)} copy only the O(log32 n) nodes along the path to the modified key,
+ * sharing the remainder of the structure with the original map.  This makes it cheap to retain
+ * many versions of a large map at once.
+ *
+ * @param <K> Key type.
+ * @param <V> Value type.
+ */
+final class PersistentMap<K, V> {
+
+  private static final PersistentMap<Object, Object> EMPTY = new PersistentMap<>(null, 0);
+
+  private static final int BITS = 5;
+  private static final int MASK = (1 << BITS) - 1;
+
+  @Nullable
+  private final Node root;
+  private final int size;
+
+  private PersistentMap(@Nullable Node root, int size) {
+    this.root = root;
+    this.size = size;
+  }
+
+  /**
+   * Gets an empty map.
+   *
+   * @param <K> Key type.
+   * @param <V> Value type.
+   * @return An empty map.
+   */
+  @SuppressWarnings("unchecked")
+  static <K, V> PersistentMap<K, V> empty() {
+    return (PersistentMap<K, V>) EMPTY;
+  }
+
+  int size() {
+    return size;
+  }
+
+  boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Fetches the value associated with a key.
+   *
+   * @param key Key to look up.
+   * @return The associated value, or {@code null} if the key is not present.
+   */
+  @Nullable
+  @SuppressWarnings("unchecked")
+  V get(Object key) {
+    checkNotNull(key);
+    if (root == null) {
+      return null;
+    }
+
+    Leaf leaf = root.find(key, hash(key), 0);
+    return (leaf == null) ? null : (V) leaf.value;
+  }
+
+  boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  /**
+   * Creates a map with an additional (or replaced) association.
+   *
+   * @param key Key to associate.
+   * @param value Value to associate with {@code key}.
+   * @return A new map, or this map if the association was already present.
+   */
+  PersistentMap<K, V> plus(K key, V value) {
+    checkNotNull(key);
+    checkNotNull(value);
+
+    Leaf leaf = new Leaf(key, value, hash(key));
+    if (root == null) {
+      return new PersistentMap<>(new BitmapNode(0, new Object[0]).put(leaf, 0), 1);
+    }
+
+    int existing = (root.find(key, leaf.hash, 0) == null) ? 0 : 1;
+    Node updated = root.put(leaf, 0);
+    return (updated == root) ? this : new PersistentMap<K, V>(updated, size + 1 - existing);
+  }
+
+  /**
+   * Creates a map without the association for a key.
+   *
+   * @param key Key to remove.
+   * @return A new map, or this map if the key was not present.
+   */
+  PersistentMap<K, V> minus(Object key) {
+    checkNotNull(key);
+    if (root == null) {
+      return this;
+    }
+
+    Node updated = root.remove(key, hash(key), 0);
+    if (updated == root) {
+      return this;
+    }
+    return (updated == null)
+        ? PersistentMap.<K, V>empty()
+        : new PersistentMap<K, V>(updated, size - 1);
+  }
+
+  Iterable<Map.Entry<K, V>> entries() {
+    return new Iterable<Map.Entry<K, V>>() {
+      @Override
+      public Iterator<Map.Entry<K, V>> iterator() {
+        return new LeafIterator<>(root);
+      }
+    };
+  }
+
+  Iterable<K> keys() {
+    return Iterables.transform(entries(), new Function<Map.Entry<K, V>, K>() {
+      @Override
+      public K apply(Map.Entry<K, V> entry) {
+        return entry.getKey();
+      }
+    });
+  }
+
+  Iterable<V> values() {
+    return Iterables.transform(entries(), new Function<Map.Entry<K, V>, V>() {
+      @Override
+      public V apply(Map.Entry<K, V> entry) {
+        return entry.getValue();
+      }
+    });
+  }
+
+  private static int hash(Object key) {
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  private static int index(int hash, int shift) {
+    return (hash >>> shift) & MASK;
+  }
+
+  /**
+   * Creates the smallest subtree holding two leaves with different keys.
+   */
+  private static Node merge(Leaf a, Leaf b, int shift) {
+    if (a.hash == b.hash) {
+      return new CollisionNode(a.hash, new Leaf[] {a, b});
+    }
+
+    int indexA = index(a.hash, shift);
+    int indexB = index(b.hash, shift);
+    if (indexA == indexB) {
+      return new BitmapNode(1 << indexA, new Object[] {merge(a, b, shift + BITS)});
+    }
+    Object[] slots = (indexA < indexB) ? new Object[] {a, b} : new Object[] {b, a};
+    return new BitmapNode((1 << indexA) | (1 << indexB), slots);
+  }
+
+  private static Object[] insert(Object[] array, int position, Object item) {
+    Object[] copy = new Object[array.length + 1];
+    System.arraycopy(array, 0, copy, 0, position);
+    copy[position] = item;
+    System.arraycopy(array, position, copy, position + 1, array.length - position);
+    return copy;
+  }
+
+  private static Object[] replace(Object[] array, int position, Object item) {
+    Object[] copy = array.clone();
+    copy[position] = item;
+    return copy;
+  }
+
+  private static Object[] delete(Object[] array, int position) {
+    Object[] copy = new Object[array.length - 1];
+    System.arraycopy(array, 0, copy, 0, position);
+    System.arraycopy(array, position + 1, copy, position, array.length - position - 1);
+    return copy;
+  }
+
+  private static final class Leaf implements Map.Entry<Object, Object> {
+    private final Object key;
+    private final Object value;
+    private final int hash;
+
+    Leaf(Object key, Object value, int hash) {
+      this.key = key;
+      this.value = value;
+      this.hash = hash;
+    }
+
+    @Override
+    public Object getKey() {
+      return key;
+    }
+
+    @Override
+    public Object getValue() {
+      return value;
+    }
+
+    @Override
+    public Object setValue(Object newValue) {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Map.Entry)) {
+        return false;
+      }
+
+      Map.Entry<?, ?> other = (Map.Entry<?, ?>) o;
+      return key.equals(other.getKey()) && value.equals(other.getValue());
+    }
+
+    @Override
+    public int hashCode() {
+      return key.hashCode() ^ value.hashCode();
+    }
+  }
+
+  private abstract static class Node {
+    /**
+     * Finds the leaf for a key.
+     *
+     * @return The leaf for {@code key}, or {@code null} if absent.
+     */
+    @Nullable
+    abstract Leaf find(Object key, int hash, int shift);
+
+    /**
+     * Adds or replaces a leaf.
+     *
+     * @return The updated node, or this node if the leaf was already present.
+     */
+    abstract Node put(Leaf leaf, int shift);
+
+    /**
+     * Removes the leaf for a key.
+     *
+     * @return The updated node, this node if the key was absent, or {@code null} if the node is
+     *     now empty.
+     */
+    @Nullable
+    abstract Node remove(Object key, int hash, int shift);
+
+    /**
+     * Gets the children of this node, each of which is either a {@link Node} or a {@link Leaf}.
+     */
+    abstract Object[] children();
+  }
+
+  private static final class BitmapNode extends Node {
+    private final int bitmap;
+    private final Object[] slots;
+
+    BitmapNode(int bitmap, Object[] slots) {
+      this.bitmap = bitmap;
+      this.slots = slots;
+    }
+
+    private int position(int bit) {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    Leaf find(Object key, int hash, int shift) {
+      int bit = 1 << index(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return null;
+      }
+
+      Object slot = slots[position(bit)];
+      if (slot instanceof Leaf) {
+        Leaf leaf = (Leaf) slot;
+        return leaf.key.equals(key) ? leaf : null;
+      }
+      return ((Node) slot).find(key, hash, shift + BITS);
+    }
+
+    @Override
+    Node put(Leaf leaf, int shift) {
+      int bit = 1 << index(leaf.hash, shift);
+      int position = position(bit);
+      if ((bitmap & bit) == 0) {
+        return new BitmapNode(bitmap | bit, insert(slots, position, leaf));
+      }
+
+      Object slot = slots[position];
+      if (slot instanceof Leaf) {
+        Leaf existing = (Leaf) slot;
+        if (existing.key.equals(leaf.key)) {
+          return Objects.equal(existing.value, leaf.value)
+              ? this
+              : new BitmapNode(bitmap, replace(slots, position, leaf));
+        }
+        Node merged = merge(existing, leaf, shift + BITS);
+        return new BitmapNode(bitmap, replace(slots, position, merged));
+      }
+
+      Node child = (Node) slot;
+      Node updated = child.put(leaf, shift + BITS);
+      return (updated == child) ? this : new BitmapNode(bitmap, replace(slots, position, updated));
+    }
+
+    @Override
+    Node remove(Object key, int hash, int shift) {
+      int bit = 1 << index(hash, shift);
+      if ((bitmap & bit) == 0) {
+        return this;
+      }
+
+      int position = position(bit);
+      Object slot = slots[position];
+      Object updated;
+      if (slot instanceof Leaf) {
+        updated = ((Leaf) slot).key.equals(key) ? null : slot;
+      } else {
+        updated = ((Node) slot).remove(key, hash, shift + BITS);
+      }
+
+      if (updated == slot) {
+        return this;
+      } else if (updated != null) {
+        return new BitmapNode(bitmap, replace(slots, position, updated));
+      } else if (slots.length == 1) {
+        return null;
+      } else {
+        return new BitmapNode(bitmap & ~bit, delete(slots, position));
+      }
+    }
+
+    @Override
+    Object[] children() {
+      return slots;
+    }
+  }
+
+  /**
+   * A node for leaves whose keys have identical hashes.
+   */
+  private static final class CollisionNode extends Node {
+    private final int hash;
+    private final Leaf[] leaves;
+
+    CollisionNode(int hash, Leaf[] leaves) {
+      this.hash = hash;
+      this.leaves = leaves;
+    }
+
+    private int position(Object key) {
+      for (int i = 0; i < leaves.length; i++) {
+        if (leaves[i].key.equals(key)) {
+          return i;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Leaf find(Object key, int keyHash, int shift) {
+      if (keyHash != hash) {
+        return null;
+      }
+      int position = position(key);
+      return (position == -1) ? null : leaves[position];
+    }
+
+    @Override
+    Node put(Leaf leaf, int shift) {
+      if (leaf.hash != hash) {
+        // Push this node one level down beneath a bitmap node that can also hold the new leaf.
+        return new BitmapNode(1 << index(hash, shift), new Object[] {this}).put(leaf, shift);
+      }
+
+      int position = position(leaf.key);
+      if (position == -1) {
+        Leaf[] updated = Arrays.copyOf(leaves, leaves.length + 1);
+        updated[leaves.length] = leaf;
+        return new CollisionNode(hash, updated);
+      } else if (Objects.equal(leaves[position].value, leaf.value)) {
+        return this;
+      } else {
+        Leaf[] updated = leaves.clone();
+        updated[position] = leaf;
+        return new CollisionNode(hash, updated);
+      }
+    }
+
+    @Override
+    Node remove(Object key, int keyHash, int shift) {
+      int position = (keyHash == hash) ? position(key) : -1;
+      if (position == -1) {
+        return this;
+      } else if (leaves.length == 1) {
+        return null;
+      }
+
+      Leaf[] updated = new Leaf[leaves.length - 1];
+      System.arraycopy(leaves, 0, updated, 0, position);
+      System.arraycopy(leaves, position + 1, updated, position, leaves.length - position - 1);
+      return new CollisionNode(hash, updated);
+    }
+
+    @Override
+    Object[] children() {
+      return leaves;
+    }
+  }
+
+  /**
+   * A depth-first iterator over the leaves of a trie, which does not allocate per leaf.
+   */
+  private static final class LeafIterator<K, V> extends AbstractIterator<Map.Entry<K, V>> {
+    private final Deque<Iterator<Object>> stack = new ArrayDeque<>();
+
+    LeafIterator(@Nullable Node root) {
+      if (root != null) {
+        stack.push(Iterators.forArray(root.children()));
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    @Override
+    protected Map.Entry<K, V> computeNext() {
+      while (!stack.isEmpty()) {
+        Iterator<Object> top = stack.peek();
+        if (!top.hasNext()) {
+          stack.pop();
+          continue;
+        }
+
+        Object next = top.next();
+        if (next instanceof Leaf) {
+          return (Map.Entry<K, V>) (Map.Entry<?, ?>) next;
+        }
+        stack.push(Iterators.forArray(((Node) next).children()));
+      }
+      return endOfData();
+    }
+  }
+}
@@ -18,7 +18,13 @@ package org.apache.aurora.scheduler.storage.mem;
 import javax.annotation.Nullable;
 
 import com.google.common.base.Function;
+import com.google.common.base.Predicate;
 
+import org.apache.aurora.gen.TaskQuery;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+import org.apache.commons.lang.StringUtils;
 import org.apache.thrift.TBase;
 
 /**
@@ -51,4 +57,66 @@ final class Util {
       }
     };
   }
+
+  /**
+   * Creates a predicate that applies the filters in a task query.  Stores may use this to filter
+   * the candidate tasks they produce by consulting their indices.
+   *
+   * @param query Query to evaluate.
+   * @return A predicate matching tasks that satisfy {@code query}.
+   */
+  static Predicate<IScheduledTask> queryFilter(final TaskQuery query) {
+    return new Predicate<IScheduledTask>() {
+      @Override
+      public boolean apply(IScheduledTask task) {
+        ITaskConfig config = task.getAssignedTask().getTask();
+        if (query.getOwner() != null) {
+          if (!StringUtils.isBlank(query.getOwner().getRole())) {
+            if (!query.getOwner().getRole().equals(config.getOwner().getRole())) {
+              return false;
+            }
+          }
+          if (!StringUtils.isBlank(query.getOwner().getUser())) {
+            if (!query.getOwner().getUser().equals(config.getOwner().getUser())) {
+              return false;
+            }
+          }
+        }
+        if (query.getEnvironment() != null) {
+          if (!query.getEnvironment().equals(config.getEnvironment())) {
+            return false;
+          }
+        }
+        if (query.getJobName() != null) {
+          if (!query.getJobName().equals(config.getJobName())) {
+            return false;
+          }
+        }
+
+        if (query.getTaskIds() != null) {
+          if (!query.getTaskIds().contains(Tasks.id(task))) {
+            return false;
+          }
+        }
+
+        if (query.getStatusesSize() > 0) {
+          if (!query.getStatuses().contains(task.getStatus())) {
+            return false;
+          }
+        }
+        if (!StringUtils.isEmpty(query.getSlaveHost())) {
+          if (!query.getSlaveHost().equals(task.getAssignedTask().getSlaveHost())) {
+            return false;
+          }
+        }
+        if (query.getInstanceIdsSize() > 0) {
+          if (!query.getInstanceIds().contains(task.getAssignedTask().getInstanceId())) {
+            return false;
+          }
+        }
+
+        return true;
+      }
+    };
+  }
 }
@@ -134,6 +134,17 @@ struct Snapshot {
   9: set<api.Lock> locks
 }
 
+// Represents the changes made to local storage since the preceding snapshot or delta snapshot in
+// the log.  A delta is only meaningful when applied on top of the state recovered from the entries
+// preceding it, so unlike a Snapshot it never allows the log to be truncated.
+struct DeltaSnapshot {
+  // The timestamp when the delta was made in milliseconds since the epoch.
+  1: i64 timestamp
+  // Ops that restore the current state of every entity changed since the preceding snapshot.
+  // Applying these supersedes any transactions between the preceding snapshot and this delta.
+  2: list<Op> ops
+}
+
 // A message header that calls out the number of expected FrameChunks to follow to form a complete
 // message.
 struct FrameHeader {
@@ -151,6 +162,21 @@ struct FrameChunk {
   2: binary data
 }
 
+// A message header for a frame whose FrameChunks are written as they are produced, before their
+// number and checksum are known.  The chunks are followed by a FrameTrailer.
+struct StreamHeader {
+  // Whether the binary blob reassembled from the chunks is deflate-compressed.
+  1: bool deflated
+}
+
+// Completes a frame started by a StreamHeader.
+struct FrameTrailer {
+  // The number of FrameChunks between the StreamHeader and this FrameTrailer.
+  1: i32 chunkCount
+  // The MD5 checksum over the binary blob that was chunked across chunkCount chunks.
+  2: binary checksum
+}
+
 // Frames form a series of LogEntries that can be re-assembled into a basic log entry type like a
 // Snapshot.  The Frame protocol is that a single FrameHeader is followed by one or more FrameChunks
 // that can be re-assembled to obtain the binary content of a basic log entry type.
@@ -163,9 +189,33 @@ struct FrameChunk {
 // fail to append.  In this case, the storage mechanism would throw to indicate a failed transaction
 // at write-time leaving a partially framed message in the log stream that should be skipped over at
 // read-time.
+//
+// A frame may alternatively be streamed: a StreamHeader followed by FrameChunks and completed by a
+// FrameTrailer.  A streamed frame with no trailer is likewise an aborted write to be skipped.
 union Frame {
   1: FrameHeader header
   2: FrameChunk chunk
+  3: StreamHeader streamHeader
+  4: FrameTrailer trailer
+}
+
+// Compression codecs for log entries.
+enum CompressionCodec {
+  // The "deflate" compression format.
+  DEFLATE = 1,
+  // A byte-oriented LZ77 format, trading compression ratio for speed.
+  LZ = 2
+}
+
+// A LogEntry that is first serialized in the thrift binary format, then compressed.  Like deflated
+// entries, compressed entries may be pieced together by multiple frames, but their contents should
+// not be a Frame or another compressed entry.
+struct CompressedEntry {
+  // The codec the entry was compressed with.
+  1: CompressionCodec codec
+  // The size of the serialized entry before compression.
+  2: i32 uncompressedSize
+  3: binary data
 }
 
 // A scheduler storage write-ahead log entry consisting of no-ops to skip over or else snapshots or
@@ -185,5 +235,7 @@ union LogEntry {
   // Deflated entries are expected to be un-framed.  They may be pieced together by multiple frames,
   // but the contents of the deflated entry should not be a Frame.
   5: binary deflatedEntry
+  6: DeltaSnapshot deltaSnapshot
+  7: CompressedEntry compressedEntry
 }
 
@@ -0,0 +1,111 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.codec;
+
+import java.util.List;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+
+import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.storage.Snapshot;
+import org.apache.thrift.TBase;
+import org.apache.thrift.TDeserializer;
+import org.apache.thrift.TException;
+import org.apache.thrift.TSerializer;
+
+/**
+ * Compares round trips of tasks and snapshots through a new serializer and deserializer per call
+ * against the thread-local state of {@link ThriftBinaryCodec}.
+ * <p>
+ * This is not a unit test, and is not run as part of the build.  Run it by hand, with the test
+ * classpath, to measure the codec.
+ */
+public final class ThriftBinaryCodecBenchmark {
+
+  private ThriftBinaryCodecBenchmark() {
+    // Utility class.
+  }
+
+  private interface Codec {
+    byte[] encode(TBase<?, ?> tBase) throws Exception;
+
+    <T extends TBase<T, ?>> T decode(Class<T> clazz, byte[] data) throws Exception;
+  }
+
+  private static final Codec SERIALIZER = new Codec() {
+    @Override
+    public byte[] encode(TBase<?, ?> tBase) throws TException {
+      return new TSerializer(ThriftBinaryCodec.PROTOCOL_FACTORY).serialize(tBase);
+    }
+
+    @Override
+    public <T extends TBase<T, ?>> T decode(Class<T> clazz, byte[] data) throws Exception {
+      T t = clazz.newInstance();
+      new TDeserializer(ThriftBinaryCodec.PROTOCOL_FACTORY).deserialize(t, data);
+      return t;
+    }
+  };
+
+  private static final Codec THREAD_LOCAL = new Codec() {
+    @Override
+    public byte[] encode(TBase<?, ?> tBase) throws CodingException {
+      return ThriftBinaryCodec.encodeNonNull(tBase);
+    }
+
+    @Override
+    public <T extends TBase<T, ?>> T decode(Class<T> clazz, byte[] data) throws CodingException {
+      return ThriftBinaryCodec.decodeNonNull(clazz, data);
+    }
+  };
+
+  private static <T extends TBase<T, ?>> void timeCodec(
+      String name,
+      Codec codec,
+      Class<T> clazz,
+      List<T> values,
+      int iterations) throws Exception {
+
+    long startNanos = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      for (T value : values) {
+        Preconditions.checkState(value.equals(codec.decode(clazz, codec.encode(value))));
+      }
+    }
+    long elapsedMicros = (System.nanoTime() - startNanos) / 1000;
+    System.out.println(String.format("%s: %d %s round trips in %d us",
+        name, iterations * values.size(), clazz.getSimpleName(), elapsedMicros));
+  }
+
+  public static void main(String[] args) throws Exception {
+    ImmutableList.Builder<ScheduledTask> builder = ImmutableList.builder();
+    for (int i = 0; i < 1000; i++) {
+      builder.add(ThriftBinaryCodecTest.makeTask(i));
+    }
+    List<ScheduledTask> tasks = builder.build();
+    List<Snapshot> snapshots = ImmutableList.of(ThriftBinaryCodecTest.makeSnapshot(1000));
+
+    for (int round = 0; round < 3; round++) {
+      // The first round warms up each codec.
+      System.out.println("Round " + round);
+      timeCodec("Serializer", SERIALIZER, ScheduledTask.class, tasks, 10);
+      timeCodec("Thread-local", THREAD_LOCAL, ScheduledTask.class, tasks, 10);
+      timeCodec("Serializer", SERIALIZER, Snapshot.class, snapshots, 5);
+      timeCodec("Thread-local", THREAD_LOCAL, Snapshot.class, snapshots, 5);
+    }
+  }
+}
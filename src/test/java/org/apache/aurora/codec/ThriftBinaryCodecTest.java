@@ -15,12 +15,34 @@
  */
 package org.apache.aurora.codec;
 
+import java.nio.ByteBuffer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.ExecutorConfig;
 import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.TaskEvent;
+import org.apache.aurora.gen.storage.Snapshot;
+import org.apache.thrift.TSerializer;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
 
 public class ThriftBinaryCodecTest {
 
@@ -50,6 +72,141 @@ public class ThriftBinaryCodecTest {
 
   @Test(expected = NullPointerException.class)
   public void testDecodeNonNull() throws CodingException {
-    ThriftBinaryCodec.decodeNonNull(Identity.class, null);
+    ThriftBinaryCodec.decodeNonNull(Identity.class, (byte[]) null);
+  }
+
+  @Test
+  public void testMatchesSerializer() throws Exception {
+    Snapshot snapshot = makeSnapshot(100);
+    byte[] encoded = new TSerializer(ThriftBinaryCodec.PROTOCOL_FACTORY).serialize(snapshot);
+    assertArrayEquals(encoded, ThriftBinaryCodec.encodeNonNull(snapshot));
+
+    // The encoding buffer is reused, and a smaller object must not see a larger one's contents.
+    Identity identity = new Identity("mesos", "jack");
+    assertArrayEquals(
+        new TSerializer(ThriftBinaryCodec.PROTOCOL_FACTORY).serialize(identity),
+        ThriftBinaryCodec.encodeNonNull(identity));
+    assertEquals(snapshot, ThriftBinaryCodec.decodeNonNull(Snapshot.class, encoded));
+  }
+
+  @Test
+  public void testByteBufferRoundTrip() throws CodingException {
+    ScheduledTask task = makeTask(0);
+    int size = ThriftBinaryCodec.encodeNonNull(task).length;
+
+    for (ByteBuffer buffer
+        : ImmutableList.of(ByteBuffer.allocate(size + 20), ByteBuffer.allocateDirect(size + 20))) {
+
+      buffer.position(10);
+      assertEquals(size, ThriftBinaryCodec.encodeNonNull(task, buffer));
+      assertEquals(10 + size, buffer.position());
+
+      buffer.flip();
+      buffer.position(10);
+      ByteBuffer slice = buffer.slice();
+      assertEquals(task, ThriftBinaryCodec.decodeNonNull(ScheduledTask.class, slice));
+      assertEquals(0, slice.position());
+      assertEquals(task, ThriftBinaryCodec.decodeNonNull(ScheduledTask.class, buffer));
+      assertEquals(10, buffer.position());
+    }
+  }
+
+  @Test
+  public void testByteBufferOverflow() throws CodingException {
+    ScheduledTask task = makeTask(0);
+    ByteBuffer buffer = ByteBuffer.allocate(ThriftBinaryCodec.encodeNonNull(task).length - 1);
+    try {
+      ThriftBinaryCodec.encodeNonNull(task, buffer);
+      fail();
+    } catch (CodingException e) {
+      // Expected.
+    }
+    assertEquals(0, buffer.position());
+
+    // The codec remains usable.
+    assertEquals(task, ThriftBinaryCodec.decodeNonNull(
+        ScheduledTask.class,
+        ThriftBinaryCodec.encodeNonNull(task)));
+  }
+
+  @Test(expected = CodingException.class)
+  public void testDecodeTruncated() throws CodingException {
+    byte[] encoded = ThriftBinaryCodec.encodeNonNull(makeTask(0));
+    ThriftBinaryCodec.decodeNonNull(
+        ScheduledTask.class,
+        ByteBuffer.wrap(encoded, 0, encoded.length / 2).asReadOnlyBuffer());
+  }
+
+  @Test
+  public void testConcurrentRoundTrips() throws Exception {
+    int numThreads = 4;
+    final CountDownLatch start = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+    try {
+      ImmutableList.Builder<Future<Void>> futures = ImmutableList.builder();
+      for (int i = 0; i < numThreads; i++) {
+        // Each thread alternates between values of different sizes, so that a codec state shared
+        // across threads would mix up their encodings.
+        final ScheduledTask task = makeTask(i);
+        final Snapshot snapshot = makeSnapshot(i + 1);
+        futures.add(executor.submit(new Callable<Void>() {
+          @Override
+          public Void call() throws Exception {
+            start.await();
+            for (int j = 0; j < 100; j++) {
+              assertEquals(task, ThriftBinaryCodec.decodeNonNull(
+                  ScheduledTask.class,
+                  ThriftBinaryCodec.encodeNonNull(task)));
+              assertEquals(snapshot, ThriftBinaryCodec.decodeNonNull(
+                  Snapshot.class,
+                  ThriftBinaryCodec.encodeNonNull(snapshot)));
+            }
+            return null;
+          }
+        }));
+      }
+      start.countDown();
+      for (Future<Void> future : futures.build()) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  static ScheduledTask makeTask(int instanceId) {
+    return new ScheduledTask()
+        .setStatus(ScheduleStatus.RUNNING)
+        .setAncestorId("1400000000000-www-data-prod-hello-" + instanceId + "-ancestor")
+        .setTaskEvents(ImmutableList.of(
+            new TaskEvent(1400000000000L, ScheduleStatus.PENDING).setScheduler("scheduler-1"),
+            new TaskEvent(1400000001000L, ScheduleStatus.ASSIGNED).setScheduler("scheduler-1"),
+            new TaskEvent(1400000002000L, ScheduleStatus.STARTING).setScheduler("scheduler-1"),
+            new TaskEvent(1400000003000L, ScheduleStatus.RUNNING).setScheduler("scheduler-1")))
+        .setAssignedTask(new AssignedTask()
+            .setTaskId("1400000000000-www-data-prod-hello-" + instanceId)
+            .setSlaveId("20140101-000000-1-5050-" + instanceId)
+            .setSlaveHost("slave-" + instanceId + ".example.com")
+            .setInstanceId(instanceId)
+            .setAssignedPorts(ImmutableMap.of("http", 31000 + instanceId, "admin", 32000))
+            .setTask(new TaskConfig()
+                .setOwner(new Identity("www-data", "www-data"))
+                .setEnvironment("prod")
+                .setJobName("hello")
+                .setIsService(true)
+                .setNumCpus(1.0)
+                .setRamMb(1024)
+                .setDiskMb(4096)
+                .setRequestedPorts(ImmutableSet.of("http", "admin"))
+                .setExecutorConfig(
+                    new ExecutorConfig("AuroraExecutor", Strings.repeat("{\"task\": {}}", 200)))));
+  }
+
+  static Snapshot makeSnapshot(int numTasks) {
+    ImmutableSet.Builder<ScheduledTask> tasks = ImmutableSet.builder();
+    for (int i = 0; i < numTasks; i++) {
+      tasks.add(makeTask(i));
+    }
+    return new Snapshot().setTimestamp(1400000000000L).setTasks(tasks.build());
   }
 }
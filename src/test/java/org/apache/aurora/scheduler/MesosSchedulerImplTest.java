@@ -31,12 +31,14 @@ import com.twitter.common.application.Lifecycle;
 import com.twitter.common.base.Command;
 import com.twitter.common.testing.easymock.EasyMockTest;
 
+import org.apache.aurora.gen.HostAttributes;
 import org.apache.aurora.scheduler.base.Conversions;
 import org.apache.aurora.scheduler.base.SchedulerException;
 import org.apache.aurora.scheduler.configuration.Resources;
 import org.apache.aurora.scheduler.events.EventSink;
 import org.apache.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
 import org.apache.aurora.scheduler.events.PubsubEvent.DriverRegistered;
+import org.apache.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
 import org.apache.aurora.scheduler.state.SchedulerCore;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.Storage.StorageException;
@@ -164,6 +166,21 @@ public class MesosSchedulerImplTest extends EasyMockTest {
     }.run();
   }
 
+  @Test
+  public void testUnchangedAttributesNotPublished() throws Exception {
+    new OfferFixture() {
+      @Override
+      void respondToOffer() throws Exception {
+        HostAttributes attributes = Conversions.getAttributes(OFFER);
+        expect(storageUtil.attributeStore.getHostAttributes(attributes.getHost()))
+            .andReturn(Optional.of(attributes.deepCopy()));
+        storageUtil.attributeStore.saveHostAttributes(attributes);
+        expect(systemLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
+        expect(userLauncher.createTask(OFFER)).andReturn(Optional.<TaskInfo>absent());
+      }
+    }.run();
+  }
+
   @Test
   public void testOfferFirstAccepts() throws Exception {
     new OfferFixture() {
@@ -281,7 +298,11 @@ public class MesosSchedulerImplTest extends EasyMockTest {
   }
 
   private void expectOfferAttributesSaved(Offer offer) {
-    storageUtil.attributeStore.saveHostAttributes(Conversions.getAttributes(offer));
+    HostAttributes attributes = Conversions.getAttributes(offer);
+    expect(storageUtil.attributeStore.getHostAttributes(attributes.getHost()))
+        .andReturn(Optional.<HostAttributes>absent());
+    storageUtil.attributeStore.saveHostAttributes(attributes);
+    eventSink.post(new HostAttributesChanged(attributes));
   }
 
   private abstract class RegisteredFixture {
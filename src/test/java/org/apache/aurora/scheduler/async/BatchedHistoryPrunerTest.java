@@ -0,0 +1,230 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.testing.FakeClock;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.TaskEvent;
+import org.apache.aurora.scheduler.async.BatchedHistoryPruner.PruneBatchSettings;
+import org.apache.aurora.scheduler.events.PubsubEvent.SchedulerActive;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChanges;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.state.StateManager;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.aurora.gen.ScheduleStatus.FINISHED;
+import static org.apache.aurora.gen.ScheduleStatus.KILLED;
+import static org.apache.aurora.gen.ScheduleStatus.RUNNING;
+import static org.easymock.EasyMock.eq;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BatchedHistoryPrunerTest extends EasyMockTest {
+
+  private static final Amount<Long, Time> ONE_DAY = Amount.of(1L, Time.DAYS);
+  private static final Amount<Long, Time> ONE_MINUTE = Amount.of(1L, Time.MINUTES);
+
+  private ScheduledExecutorService executor;
+  private StateManager stateManager;
+  private FakeClock clock;
+  private BatchedHistoryPruner pruner;
+
+  @Before
+  public void setUp() {
+    executor = createMock(ScheduledExecutorService.class);
+    stateManager = createMock(StateManager.class);
+    clock = new FakeClock();
+  }
+
+  private void makePruner(int perJobHistoryGoal, int maxBatchSize) {
+    pruner = new BatchedHistoryPruner(
+        executor,
+        stateManager,
+        clock,
+        ONE_DAY,
+        perJobHistoryGoal,
+        new PruneBatchSettings(maxBatchSize, ONE_MINUTE));
+  }
+
+  @Test
+  public void testSchedulesBatches() {
+    makePruner(10, 10);
+    expect(executor.scheduleWithFixedDelay(
+        EasyMock.<Runnable>anyObject(),
+        eq(ONE_MINUTE.as(Time.MILLISECONDS)),
+        eq(ONE_MINUTE.as(Time.MILLISECONDS)),
+        eq(TimeUnit.MILLISECONDS)))
+        .andReturn(null);
+
+    control.replay();
+
+    pruner.schedulerActive(new SchedulerActive());
+  }
+
+  @Test
+  public void testPrunesExpiredTasks() {
+    makePruner(10, 10);
+    stateManager.deleteTasks(ImmutableSet.of("a", "b"));
+
+    control.replay();
+
+    IScheduledTask a = kill("a");
+    IScheduledTask b = kill("b");
+    clock.advance(Amount.of(1L, Time.HOURS));
+    kill("c");
+
+    clock.advance(Amount.of(23L, Time.HOURS));
+    pruner.pruneEligibleTasks();
+    pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(a, b)));
+    assertEquals(ImmutableSet.of("c"), pruner.getTasksByJob().values().iterator().next().keySet());
+  }
+
+  @Test
+  public void testBatchSizeBounded() {
+    makePruner(10, 2);
+    stateManager.deleteTasks(ImmutableSet.of("a", "b"));
+    stateManager.deleteTasks(ImmutableSet.of("c"));
+
+    control.replay();
+
+    kill("a");
+    kill("b");
+    kill("c");
+
+    clock.advance(ONE_DAY);
+    pruner.pruneEligibleTasks();
+    assertTrue(pruner.getTasksByJob().isEmpty());
+  }
+
+  @Test
+  public void testExceedHistoryGoal() {
+    makePruner(2, 2);
+    Capture<Runnable> pruneBatch = createCapture();
+    executor.execute(EasyMock.capture(pruneBatch));
+    stateManager.deleteTasks(ImmutableSet.of("a", "b"));
+
+    control.replay();
+
+    kill("a");
+    kill("b");
+    kill("c");
+    assertEquals(ImmutableSet.of("a"), pruner.getEligibleTasks());
+    kill("d");
+    assertEquals(ImmutableSet.of("a", "b"), pruner.getEligibleTasks());
+
+    pruneBatch.getValue().run();
+    assertEquals(ImmutableSet.<String>of(), pruner.getEligibleTasks());
+    assertEquals(
+        ImmutableSet.of("c", "d"),
+        pruner.getTasksByJob().values().iterator().next().keySet());
+  }
+
+  @Test
+  public void testStorageStartedWithHistory() {
+    makePruner(10, 10);
+    stateManager.deleteTasks(ImmutableSet.of("a"));
+
+    control.replay();
+
+    IScheduledTask a = makeTask("a", FINISHED);
+    clock.advance(Amount.of(12L, Time.HOURS));
+    IScheduledTask b = makeTask("b", FINISHED);
+    clock.advance(Amount.of(12L, Time.HOURS));
+    pruner.recordStateChanges(new TaskStateChanges(ImmutableList.of(
+        TaskStateChange.initialized(a),
+        TaskStateChange.initialized(b),
+        TaskStateChange.initialized(makeTask("c", RUNNING)))));
+
+    // Only the task that became inactive a day ago has expired.
+    pruner.pruneEligibleTasks();
+  }
+
+  @Test
+  public void testDeletedTasksForgotten() {
+    makePruner(10, 10);
+
+    control.replay();
+
+    IScheduledTask a = kill("a");
+    pruner.tasksDeleted(new TasksDeleted(ImmutableSet.of(a)));
+    assertTrue(pruner.getTasksByJob().isEmpty());
+
+    clock.advance(ONE_DAY);
+    pruner.pruneEligibleTasks();
+  }
+
+  @Test
+  public void testPruneFailureRetried() {
+    makePruner(10, 10);
+    stateManager.deleteTasks(ImmutableSet.of("a"));
+    expectLastCall().andThrow(new IllegalStateException("Storage unavailable"));
+    stateManager.deleteTasks(ImmutableSet.of("a"));
+
+    control.replay();
+
+    kill("a");
+    clock.advance(ONE_DAY);
+    try {
+      pruner.pruneEligibleTasks();
+      fail();
+    } catch (IllegalStateException e) {
+      // Expected.
+    }
+    assertEquals(ImmutableSet.of("a"), pruner.getEligibleTasks());
+
+    pruner.pruneEligibleTasks();
+    assertEquals(ImmutableSet.<String>of(), pruner.getEligibleTasks());
+  }
+
+  private IScheduledTask kill(String taskId) {
+    IScheduledTask task = makeTask(taskId, KILLED);
+    pruner.recordStateChange(TaskStateChange.transition(task, RUNNING));
+    return task;
+  }
+
+  private IScheduledTask makeTask(String taskId, ScheduleStatus status) {
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setTaskEvents(ImmutableList.of(new TaskEvent(clock.nowMillis(), status)))
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity().setRole("role").setUser("user"))
+                .setEnvironment("test")
+                .setJobName("job"))));
+  }
+}
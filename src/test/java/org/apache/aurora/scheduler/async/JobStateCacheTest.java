@@ -0,0 +1,147 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.scheduler.base.JobKeys;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.filter.AttributeAggregator;
+import org.apache.aurora.scheduler.filter.CachedJobState;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.MutateWork;
+import org.apache.aurora.scheduler.storage.entities.IJobKey;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.mem.MemStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.aurora.gen.ScheduleStatus.ASSIGNED;
+import static org.apache.aurora.gen.ScheduleStatus.PENDING;
+import static org.apache.aurora.gen.ScheduleStatus.RUNNING;
+import static org.apache.aurora.gen.ScheduleStatus.THROTTLED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+public class JobStateCacheTest {
+
+  private static final IJobKey JOB_A = JobKeys.from("role", "env", "job_a");
+  private static final IJobKey JOB_B = JobKeys.from("role", "env", "job_b");
+
+  private Storage storage;
+  private JobStateCache jobStates;
+
+  @Before
+  public void setUp() {
+    storage = MemStorage.newEmptyStorage();
+    jobStates = new JobStateCache(storage, new AttributeAggregator(storage));
+  }
+
+  private static IScheduledTask makeTask(String taskId, IJobKey job, ScheduleStatus status) {
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity().setRole(job.getRole()).setUser("user"))
+                .setEnvironment(job.getEnvironment())
+                .setJobName(job.getName()))));
+  }
+
+  private void saveTasks(final IScheduledTask... tasks) {
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override
+      protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.copyOf(tasks));
+      }
+    });
+  }
+
+  private IScheduledTask changeState(IScheduledTask task, ScheduleStatus newState) {
+    IScheduledTask changed = IScheduledTask.build(task.newBuilder().setStatus(newState));
+    saveTasks(changed);
+    jobStates.taskChangedState(TaskStateChange.transition(changed, task.getStatus()));
+    return changed;
+  }
+
+  @Test
+  public void testStateSharedUntilJobChanges() {
+    IScheduledTask a1 = makeTask("a1", JOB_A, RUNNING);
+    IScheduledTask a2 = makeTask("a2", JOB_A, PENDING);
+    IScheduledTask a3 = makeTask("a3", JOB_A, PENDING);
+    saveTasks(a1, a2, a3);
+
+    CachedJobState state = jobStates.get(JOB_A);
+    assertEquals(ImmutableSet.of(a1), state.getActiveTasks());
+    assertSame(state, jobStates.get(JOB_A));
+
+    // Changes among inactive tasks do not affect the job's state.
+    changeState(a3, THROTTLED);
+    assertSame(state, jobStates.get(JOB_A));
+
+    IScheduledTask assigned = changeState(a2, ASSIGNED);
+    CachedJobState newState = jobStates.get(JOB_A);
+    assertNotSame(state, newState);
+    assertEquals(ImmutableSet.of(a1, assigned), newState.getActiveTasks());
+  }
+
+  @Test
+  public void testJobsInvalidatedIndependently() {
+    IScheduledTask a1 = makeTask("a1", JOB_A, PENDING);
+    IScheduledTask b1 = makeTask("b1", JOB_B, RUNNING);
+    saveTasks(a1, b1);
+
+    CachedJobState stateA = jobStates.get(JOB_A);
+    CachedJobState stateB = jobStates.get(JOB_B);
+
+    changeState(a1, ASSIGNED);
+    assertNotSame(stateA, jobStates.get(JOB_A));
+    assertSame(stateB, jobStates.get(JOB_B));
+
+    jobStates.tasksDeleted(new TasksDeleted(ImmutableSet.of(b1)));
+    assertNotSame(stateB, jobStates.get(JOB_B));
+  }
+
+  @Test
+  public void testOnlyFetchesReadTasks() {
+    saveTasks(makeTask("a1", JOB_A, RUNNING));
+    long fetches = jobStates.getFetches();
+
+    // Looking up the state does not fetch the job's tasks until they are read.
+    CachedJobState state = jobStates.get(JOB_A);
+    jobStates.get(JOB_A).getAttributeAggregate();
+    assertEquals(fetches, jobStates.getFetches());
+
+    state.getActiveTasks();
+    state.getActiveTasks();
+    assertEquals(fetches + 1, jobStates.getFetches());
+  }
+
+  @Test
+  public void testExplicitInvalidation() {
+    CachedJobState state = jobStates.get(JOB_A);
+    jobStates.invalidate(JOB_A);
+    assertNotSame(state, jobStates.get(JOB_A));
+  }
+}
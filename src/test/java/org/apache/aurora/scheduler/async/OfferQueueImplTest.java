@@ -15,37 +15,51 @@
  */
 package org.apache.aurora.scheduler.async;
 
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.testing.TearDown;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.common.base.Closure;
 import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
 import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
 
 import org.apache.aurora.gen.MaintenanceMode;
 import org.apache.aurora.scheduler.Driver;
+import org.apache.aurora.scheduler.ResourceSlot;
 import org.apache.aurora.scheduler.async.OfferQueue.LaunchException;
 import org.apache.aurora.scheduler.async.OfferQueue.OfferQueueImpl;
 import org.apache.aurora.scheduler.async.OfferQueue.OfferReturnDelay;
+import org.apache.aurora.scheduler.configuration.Resources;
 import org.apache.aurora.scheduler.events.PubsubEvent.DriverDisconnected;
 import org.apache.aurora.scheduler.state.MaintenanceController;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.TaskInfo;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class OfferQueueImplTest extends EasyMockTest {
 
@@ -62,6 +76,7 @@ public class OfferQueueImplTest extends EasyMockTest {
   private ExecutorService testExecutor;
   private MaintenanceController maintenanceController;
   private Function<Offer, Optional<TaskInfo>> offerAcceptor;
+  private OfferReturnDelay returnDelay;
   private OfferQueueImpl offerQueue;
 
   @Before
@@ -79,7 +94,7 @@ public class OfferQueueImplTest extends EasyMockTest {
     });
     maintenanceController = createMock(MaintenanceController.class);
     offerAcceptor = createMock(new Clazz<Function<Offer, Optional<TaskInfo>>>() { });
-    OfferReturnDelay returnDelay = new OfferReturnDelay() {
+    returnDelay = new OfferReturnDelay() {
       @Override
       public Amount<Integer, Time> get() {
         return RETURN_DELAY;
@@ -144,6 +159,133 @@ public class OfferQueueImplTest extends EasyMockTest {
     assertFalse(offerQueue.launchFirst(offerAcceptor));
   }
 
+  @Test
+  public void testLaunchAll() throws Exception {
+    Function<Offer, List<TaskInfo>> batchAcceptor =
+        createMock(new Clazz<Function<Offer, List<TaskInfo>>>() { });
+    TaskInfo task1 = TaskInfo.getDefaultInstance();
+    TaskInfo task2 = TaskInfo.getDefaultInstance();
+    TaskInfo task3 = TaskInfo.getDefaultInstance();
+
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_C)).andReturn(MaintenanceMode.NONE);
+    expect(batchAcceptor.apply(OFFER_A)).andReturn(ImmutableList.of(task1, task2));
+    expect(batchAcceptor.apply(OFFER_B)).andReturn(ImmutableList.<TaskInfo>of());
+    expect(batchAcceptor.apply(OFFER_C)).andReturn(ImmutableList.of(task3));
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(task1, task2));
+    driver.launchTask(OFFER_C.getId(), task3);
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    offerQueue.addOffer(OFFER_C);
+    offerQueue.launchAll(batchAcceptor);
+    assertEquals(ImmutableList.of(OFFER_B), ImmutableList.copyOf(offerQueue.getOffers()));
+  }
+
+  @Test
+  public void testResidualOfferLaunchedTogether() throws Exception {
+    ScheduledExecutorService mockExecutor = createMock(ScheduledExecutorService.class);
+    offerQueue = new OfferQueueImpl(
+        driver,
+        returnDelay,
+        mockExecutor,
+        maintenanceController,
+        Amount.of(10L, Time.MILLISECONDS));
+    TaskInfo task1 = TaskInfo.newBuilder()
+        .setName("task1")
+        .addResources(Resources.makeMesosResource(Resources.CPUS, 1))
+        .buildPartial();
+    TaskInfo task2 = task1.toBuilder().setName("task2").buildPartial();
+    Offer residual = Resources.residual(OFFER_A, ImmutableList.of(task1));
+
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    mockExecutor.schedule(
+        EasyMock.<Runnable>anyObject(),
+        eq(RETURN_DELAY.as(Time.MILLISECONDS).longValue()),
+        eq(TimeUnit.MILLISECONDS));
+    expectLastCall().andReturn(null);
+    Capture<Runnable> launch = createCapture();
+    mockExecutor.schedule(capture(launch), eq(10L), eq(TimeUnit.MILLISECONDS));
+    expectLastCall().andReturn(null);
+    expect(offerAcceptor.apply(OFFER_A)).andReturn(Optional.of(task1));
+    expect(offerAcceptor.apply(residual)).andReturn(Optional.of(task2));
+    driver.launchTasks(OFFER_A.getId(), ImmutableList.of(task1, task2));
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    assertTrue(offerQueue.launchFirst(offerAcceptor));
+    assertEquals(ImmutableList.of(residual), ImmutableList.copyOf(offerQueue.getOffers()));
+    assertTrue(offerQueue.launchFirst(offerAcceptor));
+    launch.getValue().run();
+    assertEquals(ImmutableList.<Offer>of(), ImmutableList.copyOf(offerQueue.getOffers()));
+  }
+
+  @Test
+  public void testSkipsOffersTooSmall() throws Exception {
+    Offer small = Offers.makeOffer("OFFER_SMALL", "HOST_SMALL").toBuilder()
+        .clearResources()
+        .addResources(Resources.makeMesosResource(Resources.CPUS, 1))
+        .addResources(Resources.makeMesosResource(Resources.RAM_MB, 1024))
+        .addResources(Resources.makeMesosResource(Resources.DISK_MB, 1024))
+        .build();
+    ResourceSlot slot = ResourceSlot.from(
+        2,
+        Amount.of(1L, Data.GB),
+        Amount.of(1L, Data.GB),
+        0);
+
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode("HOST_SMALL")).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.DRAINING);
+    expect(offerAcceptor.apply(OFFER_A)).andReturn(Optional.<TaskInfo>absent());
+    expect(offerAcceptor.apply(OFFER_B)).andReturn(Optional.<TaskInfo>absent());
+    Closure<Offer> skipped = createMock(new Clazz<Closure<Offer>>() { });
+    skipped.execute(small);
+
+    control.replay();
+
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(small);
+    offerQueue.addOffer(OFFER_B);
+    assertFalse(offerQueue.launchFirst(slot, offerAcceptor, skipped));
+  }
+
+  @Test
+  public void testStopsAtFirstFittingOffer() throws Exception {
+    // This offer has enough CPUs, but too little RAM.
+    Offer lowRam = Offers.makeOffer("OFFER_LOW_RAM", "HOST_LOW_RAM").toBuilder()
+        .clearResources()
+        .addResources(Resources.makeMesosResource(Resources.CPUS, 16))
+        .addResources(Resources.makeMesosResource(Resources.RAM_MB, 512))
+        .addResources(Resources.makeMesosResource(Resources.DISK_MB, 1024))
+        .build();
+    ResourceSlot slot = ResourceSlot.from(
+        2,
+        Amount.of(1L, Data.GB),
+        Amount.of(1L, Data.GB),
+        0);
+    TaskInfo task = TaskInfo.newBuilder().setName("task").buildPartial();
+
+    expect(maintenanceController.getMode("HOST_LOW_RAM")).andReturn(MaintenanceMode.NONE);
+    expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.SCHEDULED);
+    expect(maintenanceController.getMode(HOST_B)).andReturn(MaintenanceMode.DRAINING);
+    // The offer on the DRAINING host is never visited, and no offers are reported as skipped.
+    expect(offerAcceptor.apply(OFFER_A)).andReturn(Optional.of(task));
+    driver.launchTask(OFFER_A.getId(), task);
+    Closure<Offer> skipped = createMock(new Clazz<Closure<Offer>>() { });
+
+    control.replay();
+
+    offerQueue.addOffer(lowRam);
+    offerQueue.addOffer(OFFER_A);
+    offerQueue.addOffer(OFFER_B);
+    assertTrue(offerQueue.launchFirst(slot, offerAcceptor, skipped));
+  }
+
   @Test
   public void testFlushOffers() throws Exception {
     expect(maintenanceController.getMode(HOST_A)).andReturn(MaintenanceMode.NONE);
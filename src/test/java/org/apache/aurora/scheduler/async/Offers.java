@@ -15,6 +15,7 @@
  */
 package org.apache.aurora.scheduler.async;
 
+import org.apache.aurora.scheduler.configuration.Resources;
 import org.apache.mesos.Protos.FrameworkID;
 import org.apache.mesos.Protos.Offer;
 import org.apache.mesos.Protos.OfferID;
@@ -40,6 +41,9 @@ final class Offers {
         .setFrameworkId(FrameworkID.newBuilder().setValue("framework_id"))
         .setSlaveId(SlaveID.newBuilder().setValue("slave_id-" + offerId))
         .setHostname(hostName)
+        .addResources(Resources.makeMesosResource(Resources.CPUS, 16))
+        .addResources(Resources.makeMesosResource(Resources.RAM_MB, 24 * 1024))
+        .addResources(Resources.makeMesosResource(Resources.DISK_MB, 450 * 1024))
         .build();
   }
 }
@@ -0,0 +1,162 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.Collections;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.scheduler.ResourceSlot;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.MutateWork;
+import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.mem.MemStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.aurora.gen.ScheduleStatus.FINISHED;
+import static org.apache.aurora.gen.ScheduleStatus.PENDING;
+import static org.apache.aurora.gen.ScheduleStatus.PREEMPTING;
+import static org.apache.aurora.gen.ScheduleStatus.RUNNING;
+import static org.junit.Assert.assertEquals;
+
+public class PreemptionIndexTest {
+
+  private static final String SLAVE_A = "slave_a";
+  private static final String SLAVE_B = "slave_b";
+
+  private Storage storage;
+  private PreemptionIndex index;
+
+  @Before
+  public void setUp() {
+    storage = MemStorage.newEmptyStorage();
+    index = new PreemptionIndex(storage);
+  }
+
+  private static IScheduledTask makeTask(
+      String taskId,
+      String slaveId,
+      ScheduleStatus status,
+      boolean production) {
+
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setSlaveId(slaveId)
+            .setSlaveHost("host-" + slaveId)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity().setRole("role").setUser("user"))
+                .setEnvironment("env")
+                .setJobName("job")
+                .setProduction(production)
+                .setNumCpus(1)
+                .setRamMb(1024)
+                .setDiskMb(1024))));
+  }
+
+  private void saveTasks(final IScheduledTask... tasks) {
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override
+      protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.copyOf(tasks));
+      }
+    });
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus newState) {
+    index.taskChangedState(TaskStateChange.transition(
+        IScheduledTask.build(task.newBuilder().setStatus(newState)),
+        task.getStatus()));
+  }
+
+  private ImmutableList<IAssignedTask> victims(String slaveId) {
+    return ImmutableList.copyOf(index.getVictims(slaveId).getTasks());
+  }
+
+  @Test
+  public void testLoadsFromStorage() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING, false);
+    IScheduledTask b = makeTask("b", SLAVE_B, RUNNING, false);
+    IScheduledTask pending = makeTask("c", SLAVE_A, PENDING, false);
+    saveTasks(a, b, pending);
+
+    assertEquals(ImmutableSet.of(SLAVE_A, SLAVE_B), index.getSlaveIds());
+    assertEquals(ImmutableList.of(a.getAssignedTask()), victims(SLAVE_A));
+    assertEquals(ImmutableList.of(b.getAssignedTask()), victims(SLAVE_B));
+  }
+
+  @Test
+  public void testVictimOrderAndTotal() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING, true);
+    IScheduledTask b = makeTask("b", SLAVE_A, RUNNING, false);
+    IScheduledTask c = makeTask("c", SLAVE_A, RUNNING, false);
+    saveTasks(a, b, c);
+
+    // Candidates are kept in reverse scheduling order, so non-production tasks come first.
+    assertEquals(
+        ImmutableList.of(c.getAssignedTask(), b.getAssignedTask(), a.getAssignedTask()),
+        victims(SLAVE_A));
+    PreemptionIndex.Victims victims = index.getVictims(SLAVE_A);
+    ResourceSlot resources = ResourceSlot.from(a.getAssignedTask().getTask());
+    for (int count = 0; count <= 3; count++) {
+      assertEquals(
+          ResourceSlot.sum(Collections.nCopies(count, resources)),
+          victims.getResources(count));
+    }
+    assertEquals(ResourceSlot.sum(Collections.nCopies(3, resources)), victims.getTotal());
+  }
+
+  @Test
+  public void testUpdatedByEvents() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING, false);
+    IScheduledTask b = makeTask("b", SLAVE_A, RUNNING, false);
+    saveTasks(a, b);
+    assertEquals(ImmutableSet.of(SLAVE_A), index.getSlaveIds());
+
+    IScheduledTask c = makeTask("c", SLAVE_B, PENDING, false);
+    changeState(c, RUNNING);
+    changeState(a, PREEMPTING);
+    assertEquals(ImmutableList.of(b.getAssignedTask()), victims(SLAVE_A));
+    assertEquals(ImmutableSet.of(SLAVE_A, SLAVE_B), index.getSlaveIds());
+
+    changeState(b, FINISHED);
+    index.tasksDeleted(new TasksDeleted(ImmutableSet.of(c)));
+    assertEquals(ImmutableSet.<String>of(), index.getSlaveIds());
+    assertEquals(ImmutableList.<IAssignedTask>of(), victims(SLAVE_A));
+  }
+
+  @Test
+  public void testEventsBeforeLoadTakePrecedence() {
+    IScheduledTask a = makeTask("a", SLAVE_A, RUNNING, false);
+    saveTasks(a);
+
+    // The task finished, but storage is read after the event was received.
+    changeState(a, FINISHED);
+    assertEquals(ImmutableSet.<String>of(), index.getSlaveIds());
+  }
+}
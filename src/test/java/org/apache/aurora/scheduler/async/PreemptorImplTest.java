@@ -18,6 +18,7 @@ package org.apache.aurora.scheduler.async;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import com.google.common.base.Optional;
@@ -88,6 +89,7 @@ public class PreemptorImplTest extends EasyMockTest {
   private static final String TASK_ID_C = "task_c";
   private static final String TASK_ID_D = "task_d";
   private static final String HOST_A = "host_a";
+  private static final String HOST_B = "host_b";
   private static final String RACK_A = "rackA";
   private static final String RACK_ATTRIBUTE = "rack";
   private static final String HOST_ATTRIBUTE = "host";
@@ -475,6 +477,79 @@ public class PreemptorImplTest extends EasyMockTest {
     runPreemptor(p1);
   }
 
+  // Ensures a slave is ruled out without filtering when all of its candidates are too small.
+  @Test
+  public void testSlaveWithInsufficientCandidatesSkipped() throws Exception {
+    schedulingFilter = createMock(SchedulingFilter.class);
+    ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
+    a1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
+    runOnHost(a1, HOST_A);
+
+    ScheduledTask p1 = makeProductionTask(USER_B, JOB_B, TASK_ID_B + "_p1");
+    p1.getAssignedTask().getTask().setNumCpus(4).setRamMb(2048);
+
+    clock.advance(PREEMPTION_DELAY);
+
+    expectNoOffers();
+
+    expectGetPendingTasks(p1);
+    expectGetActiveTasks(a1);
+
+    control.replay();
+    runPreemptor(p1);
+  }
+
+  // Ensures a batch of pending tasks is given distinct slaves, and only as many as can be freed.
+  @Test
+  public void testBatchDoesNotDoubleBookSlaves() throws Exception {
+    schedulingFilter = new SchedulingFilterImpl(storageUtil.storage, maintenance);
+    setUpHost(HOST_A, RACK_A);
+    setUpHost(HOST_B, RACK_A);
+
+    ScheduledTask a1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_a1");
+    a1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
+    runOnHost(a1, HOST_A);
+
+    ScheduledTask b1 = makeTask(USER_A, JOB_A, TASK_ID_A + "_b1");
+    b1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
+    runOnHost(b1, HOST_B);
+
+    ScheduledTask p1 = makeProductionTask(USER_B, JOB_B, TASK_ID_B + "_p1");
+    p1.getAssignedTask().getTask().setNumCpus(1).setRamMb(512);
+    ScheduledTask p2 = p1.deepCopy();
+    p2.getAssignedTask().setTaskId(TASK_ID_B + "_p2");
+    ScheduledTask p3 = p1.deepCopy();
+    p3.getAssignedTask().setTaskId(TASK_ID_B + "_p3");
+
+    clock.advance(PREEMPTION_DELAY);
+
+    expectNoOffers();
+
+    expectGetPendingTasks(p1, p2, p3);
+    expectGetActiveTasks(a1, b1);
+
+    expectPreempted(a1);
+    expectPreempted(b1);
+
+    control.replay();
+
+    PreemptorImpl preemptor = new PreemptorImpl(
+        storageUtil.storage,
+        stateManager,
+        offerQueue,
+        schedulingFilter,
+        PREEMPTION_DELAY,
+        clock);
+
+    Map<String, String> slots = preemptor.findPreemptionSlotsFor(
+        ImmutableSet.of(Tasks.id(p1), Tasks.id(p2), Tasks.id(p3)),
+        EMPTY_JOB);
+    assertEquals(ImmutableSet.of(Tasks.id(p1), Tasks.id(p2)), slots.keySet());
+    assertEquals(
+        ImmutableSet.of(hostToId(HOST_A), hostToId(HOST_B)),
+        ImmutableSet.copyOf(slots.values()));
+  }
+
   @Test
   public void testIgnoresThrottledTasks() throws Exception {
     // Ensures that the preemptor does not consider a throttled task to be a preemption candidate.
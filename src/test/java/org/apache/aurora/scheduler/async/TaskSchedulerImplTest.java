@@ -15,13 +15,19 @@
  */
 package org.apache.aurora.scheduler.async;
 
+import java.util.List;
+import java.util.Set;
+
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.inject.AbstractModule;
 import com.google.inject.Guice;
 import com.google.inject.Injector;
+import com.twitter.common.base.Closure;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
@@ -32,6 +38,7 @@ import org.apache.aurora.gen.AssignedTask;
 import org.apache.aurora.gen.Identity;
 import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.scheduler.ResourceSlot;
 import org.apache.aurora.scheduler.async.TaskScheduler.TaskSchedulerImpl;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
@@ -48,18 +55,25 @@ import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.mem.MemStorage;
 import org.apache.aurora.scheduler.storage.testing.StorageTestUtil;
 import org.apache.mesos.Protos.Offer;
+import org.apache.mesos.Protos.TaskID;
 import org.apache.mesos.Protos.TaskInfo;
 import org.easymock.Capture;
+import org.easymock.EasyMock;
+import org.easymock.IAnswer;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.apache.aurora.gen.ScheduleStatus.LOST;
 import static org.apache.aurora.gen.ScheduleStatus.PENDING;
 import static org.apache.aurora.gen.ScheduleStatus.THROTTLED;
 import static org.apache.aurora.scheduler.async.TaskScheduler.TaskSchedulerResult.SUCCESS;
 import static org.apache.aurora.scheduler.async.TaskScheduler.TaskSchedulerResult.TRY_AGAIN;
 import static org.easymock.EasyMock.capture;
+import static org.easymock.EasyMock.eq;
 import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.expectLastCall;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
 public class TaskSchedulerImplTest extends EasyMockTest {
 
@@ -141,8 +155,8 @@ public class TaskSchedulerImplTest extends EasyMockTest {
     Capture<Function<Offer, Optional<TaskInfo>>> firstAssignment = expectLaunchAttempt(false);
     expect(preemptor.findPreemptionSlotFor("b", EMPTY_JOB)).andReturn(Optional.<String>absent());
 
+    // The job state of "b" is reused from the previous attempt.
     expectTaskStillPendingQuery(TASK_B);
-    expectActiveJobFetch(TASK_B);
     Capture<Function<Offer, Optional<TaskInfo>>> secondAssignment = expectLaunchAttempt(true);
     expectAssigned(TASK_B);
 
@@ -172,7 +186,6 @@ public class TaskSchedulerImplTest extends EasyMockTest {
         .andReturn(Optional.of(OFFER.getSlaveId().getValue()));
 
     expectTaskStillPendingQuery(TASK_A);
-    expectActiveJobFetch(TASK_A);
     Capture<Function<Offer, Optional<TaskInfo>>> firstAssignment = expectLaunchAttempt(true);
     expectAssigned(TASK_A);
 
@@ -205,7 +218,6 @@ public class TaskSchedulerImplTest extends EasyMockTest {
         .andReturn(Optional.of(OFFER.getSlaveId().getValue()));
 
     expectTaskStillPendingQuery(TASK_A);
-    expectActiveJobFetch(TASK_A);
     Capture<Function<Offer, Optional<TaskInfo>>> firstAssignment = expectLaunchAttempt(true);
     expectAssigned(TASK_A);
 
@@ -300,6 +312,153 @@ public class TaskSchedulerImplTest extends EasyMockTest {
     assignment.getValue().apply(OFFER);
   }
 
+  private Set<String> savePendingTasks(Storage memStorage, String... taskIds) {
+    final ImmutableSet.Builder<IScheduledTask> tasks = ImmutableSet.builder();
+    for (String taskId : taskIds) {
+      ScheduledTask builder = TASK_A.newBuilder().setStatus(PENDING);
+      builder.getAssignedTask().setTaskId(taskId);
+      tasks.add(IScheduledTask.build(builder));
+    }
+    memStorage.write(new MutateWork.NoResult.Quiet() {
+      @Override
+      protected void execute(MutableStoreProvider store) {
+        store.getUnsafeTaskStore().saveTasks(tasks.build());
+      }
+    });
+    return ImmutableSet.copyOf(taskIds);
+  }
+
+  private void useMemStorage(Storage memStorage) {
+    Injector injector = getInjector(memStorage);
+    scheduler = injector.getInstance(TaskScheduler.class);
+    eventSink = PubsubTestUtil.startPubsub(injector);
+  }
+
+  private static TaskInfo taskInfo(String taskId) {
+    return TaskInfo.newBuilder()
+        .setTaskId(TaskID.newBuilder().setValue(taskId))
+        .buildPartial();
+  }
+
+  private void expectBatchAssignments(int assigned) {
+    IAnswer<Optional<TaskInfo>> assign = new IAnswer<Optional<TaskInfo>>() {
+      @Override
+      public Optional<TaskInfo> answer() {
+        IScheduledTask task = (IScheduledTask) EasyMock.getCurrentArguments()[1];
+        return Optional.of(taskInfo(Tasks.id(task)));
+      }
+    };
+    expect(assigner.maybeAssign(
+        eq(OFFER),
+        EasyMock.<IScheduledTask>anyObject(),
+        EasyMock.<CachedJobState>anyObject()))
+        .andAnswer(assign).times(assigned)
+        .andReturn(Optional.<TaskInfo>absent()).anyTimes();
+  }
+
+  private Capture<List<TaskInfo>> expectLaunchAll(final boolean launchFails) throws Exception {
+    final Capture<List<TaskInfo>> launched = createCapture();
+    offerQueue.launchAll(
+        EasyMock.<ResourceSlot>anyObject(),
+        EasyMock.<Function<Offer, List<TaskInfo>>>anyObject(),
+        EasyMock.<Closure<Offer>>anyObject());
+    expectLastCall().andAnswer(new IAnswer<Void>() {
+      @Override
+      public Void answer() throws OfferQueue.LaunchException {
+        @SuppressWarnings("unchecked")
+        Function<Offer, List<TaskInfo>> acceptor =
+            (Function<Offer, List<TaskInfo>>) EasyMock.getCurrentArguments()[1];
+        launched.setValue(ImmutableList.copyOf(acceptor.apply(OFFER)));
+        if (launchFails) {
+          throw new OfferQueue.LaunchException("Injected failure.");
+        }
+        return null;
+      }
+    });
+    return launched;
+  }
+
+  @Test
+  public void testScheduleBatchPlacesMultipleTasksPerOffer() throws Exception {
+    Storage memStorage = MemStorage.newEmptyStorage();
+    useMemStorage(memStorage);
+    Set<String> taskIds = savePendingTasks(memStorage, "a1", "a2", "a3");
+
+    expectBatchAssignments(2);
+    Capture<List<TaskInfo>> launched = expectLaunchAll(false);
+    expect(preemptor.findPreemptionSlotsFor(
+        EasyMock.<Set<String>>anyObject(),
+        EasyMock.<CachedJobState>anyObject()))
+        .andReturn(ImmutableMap.<String, String>of());
+
+    control.replay();
+
+    Set<String> scheduled = scheduler.scheduleBatch(taskIds);
+    assertEquals(2, scheduled.size());
+    assertTrue(taskIds.containsAll(scheduled));
+    assertEquals(2, launched.getValue().size());
+  }
+
+  @Test
+  public void testScheduleBatchReservesPreemptionSlots() throws Exception {
+    Storage memStorage = MemStorage.newEmptyStorage();
+    useMemStorage(memStorage);
+    Set<String> taskIds = savePendingTasks(memStorage, "a1", "a2");
+
+    expect(assigner.maybeAssign(
+        eq(OFFER),
+        EasyMock.<IScheduledTask>anyObject(),
+        EasyMock.<CachedJobState>anyObject()))
+        .andReturn(Optional.<TaskInfo>absent()).anyTimes();
+    expectLaunchAll(false);
+    expect(preemptor.findPreemptionSlotsFor(
+        eq(taskIds),
+        EasyMock.<CachedJobState>anyObject()))
+        .andReturn(ImmutableMap.of("a1", "slave_b"));
+
+    // The reservation for a1 is honored, only a2 needs a preemption slot.
+    expectLaunchAll(false);
+    expect(preemptor.findPreemptionSlotsFor(
+        eq(ImmutableSet.of("a2")),
+        EasyMock.<CachedJobState>anyObject()))
+        .andReturn(ImmutableMap.<String, String>of());
+
+    control.replay();
+
+    assertEquals(ImmutableSet.<String>of(), scheduler.scheduleBatch(taskIds));
+    assertEquals(ImmutableSet.<String>of(), scheduler.scheduleBatch(taskIds));
+  }
+
+  @Test
+  public void testScheduleBatchLaunchFailure() throws Exception {
+    Storage memStorage = MemStorage.newEmptyStorage();
+    useMemStorage(memStorage);
+    Set<String> taskIds = savePendingTasks(memStorage, "a1");
+
+    expectBatchAssignments(1);
+    expectLaunchAll(true);
+    expect(stateManager.changeState(
+        "a1",
+        Optional.of(PENDING),
+        LOST,
+        TaskSchedulerImpl.LAUNCH_FAILED_MSG))
+        .andReturn(true);
+
+    control.replay();
+
+    assertEquals(taskIds, scheduler.scheduleBatch(taskIds));
+  }
+
+  @Test
+  public void testScheduleBatchDeletedTasks() throws Exception {
+    Storage memStorage = MemStorage.newEmptyStorage();
+    useMemStorage(memStorage);
+
+    control.replay();
+
+    assertEquals(ImmutableSet.of("a1"), scheduler.scheduleBatch(ImmutableSet.of("a1")));
+  }
+
   private static IScheduledTask makeTask(String taskId) {
     return IScheduledTask.build(new ScheduledTask()
         .setAssignedTask(new AssignedTask()
@@ -314,13 +473,17 @@ public class TaskSchedulerImplTest extends EasyMockTest {
   private Capture<Function<Offer, Optional<TaskInfo>>> expectLaunchAttempt(boolean taskLaunched)
       throws OfferQueue.LaunchException {
         Capture<Function<Offer, Optional<TaskInfo>>> assignment = createCapture();
-        expect(offerQueue.launchFirst(capture(assignment))).andReturn(taskLaunched);
+        expect(offerQueue.launchFirst(
+            EasyMock.<ResourceSlot>anyObject(),
+            capture(assignment),
+            EasyMock.<Closure<Offer>>anyObject()))
+            .andReturn(taskLaunched);
         return assignment;
   }
 
   private void expectActiveJobFetch(IScheduledTask taskInJob) {
     storageUtil.expectTaskFetch(
-        TaskSchedulerImpl.activeJobStateQuery(Tasks.SCHEDULED_TO_JOB_KEY.apply(taskInJob)),
+        JobStateCache.activeJobStateQuery(Tasks.SCHEDULED_TO_JOB_KEY.apply(taskInJob)),
         ImmutableSet.<IScheduledTask>of());
   }
 }
@@ -45,10 +45,14 @@ import org.apache.aurora.scheduler.async.RescheduleCalculator.RescheduleCalculat
 import org.apache.aurora.scheduler.async.TaskScheduler.TaskSchedulerImpl;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.EventSink;
 import org.apache.aurora.scheduler.events.PubsubEvent.HostMaintenanceStateChange;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
 import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.events.PubsubEvent.Vetoed;
+import org.apache.aurora.scheduler.filter.AttributeAggregator;
 import org.apache.aurora.scheduler.filter.CachedJobState;
+import org.apache.aurora.scheduler.filter.SchedulingFilter.Veto;
 import org.apache.aurora.scheduler.state.MaintenanceController;
 import org.apache.aurora.scheduler.state.StateManager;
 import org.apache.aurora.scheduler.state.TaskAssigner;
@@ -109,6 +113,7 @@ public class TaskSchedulerTest extends EasyMockTest {
   private FakeClock clock;
   private BackoffStrategy flappingStrategy;
   private Preemptor preemptor;
+  private EventSink eventSink;
   private Amount<Long, Time> reservationDuration = Amount.of(1L, Time.MINUTES);
 
   @Before
@@ -126,6 +131,7 @@ public class TaskSchedulerTest extends EasyMockTest {
     clock.setNowMillis(0);
     flappingStrategy = createMock(BackoffStrategy.class);
     preemptor = createMock(Preemptor.class);
+    eventSink = createMock(EventSink.class);
   }
 
   private void replayAndCreateScheduler() {
@@ -138,6 +144,8 @@ public class TaskSchedulerTest extends EasyMockTest {
         assigner,
         offerQueue,
         preemptor,
+        eventSink,
+        new AttributeAggregator(storage),
         reservationDuration,
         clock);
     taskGroups = new TaskGroups(
@@ -308,6 +316,28 @@ public class TaskSchedulerTest extends EasyMockTest {
     timeoutCapture3.getValue().run();
   }
 
+  @Test
+  public void testOfferTooSmallVetoed() {
+    expectAnyMaintenanceCalls();
+    expectOfferDeclineIn(10);
+
+    ScheduledTask builder = makeTask("a", PENDING).newBuilder();
+    builder.getAssignedTask().getTask().setNumCpus(32);
+    IScheduledTask task = IScheduledTask.build(builder);
+
+    // The offer is never presented to the assigner, but the task is still vetoed for it.
+    Capture<Runnable> timeoutCapture = expectTaskGroupBackoff(10);
+    eventSink.post(new Vetoed("a", ImmutableSet.of(new Veto("Insufficient CPU", Veto.MAX_SCORE))));
+    expect(preemptor.findPreemptionSlotFor("a", EMPTY_JOB)).andReturn(Optional.<String>absent());
+    expectTaskGroupBackoff(10, 20);
+
+    replayAndCreateScheduler();
+
+    offerQueue.addOffer(OFFER_A);
+    changeState(task, INIT, PENDING);
+    timeoutCapture.getValue().run();
+  }
+
   @Test
   public void testDriverNotReady() {
     IScheduledTask task = makeTask("a", PENDING);
@@ -0,0 +1,160 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.List;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.testing.FakeClock;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TimingWheelExecutorTest {
+
+  private static final Amount<Long, Time> TICK = Amount.of(10L, Time.MILLISECONDS);
+
+  private FakeClock clock;
+  private TimingWheelExecutor wheel;
+  private List<String> fired;
+
+  @Before
+  public void setUp() {
+    clock = new FakeClock();
+    wheel = new TimingWheelExecutor(MoreExecutors.sameThreadExecutor(), clock, TICK, 4);
+    fired = Lists.newArrayList();
+  }
+
+  private ScheduledFuture<?> schedule(final String name, long delayMillis) {
+    return wheel.schedule(
+        new Runnable() {
+          @Override
+          public void run() {
+            fired.add(name);
+          }
+        },
+        delayMillis,
+        TimeUnit.MILLISECONDS);
+  }
+
+  private void advance(long millis) {
+    clock.advance(Amount.of(millis, Time.MILLISECONDS));
+    wheel.advance();
+  }
+
+  @Test
+  public void testBucketsRoundedUp() {
+    assertEquals(4, wheel.getNumBuckets());
+    assertEquals(
+        8,
+        new TimingWheelExecutor(MoreExecutors.sameThreadExecutor(), clock, TICK, 5)
+            .getNumBuckets());
+  }
+
+  @Test
+  public void testExpiresAtDeadline() throws Exception {
+    ScheduledFuture<?> future = schedule("a", 25);
+    assertEquals(1, wheel.getTimerCount());
+
+    advance(20);
+    assertEquals(ImmutableList.<String>of(), fired);
+    advance(10);
+    assertEquals(ImmutableList.of("a"), fired);
+    assertTrue(future.isDone());
+    future.get();
+    assertEquals(0, wheel.getTimerCount());
+  }
+
+  @Test
+  public void testMultipleRevolutions() {
+    // The wheel covers 40 ms per revolution.
+    schedule("a", 130);
+    schedule("b", 10);
+    schedule("c", 50);
+
+    advance(10);
+    assertEquals(ImmutableList.of("b"), fired);
+    advance(40);
+    assertEquals(ImmutableList.of("b", "c"), fired);
+    advance(70);
+    assertEquals(ImmutableList.of("b", "c"), fired);
+    advance(10);
+    assertEquals(ImmutableList.of("b", "c", "a"), fired);
+  }
+
+  @Test
+  public void testCatchesUpOnMissedTicks() {
+    schedule("a", 10);
+    schedule("b", 100);
+    schedule("c", 1000);
+
+    advance(500);
+    assertEquals(ImmutableList.of("a", "b"), fired);
+    assertEquals(1, wheel.getTimerCount());
+  }
+
+  @Test
+  public void testScheduleAfterAdvance() {
+    advance(35);
+    schedule("a", 0);
+    schedule("b", 20);
+
+    // Timers expire on tick boundaries.
+    advance(5);
+    assertEquals(ImmutableList.of("a"), fired);
+    advance(20);
+    assertEquals(ImmutableList.of("a", "b"), fired);
+  }
+
+  @Test
+  public void testCancel() {
+    ScheduledFuture<?> a = schedule("a", 20);
+    ScheduledFuture<?> b = schedule("b", 20);
+    ScheduledFuture<?> c = schedule("c", 20);
+
+    assertTrue(b.cancel(false));
+    assertEquals(2, wheel.getTimerCount());
+    assertTrue(b.isCancelled());
+
+    advance(20);
+    assertEquals(ImmutableList.of("c", "a"), fired);
+    assertFalse(a.cancel(false));
+    assertFalse(c.isCancelled());
+    assertEquals(0, wheel.getTimerCount());
+  }
+
+  @Test
+  public void testShutdownNow() {
+    schedule("a", 20);
+    schedule("b", 200);
+
+    assertEquals(2, wheel.shutdownNow().size());
+    assertTrue(wheel.isShutdown());
+    assertEquals(0, wheel.getTimerCount());
+    advance(200);
+    assertEquals(ImmutableList.<String>of(), fired);
+  }
+}
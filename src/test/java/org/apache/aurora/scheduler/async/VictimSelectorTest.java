@@ -0,0 +1,192 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.async;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.scheduler.ResourceSlot;
+import org.apache.aurora.scheduler.async.VictimSelector.Strategy;
+import org.apache.aurora.scheduler.storage.entities.IAssignedTask;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import static org.apache.aurora.scheduler.async.Preemptor.PreemptorImpl.TASK_TO_RESOURCES;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class VictimSelectorTest {
+
+  private static final Logger LOG = Logger.getLogger(VictimSelectorTest.class.getName());
+
+  private static final ResourceSlot NO_SLACK = ResourceSlot.sum();
+
+  private static IAssignedTask makeTask(String taskId, double cpus, long ramMb) {
+    return IAssignedTask.build(new AssignedTask()
+        .setTaskId(taskId)
+        .setSlaveId("slave")
+        .setSlaveHost("host")
+        .setTask(new TaskConfig()
+            .setOwner(new Identity().setRole("role").setUser("user"))
+            .setEnvironment("env")
+            .setJobName("job")
+            .setNumCpus(cpus)
+            .setRamMb(ramMb)
+            .setDiskMb(0)));
+  }
+
+  private static ResourceSlot slot(double cpus, long ramMb) {
+    return ResourceSlot.from(cpus, Amount.of(ramMb, Data.MB), Amount.of(0L, Data.MB), 0);
+  }
+
+  @Test
+  public void testDominantResourcePreemptsBottleneckFirst() {
+    IAssignedTask cpuHeavyA = makeTask("cpu_a", 4, 256);
+    IAssignedTask cpuHeavyB = makeTask("cpu_b", 4, 256);
+    IAssignedTask ramHeavy = makeTask("ram", 1, 4096);
+    List<IAssignedTask> candidates = ImmutableList.of(cpuHeavyA, cpuHeavyB, ramHeavy);
+
+    // The slave has CPU to spare, but not RAM.
+    ResourceSlot required = slot(0.75, 2872);
+    ResourceSlot slack = slot(7.75, 0);
+
+    assertEquals(
+        cpuHeavyA,
+        Strategy.RESOURCE_VECTOR.order(candidates, required, slack).get(0));
+    assertEquals(
+        ramHeavy,
+        Strategy.DOMINANT_RESOURCE.order(candidates, required, slack).get(0));
+  }
+
+  @Test
+  public void testMinVictimsFindsSmallestSet() {
+    IAssignedTask a = makeTask("a", 3, 1000);
+    IAssignedTask e = makeTask("e", 2, 2000);
+    IAssignedTask f = makeTask("f", 2, 2000);
+    IAssignedTask g = makeTask("g", 0.5, 2500);
+    List<IAssignedTask> candidates = ImmutableList.of(a, e, f, g);
+
+    // Greedily preempting the task covering the most of what is missing takes three tasks.
+    List<IAssignedTask> ordered =
+        Strategy.MIN_VICTIMS.order(candidates, slot(3.75, 3872), NO_SLACK);
+    assertEquals(ImmutableSet.of(e, f), ImmutableSet.copyOf(ordered.subList(0, 2)));
+    assertEquals(ImmutableSet.copyOf(candidates), ImmutableSet.copyOf(ordered));
+  }
+
+  @Test
+  public void testMinVictimsWithoutSufficientCandidates() {
+    IAssignedTask a = makeTask("a", 1, 1000);
+    IAssignedTask b = makeTask("b", 1, 1000);
+    List<IAssignedTask> candidates = ImmutableList.of(a, b);
+
+    List<IAssignedTask> ordered =
+        Strategy.MIN_VICTIMS.order(candidates, slot(8, 8000), NO_SLACK);
+    assertEquals(ImmutableSet.copyOf(candidates), ImmutableSet.copyOf(ordered));
+  }
+
+  private static int victimsNeeded(
+      VictimSelector selector,
+      List<IAssignedTask> candidates,
+      ResourceSlot required,
+      ResourceSlot slack) {
+
+    List<ResourceSlot> freed = Lists.newArrayList(slack);
+    for (IAssignedTask victim : selector.order(candidates, required, slack)) {
+      freed.add(TASK_TO_RESOURCES.apply(victim));
+      if (ResourceSlot.sum(freed).hasAtLeast(required)) {
+        return freed.size() - 1;
+      }
+    }
+    throw new IllegalStateException("Candidates are insufficient.");
+  }
+
+  @Test
+  public void testStrategiesFreeRequiredResources() {
+    IAssignedTask cpuHeavyA = makeTask("cpu_a", 4, 256);
+    IAssignedTask cpuHeavyB = makeTask("cpu_b", 4, 256);
+    IAssignedTask ramHeavyA = makeTask("ram_a", 1, 4096);
+    IAssignedTask ramHeavyB = makeTask("ram_b", 0.5, 2048);
+    List<IAssignedTask> candidates = ImmutableList.of(cpuHeavyA, cpuHeavyB, ramHeavyA, ramHeavyB);
+    ResourceSlot required = slot(4.5, 4096);
+
+    // Every strategy orders all of the candidates, and frees the required resources.
+    for (Strategy strategy : Strategy.values()) {
+      assertEquals(
+          strategy.toString(),
+          ImmutableSet.copyOf(candidates),
+          ImmutableSet.copyOf(strategy.order(candidates, required, NO_SLACK)));
+      assertTrue(
+          strategy.toString(),
+          victimsNeeded(Strategy.MIN_VICTIMS, candidates, required, NO_SLACK)
+              <= victimsNeeded(strategy, candidates, required, NO_SLACK));
+    }
+    assertEquals(2, victimsNeeded(Strategy.MIN_VICTIMS, candidates, required, NO_SLACK));
+  }
+
+  /**
+   * Compares the number of tasks each strategy preempts, and the time it takes to choose them, on
+   * slaves running a mix of CPU-heavy and RAM-heavy tasks.
+   */
+  @Ignore("Benchmark; run manually to compare victim selection strategies.")
+  @Test
+  public void testCompareStrategies() {
+    Random random = new Random(0);
+    List<List<IAssignedTask>> slaves = Lists.newArrayList();
+    List<ResourceSlot> requests = Lists.newArrayList();
+    for (int i = 0; i < 500; i++) {
+      List<IAssignedTask> candidates = Lists.newArrayList();
+      int numCandidates = 2 + random.nextInt(Strategy.MAX_EXACT_CANDIDATES - 1);
+      for (int j = 0; j < numCandidates; j++) {
+        candidates.add(random.nextBoolean()
+            ? makeTask(i + "_" + j, 1 + random.nextInt(4), 256 + random.nextInt(512))
+            : makeTask(i + "_" + j, 0.25 + random.nextDouble(), 1024 + random.nextInt(4096)));
+      }
+      slaves.add(candidates);
+      ResourceSlot total = ResourceSlot.sum(Lists.transform(candidates, TASK_TO_RESOURCES));
+      requests.add(slot(
+          total.getNumCpus() * random.nextDouble() / 2,
+          (long) (total.getRam().as(Data.MB) * random.nextDouble() / 2)));
+    }
+
+    Map<Strategy, Integer> victims = Maps.newEnumMap(Strategy.class);
+    for (Strategy strategy : Strategy.values()) {
+      int preempted = 0;
+      long startNanos = System.nanoTime();
+      for (int i = 0; i < slaves.size(); i++) {
+        preempted += victimsNeeded(strategy, slaves.get(i), requests.get(i), NO_SLACK);
+      }
+      long elapsedMicros = (System.nanoTime() - startNanos) / 1000;
+      victims.put(strategy, preempted);
+      LOG.info(String.format("%s preempted %d tasks on %d slaves in %d us",
+          strategy, preempted, slaves.size(), elapsedMicros));
+    }
+
+    assertTrue(victims.get(Strategy.MIN_VICTIMS) <= victims.get(Strategy.DOMINANT_RESOURCE));
+    assertTrue(victims.get(Strategy.MIN_VICTIMS) <= victims.get(Strategy.RESOURCE_VECTOR));
+  }
+}
@@ -139,6 +139,29 @@ public class ResourcesTest {
         .addResources(resources).build();
   }
 
+  @Test
+  public void testResidual() {
+    Protos.Offer offer = createOffer(createPortRange(Pair.of(1, 5))).toBuilder()
+        .addResources(Resources.makeMesosResource(Resources.CPUS, 4))
+        .addResources(Resources.makeMesosResource(Resources.RAM_MB, 1024))
+        .addResources(Resources.makeMesosResource(Resources.DISK_MB, 2048))
+        .build();
+    Protos.TaskInfo task = Protos.TaskInfo.newBuilder()
+        .addAllResources(new Resources(1.0, Amount.of(256L, Data.MB), Amount.of(512L, Data.MB), 2)
+            .toResourceList(ImmutableSet.of(2, 3)))
+        .setExecutor(Protos.ExecutorInfo.newBuilder()
+            .addResources(Resources.makeMesosResource(Resources.CPUS, 0.5))
+            .addResources(Resources.makeMesosResource(Resources.RAM_MB, 128)))
+        .buildPartial();
+
+    Protos.Offer residual = Resources.residual(offer, ImmutableSet.of(task));
+    assertEquals(
+        new Resources(2.5, Amount.of(640L, Data.MB), Amount.of(1536L, Data.MB), 3),
+        Resources.from(residual));
+    assertEquals(ImmutableSet.of(1, 4, 5), Resources.getPorts(residual, 3));
+    assertEquals(offer, Resources.residual(offer, ImmutableSet.<Protos.TaskInfo>of()));
+  }
+
   @Test
   public void testRangeResourceEmpty() {
     expectRanges(ImmutableSet.<Pair<Long, Long>>of(), ImmutableSet.<Integer>of());
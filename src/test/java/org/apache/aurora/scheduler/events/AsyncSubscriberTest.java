@@ -0,0 +1,84 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.events;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import org.apache.aurora.scheduler.events.PubsubEvent.DriverRegistered;
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.SchedulerActive;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncSubscriberTest {
+
+  private static class RecordingSubscriber implements EventSubscriber {
+    private final CountDownLatch received;
+    private final List<PubsubEvent> events = Lists.newArrayList();
+    private Thread deliveryThread;
+
+    RecordingSubscriber(int expectedEvents) {
+      received = new CountDownLatch(expectedEvents);
+    }
+
+    @Subscribe
+    public synchronized void registered(DriverRegistered event) {
+      record(event);
+    }
+
+    @Subscribe
+    public synchronized void active(SchedulerActive event) {
+      record(event);
+    }
+
+    private void record(PubsubEvent event) {
+      deliveryThread = Thread.currentThread();
+      events.add(event);
+      received.countDown();
+    }
+  }
+
+  @Test
+  public void testDeliversInOrderOnAnotherThread() throws Exception {
+    int numEvents = 1000;
+    RecordingSubscriber subscriber = new RecordingSubscriber(numEvents);
+    EventBus eventBus = new EventBus();
+    eventBus.register(new AsyncSubscriber(subscriber, 10));
+
+    ImmutableList.Builder<PubsubEvent> posted = ImmutableList.builder();
+    for (int i = 0; i < numEvents; i++) {
+      PubsubEvent event = (i % 2 == 0) ? new DriverRegistered() : new SchedulerActive();
+      posted.add(event);
+      eventBus.post(event);
+    }
+
+    assertTrue(subscriber.received.await(10, TimeUnit.SECONDS));
+    synchronized (subscriber) {
+      assertEquals(posted.build(), subscriber.events);
+      assertNotSame(Thread.currentThread(), subscriber.deliveryThread);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.events;
+
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.eventbus.EventBus;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.testing.easymock.EasyMockTest;
+
+import org.apache.aurora.gen.Attribute;
+import org.apache.aurora.gen.Constraint;
+import org.apache.aurora.gen.HostAttributes;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.MaintenanceMode;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.TaskConstraint;
+import org.apache.aurora.gen.ValueConstraint;
+import org.apache.aurora.scheduler.ResourceSlot;
+import org.apache.aurora.scheduler.configuration.ConfigurationManager;
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import org.apache.aurora.scheduler.events.PubsubEventModule.DispatchSettings;
+import org.apache.aurora.scheduler.events.PubsubEventModule.RegisterSubscribers;
+import org.apache.aurora.scheduler.filter.CachedJobState;
+import org.apache.aurora.scheduler.filter.SchedulingFilterImpl;
+import org.apache.aurora.scheduler.state.MaintenanceController;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.MutateWork;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+import org.apache.aurora.scheduler.storage.mem.MemStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class PubsubEventModuleTest extends EasyMockTest {
+
+  private static final String HOST = "host";
+  private static final ResourceSlot OFFER =
+      ResourceSlot.from(4, Amount.of(4L, Data.GB), Amount.of(4L, Data.GB), 0);
+  private static final ITaskConfig TASK = ITaskConfig.build(
+      ConfigurationManager.applyDefaultsIfUnset(new TaskConfig()
+          .setOwner(new Identity("role", "user"))
+          .setEnvironment("env")
+          .setJobName("job")
+          .setNumCpus(1)
+          .setRamMb(1024)
+          .setDiskMb(1024)
+          .setConstraints(ImmutableSet.of(new Constraint(
+              "jvm",
+              TaskConstraint.value(new ValueConstraint(false, ImmutableSet.of("1.0"))))))));
+  private static final CachedJobState EMPTY_JOB =
+      new CachedJobState(Suppliers.ofInstance(ImmutableSet.<IScheduledTask>of()));
+
+  private MaintenanceController maintenance;
+
+  @Before
+  public void setUp() {
+    maintenance = createMock(MaintenanceController.class);
+  }
+
+  private static HostAttributes saveAttributes(Storage storage, String jvm) {
+    final HostAttributes attributes = new HostAttributes()
+        .setHost(HOST)
+        .setAttributes(ImmutableSet.of(new Attribute("jvm", ImmutableSet.of(jvm))));
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override
+      protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getAttributeStore().saveHostAttributes(attributes);
+      }
+    });
+    return attributes;
+  }
+
+  private void assertFilterSeesAttributeChange(boolean async) {
+    Storage storage = MemStorage.newEmptyStorage();
+    SchedulingFilterImpl filter = new SchedulingFilterImpl(storage, maintenance);
+    EventBus eventBus = new EventBus();
+    new RegisterSubscribers(
+        eventBus,
+        ImmutableSet.<EventSubscriber>of(filter),
+        new DispatchSettings(async, 10)).execute();
+
+    saveAttributes(storage, "1.0");
+    assertEquals(ImmutableSet.of(), filter.filter(OFFER, HOST, TASK, "task", EMPTY_JOB));
+
+    // The filter must not evaluate the task against the cached attributes once the change is
+    // posted, regardless of how events are dispatched.
+    eventBus.post(new HostAttributesChanged(saveAttributes(storage, "2.0")));
+    assertFalse(filter.filter(OFFER, HOST, TASK, "task", EMPTY_JOB).isEmpty());
+  }
+
+  @Test
+  public void testHostAttributesChangedSynchronousDispatch() {
+    expect(maintenance.getMode(HOST)).andReturn(MaintenanceMode.NONE).anyTimes();
+
+    control.replay();
+
+    assertFilterSeesAttributeChange(false);
+  }
+
+  @Test
+  public void testHostAttributesChangedAsyncDispatch() {
+    expect(maintenance.getMode(HOST)).andReturn(MaintenanceMode.NONE).anyTimes();
+
+    control.replay();
+
+    assertFilterSeesAttributeChange(true);
+  }
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.events;
+
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.scheduler.events.PubsubEvent.DriverRegistered;
+import org.apache.aurora.scheduler.events.PubsubEvent.EventSubscriber;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChanges;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.junit.Test;
+
+import static org.apache.aurora.gen.ScheduleStatus.PENDING;
+import static org.junit.Assert.assertEquals;
+
+public class SubscriberBusTest {
+
+  private static final Logger LOG = Logger.getLogger(SubscriberBusTest.class.getName());
+
+  private static class ChangeSubscriber implements EventSubscriber {
+    private final List<TaskStateChange> changes = Lists.newArrayList();
+    private int deliveries;
+
+    @Subscribe
+    public synchronized void taskChangedState(TaskStateChange change) {
+      deliveries++;
+      changes.add(change);
+    }
+  }
+
+  private static class BatchSubscriber extends ChangeSubscriber {
+    @Subscribe
+    public synchronized void tasksChangedState(TaskStateChanges batch) {
+      deliveries++;
+      changes.addAll(batch.getChanges());
+    }
+  }
+
+  private static List<TaskStateChange> makeChanges(int count) {
+    ImmutableList.Builder<TaskStateChange> changes = ImmutableList.builder();
+    for (int i = 0; i < count; i++) {
+      changes.add(TaskStateChange.initialized(IScheduledTask.build(new ScheduledTask()
+          .setStatus(PENDING)
+          .setAssignedTask(new AssignedTask().setTaskId("task-" + i)))));
+    }
+    return changes.build();
+  }
+
+  private static EventBus register(EventSubscriber subscriber) {
+    EventBus eventBus = new EventBus();
+    eventBus.register(new SubscriberBus(subscriber));
+    return eventBus;
+  }
+
+  @Test
+  public void testBatchDeliveredToBatchSubscriber() {
+    List<TaskStateChange> changes = makeChanges(3);
+    BatchSubscriber subscriber = new BatchSubscriber();
+    register(subscriber).post(new TaskStateChanges(changes));
+
+    assertEquals(1, subscriber.deliveries);
+    assertEquals(changes, subscriber.changes);
+  }
+
+  @Test
+  public void testBatchSplitForOtherSubscribers() {
+    List<TaskStateChange> changes = makeChanges(3);
+    ChangeSubscriber subscriber = new ChangeSubscriber();
+    register(subscriber).post(new TaskStateChanges(changes));
+
+    assertEquals(3, subscriber.deliveries);
+    assertEquals(changes, subscriber.changes);
+  }
+
+  @Test
+  public void testUnhandledEventsNotDelivered() {
+    ChangeSubscriber subscriber = new ChangeSubscriber();
+    register(subscriber).post(new DriverRegistered());
+
+    assertEquals(0, subscriber.deliveries);
+    assertEquals(
+        ImmutableSet.<Class<?>>of(TaskStateChange.class),
+        SubscriberBus.handledTypes(ChangeSubscriber.class));
+    assertEquals(
+        ImmutableSet.<Class<?>>of(TaskStateChange.class, TaskStateChanges.class),
+        SubscriberBus.handledTypes(BatchSubscriber.class));
+  }
+
+  @Test
+  public void testName() {
+    assertEquals("BatchSubscriber", SubscriberBus.nameOf(new BatchSubscriber()));
+  }
+
+  /**
+   * Compares delivering the changes of creating a 5,000 instance job one at a time against
+   * delivering them as a batch.
+   */
+  @Test
+  public void testCompareDelivery() {
+    List<TaskStateChange> changes = makeChanges(5000);
+
+    ChangeSubscriber individual = new BatchSubscriber();
+    EventBus individualBus = register(individual);
+    long startNanos = System.nanoTime();
+    for (TaskStateChange change : changes) {
+      individualBus.post(change);
+    }
+    long individualMicros = (System.nanoTime() - startNanos) / 1000;
+
+    ChangeSubscriber batched = new BatchSubscriber();
+    EventBus batchedBus = register(batched);
+    startNanos = System.nanoTime();
+    batchedBus.post(new TaskStateChanges(changes));
+    long batchedMicros = (System.nanoTime() - startNanos) / 1000;
+
+    LOG.info(String.format("Individually: %d deliveries in %d us, batched: %d deliveries in %d us",
+        individual.deliveries, individualMicros, batched.deliveries, batchedMicros));
+    assertEquals(changes, individual.changes);
+    assertEquals(changes, batched.changes);
+    assertEquals(1, batched.deliveries);
+  }
+}
@@ -0,0 +1,204 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.filter;
+
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Attribute;
+import org.apache.aurora.gen.HostAttributes;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.scheduler.base.JobKeys;
+import org.apache.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.MutateWork;
+import org.apache.aurora.scheduler.storage.Storage.Work;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.mem.MemStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.apache.aurora.gen.ScheduleStatus.ASSIGNED;
+import static org.apache.aurora.gen.ScheduleStatus.FINISHED;
+import static org.apache.aurora.gen.ScheduleStatus.PENDING;
+import static org.apache.aurora.gen.ScheduleStatus.RUNNING;
+import static org.junit.Assert.assertEquals;
+
+public class AttributeAggregatorTest {
+
+  private static final String JOB_A = "job_a";
+  private static final String JOB_B = "job_b";
+
+  private static final String HOST_A = "host_a";
+  private static final String HOST_B = "host_b";
+  private static final String HOST_C = "host_c";
+
+  private static final Attribute RACK_1 = rack("rack_1");
+  private static final Attribute RACK_2 = rack("rack_2");
+
+  private Storage storage;
+  private AttributeAggregator aggregator;
+
+  @Before
+  public void setUp() {
+    storage = MemStorage.newEmptyStorage();
+    aggregator = new AttributeAggregator(storage);
+
+    saveAttributes(HOST_A, RACK_1);
+    saveAttributes(HOST_B, RACK_1);
+    saveAttributes(HOST_C, RACK_2);
+  }
+
+  private static Attribute rack(String rack) {
+    return new Attribute("rack", ImmutableSet.of(rack));
+  }
+
+  private static Attribute host(String host) {
+    return new Attribute("host", ImmutableSet.of(host));
+  }
+
+  private static HostAttributes hostAttributes(String host, Attribute rack) {
+    return new HostAttributes()
+        .setHost(host)
+        .setAttributes(ImmutableSet.of(host(host), rack));
+  }
+
+  private void saveAttributes(final String host, final Attribute rack) {
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override
+      protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getAttributeStore().saveHostAttributes(hostAttributes(host, rack));
+      }
+    });
+  }
+
+  private static IScheduledTask makeTask(
+      String taskId,
+      String job,
+      String host,
+      ScheduleStatus status) {
+
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setSlaveHost(host)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity().setRole("role").setUser("user"))
+                .setEnvironment("env")
+                .setJobName(job))));
+  }
+
+  private void changeState(IScheduledTask task, ScheduleStatus newState) {
+    aggregator.taskChangedState(TaskStateChange.transition(
+        IScheduledTask.build(task.newBuilder().setStatus(newState)),
+        task.getStatus()));
+  }
+
+  private int count(String job, Attribute attribute) {
+    return aggregator.getAggregate(JobKeys.from("role", "env", job)).getNumTasks(attribute);
+  }
+
+  @Test
+  public void testCountsTasksOnHosts() {
+    aggregator.taskChangedState(
+        TaskStateChange.initialized(makeTask("a1", JOB_A, HOST_A, RUNNING)));
+    aggregator.taskChangedState(
+        TaskStateChange.initialized(makeTask("a2", JOB_A, HOST_B, RUNNING)));
+    aggregator.taskChangedState(
+        TaskStateChange.initialized(makeTask("a3", JOB_A, null, PENDING)));
+    changeState(makeTask("b1", JOB_B, HOST_C, PENDING), ASSIGNED);
+
+    assertEquals(2, count(JOB_A, RACK_1));
+    assertEquals(1, count(JOB_A, host(HOST_A)));
+    assertEquals(0, count(JOB_A, RACK_2));
+    assertEquals(1, count(JOB_B, RACK_2));
+    assertEquals(0, count(JOB_B, RACK_1));
+  }
+
+  @Test
+  public void testInactiveTasksNotCounted() {
+    IScheduledTask a1 = makeTask("a1", JOB_A, HOST_A, RUNNING);
+    IScheduledTask a2 = makeTask("a2", JOB_A, HOST_B, RUNNING);
+    aggregator.taskChangedState(TaskStateChange.initialized(a1));
+    aggregator.taskChangedState(TaskStateChange.initialized(a2));
+    assertEquals(2, count(JOB_A, RACK_1));
+
+    changeState(a1, FINISHED);
+    assertEquals(1, count(JOB_A, RACK_1));
+
+    aggregator.tasksDeleted(new TasksDeleted(ImmutableSet.of(a2)));
+    assertEquals(0, count(JOB_A, RACK_1));
+  }
+
+  @Test
+  public void testRecountsOnHostAttributesChange() {
+    aggregator.taskChangedState(
+        TaskStateChange.initialized(makeTask("a1", JOB_A, HOST_A, RUNNING)));
+    assertEquals(1, count(JOB_A, RACK_1));
+
+    aggregator.hostAttributesChanged(new HostAttributesChanged(hostAttributes(HOST_A, RACK_2)));
+    assertEquals(0, count(JOB_A, RACK_1));
+    assertEquals(1, count(JOB_A, RACK_2));
+  }
+
+  @Test
+  public void testHostAttributesChangeWhileLoading() {
+    final Storage delegate = storage;
+    aggregator = new AttributeAggregator(new Storage() {
+      private boolean changed = false;
+
+      @Override
+      public <T, E extends Exception> T consistentRead(Work<T, E> work) throws E {
+        return delegate.consistentRead(work);
+      }
+
+      @Override
+      public <T, E extends Exception> T weaklyConsistentRead(Work<T, E> work) throws E {
+        T result = delegate.weaklyConsistentRead(work);
+        if (!changed) {
+          // The host attributes change after they are loaded, but before the task is counted.
+          changed = true;
+          saveAttributes(HOST_A, RACK_2);
+          aggregator.hostAttributesChanged(
+              new HostAttributesChanged(hostAttributes(HOST_A, RACK_2)));
+        }
+        return result;
+      }
+
+      @Override
+      public <T, E extends Exception> T write(MutateWork<T, E> work) throws E {
+        return delegate.write(work);
+      }
+
+      @Override
+      public void snapshot() {
+        delegate.snapshot();
+      }
+    });
+
+    aggregator.taskChangedState(
+        TaskStateChange.initialized(makeTask("a1", JOB_A, HOST_A, RUNNING)));
+    assertEquals(0, count(JOB_A, RACK_1));
+    assertEquals(1, count(JOB_A, RACK_2));
+  }
+}
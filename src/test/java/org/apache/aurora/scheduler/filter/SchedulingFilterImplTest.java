@@ -41,6 +41,8 @@ import org.apache.aurora.gen.TaskConstraint;
 import org.apache.aurora.gen.ValueConstraint;
 import org.apache.aurora.scheduler.ResourceSlot;
 import org.apache.aurora.scheduler.configuration.ConfigurationManager;
+import org.apache.aurora.scheduler.events.PubsubEvent.HostAttributesChanged;
+import org.apache.aurora.scheduler.events.PubsubEvent.StorageRestored;
 import org.apache.aurora.scheduler.filter.SchedulingFilter.Veto;
 import org.apache.aurora.scheduler.state.MaintenanceController;
 import org.apache.aurora.scheduler.storage.AttributeStore;
@@ -106,7 +108,7 @@ public class SchedulingFilterImplTest extends EasyMockTest {
 
   private final AtomicLong taskIdCounter = new AtomicLong();
 
-  private SchedulingFilter defaultFilter;
+  private SchedulingFilterImpl defaultFilter;
   private MaintenanceController maintenance;
   private Storage storage;
   private StoreProvider storeProvider;
@@ -325,7 +327,6 @@ public class SchedulingFilterImplTest extends EasyMockTest {
 
   @Test
   public void testUnderLimitNoTasks() throws Exception {
-    expectGetHostAttributes(HOST_A);
     expectGetHostAttributes(HOST_A, host(HOST_A));
     expectGetHostMaintenanceStatus(HOST_A);
 
@@ -334,6 +335,42 @@ public class SchedulingFilterImplTest extends EasyMockTest {
     assertNoVetoes(hostLimitTask(2), HOST_A);
   }
 
+  @Test
+  public void testHostAttributesCached() throws Exception {
+    expectGetHostAttributes(HOST_A, valueAttribute("jvm", "1.0"));
+    expectGetHostAttributes(HOST_A, valueAttribute("jvm", "2.0"));
+    expectGetHostMaintenanceStatus(HOST_A).times(4);
+
+    control.replay();
+
+    ITaskConfig task = makeTask(OWNER_A, JOB_A, makeConstraint("jvm", "1.0"));
+    assertNoVetoes(task, HOST_A);
+    assertNoVetoes(task, HOST_A);
+
+    // Attributes are loaded again once the host advertises different attributes.
+    defaultFilter.hostAttributesChanged(new HostAttributesChanged(
+        new HostAttributes().setHost(HOST_A).setAttributes(
+            ImmutableSet.of(valueAttribute("jvm", "2.0")))));
+    assertVetoes(task, HOST_A, mismatchVeto("jvm"));
+    assertVetoes(task, HOST_A, mismatchVeto("jvm"));
+  }
+
+  @Test
+  public void testHostAttributesDiscardedOnStorageRestore() throws Exception {
+    expectGetHostAttributes(HOST_A, valueAttribute("jvm", "1.0"));
+    expectGetHostAttributes(HOST_A, valueAttribute("jvm", "2.0"));
+    expectGetHostMaintenanceStatus(HOST_A).times(2);
+
+    control.replay();
+
+    ITaskConfig task = makeTask(OWNER_A, JOB_A, makeConstraint("jvm", "1.0"));
+    assertNoVetoes(task, HOST_A);
+
+    // Restoring storage replaces the attributes without a change notification for the host.
+    defaultFilter.storageRestored(new StorageRestored());
+    assertVetoes(task, HOST_A, mismatchVeto("jvm"));
+  }
+
   private Attribute host(String host) {
     return valueAttribute(HOST_ATTRIBUTE, host);
   }
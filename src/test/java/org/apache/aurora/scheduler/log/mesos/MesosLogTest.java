@@ -15,10 +15,14 @@
  */
 package org.apache.aurora.scheduler.log.mesos;
 
+import java.util.List;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeoutException;
 
 import javax.inject.Provider;
 
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import com.google.inject.util.Providers;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -27,18 +31,25 @@ import com.twitter.common.testing.easymock.EasyMockTest;
 import org.apache.aurora.scheduler.log.Log.Stream.StreamAccessException;
 import org.apache.aurora.scheduler.log.mesos.LogInterface.ReaderInterface;
 import org.apache.aurora.scheduler.log.mesos.LogInterface.WriterInterface;
+import org.apache.aurora.scheduler.log.mesos.MesosLog.LogStream.ReadAheadIterator;
+import org.apache.aurora.scheduler.log.mesos.MesosLog.LogStream.ReadAheadIterator.RangeReader;
+import org.apache.aurora.scheduler.log.mesos.MesosLog.ReadAheadSettings;
 import org.apache.mesos.Log;
 import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 
 import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 public class MesosLogTest extends EasyMockTest {
 
   private static final Amount<Long, Time> READ_TIMEOUT = Amount.of(5L, Time.SECONDS);
   private static final Amount<Long, Time> WRITE_TIMEOUT = Amount.of(3L, Time.SECONDS);
   private static final byte[] DUMMY_CONTENT = "test data".getBytes();
+  private static final ThreadFactory THREAD_FACTORY =
+      new ThreadFactoryBuilder().setNameFormat("MesosLogTest-ReadAhead-%d").setDaemon(true).build();
 
   private LogInterface logInterface;
   private ReaderInterface reader;
@@ -56,7 +67,7 @@ public class MesosLogTest extends EasyMockTest {
     dummyMutation = createMock(new Clazz<MesosLog.LogStream.Mutation<String>>() { });
     stats = new MesosLog.LogStream.OpStats("test");
     logStream = new MesosLog.LogStream(logInterface, reader, READ_TIMEOUT,
-        writerFactory, WRITE_TIMEOUT, DUMMY_CONTENT);
+        writerFactory, WRITE_TIMEOUT, DUMMY_CONTENT, ReadAheadSettings.DISABLED);
   }
 
   @Test(expected = StreamAccessException.class)
@@ -75,4 +86,87 @@ public class MesosLogTest extends EasyMockTest {
     control.replay();
     logStream.mutate(stats, dummyMutation);
   }
+
+  /**
+   * An in-memory stand-in for the log, holding entries at even positions only.
+   */
+  private static class EvenPositionReader implements RangeReader<Long> {
+    private final long failAt;
+
+    EvenPositionReader(long failAt) {
+      this.failAt = failAt;
+    }
+
+    @Override
+    public List<Long> read(long first, long last) {
+      ImmutableList.Builder<Long> entries = ImmutableList.builder();
+      for (long position = first; position <= last; position++) {
+        if (position == failAt) {
+          throw new StreamAccessException("Failed to read " + position, new TimeoutException());
+        }
+        if (position % 2 == 0) {
+          entries.add(position);
+        }
+      }
+      return entries.build();
+    }
+  }
+
+  @Test
+  public void testReadAhead() {
+    control.replay();
+
+    ReadAheadIterator<Long> iterator = ReadAheadIterator.start(
+        new EvenPositionReader(-1),
+        1,
+        100,
+        new ReadAheadSettings(7, 2),
+        stats,
+        THREAD_FACTORY);
+
+    ImmutableList.Builder<Long> expected = ImmutableList.builder();
+    for (long position = 2; position <= 100; position += 2) {
+      expected.add(position);
+    }
+    assertEquals(expected.build(), ImmutableList.copyOf(iterator));
+  }
+
+  @Test
+  public void testReadAheadEmptyRange() {
+    control.replay();
+
+    ReadAheadIterator<Long> iterator = ReadAheadIterator.start(
+        new EvenPositionReader(-1),
+        1,
+        1,
+        new ReadAheadSettings(10, 1),
+        stats,
+        THREAD_FACTORY);
+
+    assertEquals(ImmutableList.<Long>of(), ImmutableList.copyOf(iterator));
+  }
+
+  @Test
+  public void testReadAheadFailure() {
+    control.replay();
+
+    ReadAheadIterator<Long> iterator = ReadAheadIterator.start(
+        new EvenPositionReader(15),
+        1,
+        100,
+        new ReadAheadSettings(5, 1),
+        stats,
+        THREAD_FACTORY);
+
+    // Entries in batches read before the failure are delivered.
+    for (long position = 2; position <= 10; position += 2) {
+      assertEquals(Long.valueOf(position), iterator.next());
+    }
+    try {
+      iterator.hasNext();
+      fail();
+    } catch (StreamAccessException e) {
+      // Expected.
+    }
+  }
 }
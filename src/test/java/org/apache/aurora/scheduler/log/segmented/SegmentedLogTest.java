@@ -0,0 +1,269 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.log.segmented;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.List;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+
+import org.apache.aurora.scheduler.log.Log;
+import org.apache.aurora.scheduler.log.Log.Entry;
+import org.apache.aurora.scheduler.log.Log.Position;
+import org.apache.aurora.scheduler.log.Log.Stream;
+import org.apache.aurora.scheduler.log.segmented.SegmentedLog.SegmentEntry;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SegmentedLogTest {
+
+  private static final Amount<Long, Data> SEGMENT_SIZE = Amount.of(64L, Data.BYTES);
+
+  private File logDir;
+  private Log log;
+
+  @Before
+  public void setUp() {
+    logDir = new File(Files.createTempDir(), "log");
+    log = new SegmentedLog(logDir, SEGMENT_SIZE);
+  }
+
+  @After
+  public void tearDown() {
+    File[] files = logDir.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        file.delete();
+      }
+    }
+    logDir.delete();
+    logDir.getParentFile().delete();
+  }
+
+  private static byte[] entry(String value) {
+    return value.getBytes(Charsets.UTF_8);
+  }
+
+  private static List<String> readAll(Stream stream) {
+    List<String> entries = Lists.newArrayList();
+    Iterator<Entry> iterator = stream.readAll();
+    while (iterator.hasNext()) {
+      entries.add(new String(iterator.next().contents(), Charsets.UTF_8));
+    }
+    return entries;
+  }
+
+  private int numSegments() {
+    return logDir.listFiles().length;
+  }
+
+  @Test
+  public void testEmptyLog() throws IOException {
+    assertEquals(ImmutableList.<String>of(), readAll(log.open()));
+  }
+
+  @Test
+  public void testAppendAndRecover() throws IOException {
+    Stream stream = log.open();
+    Position a = stream.append(entry("a"));
+    Position b = stream.append(entry("b"));
+    assertTrue(a.compareTo(b) < 0);
+    assertEquals(ImmutableList.of("a", "b"), readAll(stream));
+    stream.close();
+
+    Stream reopened = new SegmentedLog(logDir, SEGMENT_SIZE).open();
+    assertEquals(ImmutableList.of("a", "b"), readAll(reopened));
+    Position c = reopened.append(entry("c"));
+    assertTrue(b.compareTo(c) < 0);
+    assertEquals(ImmutableList.of("a", "b", "c"), readAll(reopened));
+  }
+
+  @Test
+  public void testRollsSegments() throws IOException {
+    Stream stream = log.open();
+    List<String> appended = Lists.newArrayList();
+    for (int i = 0; i < 20; i++) {
+      String value = "entry-" + i;
+      stream.append(entry(value));
+      appended.add(value);
+    }
+
+    assertTrue(numSegments() > 1);
+    assertEquals(appended, readAll(stream));
+    assertEquals(appended, readAll(new SegmentedLog(logDir, SEGMENT_SIZE).open()));
+  }
+
+  @Test
+  public void testOversizedEntry() throws IOException {
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      large.append(i);
+    }
+
+    Stream stream = log.open();
+    stream.append(entry("small"));
+    stream.append(entry(large.toString()));
+    stream.append(entry("small"));
+
+    assertEquals(ImmutableList.of("small", large.toString(), "small"), readAll(stream));
+    assertEquals(
+        ImmutableList.of("small", large.toString(), "small"),
+        readAll(new SegmentedLog(logDir, SEGMENT_SIZE).open()));
+  }
+
+  @Test
+  public void testTruncateBefore() throws IOException {
+    Stream stream = log.open();
+    List<Position> positions = Lists.newArrayList();
+    for (int i = 0; i < 20; i++) {
+      positions.add(stream.append(entry("entry-" + i)));
+    }
+    int segments = numSegments();
+
+    stream.truncateBefore(positions.get(10));
+    assertTrue(numSegments() < segments);
+
+    // Whole segments are deleted, so some entries before the truncation point may remain.
+    List<String> remaining = readAll(stream);
+    assertTrue(remaining.size() < 20);
+    assertTrue(remaining.contains("entry-10"));
+    assertEquals("entry-19", remaining.get(remaining.size() - 1));
+    assertEquals(remaining, readAll(new SegmentedLog(logDir, SEGMENT_SIZE).open()));
+
+    // The segment being appended to is never deleted.
+    stream.truncateBefore(stream.append(entry("last")));
+    assertEquals(1, numSegments());
+    assertEquals("last", readAll(stream).get(readAll(stream).size() - 1));
+  }
+
+  @Test
+  public void testIncompleteEntryDiscarded() throws IOException {
+    Stream stream = log.open();
+    stream.append(entry("0123456789"));
+    stream.append(entry("0123456789"));
+
+    // Corrupt the contents of the second entry, as if it were not completely written.
+    File segment = logDir.listFiles()[0];
+    try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+      file.seek(18 + 8);
+      file.write('x');
+    }
+
+    Stream reopened = new SegmentedLog(logDir, SEGMENT_SIZE).open();
+    assertEquals(ImmutableList.of("0123456789"), readAll(reopened));
+    reopened.append(entry("a"));
+    assertEquals(ImmutableList.of("0123456789", "a"), readAll(reopened));
+    assertEquals(
+        ImmutableList.of("0123456789", "a"),
+        readAll(new SegmentedLog(logDir, SEGMENT_SIZE).open()));
+  }
+
+  @Test
+  public void testEntryView() throws IOException {
+    Stream stream = log.open();
+    stream.append(entry("abc"));
+
+    SegmentEntry entry = (SegmentEntry) stream.readAll().next();
+    ByteBuffer view = entry.view();
+    assertTrue(view.isReadOnly());
+    assertEquals(ByteBuffer.wrap(entry("abc")), view);
+  }
+
+  private void assertShortSegmentReused(int length) throws IOException {
+    Stream stream = log.open();
+    stream.append(entry("a"));
+    stream.close();
+
+    // Simulate a failure after the file of the next segment was created, but before it was mapped.
+    try (RandomAccessFile file =
+        new RandomAccessFile(new File(logDir, SegmentedLog.Segment.fileName(2)), "rw")) {
+      file.setLength(length);
+    }
+
+    StringBuilder large = new StringBuilder();
+    for (int i = 0; i < 100; i++) {
+      large.append(i);
+    }
+    Stream reopened = new SegmentedLog(logDir, SEGMENT_SIZE).open();
+    reopened.append(entry(large.toString()));
+    reopened.append(entry("b"));
+    assertEquals(ImmutableList.of("a", large.toString(), "b"), readAll(reopened));
+    reopened.close();
+    assertEquals(
+        ImmutableList.of("a", large.toString(), "b"),
+        readAll(new SegmentedLog(logDir, SEGMENT_SIZE).open()));
+  }
+
+  @Test
+  public void testEmptyLastSegmentReused() throws IOException {
+    assertShortSegmentReused(0);
+  }
+
+  @Test
+  public void testShortLastSegmentReused() throws IOException {
+    assertShortSegmentReused(6);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testEntryReleasedOnClose() throws IOException {
+    Stream stream = log.open();
+    stream.append(entry("abc"));
+
+    Entry entry = stream.readAll().next();
+    stream.close();
+    entry.contents();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testIteratorReleasedOnClose() throws IOException {
+    Stream stream = log.open();
+    stream.append(entry("a"));
+    stream.append(entry("b"));
+
+    Iterator<Entry> entries = stream.readAll();
+    entries.next();
+    stream.close();
+    entries.next();
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testIteratorReleasedOnTruncate() throws IOException {
+    Stream stream = log.open();
+    stream.append(entry("a"));
+    for (int i = 0; i < 10; i++) {
+      stream.append(entry("entry" + i));
+    }
+    Position last = stream.append(entry("b"));
+
+    Iterator<Entry> entries = stream.readAll();
+    entries.next();
+    stream.truncateBefore(last);
+    entries.hasNext();
+  }
+}
@@ -43,12 +43,14 @@ import org.apache.aurora.scheduler.base.Tasks;
 import org.apache.aurora.scheduler.events.EventSink;
 import org.apache.aurora.scheduler.events.PubsubEvent;
 import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChange;
+import org.apache.aurora.scheduler.events.PubsubEvent.TaskStateChanges;
 import org.apache.aurora.scheduler.events.PubsubEvent.TasksDeleted;
 import org.apache.aurora.scheduler.storage.Storage;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
 import org.apache.aurora.scheduler.storage.mem.MemStorage;
 import org.apache.mesos.Protos.SlaveID;
+import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.easymock.IAnswer;
 import org.easymock.IArgumentMatcher;
@@ -65,6 +67,7 @@ import static org.apache.aurora.gen.ScheduleStatus.RUNNING;
 import static org.apache.aurora.gen.ScheduleStatus.THROTTLED;
 import static org.apache.aurora.gen.ScheduleStatus.UNKNOWN;
 import static org.apache.aurora.gen.apiConstants.DEFAULT_ENVIRONMENT;
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.expect;
 import static org.easymock.EasyMock.expectLastCall;
 import static org.junit.Assert.assertEquals;
@@ -188,6 +191,55 @@ public class StateManagerImplTest extends EasyMockTest {
         Storage.Util.consistentFetchTasks(storage, Query.taskScoped(taskId)));
   }
 
+  @Test
+  public void testBulkOperationsPostBatches() {
+    ITaskConfig task = makeTask(JIM, MY_JOB);
+    expect(taskIdGenerator.generate(task, 0)).andReturn("a");
+    expect(taskIdGenerator.generate(task, 1)).andReturn("b");
+    Capture<PubsubEvent> inserted = createCapture();
+    eventSink.post(capture(inserted));
+    eventSink.post(matchTasksDeleted("a", "b"));
+
+    control.replay();
+
+    stateManager.insertPendingTasks(ImmutableMap.of(0, task, 1, task));
+    TaskStateChanges changes = (TaskStateChanges) inserted.getValue();
+    assertEquals(2, changes.getChanges().size());
+    for (TaskStateChange change : changes.getChanges()) {
+      assertEquals(Optional.of(INIT), change.getOldState());
+      assertEquals(PENDING, change.getNewState());
+    }
+
+    assertEquals(
+        2,
+        stateManager.changeStates(ImmutableSet.of("a", "b"), KILLING, Optional.<String>absent()));
+  }
+
+  @Test
+  public void testCoalesceEvents() {
+    IScheduledTask a = IScheduledTask.build(new ScheduledTask()
+        .setStatus(PENDING)
+        .setAssignedTask(new AssignedTask().setTaskId("a")));
+    IScheduledTask b = IScheduledTask.build(new ScheduledTask()
+        .setStatus(RUNNING)
+        .setAssignedTask(new AssignedTask().setTaskId("b")));
+    TaskStateChange changeA = TaskStateChange.transition(a, INIT);
+    TaskStateChange changeB = TaskStateChange.transition(b, ASSIGNED);
+
+    assertEquals(
+        ImmutableList.<PubsubEvent>of(
+            new TaskStateChanges(ImmutableList.of(changeA, changeB)),
+            new TasksDeleted(ImmutableSet.of(a, b))),
+        StateManagerImpl.coalesce(ImmutableList.<PubsubEvent>of(
+            changeA,
+            new TasksDeleted(ImmutableSet.of(a)),
+            changeB,
+            new TasksDeleted(ImmutableSet.of(b)))));
+    assertEquals(
+        ImmutableList.<PubsubEvent>of(changeA),
+        StateManagerImpl.coalesce(ImmutableList.<PubsubEvent>of(changeA)));
+  }
+
   @Test
   public void testKillPendingTask() {
     ITaskConfig task = makeTask(JIM, MY_JOB);
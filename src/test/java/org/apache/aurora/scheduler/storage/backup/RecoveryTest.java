@@ -19,6 +19,7 @@ import java.io.File;
 
 import com.google.common.collect.ImmutableSet;
 import com.google.common.testing.TearDown;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.twitter.common.base.Command;
 import com.twitter.common.io.FileUtils;
 import com.twitter.common.quantity.Amount;
@@ -38,6 +39,8 @@ import org.apache.aurora.gen.storage.Snapshot;
 import org.apache.aurora.gen.storage.StoredJob;
 import org.apache.aurora.scheduler.base.Query;
 import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.events.EventSink;
+import org.apache.aurora.scheduler.events.PubsubEvent.StorageRestored;
 import org.apache.aurora.scheduler.storage.DistributedSnapshotStore;
 import org.apache.aurora.scheduler.storage.SnapshotStore;
 import org.apache.aurora.scheduler.storage.Storage;
@@ -70,6 +73,7 @@ public class RecoveryTest extends EasyMockTest {
   private Storage primaryStorage;
   private MutableStoreProvider storeProvider;
   private Command shutDownNow;
+  private EventSink eventSink;
   private FakeClock clock;
   private StorageBackupImpl storageBackup;
   private RecoveryImpl recovery;
@@ -88,11 +92,21 @@ public class RecoveryTest extends EasyMockTest {
     primaryStorage = createMock(Storage.class);
     storeProvider = createMock(MutableStoreProvider.class);
     shutDownNow = createMock(Command.class);
+    eventSink = createMock(EventSink.class);
     clock = new FakeClock();
     TemporaryStorageFactory factory = new TemporaryStorageFactory();
-    storageBackup =
-        new StorageBackupImpl(snapshotStore, clock, new BackupConfig(backupDir, 5, INTERVAL));
-    recovery = new RecoveryImpl(backupDir, factory, primaryStorage, distributedStore, shutDownNow);
+    storageBackup = new StorageBackupImpl(
+        snapshotStore,
+        clock,
+        new BackupConfig(backupDir, 5, INTERVAL),
+        MoreExecutors.sameThreadExecutor());
+    recovery = new RecoveryImpl(
+        backupDir,
+        factory,
+        primaryStorage,
+        distributedStore,
+        shutDownNow,
+        eventSink);
   }
 
   @Test
@@ -102,6 +116,7 @@ public class RecoveryTest extends EasyMockTest {
     expect(primaryStorage.write(capture(transaction))).andReturn(null);
     distributedStore.persist(SNAPSHOT1);
     shutDownNow.execute();
+    eventSink.post(new StorageRestored());
 
     control.replay();
 
@@ -128,6 +143,7 @@ public class RecoveryTest extends EasyMockTest {
     expect(primaryStorage.write(capture(transaction))).andReturn(null);
     distributedStore.persist(modified);
     shutDownNow.execute();
+    eventSink.post(new StorageRestored());
 
     control.replay();
 
@@ -17,12 +17,15 @@ package org.apache.aurora.scheduler.storage.backup;
 
 import java.io.File;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.io.Files;
 import com.google.common.testing.TearDown;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.twitter.common.io.FileUtils;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Time;
@@ -43,11 +46,16 @@ import org.apache.aurora.gen.storage.StoredJob;
 import org.apache.aurora.scheduler.storage.SnapshotStore;
 import org.apache.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl;
 import org.apache.aurora.scheduler.storage.backup.StorageBackup.StorageBackupImpl.BackupConfig;
+import org.easymock.Capture;
+import org.easymock.EasyMock;
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.easymock.EasyMock.capture;
 import static org.easymock.EasyMock.expect;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 public class StorageBackupTest extends EasyMockTest {
 
@@ -72,7 +80,8 @@ public class StorageBackupTest extends EasyMockTest {
     });
     config = new BackupConfig(backupDir, MAX_BACKUPS, INTERVAL);
     clock.advance(Amount.of(365 * 30L, Time.DAYS));
-    storageBackup = new StorageBackupImpl(delegate, clock, config);
+    storageBackup =
+        new StorageBackupImpl(delegate, clock, config, MoreExecutors.sameThreadExecutor());
   }
 
   @Test
@@ -98,6 +107,79 @@ public class StorageBackupTest extends EasyMockTest {
     assertEquals(snapshot, restored);
   }
 
+  @Test
+  public void testCompressedBackup() throws Exception {
+    Snapshot snapshot = makeSnapshot();
+    expect(delegate.createSnapshot()).andReturn(snapshot);
+
+    control.replay();
+
+    storageBackup = new StorageBackupImpl(
+        delegate,
+        clock,
+        new BackupConfig(config.getDir(), MAX_BACKUPS, INTERVAL, true),
+        MoreExecutors.sameThreadExecutor());
+    storageBackup.backupNow();
+    assertBackupCount(1);
+
+    File backup = config.getDir().listFiles()[0];
+    assertTrue(backup.length() < ThriftBinaryCodec.encodeNonNull(snapshot).length);
+    assertEquals(
+        snapshot,
+        ThriftBinaryCodec.decode(Snapshot.class, StorageBackupImpl.readBackup(backup)));
+  }
+
+  @Test
+  public void testBackupOffThread() throws Exception {
+    ExecutorService executor = createMock(ExecutorService.class);
+    Capture<Runnable> backup = createCapture();
+    executor.execute(capture(backup));
+    Snapshot snapshot = makeSnapshot();
+    expect(delegate.createSnapshot()).andReturn(snapshot).times(2);
+
+    control.replay();
+
+    storageBackup = new StorageBackupImpl(delegate, clock, config, executor);
+    clock.advance(INTERVAL);
+    assertEquals(snapshot, storageBackup.createSnapshot());
+    assertBackupCount(0);
+
+    // Another backup falls due before the first has been saved.
+    clock.advance(INTERVAL);
+    assertEquals(snapshot, storageBackup.createSnapshot());
+    assertEquals(1, storageBackup.getSkipped().get());
+
+    backup.getValue().run();
+    assertBackupCount(1);
+    assertEquals(1, storageBackup.getSuccesses().get());
+    assertEquals(
+        snapshot,
+        ThriftBinaryCodec.decode(
+            Snapshot.class,
+            StorageBackupImpl.readBackup(config.getDir().listFiles()[0])));
+  }
+
+  @Test
+  public void testBackupNowInterrupted() throws Exception {
+    ExecutorService executor = createMock(ExecutorService.class);
+    Future<Object> future = createMock(new Clazz<Future<Object>>() { });
+    expect(delegate.createSnapshot()).andReturn(makeSnapshot());
+    expect(executor.submit(EasyMock.<Runnable>anyObject())).andReturn(future);
+    expect(future.get()).andThrow(new InterruptedException());
+
+    control.replay();
+
+    storageBackup = new StorageBackupImpl(delegate, clock, config, executor);
+    try {
+      storageBackup.backupNow();
+      fail("An interrupted backup should fail.");
+    } catch (RuntimeException e) {
+      assertTrue(e.getCause() instanceof InterruptedException);
+    }
+    // Clears the restored interrupt flag, so that it does not leak into other tests.
+    assertTrue(Thread.interrupted());
+  }
+
   @Test
   public void testDirectoryMissing() {
     Snapshot snapshot = makeSnapshot();
@@ -0,0 +1,122 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.util.List;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.LockKey;
+import org.apache.aurora.gen.Quota;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.storage.Op;
+import org.apache.aurora.gen.storage.RemoveLock;
+import org.apache.aurora.gen.storage.RemoveQuota;
+import org.apache.aurora.gen.storage.RemoveTasks;
+import org.apache.aurora.gen.storage.SaveFrameworkId;
+import org.apache.aurora.gen.storage.SaveQuota;
+import org.apache.aurora.gen.storage.SaveTasks;
+import org.apache.aurora.scheduler.base.JobKeys;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.MutateWork;
+import org.apache.aurora.scheduler.storage.Storage.StoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.Work;
+import org.apache.aurora.scheduler.storage.entities.IQuota;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.apache.aurora.scheduler.storage.mem.MemStorage;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+public class DeltaTrackerTest {
+
+  private static final LockKey LOCK_KEY =
+      LockKey.job(JobKeys.from("role", "env", "job").newBuilder());
+
+  private Storage storage;
+  private DeltaTracker tracker;
+
+  @Before
+  public void setUp() {
+    storage = MemStorage.newEmptyStorage();
+    tracker = new DeltaTracker();
+  }
+
+  private static ScheduledTask makeTask(String taskId) {
+    return new ScheduledTask()
+        .setStatus(ScheduleStatus.PENDING)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity().setRole("role").setUser("user"))
+                .setEnvironment("env")
+                .setJobName("job")));
+  }
+
+  private List<Op> createOps() {
+    return storage.consistentRead(new Work.Quiet<List<Op>>() {
+      @Override
+      public List<Op> apply(StoreProvider storeProvider) {
+        return tracker.createOps(storeProvider);
+      }
+    });
+  }
+
+  @Test
+  public void testCapturesCurrentStateOfChangedEntities() {
+    final Quota quota = new Quota(1.0, 2, 3);
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override
+      protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getSchedulerStore().saveFrameworkId("framework");
+        storeProvider.getUnsafeTaskStore().saveTasks(
+            IScheduledTask.setFromBuilders(ImmutableSet.of(makeTask("a"), makeTask("untracked"))));
+        storeProvider.getQuotaStore().saveQuota("role", IQuota.build(quota));
+      }
+    });
+
+    tracker.record(Op.saveFrameworkId(new SaveFrameworkId("stale")));
+    tracker.record(Op.saveTasks(new SaveTasks(ImmutableSet.of(makeTask("a"), makeTask("b")))));
+    tracker.record(Op.removeTasks(new RemoveTasks(ImmutableSet.of("c"))));
+    tracker.record(Op.removeQuota(new RemoveQuota("role")));
+    tracker.record(Op.removeLock(new RemoveLock(LOCK_KEY)));
+    assertEquals(6, tracker.size());
+
+    assertEquals(
+        ImmutableList.of(
+            Op.saveFrameworkId(new SaveFrameworkId("framework")),
+            Op.removeTasks(new RemoveTasks(ImmutableSet.of("b", "c"))),
+            Op.saveTasks(new SaveTasks(ImmutableSet.of(makeTask("a")))),
+            Op.saveQuota(new SaveQuota("role", quota)),
+            Op.removeLock(new RemoveLock(LOCK_KEY))),
+        createOps());
+  }
+
+  @Test
+  public void testClear() {
+    tracker.record(Op.removeTasks(new RemoveTasks(ImmutableSet.of("a"))));
+    tracker.clear();
+    assertEquals(0, tracker.size());
+    assertEquals(ImmutableList.<Op>of(), createOps());
+  }
+}
@@ -0,0 +1,142 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+
+import org.apache.aurora.gen.storage.CompressionCodec;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class EntryCodecTest {
+
+  private static final List<EntryCodec> CODECS = ImmutableList.of(
+      EntryCodec.deflate(Deflater.DEFAULT_COMPRESSION),
+      EntryCodec.deflate(Deflater.BEST_SPEED),
+      EntryCodec.deflate(Deflater.NO_COMPRESSION),
+      EntryCodec.lz());
+
+  private static byte[] text() {
+    StringBuilder text = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      text.append("{\"taskId\": \"1400000000000-role-env-job-").append(i).append("\"}");
+    }
+    return text.toString().getBytes(Charsets.UTF_8);
+  }
+
+  private static byte[] random(int size) {
+    byte[] data = new byte[size];
+    new Random(0).nextBytes(data);
+    return data;
+  }
+
+  private static void assertRoundTrip(byte[] data) throws IOException {
+    for (EntryCodec codec : CODECS) {
+      byte[] compressed = codec.compress(data);
+      assertArrayEquals(codec.toString(), data, codec.decompress(compressed, data.length));
+      assertArrayEquals(
+          codec.toString(),
+          data,
+          EntryCodec.forId(codec.getId()).decompress(compressed, data.length));
+    }
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    assertRoundTrip(new byte[0]);
+    assertRoundTrip(new byte[] {1});
+    assertRoundTrip("abcd".getBytes(Charsets.UTF_8));
+    assertRoundTrip(text());
+    assertRoundTrip(random(100000));
+  }
+
+  @Test
+  public void testLongRuns() throws IOException {
+    // Runs overlap the bytes they copy, and need extended lengths.
+    assertRoundTrip(new byte[100000]);
+    assertRoundTrip(Strings.repeat("ab", 1000).getBytes(Charsets.UTF_8));
+    byte[] data = random(1000);
+    Arrays.fill(data, 300, 900, (byte) 7);
+    assertRoundTrip(data);
+  }
+
+  @Test
+  public void testCompresses() {
+    byte[] text = text();
+    assertTrue(EntryCodec.lz().compress(text).length < text.length / 2);
+    assertTrue(EntryCodec.deflate(Deflater.BEST_COMPRESSION).compress(text).length
+        < EntryCodec.lz().compress(text).length);
+  }
+
+  @Test
+  public void testIds() {
+    assertEquals(CompressionCodec.DEFLATE, EntryCodec.deflate(Deflater.BEST_SPEED).getId());
+    assertEquals(CompressionCodec.LZ, EntryCodec.lz().getId());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidDeflateLevel() {
+    EntryCodec.deflate(10);
+  }
+
+  @Test
+  public void testWrongSize() {
+    byte[] text = text();
+    for (EntryCodec codec : CODECS) {
+      try {
+        codec.decompress(codec.compress(text), text.length + 1);
+        fail("Expected failure for " + codec);
+      } catch (IOException e) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void testInvalidSize() {
+    byte[] text = text();
+    for (EntryCodec codec : CODECS) {
+      byte[] compressed = codec.compress(text);
+      for (int size : ImmutableList.of(-1, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+        try {
+          codec.decompress(compressed, size);
+          fail("Expected failure for " + codec + " with size " + size);
+        } catch (IOException e) {
+          // Expected.
+        }
+      }
+    }
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedLz() throws IOException {
+    byte[] text = text();
+    byte[] compressed = EntryCodec.lz().compress(text);
+    EntryCodec.lz().decompress(Arrays.copyOf(compressed, compressed.length / 2), text.length);
+  }
+}
@@ -0,0 +1,137 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.log;
+
+import com.google.common.collect.ImmutableList;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Data;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.testing.easymock.EasyMockTest;
+
+import org.apache.aurora.codec.ThriftBinaryCodec;
+import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
+import org.apache.aurora.gen.storage.LogEntry;
+import org.apache.aurora.gen.storage.Op;
+import org.apache.aurora.gen.storage.RemoveJob;
+import org.apache.aurora.gen.storage.Transaction;
+import org.apache.aurora.gen.storage.storageConstants;
+import org.apache.aurora.scheduler.base.JobKeys;
+import org.apache.aurora.scheduler.log.Log.Position;
+import org.apache.aurora.scheduler.log.Log.Stream;
+import org.apache.aurora.scheduler.log.Log.Stream.StreamAccessException;
+import org.apache.aurora.scheduler.storage.log.GroupCommitter.Batch;
+import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager;
+import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.easymock.EasyMock.aryEq;
+import static org.easymock.EasyMock.expect;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class GroupCommitterTest extends EasyMockTest {
+
+  private static final Op OP_A = removeJob("a");
+  private static final Op OP_B = removeJob("b");
+
+  private Stream stream;
+  private Position position;
+  private StreamManager streamManager;
+  private GroupCommitter committer;
+
+  @Before
+  public void setUp() {
+    stream = createMock(Stream.class);
+    position = createMock(Position.class);
+    streamManager = new StreamManager(stream, false, Amount.of(1, Data.GB));
+    committer = new GroupCommitter(streamManager, Amount.of(0L, Time.MILLISECONDS));
+  }
+
+  private static Op removeJob(String name) {
+    return Op.removeJob(new RemoveJob(JobKeys.from("role", "env", name).newBuilder()));
+  }
+
+  private StreamTransaction transaction(Op... ops) {
+    StreamTransaction transaction = streamManager.startTransaction();
+    for (Op op : ops) {
+      transaction.add(op);
+    }
+    return transaction;
+  }
+
+  private void expectAppend(Op... ops) throws CodingException {
+    LogEntry entry = LogEntry.transaction(
+        new Transaction(ImmutableList.copyOf(ops), storageConstants.CURRENT_SCHEMA_VERSION));
+    expect(stream.append(aryEq(ThriftBinaryCodec.encode(entry)))).andReturn(position);
+  }
+
+  @Test
+  public void testConcurrentWritersShareEntry() throws Exception {
+    expectAppend(OP_A, OP_B);
+
+    control.replay();
+
+    Batch first = committer.enqueue(transaction(OP_A));
+    Batch second = committer.enqueue(transaction(OP_B));
+    assertSame(first, second);
+    committer.await(first);
+    committer.await(second);
+  }
+
+  @Test
+  public void testSequentialWritersUseSeparateEntries() throws Exception {
+    expectAppend(OP_A);
+    expectAppend(OP_B);
+
+    control.replay();
+
+    Batch first = committer.enqueue(transaction(OP_A));
+    committer.await(first);
+    Batch second = committer.enqueue(transaction(OP_B));
+    assertNotSame(first, second);
+    committer.await(second);
+  }
+
+  @Test
+  public void testEmptyTransaction() throws Exception {
+    control.replay();
+
+    committer.await(committer.enqueue(transaction()));
+  }
+
+  @Test
+  public void testFailureSurfacedToAllWriters() throws Exception {
+    StreamAccessException failure = new StreamAccessException("Injected", new Exception());
+    expect(stream.append(aryEq(ThriftBinaryCodec.encode(LogEntry.transaction(
+        new Transaction(ImmutableList.of(OP_A, OP_B), storageConstants.CURRENT_SCHEMA_VERSION))))))
+        .andThrow(failure);
+
+    control.replay();
+
+    Batch first = committer.enqueue(transaction(OP_A));
+    Batch second = committer.enqueue(transaction(OP_B));
+    for (Batch batch : ImmutableList.of(first, second)) {
+      try {
+        committer.await(batch);
+        fail("Expected the append failure to be surfaced.");
+      } catch (StreamAccessException e) {
+        assertSame(failure, e.getCause());
+      }
+    }
+  }
+}
@@ -18,11 +18,13 @@ package org.apache.aurora.scheduler.storage.log;
 import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
+import java.util.Collections;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.LinkedBlockingDeque;
+import java.util.zip.Deflater;
 
 import com.google.common.base.Function;
 import com.google.common.collect.ImmutableList;
@@ -35,6 +37,8 @@ import com.twitter.common.base.Closure;
 import com.twitter.common.base.ExceptionalCommand;
 import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
+import com.twitter.common.stats.Stat;
+import com.twitter.common.stats.Stats;
 import com.twitter.common.testing.easymock.EasyMockTest;
 
 import org.apache.aurora.codec.ThriftBinaryCodec;
@@ -45,6 +49,7 @@ import org.apache.aurora.gen.HostAttributes;
 import org.apache.aurora.gen.ScheduleStatus;
 import org.apache.aurora.gen.ScheduledTask;
 import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.gen.storage.DeltaSnapshot;
 import org.apache.aurora.gen.storage.Frame;
 import org.apache.aurora.gen.storage.FrameChunk;
 import org.apache.aurora.gen.storage.FrameHeader;
@@ -62,8 +67,12 @@ import org.apache.aurora.scheduler.log.Log;
 import org.apache.aurora.scheduler.log.Log.Entry;
 import org.apache.aurora.scheduler.log.Log.Position;
 import org.apache.aurora.scheduler.log.Log.Stream;
+import org.apache.aurora.scheduler.storage.StreamingSnapshotStore;
+import org.apache.aurora.scheduler.storage.log.LogManager.CompressionSettings;
 import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager;
 import org.apache.aurora.scheduler.storage.log.LogManager.StreamManager.StreamTransaction;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
 import org.easymock.Capture;
 import org.easymock.EasyMock;
 import org.junit.Before;
@@ -128,7 +137,13 @@ public class LogManagerTest extends EasyMockTest {
 
     control.replay();
 
-    new LogManager(log, NO_FRAMES_EVER_SIZE, false, shutdownRegistry).open();
+    new LogManager(
+        log,
+        NO_FRAMES_EVER_SIZE,
+        false,
+        false,
+        CompressionSettings.DEFAULT,
+        shutdownRegistry).open();
 
     assertTrue(shutdownAction.hasCaptured());
     shutdownAction.getValue().execute();
@@ -478,16 +493,41 @@ public class LogManagerTest extends EasyMockTest {
   }
 
   @Test
-  public void testWriteAndReadDeflatedEntry() throws Exception {
+  public void testReadDeflatedEntry() throws Exception {
     Snapshot snapshot = createSnapshot();
     LogEntry snapshotLogEntry = LogEntry.snapshot(snapshot);
-    LogEntry deflatedSnapshotEntry = Entries.deflate(snapshotLogEntry);
 
     Entry snapshotEntry = createMock(Entry.class);
-    expect(stream.append(EasyMock.aryEq(encode(deflatedSnapshotEntry)))).andReturn(position1);
+    expect(snapshotEntry.contents()).andReturn(encode(Entries.deflate(snapshotLogEntry)));
+    expect(stream.readAll()).andReturn(ImmutableList.of(snapshotEntry).iterator());
+
+    Closure<LogEntry> reader = createMock(new Clazz<Closure<LogEntry>>() { });
+    reader.execute(snapshotLogEntry);
+
+    control.replay();
+
+    createNoMessagesStreamManager().readFromBeginning(reader);
+  }
+
+  @Test
+  public void testWriteAndReadCompressedEntry() throws Exception {
+    ImmutableSet.Builder<ScheduledTask> tasks = ImmutableSet.builder();
+    for (int i = 0; i < 100; i++) {
+      tasks.add(new ScheduledTask().setStatus(ScheduleStatus.RUNNING)
+          .setAssignedTask(new AssignedTask().setTaskId("task_id" + i)
+              .setTask(new TaskConfig().setJobName("job_name"))));
+    }
+    Snapshot snapshot = createSnapshot().setTasks(tasks.build());
+    LogEntry snapshotLogEntry = LogEntry.snapshot(snapshot);
+    LogEntry compressedSnapshotEntry = Entries.compress(
+        encode(snapshotLogEntry),
+        EntryCodec.deflate(Deflater.DEFAULT_COMPRESSION));
+
+    Entry snapshotEntry = createMock(Entry.class);
+    expect(stream.append(EasyMock.aryEq(encode(compressedSnapshotEntry)))).andReturn(position1);
     stream.truncateBefore(position1);
 
-    expect(snapshotEntry.contents()).andReturn(encode(deflatedSnapshotEntry));
+    expect(snapshotEntry.contents()).andReturn(encode(compressedSnapshotEntry));
 
     expect(stream.readAll()).andReturn(ImmutableList.of(snapshotEntry).iterator());
 
@@ -501,7 +541,305 @@ public class LogManagerTest extends EasyMockTest {
     streamManager.readFromBeginning(reader);
   }
 
-  private Snapshot createSnapshot() {
+  private List<Op> createLargeTransactionOps() {
+    ImmutableList.Builder<Op> ops = ImmutableList.builder();
+    for (int i = 0; i < 100; i++) {
+      ops.add(Op.removeJob(new RemoveJob(JobKeys.from("role", "env", "job" + i).newBuilder())));
+    }
+    return ops.build();
+  }
+
+  private void assertCompressedTransactionRoundTrip(EntryCodec codec) throws Exception {
+    control.replay();
+
+    RecordingStream recordingStream = new RecordingStream();
+    StreamManager streamManager = new StreamManager(
+        recordingStream,
+        false,
+        Amount.of(200, Data.BYTES),
+        false,
+        new CompressionSettings(codec, Amount.of(1, Data.KB), true));
+
+    StreamTransaction small = streamManager.startTransaction();
+    small.add(Op.removeJob(new RemoveJob(JobKeys.from("role", "env", "job").newBuilder())));
+    small.commit();
+    // The small transaction is below the compression threshold and its entry is written as-is.
+    assertEquals(1, recordingStream.appends.size());
+
+    List<Op> ops = createLargeTransactionOps();
+    StreamTransaction large = streamManager.startTransaction();
+    for (Op op : ops) {
+      large.add(op);
+    }
+    large.commit();
+
+    // The compressed transaction is still framed, but into fewer frames than its encoded size.
+    int uncompressedChunks = encode(createLogEntry(ops.toArray(new Op[ops.size()]))).length / 200;
+    assertTrue(recordingStream.appends.size() - 1 < uncompressedChunks);
+
+    assertEquals(
+        ImmutableList.of(
+            createLogEntry(Op.removeJob(
+                new RemoveJob(JobKeys.from("role", "env", "job").newBuilder()))),
+            createLogEntry(ops.toArray(new Op[ops.size()]))),
+        readAll(streamManager));
+  }
+
+  @Test
+  public void testDeflateCompressedTransactionRoundTrip() throws Exception {
+    assertCompressedTransactionRoundTrip(EntryCodec.deflate(Deflater.BEST_SPEED));
+  }
+
+  @Test
+  public void testLzCompressedTransactionRoundTrip() throws Exception {
+    assertCompressedTransactionRoundTrip(EntryCodec.lz());
+  }
+
+  @Test
+  public void testUncompressibleEntryNotCounted() throws Exception {
+    control.replay();
+
+    RecordingStream recordingStream = new RecordingStream();
+    StreamManager streamManager = new StreamManager(
+        recordingStream,
+        false,
+        NO_FRAMES_EVER_SIZE,
+        false,
+        new CompressionSettings(EntryCodec.lz(), Amount.of(1, Data.BYTES), true));
+    // An entry this small grows when compressed, so it is written as-is and not counted.
+    Op op = Op.removeJob(new RemoveJob(JobKeys.from("role", "env", "job").newBuilder()));
+    byte[] uncompressed = Entries.thriftBinaryEncode(createLogEntry(op));
+
+    Stat<?> bytesSaved = Stats.getVariable("log_compressed_entry_bytes_saved");
+    Stat<?> lzBytes = Stats.getVariable("log_entry_lz_uncompressed_bytes");
+    Object bytesSavedBefore = bytesSaved.read();
+    Object lzBytesBefore = lzBytes.read();
+
+    StreamTransaction transaction = streamManager.startTransaction();
+    transaction.add(op);
+    transaction.commit();
+
+    assertEquals(1, recordingStream.appends.size());
+    assertArrayEquals(uncompressed, recordingStream.appends.get(0));
+    assertEquals(bytesSavedBefore, bytesSaved.read());
+    assertEquals(lzBytesBefore, lzBytes.read());
+  }
+
+  @Test
+  public void testDeflateCompressedEntryIsLegacyDeflatedEntry() throws Exception {
+    control.replay();
+
+    List<Op> ops = createLargeTransactionOps();
+    LogEntry transaction = createLogEntry(ops.toArray(new Op[ops.size()]));
+
+    // Schedulers that predate compressedEntry can still inflate DEFLATE entries.
+    LogEntry deflated =
+        Entries.compress(encode(transaction), EntryCodec.deflate(Deflater.DEFAULT_COMPRESSION));
+    assertTrue(deflated.isSet(LogEntry._Fields.DEFLATED_ENTRY));
+    assertEquals(transaction, Entries.inflate(deflated));
+
+    LogEntry compressed = Entries.compress(encode(transaction), EntryCodec.lz());
+    assertTrue(compressed.isSet(LogEntry._Fields.COMPRESSED_ENTRY));
+    assertEquals(transaction, Entries.decompress(compressed));
+  }
+
+  /**
+   * A stream that retains appended entries in memory.
+   */
+  private static class RecordingStream implements Stream {
+    private final List<byte[]> appends = Lists.newArrayList();
+
+    @Override
+    public Position append(byte[] contents) {
+      appends.add(contents);
+      return null;
+    }
+
+    @Override
+    public Iterator<Entry> readAll() {
+      return Iterators.transform(appends.iterator(), new Function<byte[], Entry>() {
+        @Override
+        public Entry apply(final byte[] contents) {
+          return new Entry() {
+            @Override
+            public byte[] contents() {
+              return contents;
+            }
+          };
+        }
+      });
+    }
+
+    @Override
+    public void truncateBefore(Position position) {
+      // noop
+    }
+
+    @Override
+    public void close() {
+      // noop
+    }
+  }
+
+  private static final StreamingSnapshotStore SNAPSHOT_STORE = new StreamingSnapshotStore() {
+    @Override
+    public void writeSnapshot(TProtocol protocol) throws TException {
+      createSnapshot().write(protocol);
+    }
+  };
+
+  private void assertStreamedSnapshotRoundTrip(boolean deflate) throws Exception {
+    RecordingStream recordingStream = new RecordingStream();
+    StreamManager streamManager =
+        new StreamManager(recordingStream, deflate, Amount.of(100, Data.BYTES));
+    streamManager.streamSnapshot(SNAPSHOT_STORE);
+
+    // A stream header, at least two chunks and a trailer.
+    assertTrue(recordingStream.appends.size() > 3);
+
+    Closure<LogEntry> reader = createMock(new Clazz<Closure<LogEntry>>() { });
+    reader.execute(LogEntry.snapshot(createSnapshot()));
+
+    control.replay();
+
+    streamManager.readFromBeginning(reader);
+  }
+
+  @Test
+  public void testStreamSnapshotRoundTrip() throws Exception {
+    assertStreamedSnapshotRoundTrip(false);
+  }
+
+  @Test
+  public void testStreamDeflatedSnapshotRoundTrip() throws Exception {
+    assertStreamedSnapshotRoundTrip(true);
+  }
+
+  @Test
+  public void testAbortedStreamSkipped() throws Exception {
+    RecordingStream recordingStream = new RecordingStream();
+    StreamManager streamManager =
+        new StreamManager(recordingStream, false, Amount.of(100, Data.BYTES));
+    streamManager.streamSnapshot(SNAPSHOT_STORE);
+
+    // Simulate a scheduler failing before the trailer was written.
+    recordingStream.appends.remove(recordingStream.appends.size() - 1);
+    LogEntry transaction = createLogEntry(
+        Op.removeJob(new RemoveJob(JobKeys.from("role", "env", "name").newBuilder())));
+    recordingStream.appends.add(encode(transaction));
+
+    Closure<LogEntry> reader = createMock(new Clazz<Closure<LogEntry>>() { });
+    reader.execute(transaction);
+
+    control.replay();
+
+    streamManager.readFromBeginning(reader);
+  }
+
+  private List<LogEntry> readAll(StreamManager streamManager) throws Exception {
+    final List<LogEntry> read = Lists.newArrayList();
+    streamManager.readFromBeginning(new Closure<LogEntry>() {
+      @Override
+      public void execute(LogEntry logEntry) {
+        read.add(logEntry);
+      }
+    });
+    return read;
+  }
+
+  @Test
+  public void testPipelinedReplayPreservesOrder() throws Exception {
+    control.replay();
+
+    RecordingStream recordingStream = new RecordingStream();
+    StreamManager streamManager =
+        new StreamManager(recordingStream, true, Amount.of(100, Data.BYTES), true);
+
+    ImmutableList.Builder<LogEntry> expected = ImmutableList.builder();
+    for (int i = 0; i < 100; i++) {
+      Op op = Op.removeJob(new RemoveJob(JobKeys.from("role", "env", "job" + i).newBuilder()));
+      StreamTransaction transaction = streamManager.startTransaction();
+      transaction.add(op);
+      transaction.commit();
+      expected.add(createLogEntry(op));
+      if (i % 25 == 0) {
+        streamManager.snapshot(createSnapshot());
+        expected.add(LogEntry.snapshot(createSnapshot()));
+      }
+    }
+    streamManager.streamSnapshot(SNAPSHOT_STORE);
+    expected.add(LogEntry.snapshot(createSnapshot()));
+
+    assertEquals(expected.build(), readAll(streamManager));
+  }
+
+  @Test(expected = CodingException.class)
+  public void testPipelinedReplayFailure() throws Exception {
+    control.replay();
+
+    RecordingStream recordingStream = new RecordingStream();
+    StreamManager streamManager =
+        new StreamManager(recordingStream, false, Amount.of(100, Data.BYTES), true);
+    streamManager.streamSnapshot(SNAPSHOT_STORE);
+
+    // Drop a chunk so that the stream fails its checksum.
+    recordingStream.appends.remove(1);
+
+    readAll(streamManager);
+  }
+
+  @Test
+  public void testConcurrentCommitAndSnapshot() throws Exception {
+    control.replay();
+
+    RecordingStream recordingStream = new RecordingStream();
+    // Both the transactions and snapshots span several frames, so each is checksummed.
+    final StreamManager streamManager =
+        new StreamManager(recordingStream, false, Amount.of(100, Data.BYTES));
+    final int iterations = 500;
+    final CountDownLatch start = new CountDownLatch(1);
+    final List<Exception> failures = Collections.synchronizedList(Lists.<Exception>newArrayList());
+
+    Thread committer = new Thread() {
+      @Override
+      public void run() {
+        try {
+          start.await();
+          for (int i = 0; i < iterations; i++) {
+            StreamTransaction transaction = streamManager.startTransaction();
+            transaction.add(Op.saveTasks(createSaveTasks("a" + i, "b" + i, "c" + i, "d" + i)));
+            transaction.commit();
+          }
+        } catch (Exception e) {
+          failures.add(e);
+        }
+      }
+    };
+    committer.start();
+
+    start.countDown();
+    for (int i = 0; i < iterations; i++) {
+      streamManager.deltaSnapshot(new DeltaSnapshot()
+          .setTimestamp(i)
+          .setOps(ImmutableList.of(Op.saveTasks(createSaveTasks("e" + i, "f" + i, "g" + i)))));
+    }
+    committer.join();
+    assertEquals(ImmutableList.<Exception>of(), failures);
+
+    int transactions = 0;
+    int deltaSnapshots = 0;
+    for (LogEntry entry : readAll(streamManager)) {
+      if (entry.isSetTransaction()) {
+        transactions++;
+      } else if (entry.isSetDeltaSnapshot()) {
+        deltaSnapshots++;
+      }
+    }
+    assertEquals(iterations, transactions);
+    assertEquals(iterations, deltaSnapshots);
+  }
+
+  private static Snapshot createSnapshot() {
     return new Snapshot()
         .setTimestamp(1L)
         .setHostAttributes(ImmutableSet.of(new HostAttributes("host",
@@ -33,6 +33,7 @@ import com.twitter.common.quantity.Amount;
 import com.twitter.common.quantity.Data;
 import com.twitter.common.quantity.Time;
 import com.twitter.common.testing.easymock.EasyMockTest;
+import com.twitter.common.util.testing.FakeClock;
 
 import org.apache.aurora.codec.ThriftBinaryCodec;
 import org.apache.aurora.codec.ThriftBinaryCodec.CodingException;
@@ -80,6 +81,7 @@ import org.apache.aurora.scheduler.storage.entities.ILockKey;
 import org.apache.aurora.scheduler.storage.entities.IQuota;
 import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
 import org.apache.aurora.scheduler.storage.entities.ITaskConfig;
+import org.apache.aurora.scheduler.storage.log.LogManager.CompressionSettings;
 import org.apache.aurora.scheduler.storage.log.LogStorage.SchedulingService;
 import org.apache.aurora.scheduler.storage.log.testing.LogOpMatcher;
 import org.apache.aurora.scheduler.storage.log.testing.LogOpMatcher.StreamMatcher;
@@ -118,7 +120,13 @@ public class LogStorageTest extends EasyMockTest {
     log = createMock(Log.class);
 
     shutdownRegistry = createMock(ShutdownRegistry.class);
-    LogManager logManager = new LogManager(log, Amount.of(1, Data.GB), false, shutdownRegistry);
+    LogManager logManager = new LogManager(
+        log,
+        Amount.of(1, Data.GB),
+        false,
+        false,
+        CompressionSettings.DEFAULT,
+        shutdownRegistry);
 
     schedulingService = createMock(SchedulingService.class);
     snapshotStore = createMock(new Clazz<SnapshotStore<Snapshot>>() { });
@@ -129,6 +137,10 @@ public class LogStorageTest extends EasyMockTest {
             schedulingService,
             snapshotStore,
             SNAPSHOT_INTERVAL,
+            false,
+            0,
+            Optional.<Amount<Long, Time>>absent(),
+            new FakeClock(),
             storageUtil.storage,
             storageUtil.schedulerStore,
             storageUtil.jobStore,
@@ -222,6 +222,83 @@ public class MemTaskStoreTest {
     assertQueryResults(joesJob);
   }
 
+  @Test
+  public void testIndexIntersection() {
+    final IScheduledTask a = makeTask("a", "jim", "test", "job");
+    final IScheduledTask b = makeTask("b", "jim", "test", "job2");
+    final IScheduledTask c = makeTask("c", "jim", "prod", "job");
+    final IScheduledTask d = makeTask("d", "joe", "test", "job");
+    store.saveTasks(ImmutableSet.of(a, b, c, d));
+
+    assertQueryResults(Query.roleScoped("jim"), a, b, c);
+    assertQueryResults(Query.envScoped("jim", "test"), a, b);
+    assertQueryResults(Query.roleScoped("jim").byStatus(RUNNING));
+    assertQueryResults(Query.roleScoped("jim").byStatus(ScheduleStatus.PENDING), a, b, c);
+
+    store.mutateTasks(Query.taskScoped("b", "d"), new TaskMutation() {
+      @Override
+      public IScheduledTask apply(IScheduledTask task) {
+        return IScheduledTask.build(task.newBuilder().setStatus(RUNNING));
+      }
+    });
+    IScheduledTask bRunning = IScheduledTask.build(b.newBuilder().setStatus(RUNNING));
+    IScheduledTask dRunning = IScheduledTask.build(d.newBuilder().setStatus(RUNNING));
+    assertQueryResults(Query.statusScoped(RUNNING), bRunning, dRunning);
+    assertQueryResults(Query.statusScoped(ScheduleStatus.PENDING), a, c);
+    assertQueryResults(Query.envScoped("jim", "test").byStatus(RUNNING), bRunning);
+    assertQueryResults(
+        Query.roleScoped("jim").byStatus(RUNNING, ScheduleStatus.PENDING),
+        a,
+        bRunning,
+        c);
+    assertQueryResults(Query.slaveScoped("slaveA").byStatus(RUNNING));
+
+    store.deleteTasks(ImmutableSet.of("b"));
+    assertQueryResults(Query.statusScoped(RUNNING), dRunning);
+    assertQueryResults(Query.envScoped("jim", "test"), a);
+
+    // Overwriting a task with a different status must not leave a stale status index entry.
+    store.saveTasks(ImmutableSet.of(d));
+    assertQueryResults(Query.statusScoped(RUNNING));
+    assertQueryResults(Query.roleScoped("joe").byStatus(ScheduleStatus.PENDING), d);
+  }
+
+  @Test
+  public void testTerminalPartition() {
+    store.saveTasks(ImmutableSet.of(TASK_A, TASK_B, TASK_C));
+    assertQueryResults(Query.unscoped().active(), TASK_A, TASK_B, TASK_C);
+    assertQueryResults(Query.unscoped().terminal());
+
+    store.mutateTasks(Query.taskScoped("a", "b"), new TaskMutation() {
+      @Override
+      public IScheduledTask apply(IScheduledTask task) {
+        return IScheduledTask.build(task.newBuilder().setStatus(ScheduleStatus.FINISHED));
+      }
+    });
+    IScheduledTask aFinished =
+        IScheduledTask.build(TASK_A.newBuilder().setStatus(ScheduleStatus.FINISHED));
+    IScheduledTask bFinished =
+        IScheduledTask.build(TASK_B.newBuilder().setStatus(ScheduleStatus.FINISHED));
+    assertQueryResults(Query.unscoped().active(), TASK_C);
+    assertQueryResults(Query.unscoped().terminal(), aFinished, bFinished);
+    assertQueryResults(
+        Query.statusScoped(ScheduleStatus.PENDING, ScheduleStatus.FINISHED),
+        aFinished,
+        bFinished,
+        TASK_C);
+    assertQueryResults(Query.taskScoped("a", "c"), aFinished, TASK_C);
+    assertStoreContents(aFinished, bFinished, TASK_C);
+
+    // Overwriting a terminal task with an active one moves it back to the live partition.
+    store.saveTasks(ImmutableSet.of(TASK_A));
+    assertQueryResults(Query.unscoped().active(), TASK_A, TASK_C);
+    assertQueryResults(Query.unscoped().terminal(), bFinished);
+
+    store.deleteTasks(ImmutableSet.of("b"));
+    assertQueryResults(Query.unscoped().terminal());
+    assertStoreContents(TASK_A, TASK_C);
+  }
+
   @Test
   public void testCanonicalTaskConfigs() {
     IScheduledTask a = makeTask("a", "role", "env", "job");
@@ -0,0 +1,263 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.mem;
+
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.google.common.collect.FluentIterable;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.testing.TearDown;
+import com.google.common.testing.junit4.TearDownTestCase;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.twitter.common.quantity.Amount;
+import com.twitter.common.quantity.Time;
+import com.twitter.common.util.concurrent.ExecutorServiceShutdown;
+
+import org.apache.aurora.gen.AssignedTask;
+import org.apache.aurora.gen.Attribute;
+import org.apache.aurora.gen.HostAttributes;
+import org.apache.aurora.gen.Identity;
+import org.apache.aurora.gen.MaintenanceMode;
+import org.apache.aurora.gen.ScheduleStatus;
+import org.apache.aurora.gen.ScheduledTask;
+import org.apache.aurora.gen.TaskConfig;
+import org.apache.aurora.scheduler.base.JobKeys;
+import org.apache.aurora.scheduler.base.Query;
+import org.apache.aurora.scheduler.base.Tasks;
+import org.apache.aurora.scheduler.storage.Storage;
+import org.apache.aurora.scheduler.storage.Storage.MutableStoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.MutateWork;
+import org.apache.aurora.scheduler.storage.Storage.StoreProvider;
+import org.apache.aurora.scheduler.storage.Storage.Work;
+import org.apache.aurora.scheduler.storage.TaskStore.Mutable.TaskMutation;
+import org.apache.aurora.scheduler.storage.entities.IScheduledTask;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+public class MvccStorageTest extends TearDownTestCase {
+
+  private ExecutorService executor;
+  private Storage storage;
+
+  @Before
+  public void setUp() {
+    executor = Executors.newSingleThreadExecutor(
+        new ThreadFactoryBuilder().setNameFormat("MvccStorageTest-%d").setDaemon(true).build());
+    addTearDown(new TearDown() {
+      @Override
+      public void tearDown() {
+        new ExecutorServiceShutdown(executor, Amount.of(1L, Time.SECONDS)).execute();
+      }
+    });
+    storage = MvccStorage.newEmptyStorage();
+  }
+
+  private static IScheduledTask makeTask(String taskId, ScheduleStatus status) {
+    return IScheduledTask.build(new ScheduledTask()
+        .setStatus(status)
+        .setAssignedTask(new AssignedTask()
+            .setTaskId(taskId)
+            .setTask(new TaskConfig()
+                .setOwner(new Identity().setRole("role").setUser("user"))
+                .setJobName("job")
+                .setEnvironment("env"))));
+  }
+
+  private static IScheduledTask makeTask(String taskId) {
+    return makeTask(taskId, ScheduleStatus.PENDING);
+  }
+
+  private void saveTasks(final IScheduledTask... tasks) {
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override
+      protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.copyOf(tasks));
+      }
+    });
+  }
+
+  private Set<String> fetchIds(final Query.Builder query) {
+    return storage.consistentRead(new Work.Quiet<Set<String>>() {
+      @Override
+      public Set<String> apply(StoreProvider storeProvider) {
+        return FluentIterable.from(storeProvider.getTaskStore().fetchTasks(query))
+            .transform(Tasks.SCHEDULED_TO_ID)
+            .toSet();
+      }
+    });
+  }
+
+  private void expectTasks(String... taskIds) {
+    assertEquals(ImmutableSet.copyOf(taskIds), fetchIds(Query.unscoped()));
+  }
+
+  private class CustomException extends RuntimeException {
+  }
+
+  @Test
+  public void testFailedWriteIsRolledBack() {
+    saveTasks(makeTask("a"));
+
+    try {
+      storage.write(new MutateWork.NoResult.Quiet() {
+        @Override
+        protected void execute(MutableStoreProvider storeProvider) {
+          storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(makeTask("b")));
+          storeProvider.getUnsafeTaskStore().deleteTasks(ImmutableSet.of("a"));
+          throw new CustomException();
+        }
+      });
+      fail("Expected a CustomException.");
+    } catch (CustomException e) {
+      // Expected.
+    }
+    expectTasks("a");
+  }
+
+  @Test
+  public void testWriterSeesOwnChanges() {
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override
+      protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(makeTask("a")));
+        storage.write(new MutateWork.NoResult.Quiet() {
+          @Override
+          protected void execute(MutableStoreProvider storeProvider) {
+            storeProvider.getUnsafeTaskStore().saveTasks(ImmutableSet.of(makeTask("b")));
+          }
+        });
+        assertEquals(ImmutableSet.of("a", "b"), fetchIds(Query.unscoped()));
+      }
+    });
+    expectTasks("a", "b");
+  }
+
+  @Test
+  public void testReadDoesNotBlockWrite() throws Exception {
+    saveTasks(makeTask("a"));
+
+    final CountDownLatch slowReadStarted = new CountDownLatch(1);
+    final CountDownLatch slowReadFinished = new CountDownLatch(1);
+
+    Future<Set<String>> future = executor.submit(new Callable<Set<String>>() {
+      @Override
+      public Set<String> call() {
+        return storage.consistentRead(new Work.Quiet<Set<String>>() {
+          @Override
+          public Set<String> apply(StoreProvider storeProvider) {
+            slowReadStarted.countDown();
+            try {
+              slowReadFinished.await();
+            } catch (InterruptedException e) {
+              fail(e.getMessage());
+            }
+            return FluentIterable.from(storeProvider.getTaskStore().fetchTasks(Query.unscoped()))
+                .transform(Tasks.SCHEDULED_TO_ID)
+                .toSet();
+          }
+        });
+      }
+    });
+
+    slowReadStarted.await();
+    saveTasks(makeTask("b"));
+    expectTasks("a", "b");
+    slowReadFinished.countDown();
+
+    // The slow read observes the version that was committed when it started.
+    assertEquals(ImmutableSet.of("a"), future.get());
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testReadMayNotUpgradeToWrite() {
+    storage.consistentRead(new Work.Quiet<Void>() {
+      @Override
+      public Void apply(StoreProvider storeProvider) {
+        saveTasks(makeTask("a"));
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void testTaskQueries() {
+    saveTasks(makeTask("a"), makeTask("b"), makeTask("c", ScheduleStatus.FINISHED));
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override
+      protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getUnsafeTaskStore().mutateTasks(Query.taskScoped("b"),
+            new TaskMutation() {
+              @Override
+              public IScheduledTask apply(IScheduledTask task) {
+                return IScheduledTask.build(task.newBuilder().setStatus(ScheduleStatus.KILLED));
+              }
+            });
+      }
+    });
+
+    assertEquals(ImmutableSet.of("a"), fetchIds(Query.unscoped().active()));
+    assertEquals(ImmutableSet.of("b", "c"), fetchIds(Query.unscoped().terminal()));
+    assertEquals(
+        ImmutableSet.of("a", "b", "c"),
+        fetchIds(Query.jobScoped(JobKeys.from("role", "env", "job"))));
+    assertEquals(ImmutableSet.of("a"), fetchIds(Query.jobScoped(JobKeys.from("role", "env", "job"))
+        .active()));
+    assertEquals(ImmutableSet.of("b"), fetchIds(Query.taskScoped("b", "d")));
+    assertEquals(
+        ImmutableSet.<String>of(),
+        fetchIds(Query.jobScoped(JobKeys.from("role", "env", "other"))));
+  }
+
+  @Test
+  public void testHostAttributesAreCopied() {
+    final HostAttributes attributes = new HostAttributes()
+        .setHost("host")
+        .setAttributes(ImmutableSet.of(new Attribute("rack", ImmutableSet.of("a"))));
+    storage.write(new MutateWork.NoResult.Quiet() {
+      @Override
+      protected void execute(MutableStoreProvider storeProvider) {
+        storeProvider.getAttributeStore().saveHostAttributes(attributes);
+      }
+    });
+    attributes.setMode(MaintenanceMode.DRAINED);
+
+    HostAttributes stored = storage.consistentRead(new Work.Quiet<HostAttributes>() {
+      @Override
+      public HostAttributes apply(StoreProvider storeProvider) {
+        return storeProvider.getAttributeStore().getHostAttributes("host").get();
+      }
+    });
+    assertEquals(MaintenanceMode.NONE, stored.getMode());
+    stored.setMode(MaintenanceMode.DRAINING);
+
+    assertFalse(storage.consistentRead(new Work.Quiet<Boolean>() {
+      @Override
+      public Boolean apply(StoreProvider storeProvider) {
+        return storeProvider.getAttributeStore().getHostAttributes("host").get().getMode()
+            == MaintenanceMode.DRAINING;
+      }
+    }));
+  }
+}
@@ -0,0 +1,110 @@
+/**
+ * Copyright 2014 Apache Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.apache.aurora.scheduler.storage.mem;
+
+import java.util.Map;
+import java.util.Random;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PersistentMapTest {
+
+  /**
+   * A key with a degenerate hash code, to exercise hash collisions.
+   */
+  private static class CollidingKey {
+    private final int value;
+
+    CollidingKey(int value) {
+      this.value = value;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return (o instanceof CollidingKey) && ((CollidingKey) o).value == value;
+    }
+
+    @Override
+    public int hashCode() {
+      return value % 7;
+    }
+  }
+
+  private static <K, V> Map<K, V> toMap(PersistentMap<K, V> map) {
+    Map<K, V> contents = Maps.newHashMap();
+    for (Map.Entry<K, V> entry : map.entries()) {
+      contents.put(entry.getKey(), entry.getValue());
+    }
+    assertEquals(map.size(), contents.size());
+    return contents;
+  }
+
+  @Test
+  public void testEmpty() {
+    PersistentMap<String, String> map = PersistentMap.empty();
+    assertTrue(map.isEmpty());
+    assertNull(map.get("a"));
+    assertSame(map, map.minus("a"));
+    assertEquals(ImmutableMap.<String, String>of(), toMap(map));
+  }
+
+  @Test
+  public void testVersionsAreIndependent() {
+    PersistentMap<String, Integer> first = PersistentMap.<String, Integer>empty().plus("a", 1);
+    PersistentMap<String, Integer> second = first.plus("b", 2);
+    PersistentMap<String, Integer> third = second.plus("a", 3).minus("b");
+
+    assertEquals(ImmutableMap.of("a", 1), toMap(first));
+    assertEquals(ImmutableMap.of("a", 1, "b", 2), toMap(second));
+    assertEquals(ImmutableMap.of("a", 3), toMap(third));
+    assertSame(third, third.plus("a", 3));
+  }
+
+  @Test
+  public void testRandomOperations() {
+    Random random = new Random(0);
+    for (boolean colliding : new boolean[] {false, true}) {
+      PersistentMap<Object, Integer> map = PersistentMap.empty();
+      Map<Object, Integer> expected = Maps.newHashMap();
+      for (int i = 0; i < 10000; i++) {
+        Object key = colliding
+            ? new CollidingKey(random.nextInt(500))
+            : Integer.valueOf(random.nextInt(5000));
+        if (random.nextInt(3) == 0) {
+          map = map.minus(key);
+          expected.remove(key);
+        } else {
+          int value = random.nextInt(10);
+          map = map.plus(key, value);
+          expected.put(key, value);
+        }
+      }
+
+      assertEquals(expected, toMap(map));
+      for (Map.Entry<Object, Integer> entry : expected.entrySet()) {
+        assertEquals(entry.getValue(), map.get(entry.getKey()));
+      }
+    }
+  }
+}